@@ -41,6 +41,8 @@ public class Binary {
 
     private String checksumType;
 
+    private Map<String, String> checksums;
+
     private String path;
 
     private Source source;
@@ -97,6 +99,19 @@ public class Binary {
         this.checksum = checksum;
     }
 
+    /**
+     * Get the checksums of the content calculated by the repository
+     * 
+     * @return a map of the algorithm names to the hex encoded checksums
+     */
+    public Map<String, String> getChecksums() {
+        return checksums;
+    }
+
+    public void setChecksums(Map<String, String> checksums) {
+        this.checksums = checksums;
+    }
+
     public String getName() {
         return name;
     }
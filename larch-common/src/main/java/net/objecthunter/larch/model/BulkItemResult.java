@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.objecthunter.larch.model;
+
+/**
+ * DTO class holding the outcome of a single item of a bulk operation
+ */
+public class BulkItemResult {
+
+    private int position;
+
+    private String id;
+
+    private boolean failed;
+
+    private String message;
+
+    /**
+     * Create a new successful result for the item with the given id
+     * 
+     * @param id the id of the item
+     * @return a BulkItemResult marked as successful
+     */
+    public static BulkItemResult success(String id) {
+        final BulkItemResult result = new BulkItemResult();
+        result.setId(id);
+        return result;
+    }
+
+    /**
+     * Create a new failed result for the item with the given id
+     * 
+     * @param id the id of the item, may be null if no id could be determined
+     * @param message the reason of the failure
+     * @return a BulkItemResult marked as failed
+     */
+    public static BulkItemResult failure(String id, String message) {
+        final BulkItemResult result = new BulkItemResult();
+        result.setId(id);
+        result.setFailed(true);
+        result.setMessage(message);
+        return result;
+    }
+
+    /**
+     * Get the position of the item in the bulk request
+     * 
+     * @return the zero based position
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * Set the position of the item in the bulk request
+     * 
+     * @param position the zero based position to set
+     */
+    public void setPosition(int position) {
+        this.position = position;
+    }
+
+    /**
+     * Get the id of the item
+     * 
+     * @return the id
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Set the id of the item
+     * 
+     * @param id the id to set
+     */
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Check if the operation on the item failed
+     * 
+     * @return true if the operation failed
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Set the failure flag of the item
+     * 
+     * @param failed the failure flag to set
+     */
+    public void setFailed(boolean failed) {
+        this.failed = failed;
+    }
+
+    /**
+     * Get the failure message of the item
+     * 
+     * @return the failure message or null if the operation succeeded
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Set the failure message of the item
+     * 
+     * @param message the failure message to set
+     */
+    public void setMessage(String message) {
+        this.message = message;
+    }
+}
@@ -20,6 +20,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 /**
  * A DTO for a top level larch repository object. Creating any object in the larch repository normally starts with
  * creating an {@link Entity} and adding content/metadata to it.
@@ -54,6 +56,8 @@ public class Entity {
 
     private List<String> children;
 
+    private long childCount;
+
     private Map<String, Metadata> metadata;
 
     private Map<String, Binary> binaries;
@@ -62,6 +66,9 @@ public class Entity {
 
     private Map<String, List<String>> relations;
 
+    @JsonIgnore
+    private long documentVersion;
+
     /**
      * Get the relations of an {@link Entity}
      * 
@@ -98,6 +105,25 @@ public class Entity {
         this.children = children;
     }
 
+    /**
+     * Get the number of child entities of this entity. The children themselves are not loaded with the entity but
+     * have to be fetched page by page
+     * 
+     * @return the number of child entities
+     */
+    public long getChildCount() {
+        return childCount;
+    }
+
+    /**
+     * Set the number of child entities of this entity
+     * 
+     * @param childCount the number of child entities to set
+     */
+    public void setChildCount(long childCount) {
+        this.childCount = childCount;
+    }
+
     /**
      * Get the last modified timestamp
      * 
@@ -336,4 +362,23 @@ public class Entity {
     public void setState(String state) {
         this.state = state;
     }
+
+    /**
+     * Get the version of the document in the index this Entity has been read from. This is used for optimistic
+     * concurrency control and is not part of the JSON representation of the Entity.
+     * 
+     * @return the document version or 0 if the Entity has not been read from the index
+     */
+    public long getDocumentVersion() {
+        return documentVersion;
+    }
+
+    /**
+     * Set the version of the document in the index this Entity has been read from
+     * 
+     * @param documentVersion the document version to set
+     */
+    public void setDocumentVersion(long documentVersion) {
+        this.documentVersion = documentVersion;
+    }
 }
@@ -0,0 +1,126 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package net.objecthunter.larch.model;
+
+import java.util.List;
+
+/**
+ * A page of the ids of the child entities of an {@link net.objecthunter.larch.model.Entity}. The next page can be
+ * requested using the opaque cursor, which is null if there are no more children
+ */
+public class EntityChildren {
+
+    private String entityId;
+
+    private long totalHits;
+
+    private int numRecords;
+
+    private String cursor;
+
+    private List<String> children;
+
+    /**
+     * Get the id of the parent entity
+     * 
+     * @return the id of the parent
+     */
+    public String getEntityId() {
+        return entityId;
+    }
+
+    /**
+     * Set the id of the parent entity
+     * 
+     * @param entityId the id of the parent to set
+     */
+    public void setEntityId(String entityId) {
+        this.entityId = entityId;
+    }
+
+    /**
+     * Get the total number of children of the entity
+     * 
+     * @return the total number of children
+     */
+    public long getTotalHits() {
+        return totalHits;
+    }
+
+    /**
+     * Set the total number of children of the entity
+     * 
+     * @param totalHits the total number of children to set
+     */
+    public void setTotalHits(long totalHits) {
+        this.totalHits = totalHits;
+    }
+
+    /**
+     * Get the number of children requested for a single page
+     * 
+     * @return the page size
+     */
+    public int getNumRecords() {
+        return numRecords;
+    }
+
+    /**
+     * Set the number of children requested for a single page
+     * 
+     * @param numRecords the page size to set
+     */
+    public void setNumRecords(int numRecords) {
+        this.numRecords = numRecords;
+    }
+
+    /**
+     * Get the cursor for fetching the next page of children
+     * 
+     * @return the cursor or null if this is the last page
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Set the cursor for fetching the next page of children
+     * 
+     * @param cursor the cursor to set
+     */
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    /**
+     * Get the ids of the children in this page
+     * 
+     * @return the ids of the children
+     */
+    public List<String> getChildren() {
+        return children;
+    }
+
+    /**
+     * Set the ids of the children in this page
+     * 
+     * @param children the ids of the children to set
+     */
+    public void setChildren(List<String> children) {
+        this.children = children;
+    }
+}
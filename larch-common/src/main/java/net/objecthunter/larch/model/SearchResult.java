@@ -17,6 +17,7 @@
 package net.objecthunter.larch.model;
 
 import java.util.List;
+import java.util.Map;
 
 public class SearchResult {
 
@@ -34,6 +35,8 @@ public class SearchResult {
 
     private String scrollId;
 
+    private String cursor;
+
     private long prevOffset;
 
     private long nextOffset;
@@ -42,6 +45,8 @@ public class SearchResult {
 
     private List<Entity> data;
 
+    private Map<String, Map<String, Long>> aggregations;
+
     /**
      * Get the total hot number
      * 
@@ -168,6 +173,24 @@ public class SearchResult {
         this.scrollId = scrollId;
     }
 
+    /**
+     * Get the opaque cursor for fetching the next page of a browse result
+     * 
+     * @return the cursor or null if there are no more pages
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Set the opaque cursor for fetching the next page of a browse result
+     * 
+     * @param cursor the cursor to set
+     */
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
     /**
      * Get the previous offset for this search result
      * 
@@ -239,4 +262,23 @@ public class SearchResult {
     public void setData(List<Entity> data) {
         this.data = data;
     }
+
+    /**
+     * Get the aggregations computed over all hits of the search
+     * 
+     * @return the number of hits per value keyed by the name of the aggregation or null if no aggregations have been
+     *         requested
+     */
+    public Map<String, Map<String, Long>> getAggregations() {
+        return aggregations;
+    }
+
+    /**
+     * Set the aggregations computed over all hits of the search
+     * 
+     * @param aggregations the number of hits per value keyed by the name of the aggregation
+     */
+    public void setAggregations(Map<String, Map<String, Long>> aggregations) {
+        this.aggregations = aggregations;
+    }
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.objecthunter.larch.model;
+
+import java.util.List;
+
+/**
+ * A DTO describing a session for uploading the content of a {@link net.objecthunter.larch.model.Binary} in chunks.
+ * The received ranges are given as inclusive byte ranges in the form <code>first-last</code>
+ */
+public class UploadSession {
+
+    private String id;
+
+    private String entityId;
+
+    private String name;
+
+    private String mimetype;
+
+    private long size;
+
+    private long receivedSize;
+
+    private List<String> receivedRanges;
+
+    private String utcCreated;
+
+    private String utcLastModified;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getEntityId() {
+        return entityId;
+    }
+
+    public void setEntityId(String entityId) {
+        this.entityId = entityId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getMimetype() {
+        return mimetype;
+    }
+
+    public void setMimetype(String mimetype) {
+        this.mimetype = mimetype;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getReceivedSize() {
+        return receivedSize;
+    }
+
+    public void setReceivedSize(long receivedSize) {
+        this.receivedSize = receivedSize;
+    }
+
+    public List<String> getReceivedRanges() {
+        return receivedRanges;
+    }
+
+    public void setReceivedRanges(List<String> receivedRanges) {
+        this.receivedRanges = receivedRanges;
+    }
+
+    public String getUtcCreated() {
+        return utcCreated;
+    }
+
+    public void setUtcCreated(String utcCreated) {
+        this.utcCreated = utcCreated;
+    }
+
+    public String getUtcLastModified() {
+        return utcLastModified;
+    }
+
+    public void setUtcLastModified(String utcLastModified) {
+        this.utcLastModified = utcLastModified;
+    }
+}
@@ -12,6 +12,12 @@ public class Version {
 
     private String path;
 
+    private boolean delta;
+
+    private String utcLastModified;
+
+    private long size;
+
     public Version() {
     }
 
@@ -38,4 +44,28 @@ public class Version {
     public String getPath() {
         return path;
     }
+
+    public boolean isDelta() {
+        return delta;
+    }
+
+    public void setDelta(boolean delta) {
+        this.delta = delta;
+    }
+
+    public String getUtcLastModified() {
+        return utcLastModified;
+    }
+
+    public void setUtcLastModified(String utcLastModified) {
+        this.utcLastModified = utcLastModified;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
 }
@@ -0,0 +1,127 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package net.objecthunter.larch.model;
+
+import java.util.List;
+
+/**
+ * A page of the summaries of the old versions of an {@link net.objecthunter.larch.model.Entity}, ordered from the
+ * newest to the oldest version. The summaries are read from the version index only, without loading the stored
+ * versions
+ */
+public class Versions {
+
+    private String entityId;
+
+    private long totalHits;
+
+    private int offset;
+
+    private int numRecords;
+
+    private List<Version> versions;
+
+    /**
+     * Get the id of the entity
+     * 
+     * @return the id of the entity
+     */
+    public String getEntityId() {
+        return entityId;
+    }
+
+    /**
+     * Set the id of the entity
+     * 
+     * @param entityId the id of the entity to set
+     */
+    public void setEntityId(String entityId) {
+        this.entityId = entityId;
+    }
+
+    /**
+     * Get the total number of old versions of the entity
+     * 
+     * @return the total number of old versions
+     */
+    public long getTotalHits() {
+        return totalHits;
+    }
+
+    /**
+     * Set the total number of old versions of the entity
+     * 
+     * @param totalHits the total number of old versions to set
+     */
+    public void setTotalHits(long totalHits) {
+        this.totalHits = totalHits;
+    }
+
+    /**
+     * Get the offset of this page
+     * 
+     * @return the offset of the first version summary
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Set the offset of this page
+     * 
+     * @param offset the offset of the first version summary to set
+     */
+    public void setOffset(int offset) {
+        this.offset = offset;
+    }
+
+    /**
+     * Get the number of version summaries requested for a single page
+     * 
+     * @return the page size
+     */
+    public int getNumRecords() {
+        return numRecords;
+    }
+
+    /**
+     * Set the number of version summaries requested for a single page
+     * 
+     * @param numRecords the page size to set
+     */
+    public void setNumRecords(int numRecords) {
+        this.numRecords = numRecords;
+    }
+
+    /**
+     * Get the version summaries of this page
+     * 
+     * @return a list of {@link net.objecthunter.larch.model.Version}s
+     */
+    public List<Version> getVersions() {
+        return versions;
+    }
+
+    /**
+     * Set the version summaries of this page
+     * 
+     * @param versions the list of {@link net.objecthunter.larch.model.Version}s to set
+     */
+    public void setVersions(List<Version> versions) {
+        this.versions = versions;
+    }
+}
@@ -16,6 +16,9 @@
 
 package net.objecthunter.larch.model.state;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * A DTO for wrapping the state of the larch repository server
  */
@@ -25,6 +28,8 @@ public class LarchState {
 
     private BlobstoreState blobstoreState;
 
+    private List<CacheState> cacheStates = new ArrayList<>();
+
     public IndexState getIndexState() {
         return indexState;
     }
@@ -40,4 +45,12 @@ public class LarchState {
     public void setBlobstoreState(BlobstoreState blobstoreState) {
         this.blobstoreState = blobstoreState;
     }
+
+    public List<CacheState> getCacheStates() {
+        return cacheStates;
+    }
+
+    public void setCacheStates(List<CacheState> cacheStates) {
+        this.cacheStates = cacheStates;
+    }
 }
@@ -71,7 +71,8 @@ public class DefaultEntityServiceIT extends AbstractLarchIT {
             entityService.create(child);
         }
         Entity fetched = entityService.retrieve(parentId);
-        assertEquals(2, fetched.getChildren().size());
+        assertEquals(2, fetched.getChildCount());
+        assertEquals(2, entityService.retrieveChildren(parentId, null, 10).getChildren().size());
     }
 
     @Test
@@ -16,10 +16,22 @@
 
 package net.objecthunter.larch.integration;
 
+import static net.objecthunter.larch.test.util.Fixtures.createSimpleFixtureEntity;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import net.objecthunter.larch.model.Entity;
+import net.objecthunter.larch.model.SearchResult;
 import net.objecthunter.larch.model.state.IndexState;
 import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchEntityService;
+import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchEntityService.EntitiesAggregation;
+import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchEntityService.EntitiesSearchField;
 
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -48,4 +60,32 @@ public class ElasticSearchIndexServiceIT extends AbstractLarchIT {
         assertEquals(state.getTotalMergeTime(), copy.getTotalMergeTime());
         assertEquals(state.getTotalRefreshTime(), copy.getTotalRefreshTime());
     }
+
+    @Test
+    public void testSearchAggregations() throws Exception {
+        final String marker = UUID.randomUUID().toString();
+        final String type = "aggregation type " + marker;
+        for (int i = 0; i < 3; i++) {
+            final Entity e = createSimpleFixtureEntity();
+            e.setType(type);
+            e.setState(i == 0 ? "published" : "pending");
+            e.setTags(Arrays.asList("multi word tag"));
+            e.setUtcCreated(i == 2 ? "2013-12-31T23:00:00.000Z" : "2014-07-0" + (i + 1) + "T10:00:00.000Z");
+            service.create(e);
+        }
+        final Map<EntitiesSearchField, String[]> fields = new HashMap<>();
+        fields.put(EntitiesSearchField.TYPE, new String[] { marker });
+        fields.put(EntitiesSearchField.ID, new String[] { "*" });
+        final SearchResult result =
+                service.searchEntities(fields, EnumSet.of(EntitiesAggregation.STATE, EntitiesAggregation.TAG,
+                        EntitiesAggregation.CREATED), "year");
+        assertEquals(3, result.getTotalHits());
+        assertEquals(3, result.getAggregations().size());
+        assertEquals(Long.valueOf(2), result.getAggregations().get("state").get("pending"));
+        assertEquals(Long.valueOf(1), result.getAggregations().get("state").get("published"));
+        assertEquals(Long.valueOf(3), result.getAggregations().get("tag").get("multi word tag"));
+        assertEquals(Long.valueOf(1), result.getAggregations().get("created").get("2013-01-01"));
+        assertEquals(Long.valueOf(2), result.getAggregations().get("created").get("2014-01-01"));
+        assertNull(service.searchEntities(fields).getAggregations());
+    }
 }
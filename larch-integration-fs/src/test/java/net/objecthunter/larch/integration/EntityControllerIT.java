@@ -20,12 +20,18 @@ import static net.objecthunter.larch.test.util.Fixtures.createFixtureCollectionE
 import static net.objecthunter.larch.test.util.Fixtures.createFixtureEntity;
 import static net.objecthunter.larch.test.util.Fixtures.createSimpleFixtureEntity;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.net.URLEncoder;
 import java.time.Duration;
 import java.time.ZonedDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
@@ -36,8 +42,11 @@ import javax.jms.Session;
 import javax.jms.TextMessage;
 
 import net.objecthunter.larch.integration.helpers.TestMessageListener;
+import net.objecthunter.larch.model.BulkItemResult;
 import net.objecthunter.larch.model.Entities;
 import net.objecthunter.larch.model.Entity;
+import net.objecthunter.larch.model.EntityChildren;
+import net.objecthunter.larch.model.Versions;
 
 import org.apache.activemq.ActiveMQConnectionFactory;
 import org.apache.http.HttpResponse;
@@ -50,6 +59,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.type.CollectionType;
 
 public class EntityControllerIT extends AbstractLarchIT {
 
@@ -100,6 +110,65 @@ public class EntityControllerIT extends AbstractLarchIT {
         });
     }
 
+    @Test
+    public void testUpdateWithIfMatch() throws Exception {
+        HttpResponse resp =
+                this.execute(
+                        Request.Post(entityUrl).bodyString(mapper.writeValueAsString(createSimpleFixtureEntity()),
+                                ContentType.APPLICATION_JSON)).returnResponse();
+        assertEquals(201, resp.getStatusLine().getStatusCode());
+        final String id = EntityUtils.toString(resp.getEntity());
+
+        resp = this.execute(Request.Get(entityUrl + id)).returnResponse();
+        final String etag = resp.getFirstHeader("ETag").getValue();
+        final Entity fetched = mapper.readValue(resp.getEntity().getContent(), Entity.class);
+
+        fetched.setLabel("first update");
+        resp =
+                this.execute(
+                        Request.Put(entityUrl + id).addHeader("If-Match", etag)
+                                .bodyString(mapper.writeValueAsString(fetched), ContentType.APPLICATION_JSON))
+                        .returnResponse();
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+
+        // the same ETag is outdated after the first update
+        fetched.setLabel("lost update");
+        resp =
+                this.execute(
+                        Request.Put(entityUrl + id).addHeader("If-Match", etag)
+                                .bodyString(mapper.writeValueAsString(fetched), ContentType.APPLICATION_JSON))
+                        .returnResponse();
+        assertEquals(412, resp.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void testCreateBulk() throws Exception {
+        final Entity existing = createSimpleFixtureEntity();
+        existing.setId("bulk-" + System.currentTimeMillis());
+        final StringBuilder ndjson = new StringBuilder();
+        ndjson.append(mapper.writeValueAsString(createSimpleFixtureEntity())).append('\n');
+        ndjson.append(mapper.writeValueAsString(existing)).append('\n');
+        ndjson.append(mapper.writeValueAsString(existing)).append('\n');
+        HttpResponse resp =
+                this.execute(
+                        Request.Post(entityUrl + "bulk").bodyString(ndjson.toString(),
+                                ContentType.create("application/x-ndjson")))
+                        .returnResponse();
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        final CollectionType type =
+                mapper.getTypeFactory().constructCollectionType(List.class, BulkItemResult.class);
+        final List<BulkItemResult> results = mapper.readValue(resp.getEntity().getContent(), type);
+        assertEquals(3, results.size());
+        assertFalse(results.get(0).isFailed());
+        assertFalse(results.get(1).isFailed());
+        assertEquals(existing.getId(), results.get(1).getId());
+        assertTrue(results.get(2).isFailed());
+        assertEquals(2, results.get(2).getPosition());
+
+        resp = this.execute(Request.Get(entityUrl + results.get(0).getId())).returnResponse();
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+    }
+
     @Test
     public void testCreateAndRetrieveEntityWithChildren() throws Exception {
         HttpResponse resp =
@@ -125,7 +194,8 @@ public class EntityControllerIT extends AbstractLarchIT {
 
         resp = this.execute(Request.Get("http://localhost:8080/entity/" + id)).returnResponse();
         Entity fetched = mapper.readValue(resp.getEntity().getContent(), Entity.class);
-        assertEquals(2, fetched.getChildren().size());
+        assertEquals(2, fetched.getChildCount());
+        assertNull(fetched.getChildren());
     }
 
     @Test
@@ -157,8 +227,27 @@ public class EntityControllerIT extends AbstractLarchIT {
         resp = this.execute(Request.Get("http://localhost:8080/entity/" + id)).returnResponse();
         log.debug("fetching an entity with 100 children took {} ms", System.currentTimeMillis() - time);
         Entity fetched = mapper.readValue(resp.getEntity().getContent(), Entity.class);
-        assertEquals(100, fetched.getChildren().size());
+        assertEquals(100, fetched.getChildCount());
         assertEquals("Collection", fetched.getType());
+
+        // page through the children
+        final Set<String> children = new HashSet<>();
+        String cursor = "";
+        int pages = 0;
+        do {
+            resp =
+                    this.execute(
+                            Request.Get("http://localhost:8080/entity/" + id + "/children?count=30&cursor="
+                                    + URLEncoder.encode(cursor, "UTF-8"))).returnResponse();
+            assertEquals(200, resp.getStatusLine().getStatusCode());
+            EntityChildren page = mapper.readValue(resp.getEntity().getContent(), EntityChildren.class);
+            assertEquals(100, page.getTotalHits());
+            children.addAll(page.getChildren());
+            cursor = page.getCursor();
+            pages++;
+        } while (cursor != null);
+        assertEquals(4, pages);
+        assertEquals(100, children.size());
     }
 
     @Test
@@ -240,6 +329,53 @@ public class EntityControllerIT extends AbstractLarchIT {
         assertEquals(i, 0);
     }
 
+    @Test
+    public void testRetrieveVersionPages() throws Exception {
+        HttpResponse resp =
+                this.execute(
+                        Request.Post("http://localhost:8080/entity")
+                                .bodyString(mapper.writeValueAsString(createFixtureEntity()),
+                                        ContentType.APPLICATION_JSON))
+                        .returnResponse();
+        assertEquals(201, resp.getStatusLine().getStatusCode());
+        final String id = EntityUtils.toString(resp.getEntity());
+
+        for (int i = 0; i < 5; i++) {
+            Entity update = createFixtureEntity();
+            update.setLabel("My updated Label" + i);
+            resp =
+                    this.execute(
+                            Request.Put("http://localhost:8080/entity/" + id)
+                                    .bodyString(mapper.writeValueAsString(update),
+                                            ContentType.APPLICATION_JSON))
+                            .returnResponse();
+            assertEquals(200, resp.getStatusLine().getStatusCode());
+        }
+
+        resp =
+                this.execute(Request.Get("http://localhost:8080/entity/" + id + "/versions/summary?count=2"))
+                        .returnResponse();
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        Versions summaries = mapper.readValue(resp.getEntity().getContent(), Versions.class);
+        assertEquals(5, summaries.getTotalHits());
+        assertEquals(2, summaries.getVersions().size());
+        assertEquals(5, summaries.getVersions().get(0).getVersionNumber());
+        assertEquals(4, summaries.getVersions().get(1).getVersionNumber());
+        assertTrue(summaries.getVersions().get(0).getSize() > 0);
+
+        // the current version 6 and version 5 make up the first page
+        resp =
+                this.execute(Request.Get("http://localhost:8080/entity/" + id + "/versions?offset=2&count=2"))
+                        .returnResponse();
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        Entities fetched = mapper.readValue(resp.getEntity().getContent(), Entities.class);
+        assertEquals(2, fetched.getEntities().size());
+        assertEquals(4, fetched.getEntities().get(0).getVersion());
+        assertEquals("My updated Label2", fetched.getEntities().get(0).getLabel());
+        assertEquals(3, fetched.getEntities().get(1).getVersion());
+        assertEquals("My updated Label1", fetched.getEntities().get(1).getLabel());
+    }
+
     @Test
     public void testPublish() throws Exception {
         // create
@@ -0,0 +1,83 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package net.objecthunter.larch.integration;
+
+import static net.objecthunter.larch.test.util.Fixtures.createFixtureEntity;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.URLEncoder;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.fluent.Request;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class ExportControllerIT extends AbstractLarchIT {
+
+    @Autowired
+    private ObjectMapper mapper;
+
+    @Test
+    public void testExportEntitiesModifiedSince() throws Exception {
+        final String since = ZonedDateTime.now(ZoneOffset.UTC).minusSeconds(1).toString();
+        HttpResponse resp =
+                this.execute(
+                        Request.Post("http://localhost:8080/entity")
+                                .bodyString(mapper.writeValueAsString(createFixtureEntity()),
+                                        ContentType.APPLICATION_JSON))
+                        .returnResponse();
+        assertEquals(201, resp.getStatusLine().getStatusCode());
+        final String id = EntityUtils.toString(resp.getEntity());
+
+        resp =
+                this.execute(
+                        Request.Get("http://localhost:8080/export/entities?audit=true&modifiedSince="
+                                + URLEncoder.encode(since, "UTF-8"))).returnResponse();
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        final Set<String> ids = new HashSet<>();
+        try (final BufferedReader reader =
+                new BufferedReader(new InputStreamReader(resp.getEntity().getContent(), "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final JsonNode node = mapper.readTree(line);
+                ids.add(node.get("entity").get("id").asText());
+                assertTrue(node.get("auditRecords").isArray());
+            }
+        }
+        assertTrue(ids.contains(id));
+    }
+
+    @Test
+    public void testExportEntitiesInvalidTimestamp() throws Exception {
+        HttpResponse resp =
+                this.execute(Request.Get("http://localhost:8080/export/entities?modifiedSince=yesterday"))
+                        .returnResponse();
+        assertEquals(400, resp.getStatusLine().getStatusCode());
+    }
+}
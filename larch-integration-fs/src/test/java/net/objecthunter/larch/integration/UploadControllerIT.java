@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.objecthunter.larch.integration;
+
+import static net.objecthunter.larch.test.util.Fixtures.createSimpleFixtureEntity;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import net.objecthunter.larch.model.Binary;
+import net.objecthunter.larch.model.Entity;
+import net.objecthunter.larch.model.UploadSession;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.fluent.Request;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class UploadControllerIT extends AbstractLarchIT {
+
+    private static final String entityUrl = "http://localhost:8080/entity/";
+
+    private static final String uploadUrl = "http://localhost:8080/upload/";
+
+    @Autowired
+    private ObjectMapper mapper;
+
+    @Test
+    public void testChunkedUpload() throws Exception {
+        HttpResponse resp =
+            this.execute(
+                Request.Post(entityUrl).bodyString(mapper.writeValueAsString(createSimpleFixtureEntity()),
+                    ContentType.APPLICATION_JSON)).returnResponse();
+        assertEquals(201, resp.getStatusLine().getStatusCode());
+        final String id = EntityUtils.toString(resp.getEntity());
+
+        resp =
+            this.execute(
+                Request.Post(entityUrl + id + "/binary/upload?name=chunked&mimetype=text/plain&size=12"))
+                .returnResponse();
+        assertEquals(201, resp.getStatusLine().getStatusCode());
+        UploadSession session = mapper.readValue(resp.getEntity().getContent(), UploadSession.class);
+
+        // send the chunks out of order
+        resp =
+            this.execute(
+                Request.Put(uploadUrl + session.getId() + "?offset=6").bodyByteArray("chunk2".getBytes()))
+                .returnResponse();
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        session = mapper.readValue(resp.getEntity().getContent(), UploadSession.class);
+        assertEquals(Arrays.asList("6-11"), session.getReceivedRanges());
+
+        // an incomplete upload can not be committed
+        resp = this.execute(Request.Post(uploadUrl + session.getId() + "/commit")).returnResponse();
+        assertEquals(409, resp.getStatusLine().getStatusCode());
+
+        resp =
+            this.execute(
+                Request.Put(uploadUrl + session.getId() + "?offset=0").bodyByteArray("chunk1".getBytes()))
+                .returnResponse();
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+
+        resp = this.execute(Request.Get(uploadUrl + session.getId())).returnResponse();
+        session = mapper.readValue(resp.getEntity().getContent(), UploadSession.class);
+        assertEquals(12, session.getReceivedSize());
+
+        resp = this.execute(Request.Post(uploadUrl + session.getId() + "/commit")).returnResponse();
+        assertEquals(201, resp.getStatusLine().getStatusCode());
+
+        resp = this.execute(Request.Get(entityUrl + id)).returnResponse();
+        Binary bin = mapper.readValue(resp.getEntity().getContent(), Entity.class).getBinaries().get("chunked");
+        assertEquals(12, bin.getSize());
+        assertEquals("text/plain", bin.getMimetype());
+        resp = this.execute(Request.Get(entityUrl + id + "/binary/chunked/content")).returnResponse();
+        assertEquals("chunk1chunk2", EntityUtils.toString(resp.getEntity()));
+
+        resp = this.execute(Request.Get(uploadUrl + session.getId())).returnResponse();
+        assertEquals(404, resp.getStatusLine().getStatusCode());
+    }
+}
@@ -20,14 +20,19 @@ import java.io.File;
 
 import javax.jms.Queue;
 
+import net.objecthunter.larch.cache.EntityCache;
+import net.objecthunter.larch.cache.SearchResultCache;
+import net.objecthunter.larch.cache.JmsCacheInvalidationHook;
 import net.objecthunter.larch.security.helpers.LarchOpenIdAuthenticationProvider;
 import net.objecthunter.larch.service.EntityService;
 import net.objecthunter.larch.service.ExportService;
+import net.objecthunter.larch.service.IdGenerator;
 import net.objecthunter.larch.service.MailService;
 import net.objecthunter.larch.service.MessagingService;
 import net.objecthunter.larch.service.PublishService;
 import net.objecthunter.larch.service.RepositoryService;
 import net.objecthunter.larch.service.SchemaService;
+import net.objecthunter.larch.service.UploadService;
 import net.objecthunter.larch.service.backend.BackendAuditService;
 import net.objecthunter.larch.service.backend.BackendEntityService;
 import net.objecthunter.larch.service.backend.BackendPublishService;
@@ -51,6 +56,8 @@ import net.objecthunter.larch.service.impl.DefaultMessagingService;
 import net.objecthunter.larch.service.impl.DefaultPublishService;
 import net.objecthunter.larch.service.impl.DefaultRepositoryService;
 import net.objecthunter.larch.service.impl.DefaultSchemaService;
+import net.objecthunter.larch.service.impl.DefaultUploadService;
+import net.objecthunter.larch.service.impl.TimeBasedIdGenerator;
 import net.objecthunter.larch.util.FileSystemUtil;
 import net.objecthunter.larch.util.LarchExceptionHandler;
 
@@ -98,6 +105,16 @@ public class LarchServerConfiguration {
         return new DefaultEntityService();
     }
 
+    /**
+     * Get the {@link net.objecthunter.larch.service.IdGenerator} Spring bean
+     * 
+     * @return the {@link net.objecthunter.larch.service.impl.TimeBasedIdGenerator} implementation
+     */
+    @Bean
+    public IdGenerator idGenerator() {
+        return new TimeBasedIdGenerator();
+    }
+
     /**
      * Get a {@link net.objecthunter.larch.service.impl.DefaultPublishService} Spring bean
      * 
@@ -143,6 +160,16 @@ public class LarchServerConfiguration {
         return new DefaultExportService();
     }
 
+    /**
+     * Get the {@link net.objecthunter.larch.service.UploadService} Spring bean
+     * 
+     * @return the {@link net.objecthunter.larch.service.impl.DefaultUploadService} implementation
+     */
+    @Bean
+    public UploadService uploadService() {
+        return new DefaultUploadService();
+    }
+
     /**
      * Get a ElasticSearch {@link org.elasticsearch.client.Client} Spring bean
      * 
@@ -216,7 +243,7 @@ public class LarchServerConfiguration {
 
     /**
      * Get {@link net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchNode} Spring bean responsible for
-     * starting and stopping the ElasticSearch services
+     * starting and stopping the embedded ElasticSearch node or connecting to a remote cluster
      * 
      * @return the {@link net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchNode} object
      */
@@ -382,6 +409,36 @@ public class LarchServerConfiguration {
         return env.getProperty("larch.messaging.broker.uri", "vm://localhost");
     }
 
+    /**
+     * Get the {@link net.objecthunter.larch.cache.EntityCache} Spring bean
+     * 
+     * @return the {@link net.objecthunter.larch.cache.EntityCache} holding recently read entities
+     */
+    @Bean
+    public EntityCache entityCache() {
+        return new EntityCache();
+    }
+
+    /**
+     * Get the {@link net.objecthunter.larch.cache.SearchResultCache} Spring bean
+     * 
+     * @return the {@link net.objecthunter.larch.cache.SearchResultCache} holding recent search and browse results
+     */
+    @Bean
+    public SearchResultCache searchResultCache() {
+        return new SearchResultCache();
+    }
+
+    /**
+     * Get the {@link net.objecthunter.larch.cache.JmsCacheInvalidationHook} Spring bean
+     * 
+     * @return the hook distributing entity cache invalidations to the other nodes
+     */
+    @Bean
+    public JmsCacheInvalidationHook jmsCacheInvalidationHook() {
+        return new JmsCacheInvalidationHook();
+    }
+
     @Bean
     public MessagingService messagingService() {
         return new DefaultMessagingService();
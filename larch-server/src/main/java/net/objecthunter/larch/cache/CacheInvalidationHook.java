@@ -0,0 +1,32 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package net.objecthunter.larch.cache;
+
+/**
+ * A hook notified about every invalidation of an {@link net.objecthunter.larch.cache.EntityCache} entry caused by a
+ * write on this node. Implementations can use it to invalidate the caches of other larch nodes sharing the same
+ * index.
+ */
+public interface CacheInvalidationHook {
+
+    /**
+     * Called after the cached state of an {@link net.objecthunter.larch.model.Entity} has been invalidated locally
+     * 
+     * @param entityId the id of the invalidated Entity
+     */
+    void invalidated(String entityId);
+}
@@ -0,0 +1,181 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package net.objecthunter.larch.cache;
+
+import java.io.IOException;
+
+import javax.annotation.PostConstruct;
+
+import net.objecthunter.larch.model.Entity;
+import net.objecthunter.larch.model.state.CacheState;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+/**
+ * A size bounded cache of deserialized {@link net.objecthunter.larch.model.Entity} objects keyed by the Entity's id
+ * for the current version and by id and version number for old versions. Since Entities are mutable, the cache
+ * stores and hands out copies. The number of entries and their time to live are configured via
+ * <code>larch.cache.entities.size</code> and <code>larch.cache.entities.ttl</code> (in seconds).
+ */
+public class EntityCache {
+
+    private static final Logger log = LoggerFactory.getLogger(EntityCache.class);
+
+    @Autowired
+    private Environment env;
+
+    @Autowired
+    private ObjectMapper mapper;
+
+    private LruCache<String, Entity> cache = new LruCache<>("entities", 0, 0);
+
+    private volatile CacheInvalidationHook invalidationHook;
+
+    @PostConstruct
+    public void init() {
+        final long size = Long.parseLong(env.getProperty("larch.cache.entities.size", "1000"));
+        final long ttl = Long.parseLong(env.getProperty("larch.cache.entities.ttl", "300"));
+        log.debug("initialising entity cache with {} entries and a time to live of {}s", size, ttl);
+        this.cache = new LruCache<>("entities", size, ttl * 1000);
+    }
+
+    /**
+     * Get a copy of the cached current version of an Entity
+     * 
+     * @param id the id of the Entity
+     * @return a copy of the cached Entity or null if the Entity is not cached
+     * @throws IOException
+     */
+    public Entity get(String id) throws IOException {
+        return copy(cache.get(currentKey(id)));
+    }
+
+    /**
+     * Get a copy of a cached old version of an Entity
+     * 
+     * @param id the id of the Entity
+     * @param version the version number
+     * @return a copy of the cached Entity version or null if the version is not cached
+     * @throws IOException
+     */
+    public Entity get(String id, int version) throws IOException {
+        return copy(cache.get(versionKey(id, version)));
+    }
+
+    /**
+     * Get the generation of the cache which has to be fetched before reading an Entity from the backend and passed
+     * to {@link #put(Entity, long)}
+     * 
+     * @return the current generation of the cache
+     */
+    public long getGeneration() {
+        return cache.getGeneration();
+    }
+
+    /**
+     * Cache the current version of an Entity unless it has been invalidated since the given generation
+     * 
+     * @param e the Entity to cache
+     * @param fetchedAt the generation of the cache before the Entity was read
+     * @throws IOException
+     */
+    public void put(Entity e, long fetchedAt) throws IOException {
+        if (!cache.isEnabled()) {
+            return;
+        }
+        cache.put(currentKey(e.getId()), copy(e), fetchedAt);
+    }
+
+    /**
+     * Cache an old version of an Entity. Old versions never change, so they are never invalidated
+     * 
+     * @param e the old version of the Entity
+     * @throws IOException
+     */
+    public void putVersion(Entity e) throws IOException {
+        final LruCache<String, Entity> c = cache;
+        if (!c.isEnabled()) {
+            return;
+        }
+        c.put(versionKey(e.getId(), e.getVersion()), copy(e), c.getGeneration());
+    }
+
+    /**
+     * Invalidate the cached current version of an Entity after it has been changed on this node and notify the
+     * {@link net.objecthunter.larch.cache.CacheInvalidationHook} if set
+     * 
+     * @param id the id of the changed Entity
+     */
+    public void invalidate(String id) {
+        if (id == null) {
+            return;
+        }
+        this.invalidateLocal(id);
+        final CacheInvalidationHook hook = invalidationHook;
+        if (hook != null) {
+            hook.invalidated(id);
+        }
+    }
+
+    /**
+     * Invalidate the cached current version of an Entity without notifying the
+     * {@link net.objecthunter.larch.cache.CacheInvalidationHook}. This is used for invalidations caused by other
+     * nodes
+     * 
+     * @param id the id of the changed Entity
+     */
+    public void invalidateLocal(String id) {
+        cache.invalidate(currentKey(id));
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public void setInvalidationHook(CacheInvalidationHook invalidationHook) {
+        this.invalidationHook = invalidationHook;
+    }
+
+    public CacheState getState() {
+        return cache.getState();
+    }
+
+    private Entity copy(Entity e) throws IOException {
+        if (e == null) {
+            return null;
+        }
+        final TokenBuffer buffer = new TokenBuffer(mapper, false);
+        mapper.writeValue(buffer, e);
+        final Entity copy = mapper.readValue(buffer.asParser(), Entity.class);
+        copy.setDocumentVersion(e.getDocumentVersion());
+        return copy;
+    }
+
+    private static String currentKey(String id) {
+        return "c/" + id;
+    }
+
+    private static String versionKey(String id, int version) {
+        return "v/" + version + "/" + id;
+    }
+}
@@ -0,0 +1,129 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package net.objecthunter.larch.cache;
+
+import java.util.UUID;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.core.MessageCreator;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+
+/**
+ * A {@link net.objecthunter.larch.cache.CacheInvalidationHook} which publishes invalidations on a JMS topic and
+ * invalidates the local {@link net.objecthunter.larch.cache.EntityCache} for invalidations published by other nodes.
+ * Since these invalidations are caused by writes to the index, the local
+ * {@link net.objecthunter.larch.cache.SearchResultCache} is cleared as well.
+ * It is only active if <code>larch.cache.cluster.enabled</code> is set to true, in which case all the larch nodes
+ * sharing an index have to use the same broker via <code>larch.messaging.broker.uri</code>.
+ */
+public class JmsCacheInvalidationHook implements CacheInvalidationHook, MessageListener {
+
+    private static final Logger log = LoggerFactory.getLogger(JmsCacheInvalidationHook.class);
+
+    public static final String TOPIC_INVALIDATIONS = "larch.cache.invalidations";
+
+    private static final String PROPERTY_NODE = "larchNode";
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    @Autowired
+    private Environment env;
+
+    @Autowired
+    private EntityCache entityCache;
+
+    @Autowired
+    private SearchResultCache searchResultCache;
+
+    @Autowired
+    private ConnectionFactory connectionFactory;
+
+    private JmsTemplate template;
+
+    private DefaultMessageListenerContainer container;
+
+    @PostConstruct
+    public void init() {
+        if (!Boolean.parseBoolean(env.getProperty("larch.cache.cluster.enabled", "false"))) {
+            return;
+        }
+        log.info("sending and receiving entity cache invalidations on topic {}", TOPIC_INVALIDATIONS);
+        this.template = new JmsTemplate(connectionFactory);
+        this.template.setPubSubDomain(true);
+        this.container = new DefaultMessageListenerContainer();
+        this.container.setConnectionFactory(connectionFactory);
+        this.container.setPubSubDomain(true);
+        this.container.setDestinationName(TOPIC_INVALIDATIONS);
+        this.container.setMessageListener(this);
+        this.container.afterPropertiesSet();
+        this.container.start();
+        this.entityCache.setInvalidationHook(this);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (this.container != null) {
+            this.container.shutdown();
+        }
+    }
+
+    @Override
+    public void invalidated(final String entityId) {
+        try {
+            this.template.send(TOPIC_INVALIDATIONS, new MessageCreator() {
+
+                @Override
+                public Message createMessage(Session session) throws JMSException {
+                    final TextMessage msg = session.createTextMessage(entityId);
+                    msg.setStringProperty(PROPERTY_NODE, nodeId);
+                    return msg;
+                }
+            });
+        } catch (RuntimeException e) {
+            // the other nodes will pick up the change once their cache entry expires
+            log.warn("unable to publish the cache invalidation of entity {}", entityId, e);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message) {
+        try {
+            if (!nodeId.equals(message.getStringProperty(PROPERTY_NODE)) && message instanceof TextMessage) {
+                this.entityCache.invalidateLocal(((TextMessage) message).getText());
+                /* the entity has been written to the index by another node */
+                this.searchResultCache.invalidateAll();
+            }
+        } catch (JMSException e) {
+            log.warn("unable to process cache invalidation message, invalidating the whole cache", e);
+            this.entityCache.invalidateAll();
+            this.searchResultCache.invalidateAll();
+        }
+    }
+}
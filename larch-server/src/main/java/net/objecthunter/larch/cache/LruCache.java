@@ -0,0 +1,222 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package net.objecthunter.larch.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.objecthunter.larch.model.state.CacheState;
+
+/**
+ * A simple thread safe cache evicting the least recently used entries once the total weight of the entries exceeds
+ * a given maximum. Entries older than the given time to live are treated as absent. Since the cache is invalidated
+ * from write paths while readers may still be fetching an older state of a value, a value is only put into the cache
+ * if its key has not been invalidated since the reader fetched the generation via {@link #getGeneration()}.
+ * 
+ * @param <K> the type of the keys
+ * @param <V> the type of the cached values
+ */
+public class LruCache<K, V> {
+
+    /* the number of recently invalidated keys remembered for rejecting outdated puts */
+    private static final int MAX_TRACKED_INVALIDATIONS = 10000;
+
+    private final String name;
+
+    private final long maxWeight;
+
+    private final long ttl;
+
+    private final Weigher<V> weigher;
+
+    private final LinkedHashMap<K, CacheEntry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LinkedHashMap<K, Long> invalidations = new LinkedHashMap<>();
+
+    private long invalidationFloor;
+
+    private long weight;
+
+    private long generation;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    /**
+     * Create a new cache in which every entry has the weight 1, so that the maximum weight is the maximum number of
+     * entries
+     * 
+     * @param name the name of the cache used in the {@link net.objecthunter.larch.model.state.CacheState}
+     * @param maxEntries the maximum number of entries, a value of 0 disables the cache
+     * @param ttl the time to live of an entry in milliseconds, a value of 0 disables the expiration
+     */
+    public LruCache(String name, long maxEntries, long ttl) {
+        this(name, maxEntries, ttl, new Weigher<V>() {
+
+            @Override
+            public long weigh(V value) {
+                return 1;
+            }
+        });
+    }
+
+    /**
+     * Create a new cache using a custom {@link LruCache.Weigher}
+     * 
+     * @param name the name of the cache used in the {@link net.objecthunter.larch.model.state.CacheState}
+     * @param maxWeight the maximum total weight of the entries, a value of 0 disables the cache
+     * @param ttl the time to live of an entry in milliseconds, a value of 0 disables the expiration
+     * @param weigher the weigher calculating the weight of a single value
+     */
+    public LruCache(String name, long maxWeight, long ttl, Weigher<V> weigher) {
+        this.name = name;
+        this.maxWeight = maxWeight;
+        this.ttl = ttl;
+        this.weigher = weigher;
+    }
+
+    public boolean isEnabled() {
+        return maxWeight > 0;
+    }
+
+    public synchronized V get(K key) {
+        final CacheEntry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (ttl > 0 && System.currentTimeMillis() - entry.created > ttl) {
+            this.remove(key);
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Get the current generation of the cache which has to be passed to {@link #put(Object, Object, long)}
+     * 
+     * @return the current generation
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Put a value into the cache unless the key has been invalidated since the given generation
+     * 
+     * @param key the key of the value
+     * @param value the value to cache
+     * @param fetchedAt the generation of the cache before the value was fetched
+     */
+    public synchronized void put(K key, V value, long fetchedAt) {
+        if (maxWeight <= 0 || fetchedAt < invalidationFloor) {
+            return;
+        }
+        final Long invalidated = invalidations.get(key);
+        if (invalidated != null && invalidated > fetchedAt) {
+            return;
+        }
+        final long w = weigher.weigh(value);
+        if (w > maxWeight) {
+            return;
+        }
+        this.remove(key);
+        entries.put(key, new CacheEntry<>(value, w));
+        weight += w;
+        final Iterator<Map.Entry<K, CacheEntry<V>>> eldest = entries.entrySet().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+            weight -= eldest.next().getValue().weight;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void invalidate(K key) {
+        generation++;
+        this.remove(key);
+        invalidations.remove(key);
+        invalidations.put(key, generation);
+        if (invalidations.size() > MAX_TRACKED_INVALIDATIONS) {
+            // puts fetched before the forgotten invalidation have to be rejected altogether
+            final Iterator<Long> eldest = invalidations.values().iterator();
+            invalidationFloor = eldest.next();
+            eldest.remove();
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+        weight = 0;
+        invalidations.clear();
+        invalidationFloor = generation;
+    }
+
+    /**
+     * Get the statistics of this cache
+     * 
+     * @return a {@link net.objecthunter.larch.model.state.CacheState} containing the current statistics
+     */
+    public synchronized CacheState getState() {
+        final CacheState state = new CacheState();
+        state.setName(name);
+        state.setSize(weight);
+        state.setMaxSize(maxWeight);
+        state.setHits(hits);
+        state.setMisses(misses);
+        state.setEvictions(evictions);
+        state.setHitRatio(hits + misses == 0 ? 0d : (double) hits / (hits + misses));
+        return state;
+    }
+
+    private void remove(K key) {
+        final CacheEntry<V> removed = entries.remove(key);
+        if (removed != null) {
+            weight -= removed.weight;
+        }
+    }
+
+    /**
+     * Calculates the weight of a value in the cache
+     * 
+     * @param <V> the type of the values
+     */
+    public interface Weigher<V> {
+
+        long weigh(V value);
+    }
+
+    private static class CacheEntry<V> {
+
+        private final V value;
+
+        private final long weight;
+
+        private final long created = System.currentTimeMillis();
+
+        private CacheEntry(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
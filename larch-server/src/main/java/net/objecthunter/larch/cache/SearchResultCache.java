@@ -0,0 +1,182 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+
+package net.objecthunter.larch.cache;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.PostConstruct;
+
+import net.objecthunter.larch.model.SearchResult;
+import net.objecthunter.larch.model.state.CacheState;
+import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchEntityService.EntitiesAggregation;
+import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchEntityService.EntitiesSearchField;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+
+/**
+ * A size bounded cache of {@link net.objecthunter.larch.model.SearchResult}s keyed by the normalized query and the
+ * write generation of the searched index. A write to the index on this node increases its generation, so that
+ * results fetched before are no longer found. Writes on other nodes invalidate the whole cache via the
+ * {@link net.objecthunter.larch.cache.JmsCacheInvalidationHook}, while the time to live bounds the staleness of
+ * results of indices which are not refreshed after every write. An entry weighs one plus the number of entities and
+ * aggregation values in the result. The maximum total weight and the time to live are configured via
+ * <code>larch.cache.search.size</code> and <code>larch.cache.search.ttl</code> (in seconds). Cached results are
+ * shared between requests and must not be modified.
+ */
+public class SearchResultCache {
+
+    private static final Logger log = LoggerFactory.getLogger(SearchResultCache.class);
+
+    @Autowired
+    private Environment env;
+
+    private LruCache<String, SearchResult> cache = new LruCache<>("search-results", 0, 0);
+
+    @PostConstruct
+    public void init() {
+        final long size = Long.parseLong(env.getProperty("larch.cache.search.size", "10000"));
+        final long ttl = Long.parseLong(env.getProperty("larch.cache.search.ttl", "60"));
+        log.debug("initialising search result cache with a weight of {} and a time to live of {}s", size, ttl);
+        this.cache = new LruCache<>("search-results", size, ttl * 1000, new LruCache.Weigher<SearchResult>() {
+
+            @Override
+            public long weigh(SearchResult result) {
+                long weight = 1;
+                if (result.getData() != null) {
+                    weight += result.getData().size();
+                }
+                if (result.getAggregations() != null) {
+                    for (final Map<String, Long> counts : result.getAggregations().values()) {
+                        weight += counts.size();
+                    }
+                }
+                return weight;
+            }
+        });
+    }
+
+    public boolean isEnabled() {
+        return cache.isEnabled();
+    }
+
+    /**
+     * Get a cached search result
+     * 
+     * @param key the key created by one of the key methods
+     * @return the cached result or null if the result is not cached
+     */
+    public SearchResult get(String key) {
+        return cache.get(key);
+    }
+
+    /**
+     * Get the generation of the cache which has to be fetched before searching the index and passed to
+     * {@link #put(String, SearchResult, long)}
+     * 
+     * @return the current generation of the cache
+     */
+    public long getGeneration() {
+        return cache.getGeneration();
+    }
+
+    /**
+     * Cache a search result unless the cache has been invalidated since the given generation
+     * 
+     * @param key the key created by one of the key methods
+     * @param result the result to cache
+     * @param fetchedAt the generation of the cache before the index was searched
+     */
+    public void put(String key, SearchResult result, long fetchedAt) {
+        cache.put(key, result, fetchedAt);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public CacheState getState() {
+        return cache.getState();
+    }
+
+    /**
+     * Create the key of a search. The fields are ordered, the terms of a field are ordered since any of them has to
+     * match, so that equivalent searches share an entry. The terms have to be trimmed and deduplicated by the caller
+     * before both the key and the query are created from them
+     * 
+     * @param writeGeneration the write generation of the searched index
+     * @param searchFields the normalized terms to search for keyed by the field
+     * @param aggregations the requested aggregations
+     * @param interval the interval of date histograms
+     * @return the key
+     */
+    public static String searchKey(long writeGeneration, Map<EntitiesSearchField, String[]> searchFields,
+            Set<EntitiesAggregation> aggregations, String interval) {
+        final StringBuilder key = new StringBuilder("search/").append(writeGeneration);
+        for (final EntitiesSearchField field : EntitiesSearchField.values()) {
+            final String[] values = searchFields.get(field);
+            if (values == null) {
+                continue;
+            }
+            final Set<String> terms = new TreeSet<>(Arrays.asList(values));
+            key.append('\n').append(field.getRequestParameterName());
+            for (final String term : terms) {
+                key.append('\u0000').append(term);
+            }
+        }
+        for (final EntitiesAggregation aggregation : EntitiesAggregation.values()) {
+            if (aggregations.contains(aggregation)) {
+                key.append("\nfacet ").append(aggregation.getRequestParameterName());
+                if (aggregation == EntitiesAggregation.CREATED) {
+                    key.append(' ').append(StringUtils.isEmpty(interval) ? "month" : interval);
+                }
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Create the key of a page of an index scan
+     * 
+     * @param writeGeneration the write generation of the scanned index
+     * @param offset the offset of the page
+     * @param numRecords the number of records in the page or a negative value for the default number
+     * @return the key
+     */
+    public static String scanKey(long writeGeneration, int offset, int numRecords) {
+        return "scan/" + writeGeneration + "/" + offset + "/" + numRecords;
+    }
+
+    /**
+     * Create the key of a page of a browse
+     * 
+     * @param writeGeneration the write generation of the browsed index
+     * @param cursor the cursor of the previous page or null for the first page
+     * @param numRecords the number of records in the page
+     * @return the key
+     */
+    public static String browseKey(long writeGeneration, String cursor, int numRecords) {
+        return "browse/" + writeGeneration + "/" + numRecords + "/" + (cursor == null ? "" : cursor);
+    }
+}
@@ -16,11 +16,16 @@
 
 package net.objecthunter.larch.controller;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+
 import net.objecthunter.larch.model.security.User;
 
 import org.springframework.security.web.bind.annotation.AuthenticationPrincipal;
 import org.springframework.ui.ModelMap;
 import org.springframework.web.bind.annotation.ModelAttribute;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.servlet.ModelAndView;
 
 public abstract class AbstractLarchController {
@@ -47,4 +52,29 @@ public abstract class AbstractLarchController {
     protected ModelAndView success(final String message) {
         return new ModelAndView("success", new ModelMap("successMessage", message));
     }
+
+    /**
+     * Hand the result of a future over to Spring MVC, so that the request thread is released while the backend is
+     * busy. A failed future is handled like an exception thrown by the controller method.
+     * 
+     * @param future the future the response is created from
+     * @return a {@link org.springframework.web.context.request.async.DeferredResult} which can be returned by web
+     *         controller methods
+     */
+    protected <T> DeferredResult<T> defer(final CompletableFuture<T> future) {
+        final DeferredResult<T> result = new DeferredResult<>();
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+
+            @Override
+            public void accept(T value, Throwable e) {
+                if (e == null) {
+                    result.setResult(value);
+                } else {
+                    result.setErrorResult(e instanceof CompletionException && e.getCause() != null ? e.getCause()
+                            : e);
+                }
+            }
+        });
+        return result;
+    }
 }
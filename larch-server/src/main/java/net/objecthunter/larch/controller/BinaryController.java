@@ -18,10 +18,25 @@ package net.objecthunter.larch.controller;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import net.objecthunter.larch.helpers.AuditRecords;
+import net.objecthunter.larch.helpers.ByteRange;
 import net.objecthunter.larch.model.Binary;
 import net.objecthunter.larch.model.Entity;
 import net.objecthunter.larch.service.EntityService;
@@ -29,6 +44,7 @@ import net.objecthunter.larch.service.MessagingService;
 import net.objecthunter.larch.service.SchemaService;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.RandomStringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -40,6 +56,7 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.ModelAndView;
 
@@ -51,6 +68,23 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 @Controller
 public class BinaryController extends AbstractLarchController {
 
+    /* the request attributes of Tomcat's sendfile support */
+    private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    /* smaller files are written directly, like Tomcat's DefaultServlet does */
+    private static final long SENDFILE_MIN_SIZE = 48 * 1024;
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    /* requests for more ranges are answered with the complete content, see RFC 7233 section 6.1 */
+    private static final int MAX_RANGES = 16;
+
     @Autowired
     private EntityService entityService;
 
@@ -124,21 +158,33 @@ public class BinaryController extends AbstractLarchController {
 
     /**
      * Controller method to retrieve a JSON representation of a {@link net.objecthunter.larch.model.Binary} from the
-     * repository
+     * repository. The request thread is released while the Entity is fetched.
      * 
      * @param entityId The {@link net.objecthunter.larch.model.Entity}'s id, which contains the requested Binary
      * @param name The name of the Binary
      * @return The Binary object requested
-     * @throws IOException
      */
     @RequestMapping(value = "/entity/{id}/binary/{name}", method = RequestMethod.GET, produces = "application/json")
     @ResponseStatus(HttpStatus.OK)
     @ResponseBody
-    public Binary retrieve(@PathVariable("id") final String entityId, @PathVariable("name") final String name)
-            throws IOException {
-        final Entity e = this.entityService.retrieve(entityId);
+    public DeferredResult<Binary> retrieve(@PathVariable("id") final String entityId,
+            @PathVariable("name") final String name) {
+        return defer(this.entityService.retrieveAsync(entityId).thenApply(new Function<Entity, Binary>() {
+
+            @Override
+            public Binary apply(Entity e) {
+                try {
+                    return getBinary(e, name);
+                } catch (IOException ex) {
+                    throw new CompletionException(ex);
+                }
+            }
+        }));
+    }
+
+    private Binary getBinary(Entity e, String name) throws IOException {
         if (e.getBinaries() == null || !e.getBinaries().containsKey(name)) {
-            throw new IOException("The Binary " + name + " does not exist on the entity " + entityId);
+            throw new IOException("The Binary " + name + " does not exist on the entity " + e.getId());
         }
         return e.getBinaries().get(name);
     }
@@ -158,36 +204,237 @@ public class BinaryController extends AbstractLarchController {
     public ModelAndView retrieveHtml(@PathVariable("id") final String entityId,
             @PathVariable("name") final String name) throws IOException {
         final ModelMap model = new ModelMap();
-        model.addAttribute("binary", this.retrieve(entityId, name));
+        model.addAttribute("binary", this.getBinary(this.entityService.retrieve(entityId), name));
         model.addAttribute("metadataTypes", schemaService.getSchemaTypes());
         return new ModelAndView("binary", model);
     }
 
     /**
      * Controller method for downloading the content (i.e. The actual bytes) of a
-     * {@link net.objecthunter.larch.model .Binary}.
+     * {@link net.objecthunter.larch.model .Binary}. Binaries kept in local files by the blob store are handed to the
+     * servlet container's sendfile support if available or transferred from the file's channel, all other binaries
+     * are streamed from the blob store. The Binary's checksum is used as entity tag and conditional requests using
+     * <code>If-None-Match</code> or <code>If-Modified-Since</code> are answered with <code>304 Not Modified</code>.
+     * Requests for one or more byte ranges are answered with <code>206 Partial Content</code>.
      * 
      * @param id The {@link net.objecthunter.larch.model.Entity}'s id, which contains the requested Binary
      * @param name The name of the Binary
+     * @param request The {@link javax.servlet.http.HttpServletRequest} which gets injected by Spring MVC. This is used
+     *        to evaluate the conditional and range headers and to check for and request the sendfile support of the
+     *        servlet container.
      * @param response The {@link javax.servlet.http.HttpServletResponse} which gets injected by Spring MVC. This is
      *        used to write the actual byte stream to the client.
      * @throws IOException
      */
     @RequestMapping(value = "/entity/{id}/binary/{binary-name}/content", method = RequestMethod.GET)
-    @ResponseStatus(HttpStatus.OK)
     @ResponseBody
     public void download(@PathVariable("id") final String id, @PathVariable("binary-name") final String name,
-            final HttpServletResponse response) throws IOException {
-        // TODO: Content Size
-        final Entity e = entityService.retrieve(id);
-        final Binary bin = e.getBinaries().get(name);
-        response.setContentType(bin.getMimetype());
-        response.setContentLength(-1);
+            final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        final Binary bin = this.getBinary(entityService.retrieve(id), name);
+        final String etag = bin.getChecksum() == null ? null : "\"" + bin.getChecksum() + "\"";
+        final long lastModified = parseLastModified(bin.getUtcLastModified());
+        response.setHeader("Accept-Ranges", "bytes");
+        if (etag != null) {
+            response.setHeader("ETag", etag);
+        }
+        if (lastModified >= 0) {
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+        if (isNotModified(request, etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
         response.setHeader("Content-Disposition", "inline");
-        IOUtils.copy(entityService.retrieveBinary(bin.getPath()), response.getOutputStream());
+        final Path file = entityService.retrieveBinaryFile(bin.getPath());
+        if (file == null) {
+            final long size = bin.getSize();
+            final List<ByteRange> ranges = getRanges(request, etag, lastModified, size);
+            if (ranges == null) {
+                response.setContentType(bin.getMimetype());
+                response.setHeader("Content-Length", String.valueOf(size));
+                try (final InputStream src = entityService.retrieveBinary(bin.getPath())) {
+                    IOUtils.copyLarge(src, response.getOutputStream(), new byte[STREAM_BUFFER_SIZE]);
+                }
+            } else {
+                sendRanges(bin, null, ranges, size, response);
+            }
+            response.flushBuffer();
+            return;
+        }
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the size of the file is what gets sent, even if the size recorded for the Binary is off
+            final long size = channel.size();
+            final List<ByteRange> ranges = getRanges(request, etag, lastModified, size);
+            if (ranges != null && ranges.size() != 1) {
+                sendRanges(bin, channel, ranges, size, response);
+                response.flushBuffer();
+                return;
+            }
+            final long start;
+            final long length;
+            response.setContentType(bin.getMimetype());
+            if (ranges == null) {
+                start = 0;
+                length = size;
+            } else {
+                final ByteRange range = ranges.get(0);
+                start = range.getStart();
+                length = range.getLength();
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", range.toContentRange(size));
+            }
+            response.setHeader("Content-Length", String.valueOf(length));
+            if (length >= SENDFILE_MIN_SIZE && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR))) {
+                // the container writes the file to the socket once this method returns
+                request.setAttribute(SENDFILE_FILENAME_ATTR, file.toAbsolutePath().toString());
+                request.setAttribute(SENDFILE_START_ATTR, start);
+                request.setAttribute(SENDFILE_END_ATTR, start + length);
+                return;
+            }
+            transfer(channel, start, length, response.getOutputStream());
+        }
         response.flushBuffer();
     }
 
+    /*
+     * Write the given ranges of a Binary either read from the file channel or streamed from the blob store. A single
+     * range is sent as is, multiple ranges are sent as multipart/byteranges and an empty list of ranges results in a
+     * 416
+     */
+    private void sendRanges(final Binary bin, final FileChannel channel, final List<ByteRange> ranges,
+            final long size, final HttpServletResponse response) throws IOException {
+        if (ranges.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader("Content-Range", "bytes */" + size);
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        final OutputStream sink = response.getOutputStream();
+        if (ranges.size() == 1) {
+            final ByteRange range = ranges.get(0);
+            response.setContentType(bin.getMimetype());
+            response.setHeader("Content-Range", range.toContentRange(size));
+            response.setHeader("Content-Length", String.valueOf(range.getLength()));
+            sendRange(bin, channel, range, sink);
+            return;
+        }
+        final String boundary = RandomStringUtils.randomAlphanumeric(32);
+        final List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        final byte[] trailer = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        long length = trailer.length;
+        for (final ByteRange range : ranges) {
+            final byte[] partHeader =
+                    ((partHeaders.isEmpty() ? "" : "\r\n") + "--" + boundary + "\r\nContent-Type: "
+                            + bin.getMimetype() + "\r\nContent-Range: " + range.toContentRange(size) + "\r\n\r\n")
+                            .getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeader);
+            length += partHeader.length + range.getLength();
+        }
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setHeader("Content-Length", String.valueOf(length));
+        for (int i = 0; i < ranges.size(); i++) {
+            sink.write(partHeaders.get(i));
+            sendRange(bin, channel, ranges.get(i), sink);
+        }
+        sink.write(trailer);
+    }
+
+    private void sendRange(final Binary bin, final FileChannel channel, final ByteRange range,
+            final OutputStream sink) throws IOException {
+        if (channel != null) {
+            transfer(channel, range.getStart(), range.getLength(), sink);
+            return;
+        }
+        try (final InputStream src =
+                entityService.retrieveBinary(bin.getPath(), range.getStart(), range.getLength())) {
+            IOUtils.copyLarge(src, sink, new byte[STREAM_BUFFER_SIZE]);
+        }
+    }
+
+    private static void transfer(final FileChannel channel, final long start, final long length,
+            final OutputStream sink) throws IOException {
+        final WritableByteChannel target = Channels.newChannel(sink);
+        long position = start;
+        while (position < start + length) {
+            position += channel.transferTo(position, start + length - position, target);
+        }
+    }
+
+    /*
+     * Get the ranges requested by the client or null if the complete content has to be sent, because there is no
+     * valid Range header or the If-Range condition does not hold
+     */
+    private static List<ByteRange> getRanges(final HttpServletRequest request, final String etag,
+            final long lastModified, final long size) {
+        final String header = request.getHeader("Range");
+        if (header == null) {
+            return null;
+        }
+        final String ifRange = request.getHeader("If-Range");
+        if (ifRange != null) {
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+                // a weak entity tag never matches in If-Range
+                if (!ifRange.equals(etag)) {
+                    return null;
+                }
+            } else {
+                final long date = getDateHeader(request, "If-Range");
+                if (lastModified < 0 || date != lastModified) {
+                    return null;
+                }
+            }
+        }
+        final List<ByteRange> ranges = ByteRange.parse(header, size);
+        if (ranges != null && ranges.size() > MAX_RANGES) {
+            return null;
+        }
+        return ranges;
+    }
+
+    private static boolean isNotModified(final HttpServletRequest request, final String etag,
+            final long lastModified) {
+        final String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            // If-Modified-Since has to be ignored if the client sends entity tags
+            if (etag == null) {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        final long ifModifiedSince = getDateHeader(request, "If-Modified-Since");
+        return ifModifiedSince >= 0 && lastModified >= 0 && lastModified <= ifModifiedSince;
+    }
+
+    /* HTTP dates have a granularity of seconds, so the milliseconds are cut off for the comparison */
+    private static long parseLastModified(final String utcLastModified) {
+        if (utcLastModified == null) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(utcLastModified).toEpochSecond() * 1000;
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private static long getDateHeader(final HttpServletRequest request, final String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            // a malformed date is ignored like a missing one
+            return -1;
+        }
+    }
+
     /**
      * Controller method to delete a binary
      * 
@@ -29,6 +29,7 @@ import org.springframework.ui.ModelMap;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.ModelAndView;
 
@@ -46,17 +47,21 @@ public class BrowseController extends AbstractLarchController {
     private PublishService publishService;
 
     /**
-     * Controller method for getting {@link net.objecthunter.larch.model.SearchResult} containing all stored
-     * {@link net.objecthunter.larch.model.Entity}s
+     * Controller method for getting a page of a {@link net.objecthunter.larch.model.SearchResult} containing all
+     * stored {@link net.objecthunter.larch.model.Entity}s, the most recently modified first
      * 
-     * @return A SearchResult containing {@link net.objecthunter.larch.model.Entity}'s identifiers
+     * @param cursor The cursor contained in the previous page or empty for the first page
+     * @param numRecords The maximal number of records to return
+     * @return A SearchResult containing {@link net.objecthunter.larch.model.Entity}'s identifiers and the cursor of
+     *         the next page
      * @throws IOException
      */
     @RequestMapping(method = RequestMethod.GET)
     @ResponseBody
     @PreAuthorize("hasAnyRole('ROLE_USER', 'ROLE_ADMIN')")
-    public SearchResult browse() throws IOException {
-        return this.entityService.scanIndex(0);
+    public SearchResult browse(@RequestParam(value = "cursor", required = false) final String cursor,
+            @RequestParam(value = "count", defaultValue = "50") final int numRecords) throws IOException {
+        return this.entityService.browse(cursor, numRecords);
     }
 
     /**
@@ -92,18 +97,21 @@ public class BrowseController extends AbstractLarchController {
     }
 
     /**
-     * Controller method for getting a HTML View using Spring MVC templating mechanism containing stored
-     * {@link net.objecthunter.larch.model.Entity}s.
+     * Controller method for getting a HTML View using Spring MVC templating mechanism containing a page of stored
+     * {@link net.objecthunter.larch.model.Entity}s, the most recently modified first
      * 
+     * @param cursor The cursor contained in the previous page or empty for the first page
+     * @param numRecords The maximal number of records to return
      * @return A {@link org.springframework.web.servlet.ModelAndView} showing the browse result
      * @throws IOException
      */
     @RequestMapping(method = RequestMethod.GET, produces = "text/html")
     @ResponseBody
     @PreAuthorize("hasAnyRole('ROLE_USER', 'ROLE_ADMIN')")
-    public ModelAndView browseHtml() throws IOException {
+    public ModelAndView browseHtml(@RequestParam(value = "cursor", required = false) final String cursor,
+            @RequestParam(value = "count", defaultValue = "50") final int numRecords) throws IOException {
         final ModelMap model = new ModelMap();
-        model.addAttribute("result", this.entityService.scanIndex(0));
+        model.addAttribute("result", this.entityService.browse(cursor, numRecords));
         return new ModelAndView("browse", model);
     }
 
@@ -144,16 +152,20 @@ public class BrowseController extends AbstractLarchController {
     }
 
     /**
-     * Controller method for getting {@link net.objecthunter.larch.model.SearchResult} containing all stored
-     * {@link net.objecthunter.larch.model.Entity}s
+     * Controller method for getting a page of a {@link net.objecthunter.larch.model.SearchResult} containing all
+     * published {@link net.objecthunter.larch.model.Entity}s, the most recently modified first
      * 
-     * @return A SearchResult containing {@link net.objecthunter.larch.model.Entity}'s identifiers
+     * @param cursor The cursor contained in the previous page or empty for the first page
+     * @param numRecords The maximal number of records to return
+     * @return A SearchResult containing {@link net.objecthunter.larch.model.Entity}'s identifiers and the cursor of
+     *         the next page
      * @throws IOException
      */
     @RequestMapping(value = "/published", method = RequestMethod.GET)
     @ResponseBody
-    public SearchResult browsePublished() throws IOException {
-        return this.publishService.scanIndex(0);
+    public SearchResult browsePublished(@RequestParam(value = "cursor", required = false) final String cursor,
+            @RequestParam(value = "count", defaultValue = "50") final int numRecords) throws IOException {
+        return this.publishService.browse(cursor, numRecords);
     }
 
     /**
@@ -187,17 +199,20 @@ public class BrowseController extends AbstractLarchController {
     }
 
     /**
-     * Controller method for getting a HTML View using Spring MVC templating mechanism containing stored
-     * {@link net.objecthunter.larch.model.Entity}s.
+     * Controller method for getting a HTML View using Spring MVC templating mechanism containing a page of published
+     * {@link net.objecthunter.larch.model.Entity}s, the most recently modified first
      * 
+     * @param cursor The cursor contained in the previous page or empty for the first page
+     * @param numRecords The maximal number of records to return
      * @return A {@link org.springframework.web.servlet.ModelAndView} showing the browse result
      * @throws IOException
      */
     @RequestMapping(value = "/published", method = RequestMethod.GET, produces = "text/html")
     @ResponseBody
-    public ModelAndView browsePublishedHtml() throws IOException {
+    public ModelAndView browsePublishedHtml(@RequestParam(value = "cursor", required = false) final String cursor,
+            @RequestParam(value = "count", defaultValue = "50") final int numRecords) throws IOException {
         final ModelMap model = new ModelMap();
-        model.addAttribute("result", this.publishService.scanIndex(0));
+        model.addAttribute("result", this.publishService.browse(cursor, numRecords));
         return new ModelAndView("browsepublished", model);
     }
 
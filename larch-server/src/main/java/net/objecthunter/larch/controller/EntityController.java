@@ -18,28 +18,49 @@ package net.objecthunter.larch.controller;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletResponse;
+
+import net.objecthunter.larch.exceptions.ConflictException;
+import net.objecthunter.larch.exceptions.PreconditionFailedException;
 import net.objecthunter.larch.helpers.AuditRecords;
 import net.objecthunter.larch.model.AlternativeIdentifier;
+import net.objecthunter.larch.model.AuditRecord;
+import net.objecthunter.larch.model.BulkItemResult;
 import net.objecthunter.larch.model.Entities;
 import net.objecthunter.larch.model.Entity;
+import net.objecthunter.larch.model.EntityChildren;
+import net.objecthunter.larch.model.Versions;
 import net.objecthunter.larch.service.EntityService;
 import net.objecthunter.larch.service.MessagingService;
 import net.objecthunter.larch.service.SchemaService;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.servlet.ModelAndView;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
@@ -61,6 +82,21 @@ public class EntityController extends AbstractLarchController {
     @Autowired
     private ObjectMapper mapper;
 
+    @Autowired
+    private Environment env;
+
+    private static final int HTML_CHILDREN_PAGE_SIZE = 100;
+
+    private int bulkBatchSize = 500;
+
+    @PostConstruct
+    public void init() {
+        final String batchSize = env.getProperty("larch.bulk.batch.size");
+        if (batchSize != null && !batchSize.isEmpty()) {
+            bulkBatchSize = Integer.parseInt(batchSize);
+        }
+    }
+
     /**
      * Controller method for patching an {@link net.objecthunter.larch.model.Entity} stored in the repository. The
      * patch method allows only a set of given fields to be updated and therefore allowing for more efficient resource
@@ -82,17 +118,29 @@ public class EntityController extends AbstractLarchController {
 
     /**
      * Controller method for retrieval of a JSON representation of the current version of an
-     * {@link net.objecthunter .larch.model.Entity}
+     * {@link net.objecthunter .larch.model.Entity}. The version of the stored document is sent in the ETag header and
+     * can be used in an If-Match header of a subsequent update. The request thread is released while the Entity is
+     * fetched. The ids of the children are only included on request, otherwise just their number is sent.
      * 
      * @param id the {@link net.objecthunter.larch.model.Entity}'s id
+     * @param children whether to include the ids of all the Entity's children
      * @return An Entity object which gets transformed into a JSON response by Spring MVC
      * @throws IOException
      */
     @RequestMapping("/{id}")
-    @ResponseBody
-    @ResponseStatus(HttpStatus.OK)
-    public Entity retrieve(@PathVariable("id") final String id) throws IOException {
-        return entityService.retrieve(id);
+    public DeferredResult<ResponseEntity<Entity>> retrieve(@PathVariable("id") final String id, @RequestParam(
+            value = "children", defaultValue = "false") final boolean children) throws IOException {
+        final CompletableFuture<Entity> entity =
+                children ? entityService.retrieveWithChildrenAsync(id) : entityService.retrieveAsync(id);
+        return defer(entity.thenApply(new Function<Entity, ResponseEntity<Entity>>() {
+
+            @Override
+            public ResponseEntity<Entity> apply(Entity e) {
+                final HttpHeaders headers = new HttpHeaders();
+                headers.setETag("\"" + e.getDocumentVersion() + "\"");
+                return new ResponseEntity<>(e, headers, HttpStatus.OK);
+            }
+        }));
     }
 
     /**
@@ -109,11 +157,33 @@ public class EntityController extends AbstractLarchController {
     public ModelAndView retrieveHtml(@PathVariable("id") final String id) throws IOException {
         final ModelMap model = new ModelMap();
         model.addAttribute("entity", entityService.retrieve(id));
+        // the view only shows the first children, so no cursor is opened for the following pages
+        model.addAttribute("children", entityService.retrieveFirstChildren(id, HTML_CHILDREN_PAGE_SIZE));
         model.addAttribute("metadataTypes", this.schemaService.getSchemaTypes());
         model.addAttribute("identifierTypes", AlternativeIdentifier.IdentifierType.values());
         return new ModelAndView("entity", model);
     }
 
+    /**
+     * Controller method for retrieval of a page of the ids of the child entities of an
+     * {@link net.objecthunter.larch.model.Entity}. The cursor contained in the response can be passed to fetch the
+     * next page, in which case the cursor determines the parent and the page size.
+     * 
+     * @param id the {@link net.objecthunter.larch.model.Entity}'s id
+     * @param cursor the cursor of the previous page or empty for the first page
+     * @param numRecords the number of children in a page
+     * @return An EntityChildren object which gets transformed into a JSON response by Spring MVC
+     * @throws IOException
+     */
+    @RequestMapping("/{id}/children")
+    @ResponseBody
+    @ResponseStatus(HttpStatus.OK)
+    public EntityChildren retrieveChildren(@PathVariable("id") final String id, @RequestParam(value = "cursor",
+            required = false) final String cursor, @RequestParam(value = "count", defaultValue = "100")
+            final int numRecords) throws IOException {
+        return entityService.retrieveChildren(id, cursor, numRecords);
+    }
+
     /**
      * Controller method for retrieval of a JSON representation of a given version of an
      * {@link net.objecthunter.larch.model.Entity}
@@ -151,10 +221,12 @@ public class EntityController extends AbstractLarchController {
     }
 
     /**
-     * Controller method for retrieval of a JSON representation of all versions of an
-     * {@link net.objecthunter.larch.model.Entity}
+     * Controller method for retrieval of a JSON representation of a page of the versions of an
+     * {@link net.objecthunter.larch.model.Entity}, starting with the current version on the first page
      * 
      * @param id the {@link net.objecthunter.larch.model.Entity}'s id
+     * @param offset the number of versions to skip
+     * @param numRecords the number of versions in a page
      * @return An Entities object which gets transformed into a JSON response by Spring MVC
      * @throws IOException
      */
@@ -162,17 +234,19 @@ public class EntityController extends AbstractLarchController {
     @ResponseBody
     @ResponseStatus(HttpStatus.OK)
     @PreAuthorize("hasAnyRole('ROLE_USER', 'ROLE_ADMIN')")
-    public Entities retrieveVersions(@PathVariable("id") final String id) throws IOException {
-        Entities entities = entityService.getOldVersions(id);
-        entities.getEntities().add(0, entityService.retrieve(id));
-        return entities;
+    public Entities retrieveVersions(@PathVariable("id") final String id, @RequestParam(value = "offset",
+            defaultValue = "0") final int offset, @RequestParam(value = "count", defaultValue = "1000")
+            final int numRecords) throws IOException {
+        return entityService.retrieveVersions(id, offset, numRecords);
     }
 
     /**
-     * Controller method for retrieval of a HTML view of all versions of an
+     * Controller method for retrieval of a HTML view of a page of the versions of an
      * {@link net.objecthunter.larch.model.Entity}
      * 
      * @param id the {@link net.objecthunter.larch.model.Entity}'s id
+     * @param offset the number of versions to skip
+     * @param numRecords the number of versions in a page
      * @return A Spring MVC {@link org.springframework.web.servlet.ModelAndView} for rendering the HTML view
      * @throws IOException
      */
@@ -180,14 +254,38 @@ public class EntityController extends AbstractLarchController {
     @ResponseBody
     @ResponseStatus(HttpStatus.OK)
     @PreAuthorize("hasAnyRole('ROLE_USER', 'ROLE_ADMIN')")
-    public ModelAndView retrieveVersionsHtml(@PathVariable("id") final String id) throws IOException {
+    public ModelAndView retrieveVersionsHtml(@PathVariable("id") final String id, @RequestParam(value = "offset",
+            defaultValue = "0") final int offset, @RequestParam(value = "count", defaultValue = "20")
+            final int numRecords) throws IOException {
         final ModelMap model = new ModelMap();
-        Entities entities = entityService.getOldVersions(id);
-        entities.getEntities().add(0, entityService.retrieve(id));
-        model.addAttribute("entities", entities);
+        model.addAttribute("id", id);
+        model.addAttribute("entities", entityService.retrieveVersions(id, offset, numRecords));
+        model.addAttribute("offset", offset);
+        model.addAttribute("numRecords", numRecords);
         return new ModelAndView("versions", model);
     }
 
+    /**
+     * Controller method for retrieval of a JSON representation of a page of the summaries of the old versions of an
+     * {@link net.objecthunter.larch.model.Entity}. The summaries do not require the old versions to be loaded from
+     * the blobstore.
+     * 
+     * @param id the {@link net.objecthunter.larch.model.Entity}'s id
+     * @param offset the number of old versions to skip
+     * @param numRecords the number of summaries in a page
+     * @return A Versions object which gets transformed into a JSON response by Spring MVC
+     * @throws IOException
+     */
+    @RequestMapping("/{id}/versions/summary")
+    @ResponseBody
+    @ResponseStatus(HttpStatus.OK)
+    @PreAuthorize("hasAnyRole('ROLE_USER', 'ROLE_ADMIN')")
+    public Versions retrieveVersionSummaries(@PathVariable("id") final String id, @RequestParam(value = "offset",
+            defaultValue = "0") final int offset, @RequestParam(value = "count", defaultValue = "50")
+            final int numRecords) throws IOException {
+        return entityService.retrieveVersionSummaries(id, offset, numRecords);
+    }
+
     /**
      * Controller method for creation of a new {@link net.objecthunter.larch.model.Entity} using a HTTP POST with the
      * JSON representation of the entity as the request body
@@ -207,30 +305,113 @@ public class EntityController extends AbstractLarchController {
         return id;
     }
 
+    /**
+     * Controller method for the creation of multiple {@link net.objecthunter.larch.model.Entity}s using a HTTP POST
+     * with a stream of JSON representations of the entities (e.g. newline delimited JSON) as the request body. The
+     * entities are parsed incrementally and created in batches of <code>larch.bulk.batch.size</code> entities, so the
+     * request body is never held in memory completely. The response is a JSON array containing a
+     * {@link net.objecthunter.larch.model.BulkItemResult} for each entity which is written batch by batch.
+     * 
+     * @param src The Stream injected by Spring MVC containing the JSON representations of the Entities to create.
+     * @param response The {@link javax.servlet.http.HttpServletResponse} which gets injected by Spring MVC. This is
+     *        used to write the results of the single items to the client.
+     * @throws IOException
+     */
+    @RequestMapping(value = "/bulk", method = RequestMethod.POST, consumes = { "application/x-ndjson",
+            "application/json" })
+    @ResponseStatus(HttpStatus.OK)
+    @PreAuthorize("hasAnyRole('ROLE_USER', 'ROLE_ADMIN')")
+    public void createBulk(final InputStream src, final HttpServletResponse response) throws IOException {
+        response.setContentType("application/json");
+        final MappingIterator<Entity> entities = mapper.reader(Entity.class).readValues(src);
+        try (final JsonGenerator generator = mapper.getFactory().createGenerator(response.getOutputStream())) {
+            generator.writeStartArray();
+            final List<Entity> batch = new ArrayList<>(bulkBatchSize);
+            int position = 0;
+            while (entities.hasNextValue()) {
+                batch.add(entities.nextValue());
+                if (batch.size() == bulkBatchSize) {
+                    position = this.createBatch(batch, position, generator);
+                }
+            }
+            if (!batch.isEmpty()) {
+                this.createBatch(batch, position, generator);
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    private int createBatch(final List<Entity> batch, int position, final JsonGenerator generator)
+            throws IOException {
+        final List<BulkItemResult> results = this.entityService.create(batch);
+        final List<AuditRecord> records = new ArrayList<>(results.size());
+        final List<String> ids = new ArrayList<>(results.size());
+        for (final BulkItemResult result : results) {
+            result.setPosition(position++);
+            if (!result.isFailed()) {
+                records.add(AuditRecords.createEntityRecord(result.getId()));
+                ids.add(result.getId());
+            }
+        }
+        this.entityService.createAuditRecords(records);
+        this.messagingService.publishCreateEntities(ids);
+        for (final BulkItemResult result : results) {
+            generator.writeObject(result);
+        }
+        generator.flush();
+        batch.clear();
+        return position;
+    }
+
     /**
      * Controller method for updating an {@link net.objecthunter.larch.model.Entity} using a HTTP PUT with a JSON
      * entity representation as request body
      * 
      * @param id The is of the Entity to update
+     * @param ifMatch The optional ETag of the Entity version the update is based on. If the stored Entity has been
+     *        changed in the meantime, the update is rejected with status 412
      * @param src The Stream injected by Spring MVC containing the JSON representation of the updated Entity
      * @throws IOException
      */
     @RequestMapping(value = "/{id}", method = RequestMethod.PUT, consumes = "application/json")
     @ResponseStatus(HttpStatus.OK)
     @PreAuthorize("hasAnyRole('ROLE_USER', 'ROLE_ADMIN')")
-    public void update(@PathVariable("id") final String id, final InputStream src) throws IOException {
+    public void update(@PathVariable("id") final String id,
+            @RequestHeader(value = "If-Match", required = false) final String ifMatch, final InputStream src)
+            throws IOException {
         final Entity e = mapper.readValue(src, Entity.class);
+        e.setDocumentVersion(parseETag(ifMatch));
         if (e.getId() == null) {
             e.setId(id);
         }
         else if (!e.getId().equals(id)) {
             throw new IOException("The id of the Entity and the id used in the PUT request are not the same");
         }
-        this.entityService.update(e);
+        try {
+            this.entityService.update(e);
+        } catch (ConflictException ex) {
+            if (ifMatch == null) {
+                throw ex;
+            }
+            // any concurrent change means that the entity does not match the given ETag anymore
+            throw new PreconditionFailedException("The entity " + id + " does not match the ETag " + ifMatch);
+        }
         this.entityService.createAuditRecord(AuditRecords.updateEntityRecord(id));
         this.messagingService.publishUpdateEntity(id);
     }
 
+    private long parseETag(final String etag) throws PreconditionFailedException {
+        if (etag == null || etag.trim().equals("*")) {
+            return 0;
+        }
+        final String value = etag.trim().replaceFirst("^W/", "").replace("\"", "");
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            throw new PreconditionFailedException("The ETag " + etag + " does not match the entity");
+        }
+    }
+
     @RequestMapping(value = "/{id}/publish", method = RequestMethod.POST)
     @ResponseStatus(HttpStatus.OK)
     @ResponseBody
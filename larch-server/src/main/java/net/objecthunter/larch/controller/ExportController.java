@@ -0,0 +1,125 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package net.objecthunter.larch.controller;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+import net.objecthunter.larch.exceptions.InvalidParameterException;
+import net.objecthunter.larch.service.ExportService;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * Web controller responsible for exporting the repository's content
+ */
+@Controller
+@RequestMapping("/export")
+public class ExportController extends AbstractLarchController {
+
+    @Autowired
+    private ExportService exportService;
+
+    /**
+     * Controller method streaming all {@link net.objecthunter.larch.model.Entity}s as newline delimited JSON. The
+     * response is compressed if the client accepts gzip encoding
+     * 
+     * @param modifiedSince an optional ISO 8601 timestamp restricting the export to Entities modified at or after it,
+     *        which can be used for incremental backups
+     * @param withVersions whether to include the old versions of each Entity
+     * @param withAuditRecords whether to include the audit records of each Entity
+     * @param acceptEncoding the Accept-Encoding header sent by the client
+     * @param response the {@link javax.servlet.http.HttpServletResponse} the export is streamed to
+     * @throws IOException
+     */
+    @RequestMapping(value = "/entities", method = RequestMethod.GET)
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public void exportEntities(
+            @RequestParam(value = "modifiedSince", required = false) final String modifiedSince,
+            @RequestParam(value = "versions", defaultValue = "false") final boolean withVersions,
+            @RequestParam(value = "audit", defaultValue = "false") final boolean withAuditRecords,
+            @RequestHeader(value = "Accept-Encoding", required = false) final String acceptEncoding,
+            final HttpServletResponse response) throws IOException {
+        String since = null;
+        if (modifiedSince != null && !modifiedSince.isEmpty()) {
+            try {
+                since = ZonedDateTime.parse(modifiedSince).withZoneSameInstant(ZoneOffset.UTC).toString();
+            } catch (DateTimeParseException e) {
+                throw new InvalidParameterException("modifiedSince has to be an ISO 8601 timestamp");
+            }
+        }
+        response.setContentType("application/x-ndjson");
+        // the encoding of the response depends on the request header, which caches have to take into account
+        response.setHeader("Vary", "Accept-Encoding");
+        final boolean gzip = acceptsGzip(acceptEncoding);
+        if (gzip) {
+            response.setHeader("Content-Encoding", "gzip");
+        }
+        try (final OutputStream sink =
+                gzip ? new GZIPOutputStream(response.getOutputStream(), 8192) : response.getOutputStream()) {
+            this.exportService.exportEntities(sink, since, withVersions, withAuditRecords);
+        }
+    }
+
+    /**
+     * Check whether an Accept-Encoding header allows a gzip encoded response. An encoding listed with a quality value
+     * of 0 is not acceptable, and the wildcard only applies if gzip is not listed explicitly
+     * 
+     * @param acceptEncoding the value of the header or null if it has not been sent
+     * @return true if the response may be gzip encoded
+     */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        boolean wildcard = false;
+        for (final String coding : acceptEncoding.split(",")) {
+            final String[] params = coding.split(";");
+            final String name = params[0].trim().toLowerCase();
+            double quality = 1d;
+            for (int i = 1; i < params.length; i++) {
+                final String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        quality = 0d;
+                    }
+                }
+            }
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                return quality > 0d;
+            }
+            if (name.equals("*")) {
+                wildcard = quality > 0d;
+            }
+        }
+        return wildcard;
+    }
+}
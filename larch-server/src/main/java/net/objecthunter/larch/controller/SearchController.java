@@ -18,16 +18,20 @@ package net.objecthunter.larch.controller;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import javax.servlet.http.HttpServletRequest;
 
+import net.objecthunter.larch.exceptions.InvalidParameterException;
 import net.objecthunter.larch.model.SearchResult;
 import net.objecthunter.larch.service.EntityService;
 import net.objecthunter.larch.service.PublishService;
+import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchEntityService.EntitiesAggregation;
 import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchEntityService.EntitiesSearchField;
 
 import org.apache.commons.lang3.StringUtils;
@@ -37,6 +41,7 @@ import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.servlet.ModelAndView;
 
 /**
@@ -54,7 +59,10 @@ public class SearchController extends AbstractLarchController {
 
     /**
      * Controller method for searching {@link net.objecthunter.larch.model.Entity}s in the repository using an HTTP
-     * POST which returns a JSON representation of the {@link net.objecthunter.larch.model.SearchResult}
+     * POST which returns a JSON representation of the {@link net.objecthunter.larch.model.SearchResult}. The hits can
+     * be counted by type, state, tag, parent and creation date in the same request by adding the parameter
+     * <code>facet</code> once per aggregation, the interval of the creation date histogram is set by the parameter
+     * <code>interval</code>. The request thread is released while the index is searched.
      * 
      * @param query The search query
      * @return A {@link net.objecthunter.larch.model.SearchResult} containing the found
@@ -62,8 +70,9 @@ public class SearchController extends AbstractLarchController {
      */
     @RequestMapping(method = RequestMethod.POST, produces = { "application/json" })
     @PreAuthorize("hasAnyRole('ROLE_USER', 'ROLE_ADMIN')")
-    public SearchResult searchMatchFields(final HttpServletRequest request) throws IOException {
-        return entityService.searchEntities(fillSearchFields(request));
+    public DeferredResult<SearchResult> searchMatchFields(final HttpServletRequest request) throws IOException {
+        return defer(entityService.searchEntitiesAsync(fillSearchFields(request), fillAggregations(request), request
+                .getParameter("interval")));
     }
 
     /**
@@ -102,7 +111,8 @@ public class SearchController extends AbstractLarchController {
     @PreAuthorize("hasAnyRole('ROLE_USER', 'ROLE_ADMIN')")
     public ModelAndView searchMatchFieldsHtml(final HttpServletRequest request) throws IOException {
         final ModelMap model = new ModelMap();
-        model.addAttribute("result", searchMatchFields(request));
+        model.addAttribute("result", entityService.searchEntities(fillSearchFields(request),
+                fillAggregations(request), request.getParameter("interval")));
         return new ModelAndView("searchresult", model);
     }
 
@@ -120,6 +130,31 @@ public class SearchController extends AbstractLarchController {
         return new ModelAndView("searchresultpublished", model);
     }
 
+    /**
+     * Collect the aggregations requested by the parameter <code>facet</code>.
+     * 
+     * @param request HttpServletRequest
+     * @return the requested aggregations
+     * @throws InvalidParameterException if an unknown aggregation has been requested
+     */
+    private Set<EntitiesAggregation> fillAggregations(HttpServletRequest request) throws InvalidParameterException {
+        final Set<EntitiesAggregation> aggregations = EnumSet.noneOf(EntitiesAggregation.class);
+        final String[] facets = request.getParameterValues("facet");
+        if (facets != null) {
+            for (final String facet : facets) {
+                if (StringUtils.isBlank(facet)) {
+                    continue;
+                }
+                final EntitiesAggregation aggregation = EntitiesAggregation.getWithRequestParameter(facet.trim());
+                if (aggregation == null) {
+                    throw new InvalidParameterException("Unknown facet " + facet);
+                }
+                aggregations.add(aggregation);
+            }
+        }
+        return aggregations;
+    }
+
     /**
      * Fill all Parameters that are search-fields into Map.
      * 
@@ -0,0 +1,141 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+
+package net.objecthunter.larch.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import net.objecthunter.larch.helpers.AuditRecords;
+import net.objecthunter.larch.model.UploadSession;
+import net.objecthunter.larch.service.EntityService;
+import net.objecthunter.larch.service.MessagingService;
+import net.objecthunter.larch.service.UploadService;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Web controller for uploading the content of {@link net.objecthunter.larch.model.Binary} objects in chunks. A client
+ * creates an upload session, sends the chunks by offset using PUT requests, which may be sent in parallel and out of
+ * order, checks the ranges received by the session and commits it once all the content has been sent.
+ */
+@Controller
+public class UploadController extends AbstractLarchController {
+
+    @Autowired
+    private UploadService uploadService;
+
+    @Autowired
+    private EntityService entityService;
+
+    @Autowired
+    private MessagingService messagingService;
+
+    /**
+     * Controller method for creating a new upload session for a {@link net.objecthunter.larch.model.Binary}
+     * 
+     * @param entityId the id of the {@link net.objecthunter.larch.model.Entity} the Binary gets added to
+     * @param name the name of the Binary
+     * @param mimeType the mime type of the Binary
+     * @param size the size of the Binary's content in bytes
+     * @return the created {@link net.objecthunter.larch.model.UploadSession} which gets transformed into a JSON
+     *         response by Spring MVC
+     * @throws IOException
+     */
+    @RequestMapping(value = "/entity/{id}/binary/upload", method = RequestMethod.POST)
+    @ResponseStatus(HttpStatus.CREATED)
+    @ResponseBody
+    @PreAuthorize("hasAnyRole('ROLE_USER', 'ROLE_ADMIN')")
+    public UploadSession createSession(@PathVariable("id") final String entityId,
+            @RequestParam("name") final String name, @RequestParam("mimetype") final String mimeType,
+            @RequestParam("size") final long size) throws IOException {
+        return uploadService.createSession(entityId, name, mimeType, size);
+    }
+
+    /**
+     * Controller method for retrieving the state of an upload session, including the ranges received so far
+     * 
+     * @param id the id of the upload session
+     * @return the {@link net.objecthunter.larch.model.UploadSession} which gets transformed into a JSON response by
+     *         Spring MVC
+     * @throws IOException
+     */
+    @RequestMapping(value = "/upload/{upload-id}", method = RequestMethod.GET)
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    @PreAuthorize("hasAnyRole('ROLE_USER', 'ROLE_ADMIN')")
+    public UploadSession retrieveSession(@PathVariable("upload-id") final String id) throws IOException {
+        return uploadService.retrieveSession(id);
+    }
+
+    /**
+     * Controller method for sending a chunk of the content of an upload session
+     * 
+     * @param id the id of the upload session
+     * @param offset the position of the chunk's first byte in the Binary's content
+     * @param src the request body containing the chunk
+     * @return the {@link net.objecthunter.larch.model.UploadSession} including the received chunk which gets
+     *         transformed into a JSON response by Spring MVC
+     * @throws IOException
+     */
+    @RequestMapping(value = "/upload/{upload-id}", method = RequestMethod.PUT)
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    @PreAuthorize("hasAnyRole('ROLE_USER', 'ROLE_ADMIN')")
+    public UploadSession writeChunk(@PathVariable("upload-id") final String id,
+            @RequestParam("offset") final long offset, final InputStream src) throws IOException {
+        return uploadService.writeChunk(id, offset, src);
+    }
+
+    /**
+     * Controller method for committing a completely received upload session, which adds the
+     * {@link net.objecthunter.larch.model.Binary} to its {@link net.objecthunter.larch.model.Entity}
+     * 
+     * @param id the id of the upload session
+     * @throws IOException
+     */
+    @RequestMapping(value = "/upload/{upload-id}/commit", method = RequestMethod.POST)
+    @ResponseStatus(HttpStatus.CREATED)
+    @PreAuthorize("hasAnyRole('ROLE_USER', 'ROLE_ADMIN')")
+    public void commit(@PathVariable("upload-id") final String id) throws IOException {
+        final UploadSession session = uploadService.commit(id);
+        entityService.createAuditRecord(AuditRecords.createBinaryRecord(session.getEntityId()));
+        this.messagingService.publishCreateBinary(session.getEntityId(), session.getName());
+    }
+
+    /**
+     * Controller method for aborting an upload session and discarding the content received so far
+     * 
+     * @param id the id of the upload session
+     * @throws IOException
+     */
+    @RequestMapping(value = "/upload/{upload-id}", method = RequestMethod.DELETE)
+    @ResponseStatus(HttpStatus.OK)
+    @PreAuthorize("hasAnyRole('ROLE_USER', 'ROLE_ADMIN')")
+    public void abort(@PathVariable("upload-id") final String id) throws IOException {
+        uploadService.abort(id);
+    }
+}
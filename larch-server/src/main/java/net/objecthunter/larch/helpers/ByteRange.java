@@ -0,0 +1,129 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+
+package net.objecthunter.larch.helpers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A satisfiable byte range of a representation requested using the HTTP <code>Range</code> header as defined in
+ * RFC 7233
+ */
+public class ByteRange {
+
+    private final long start;
+
+    private final long end;
+
+    public ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Get the position of the first byte of the range
+     * 
+     * @return the first position
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Get the position of the last byte of the range
+     * 
+     * @return the last position, inclusive
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Get the number of bytes in the range
+     * 
+     * @return the length of the range
+     */
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * Create the value of the <code>Content-Range</code> header for this range
+     * 
+     * @param size the size of the complete representation
+     * @return the header value
+     */
+    public String toContentRange(long size) {
+        return "bytes " + start + "-" + end + "/" + size;
+    }
+
+    /**
+     * Parse the value of a <code>Range</code> header into the satisfiable ranges of a representation. Ranges starting
+     * beyond the end of the representation are dropped and ranges reaching beyond it are cut off.
+     * 
+     * @param header the value of the Range header
+     * @param size the size of the representation in bytes
+     * @return the satisfiable ranges, an empty list if none of the ranges can be satisfied or null if the header is
+     *         not a valid byte range header and has to be ignored
+     */
+    public static List<ByteRange> parse(String header, long size) {
+        if (header == null || !header.startsWith("bytes=")) {
+            return null;
+        }
+        final List<ByteRange> ranges = new ArrayList<>();
+        for (String spec : header.substring(6).split(",")) {
+            spec = spec.trim();
+            final int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            final long start;
+            final long end;
+            try {
+                if (dash == 0) {
+                    // a suffix range holding the last n bytes
+                    final long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix == 0) {
+                        continue;
+                    }
+                    start = Math.max(0, size - suffix);
+                    end = size - 1;
+                } else {
+                    start = Long.parseLong(spec.substring(0, dash));
+                    end =
+                            dash == spec.length() - 1 ? size - 1 : Math.min(size - 1, Long.parseLong(spec
+                                    .substring(dash + 1)));
+                    if (end < start && dash < spec.length() - 1
+                            && Long.parseLong(spec.substring(dash + 1)) < start) {
+                        return null;
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (start < 0) {
+                return null;
+            }
+            if (start < size) {
+                ranges.add(new ByteRange(start, end));
+            }
+        }
+        return Collections.unmodifiableList(ranges);
+    }
+}
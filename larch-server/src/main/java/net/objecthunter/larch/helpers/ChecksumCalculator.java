@@ -0,0 +1,225 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+
+package net.objecthunter.larch.helpers;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Calculates the checksums of several algorithms over the same data at once. The data is collected in chunks, and
+ * each full chunk is handed to one task per algorithm on the given {@link java.util.concurrent.Executor}. The tasks of
+ * an algorithm are chained so that the chunks are digested in order, while the algorithms run in parallel to each
+ * other and to the thread feeding the data. At most <code>maxPendingChunks</code> chunks are held before
+ * {@link #update(byte[], int, int)} blocks. Without an executor the checksums are calculated on the calling thread.
+ * <p>
+ * Besides the algorithms of the {@link java.security.MessageDigest} providers <code>CRC32C</code> is supported.
+ */
+public class ChecksumCalculator {
+
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    private final List<String> algorithms;
+
+    private final MessageDigest[] digests;
+
+    private final List<CompletableFuture<Void>> tails;
+
+    private final Executor executor;
+
+    private final Semaphore pendingChunks;
+
+    private byte[] chunk;
+
+    private int chunkLength;
+
+    private long size;
+
+    private Map<String, String> checksums;
+
+    public ChecksumCalculator(List<String> algorithms, Executor executor, int maxPendingChunks)
+            throws NoSuchAlgorithmException {
+        this.algorithms = Collections.unmodifiableList(new ArrayList<>(algorithms));
+        this.digests = new MessageDigest[algorithms.size()];
+        this.tails = new ArrayList<>(algorithms.size());
+        for (int i = 0; i < digests.length; i++) {
+            this.digests[i] = createDigest(algorithms.get(i));
+            this.tails.add(CompletableFuture.<Void> completedFuture(null));
+        }
+        this.executor = executor;
+        this.pendingChunks = new Semaphore(maxPendingChunks);
+    }
+
+    /**
+     * Create a {@link java.security.MessageDigest} for a checksum algorithm
+     * 
+     * @param algorithm the name of the algorithm, e.g. <code>MD5</code>, <code>SHA-256</code> or
+     *        <code>CRC32C</code>
+     * @return a new MessageDigest
+     * @throws NoSuchAlgorithmException if the algorithm is not supported
+     */
+    public static MessageDigest createDigest(String algorithm) throws NoSuchAlgorithmException {
+        if (Crc32cDigest.ALGORITHM.equalsIgnoreCase(algorithm)) {
+            return new Crc32cDigest();
+        }
+        return MessageDigest.getInstance(algorithm);
+    }
+
+    /**
+     * Add a single byte to the checksums
+     * 
+     * @param b the byte
+     * @throws IOException
+     */
+    public void update(byte b) throws IOException {
+        this.update(new byte[] { b }, 0, 1);
+    }
+
+    /**
+     * Add data to the checksums. The data is copied, so the array can be reused once the method returns
+     * 
+     * @param b the array holding the data
+     * @param off the offset of the data in the array
+     * @param len the number of bytes to add
+     * @throws IOException if the calculation of a checksum failed or the thread got interrupted while waiting for a
+     *         free chunk
+     */
+    public void update(byte[] b, int off, int len) throws IOException {
+        if (checksums != null) {
+            throw new IllegalStateException("The checksums have been calculated already");
+        }
+        size += len;
+        if (executor == null) {
+            for (final MessageDigest digest : digests) {
+                digest.update(b, off, len);
+            }
+            return;
+        }
+        while (len > 0) {
+            if (chunk == null) {
+                chunk = new byte[CHUNK_SIZE];
+            }
+            final int count = Math.min(len, CHUNK_SIZE - chunkLength);
+            System.arraycopy(b, off, chunk, chunkLength, count);
+            chunkLength += count;
+            off += count;
+            len -= count;
+            if (chunkLength == CHUNK_SIZE) {
+                this.submitChunk();
+            }
+        }
+    }
+
+    private void submitChunk() throws IOException {
+        for (final CompletableFuture<Void> tail : tails) {
+            if (tail.isCompletedExceptionally()) {
+                // the failed task did not release its chunk, so waiting for a free chunk could block forever
+                this.join();
+            }
+        }
+        try {
+            pendingChunks.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the checksum calculation");
+        }
+        final byte[] data = chunk;
+        final int length = chunkLength;
+        final AtomicInteger remaining = new AtomicInteger(digests.length);
+        for (int i = 0; i < digests.length; i++) {
+            final MessageDigest digest = digests[i];
+            tails.set(i, tails.get(i).thenRunAsync(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        digest.update(data, 0, length);
+                    } finally {
+                        if (remaining.decrementAndGet() == 0) {
+                            pendingChunks.release();
+                        }
+                    }
+                }
+            }, executor));
+        }
+        chunk = null;
+        chunkLength = 0;
+    }
+
+    private void join() throws IOException {
+        try {
+            CompletableFuture.allOf(tails.toArray(new CompletableFuture<?>[tails.size()])).join();
+        } catch (CompletionException e) {
+            throw new IOException("Unable to calculate the checksums", e.getCause());
+        }
+    }
+
+    /**
+     * Get the number of bytes added to the checksums
+     * 
+     * @return the number of bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Get the names of the algorithms in the order they were passed to the constructor
+     * 
+     * @return the names of the algorithms
+     */
+    public List<String> getAlgorithms() {
+        return algorithms;
+    }
+
+    /**
+     * Wait for the calculation to finish and get the checksums. No data can be added afterwards
+     * 
+     * @return a map of the algorithm names to the hex encoded checksums in the order of the algorithms
+     * @throws IOException if the calculation of a checksum failed
+     */
+    public Map<String, String> getChecksums() throws IOException {
+        if (checksums == null) {
+            if (chunkLength > 0) {
+                this.submitChunk();
+            }
+            this.join();
+            final Map<String, String> result = new LinkedHashMap<>();
+            for (int i = 0; i < digests.length; i++) {
+                final StringBuilder hex = new StringBuilder(digests[i].getDigestLength() * 2);
+                for (final byte b : digests[i].digest()) {
+                    hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+                }
+                result.put(algorithms.get(i), hex.toString());
+            }
+            checksums = Collections.unmodifiableMap(result);
+        }
+        return checksums;
+    }
+}
@@ -0,0 +1,87 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+
+package net.objecthunter.larch.helpers;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link java.io.InputStream} implementation which hands all the data read from it to a
+ * {@link net.objecthunter.larch.helpers.ChecksumCalculator}
+ */
+public class ChecksumInputStream extends FilterInputStream {
+
+    private final ChecksumCalculator calculator;
+
+    public ChecksumInputStream(InputStream stream, ChecksumCalculator calculator) {
+        super(stream);
+        this.calculator = calculator;
+    }
+
+    public ChecksumCalculator getCalculator() {
+        return calculator;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int ch = in.read();
+        if (ch != -1) {
+            calculator.update((byte) ch);
+        }
+        return ch;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        final int result = in.read(b, off, len);
+        if (result > 0) {
+            calculator.update(b, off, result);
+        }
+        return result;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // skipped bytes have to be read in order to be part of the checksums
+        final byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            final int read = this.read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+}
@@ -0,0 +1,99 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+
+package net.objecthunter.larch.helpers;
+
+import java.security.MessageDigest;
+
+/**
+ * A {@link java.security.MessageDigest} calculating the CRC32C (Castagnoli) checksum, so that it can be used wherever
+ * the repository expects a digest. The checksum is calculated eight bytes at a time using the slicing-by-8 tables and
+ * returned as four bytes in big endian order
+ */
+public class Crc32cDigest extends MessageDigest {
+
+    public static final String ALGORITHM = "CRC32C";
+
+    /* the reversed Castagnoli polynomial */
+    private static final int POLYNOMIAL = 0x82f63b78;
+
+    private static final int[][] TABLES = new int[8][256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLES[0][i] = crc;
+        }
+        for (int i = 0; i < 256; i++) {
+            for (int t = 1; t < 8; t++) {
+                TABLES[t][i] = (TABLES[t - 1][i] >>> 8) ^ TABLES[0][TABLES[t - 1][i] & 0xff];
+            }
+        }
+    }
+
+    private int crc = 0xffffffff;
+
+    public Crc32cDigest() {
+        super(ALGORITHM);
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return 4;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        crc = (crc >>> 8) ^ TABLES[0][(crc ^ input) & 0xff];
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+        final int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+        final int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+        int c = crc;
+        int pos = offset;
+        final int end = offset + len;
+        while (end - pos >= 8) {
+            c ^= (input[pos] & 0xff) | (input[pos + 1] & 0xff) << 8 | (input[pos + 2] & 0xff) << 16
+                    | (input[pos + 3] & 0xff) << 24;
+            c = t7[c & 0xff] ^ t6[(c >>> 8) & 0xff] ^ t5[(c >>> 16) & 0xff] ^ t4[c >>> 24]
+                    ^ t3[input[pos + 4] & 0xff] ^ t2[input[pos + 5] & 0xff] ^ t1[input[pos + 6] & 0xff]
+                    ^ t0[input[pos + 7] & 0xff];
+            pos += 8;
+        }
+        while (pos < end) {
+            c = (c >>> 8) ^ t0[(c ^ input[pos++]) & 0xff];
+        }
+        crc = c;
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        final int value = ~crc;
+        engineReset();
+        return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+    }
+
+    @Override
+    protected void engineReset() {
+        crc = 0xffffffff;
+    }
+}
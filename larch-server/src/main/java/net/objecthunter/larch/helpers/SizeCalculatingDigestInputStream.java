@@ -53,7 +53,7 @@ public class SizeCalculatingDigestInputStream extends FilterInputStream {
 
     public int read() throws IOException {
         int ch = in.read();
-        if (ch > 0) {
+        if (ch != -1) {
             calculatedSize++;
             if (on) {
                 digest.update((byte) ch);
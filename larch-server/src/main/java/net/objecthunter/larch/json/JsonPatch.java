@@ -0,0 +1,214 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package net.objecthunter.larch.json;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * A minimal implementation of JSON Patch (RFC 6902) for computing and applying the differences between two JSON
+ * documents. Only the add, remove and replace operations are used and supported. Arrays are compared element by
+ * element, elements are only added or removed at the end of an array.
+ */
+public final class JsonPatch {
+
+    private static final JsonNodeFactory factory = JsonNodeFactory.instance;
+
+    private JsonPatch() {
+    }
+
+    /**
+     * Compute the patch transforming a source document into a target document
+     * 
+     * @param source the source document
+     * @param target the target document
+     * @return an array of patch operations, which is empty if the documents are equal
+     */
+    public static ArrayNode diff(JsonNode source, JsonNode target) {
+        final ArrayNode patch = factory.arrayNode();
+        diff(patch, "", source, target);
+        return patch;
+    }
+
+    /**
+     * Apply a patch to a document. The given document is not modified
+     * 
+     * @param doc the document to patch
+     * @param patch the array of patch operations
+     * @return the patched document
+     * @throws IOException if the patch can not be applied to the document
+     */
+    public static JsonNode apply(JsonNode doc, JsonNode patch) throws IOException {
+        JsonNode result = doc.deepCopy();
+        for (final JsonNode op : patch) {
+            final String name = op.path("op").asText();
+            final List<String> tokens = parsePointer(op.path("path").asText());
+            if (tokens.isEmpty()) {
+                if (!name.equals("replace") && !name.equals("add")) {
+                    throw new IOException("Unable to apply " + name + " to the document root");
+                }
+                result = op.get("value").deepCopy();
+                continue;
+            }
+            final JsonNode parent = resolve(result, tokens.subList(0, tokens.size() - 1));
+            final String last = tokens.get(tokens.size() - 1);
+            switch (name) {
+            case "add":
+                add(parent, last, op.get("value").deepCopy());
+                break;
+            case "remove":
+                remove(parent, last);
+                break;
+            case "replace":
+                remove(parent, last);
+                add(parent, last, op.get("value").deepCopy());
+                break;
+            default:
+                throw new IOException("Unsupported JSON patch operation " + name);
+            }
+        }
+        return result;
+    }
+
+    private static void diff(ArrayNode patch, String path, JsonNode source, JsonNode target) {
+        if (source.equals(target)) {
+            return;
+        }
+        if (source.isObject() && target.isObject()) {
+            final Iterator<Map.Entry<String, JsonNode>> fields = source.fields();
+            while (fields.hasNext()) {
+                final Map.Entry<String, JsonNode> field = fields.next();
+                final String fieldPath = path + "/" + escape(field.getKey());
+                final JsonNode targetValue = target.get(field.getKey());
+                if (targetValue == null) {
+                    patch.add(operation("remove", fieldPath, null));
+                } else {
+                    diff(patch, fieldPath, field.getValue(), targetValue);
+                }
+            }
+            final Iterator<Map.Entry<String, JsonNode>> targetFields = target.fields();
+            while (targetFields.hasNext()) {
+                final Map.Entry<String, JsonNode> field = targetFields.next();
+                if (!source.has(field.getKey())) {
+                    patch.add(operation("add", path + "/" + escape(field.getKey()), field.getValue()));
+                }
+            }
+        } else if (source.isArray() && target.isArray()) {
+            final int common = Math.min(source.size(), target.size());
+            for (int i = 0; i < common; i++) {
+                diff(patch, path + "/" + i, source.get(i), target.get(i));
+            }
+            for (int i = source.size() - 1; i >= common; i--) {
+                patch.add(operation("remove", path + "/" + i, null));
+            }
+            for (int i = common; i < target.size(); i++) {
+                patch.add(operation("add", path + "/" + i, target.get(i)));
+            }
+        } else {
+            patch.add(operation("replace", path, target));
+        }
+    }
+
+    private static ObjectNode operation(String op, String path, JsonNode value) {
+        final ObjectNode node = factory.objectNode();
+        node.put("op", op);
+        node.put("path", path);
+        if (value != null) {
+            node.set("value", value);
+        }
+        return node;
+    }
+
+    private static void add(JsonNode parent, String token, JsonNode value) throws IOException {
+        if (parent.isObject()) {
+            ((ObjectNode) parent).set(token, value);
+        } else if (parent.isArray()) {
+            final ArrayNode array = (ArrayNode) parent;
+            if (token.equals("-")) {
+                array.add(value);
+            } else {
+                final int index = index(token, array.size() + 1);
+                array.insert(index, value);
+            }
+        } else {
+            throw new IOException("Unable to add " + token + " to a value node");
+        }
+    }
+
+    private static void remove(JsonNode parent, String token) throws IOException {
+        if (parent.isObject()) {
+            if (((ObjectNode) parent).remove(token) == null) {
+                throw new IOException("No field " + token + " to remove");
+            }
+        } else if (parent.isArray()) {
+            ((ArrayNode) parent).remove(index(token, parent.size()));
+        } else {
+            throw new IOException("Unable to remove " + token + " from a value node");
+        }
+    }
+
+    private static JsonNode resolve(JsonNode doc, List<String> tokens) throws IOException {
+        JsonNode current = doc;
+        for (final String token : tokens) {
+            final JsonNode next = current.isArray() ? current.get(index(token, current.size())) : current.get(token);
+            if (next == null) {
+                throw new IOException("Unable to resolve " + token + " in JSON patch path");
+            }
+            current = next;
+        }
+        return current;
+    }
+
+    private static int index(String token, int size) throws IOException {
+        final int index;
+        try {
+            index = Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid array index " + token + " in JSON patch path");
+        }
+        if (index < 0 || index >= size) {
+            throw new IOException("Array index " + index + " out of bounds in JSON patch path");
+        }
+        return index;
+    }
+
+    private static List<String> parsePointer(String pointer) throws IOException {
+        final List<String> tokens = new ArrayList<>();
+        if (pointer.isEmpty()) {
+            return tokens;
+        }
+        if (pointer.charAt(0) != '/') {
+            throw new IOException("Invalid JSON pointer " + pointer);
+        }
+        for (final String token : pointer.substring(1).split("/", -1)) {
+            tokens.add(token.replace("~1", "/").replace("~0", "~"));
+        }
+        return tokens;
+    }
+
+    private static String escape(String token) {
+        return token.replace("~", "~0").replace("/", "~1");
+    }
+}
@@ -18,13 +18,20 @@ package net.objecthunter.larch.service;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import net.objecthunter.larch.model.AuditRecord;
+import net.objecthunter.larch.model.BulkItemResult;
 import net.objecthunter.larch.model.Entities;
 import net.objecthunter.larch.model.Entity;
+import net.objecthunter.larch.model.EntityChildren;
 import net.objecthunter.larch.model.SearchResult;
+import net.objecthunter.larch.model.Versions;
+import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchEntityService.EntitiesAggregation;
 import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchEntityService.EntitiesSearchField;
 
 import com.fasterxml.jackson.databind.JsonNode;
@@ -36,10 +43,69 @@ public interface EntityService {
 
     String create(Entity e) throws IOException;
 
+    /**
+     * Create a batch of {@link net.objecthunter.larch.model.Entity}s in the repository. Failures of single Entities do
+     * not abort the creation of the rest of the batch but are reported in the returned results.
+     * 
+     * @param entities the Entities to create
+     * @return a list of {@link net.objecthunter.larch.model.BulkItemResult}s in the same order as the given Entities
+     * @throws IOException
+     */
+    List<BulkItemResult> create(List<Entity> entities) throws IOException;
+
     void update(Entity e) throws IOException;
 
+    /**
+     * Retrieve the current version of an {@link net.objecthunter.larch.model.Entity} including the number of its
+     * children but without the children themselves
+     * 
+     * @param id the id of the Entity
+     * @return the Entity
+     * @throws IOException
+     */
     Entity retrieve(String id) throws IOException;
 
+    /**
+     * Retrieve the current version of an {@link net.objecthunter.larch.model.Entity} including the number of its
+     * children without blocking the calling thread
+     * 
+     * @param id the id of the Entity
+     * @return a future completed with the Entity
+     */
+    CompletableFuture<Entity> retrieveAsync(String id);
+
+    /**
+     * Retrieve the current version of an {@link net.objecthunter.larch.model.Entity} including the ids of all its
+     * children without blocking the calling thread. Since an Entity may have a lot of children, callers should prefer
+     * {@link #retrieveChildren(String, String, int)} for paging through them
+     * 
+     * @param id the id of the Entity
+     * @return a future completed with the Entity with its children
+     */
+    CompletableFuture<Entity> retrieveWithChildrenAsync(String id);
+
+    /**
+     * Retrieve a page of the ids of the child entities of an {@link net.objecthunter.larch.model.Entity}
+     * 
+     * @param id the id of the parent Entity
+     * @param cursor the cursor returned with the previous page or null to fetch the first page
+     * @param numRecords the maximum number of children in the page
+     * @return a page of children containing the cursor for the next page
+     * @throws IOException
+     */
+    EntityChildren retrieveChildren(String id, String cursor, int numRecords) throws IOException;
+
+    /**
+     * Retrieve the first ids of the child entities of an {@link net.objecthunter.larch.model.Entity} without a cursor
+     * for further pages, e.g. for a view which only shows a preview of the children
+     * 
+     * @param id the id of the parent Entity
+     * @param numRecords the maximum number of children
+     * @return the first children and their total number
+     * @throws IOException
+     */
+    EntityChildren retrieveFirstChildren(String id, int numRecords) throws IOException;
+
     void delete(String id) throws IOException;
 
     InputStream getContent(String id, String name) throws IOException;
@@ -48,6 +114,21 @@ public interface EntityService {
 
     void createBinary(String entityId, String name, String contentType, InputStream inputStream) throws IOException;
 
+    /**
+     * Add a {@link net.objecthunter.larch.model.Binary} whose content has been uploaded in chunks to an
+     * {@link net.objecthunter.larch.model.Entity}. The upload is turned into a blob and its checksum is calculated
+     * while doing so
+     * 
+     * @param entityId the id of the Entity
+     * @param name the name of the Binary
+     * @param contentType the mime type of the Binary
+     * @param uploadPath the path of the completed upload in the blob store
+     * @param size the size of the uploaded content
+     * @throws IOException
+     */
+    void createBinaryFromUpload(String entityId, String name, String contentType, String uploadPath, long size)
+            throws IOException;
+
     void patch(String id, JsonNode node) throws IOException;
 
     void createRelation(String id, String predicate, String object) throws IOException;
@@ -56,6 +137,26 @@ public interface EntityService {
 
     InputStream retrieveBinary(String path) throws IOException;
 
+    /**
+     * Retrieve a part of the content of a {@link net.objecthunter.larch.model.Binary}
+     * 
+     * @param path the path of the Binary in the blob store
+     * @param offset the position of the first byte to read
+     * @param length the number of bytes to read
+     * @return an InputStream of the requested bytes
+     * @throws IOException
+     */
+    InputStream retrieveBinary(String path, long offset, long length) throws IOException;
+
+    /**
+     * Get the local file holding the content of a {@link net.objecthunter.larch.model.Binary}
+     * 
+     * @param path the path of the Binary in the blob store
+     * @return the file or null if the blob store does not keep the binaries in local files
+     * @throws IOException
+     */
+    Path retrieveBinaryFile(String path) throws IOException;
+
     void deleteMetadata(String entityId, String mdName) throws IOException;
 
     void deleteBinaryMetadata(String entityId, String binaryName, String mdName) throws IOException;
@@ -70,6 +171,8 @@ public interface EntityService {
 
     void createAuditRecord(AuditRecord auditRecord) throws IOException;
 
+    void createAuditRecords(List<AuditRecord> auditRecords) throws IOException;
+
     /**
      * Retrieve a {@link net.objecthunter.larch.model.SearchResult} containing all
      * {@link net.objecthunter.larch.model .Entity}s from the index from a given offset with the default number of
@@ -91,6 +194,17 @@ public interface EntityService {
      */
     SearchResult scanIndex(int offset, int numRecords) throws IOException;
 
+    /**
+     * Retrieve a page of a {@link net.objecthunter.larch.model.SearchResult} containing all
+     * {@link net.objecthunter.larch.model.Entity}s from the repository sorted by their last modification, most recent
+     * first. In contrast to an offset the cursor keeps the cost of a page constant no matter how deep it is
+     * 
+     * @param cursor the cursor contained in the previous page or null for the first page
+     * @param numRecords the number of {@link net.objecthunter.larch.model.Entity}s to return
+     * @return a SearchResult containing the cursor for the next page
+     */
+    SearchResult browse(String cursor, int numRecords) throws IOException;
+
     /**
      * Search {@link net.objecthunter.larch.model.Entity}s in the repository.
      * 
@@ -99,6 +213,31 @@ public interface EntityService {
      */
     SearchResult searchEntities(Map<EntitiesSearchField, String[]> searchFields) throws IOException;
 
+    /**
+     * Search {@link net.objecthunter.larch.model.Entity}s in the repository and count all hits by the values of the
+     * given fields in the same request.
+     * 
+     * @param searchFields Map with key: EntitiesSearchField and value searchStrings as array.
+     * @param aggregations the aggregations to compute over all hits
+     * @param interval the interval of date histograms, one of day, week, month, quarter or year. May be null for
+     *        month
+     * @return A {@link net.objecthunter.larch.model.SearchResult} containig the search hits and the aggregations
+     */
+    SearchResult searchEntities(Map<EntitiesSearchField, String[]> searchFields,
+            Set<EntitiesAggregation> aggregations, String interval) throws IOException;
+
+    /**
+     * Search {@link net.objecthunter.larch.model.Entity}s in the repository without blocking the calling thread
+     * 
+     * @param searchFields Map with key: EntitiesSearchField and value searchStrings as array.
+     * @param aggregations the aggregations to compute over all hits
+     * @param interval the interval of date histograms, one of day, week, month, quarter or year. May be null for
+     *        month
+     * @return a future completed with the {@link net.objecthunter.larch.model.SearchResult}
+     */
+    CompletableFuture<SearchResult> searchEntitiesAsync(Map<EntitiesSearchField, String[]> searchFields,
+            Set<EntitiesAggregation> aggregations, String interval);
+
     /**
      * Retrieve all old versions of an entity from the version storage
      * 
@@ -106,4 +245,28 @@ public interface EntityService {
      * @return the requested old versions of the entity as Entities-Object
      */
     Entities getOldVersions(String id) throws IOException;
+
+    /**
+     * Retrieve a page of the versions of an entity ordered from the newest to the oldest version. The first page
+     * starts with the current version of the entity followed by its old versions
+     * 
+     * @param id the id of the entity to retrieve
+     * @param offset the number of versions to skip
+     * @param numRecords the maximum number of versions to return
+     * @return the requested versions of the entity as Entities-Object
+     * @throws IOException
+     */
+    Entities retrieveVersions(String id, int offset, int numRecords) throws IOException;
+
+    /**
+     * Retrieve a page of the summaries of the old versions of an entity, which does not load the old versions
+     * themselves
+     * 
+     * @param id the id of the entity
+     * @param offset the number of old versions to skip
+     * @param numRecords the maximum number of summaries to return
+     * @return a {@link net.objecthunter.larch.model.Versions} object containing the summaries
+     * @throws IOException
+     */
+    Versions retrieveVersionSummaries(String id, int offset, int numRecords) throws IOException;
 }
@@ -17,6 +17,7 @@
 package net.objecthunter.larch.service;
 
 import java.io.IOException;
+import java.io.OutputStream;
 
 import net.objecthunter.larch.model.Entity;
 
@@ -33,4 +34,18 @@ public interface ExportService {
      * @throws IOException
      */
     void export(Entity e) throws IOException;
+
+    /**
+     * Stream all the {@link net.objecthunter.larch.model.Entity}s in the repository as newline delimited JSON. Each
+     * line is an object containing the Entity and, if requested, its old versions and audit records
+     * 
+     * @param sink the stream to write to, which is flushed but not closed
+     * @param modifiedSince an ISO 8601 timestamp restricting the export to Entities modified at or after it, or null
+     *        to export all Entities
+     * @param withVersions whether to include the old versions of each Entity
+     * @param withAuditRecords whether to include the audit records of each Entity
+     * @throws IOException
+     */
+    void exportEntities(OutputStream sink, String modifiedSince, boolean withVersions, boolean withAuditRecords)
+            throws IOException;
 }
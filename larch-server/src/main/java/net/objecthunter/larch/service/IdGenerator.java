@@ -0,0 +1,31 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package net.objecthunter.larch.service;
+
+/**
+ * Service definition for the generation of unique ids for {@link net.objecthunter.larch.model.Entity}s. Ids have to
+ * be unique by construction, since the repository does not check the index for existing ids before using them.
+ */
+public interface IdGenerator {
+
+    /**
+     * Generate a new unique id
+     * 
+     * @return the generated id
+     */
+    String generateId();
+}
@@ -16,10 +16,14 @@
 
 package net.objecthunter.larch.service;
 
+import java.util.List;
+
 public interface MessagingService {
 
     public void publishCreateEntity(String entityId);
 
+    public void publishCreateEntities(List<String> entityIds);
+
     public void publishUpdateEntity(String entityId);
 
     public void publishDeleteEntity(String entityId);
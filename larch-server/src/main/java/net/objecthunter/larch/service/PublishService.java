@@ -54,6 +54,17 @@ public interface PublishService {
      */
     SearchResult scanIndex(int offset, int numRecords) throws IOException;
 
+    /**
+     * Retrieve a page of a {@link net.objecthunter.larch.model.SearchResult} containing all
+     * {@link net.objecthunter.larch.model.Entity}s from the publish repository sorted by their last modification, most recent
+     * first. In contrast to an offset the cursor keeps the cost of a page constant no matter how deep it is
+     * 
+     * @param cursor the cursor contained in the previous page or null for the first page
+     * @param numRecords the number of {@link net.objecthunter.larch.model.Entity}s to return
+     * @return a SearchResult containing the cursor for the next page
+     */
+    SearchResult browse(String cursor, int numRecords) throws IOException;
+
     /**
      * Search {@link net.objecthunter.larch.model.Entity}s in the publish repository.
      * 
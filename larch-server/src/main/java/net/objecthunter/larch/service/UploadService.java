@@ -0,0 +1,83 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+
+package net.objecthunter.larch.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import net.objecthunter.larch.model.UploadSession;
+
+/**
+ * Service definition for uploading the content of a {@link net.objecthunter.larch.model.Binary} in chunks. A session
+ * is created for the complete size of the content, the chunks are sent by offset, concurrently and in any order, and
+ * the session gets committed once all of the content has been received. A broken upload can be resumed by sending
+ * the ranges missing from the session's received ranges
+ */
+public interface UploadService {
+
+    /**
+     * Create a new upload session for a {@link net.objecthunter.larch.model.Binary} of an
+     * {@link net.objecthunter.larch.model.Entity}
+     * 
+     * @param entityId the id of the Entity the Binary is added to
+     * @param name the name of the Binary
+     * @param mimetype the mime type of the Binary
+     * @param size the size of the Binary's content in bytes
+     * @return the new {@link net.objecthunter.larch.model.UploadSession}
+     * @throws IOException
+     */
+    UploadSession createSession(String entityId, String name, String mimetype, long size) throws IOException;
+
+    /**
+     * Retrieve the current state of an upload session
+     * 
+     * @param id the id of the session
+     * @return the {@link net.objecthunter.larch.model.UploadSession} including the ranges received so far
+     * @throws IOException
+     */
+    UploadSession retrieveSession(String id) throws IOException;
+
+    /**
+     * Write a chunk of the content. Chunks which overlap ranges received before overwrite them
+     * 
+     * @param id the id of the session
+     * @param offset the position of the chunk's first byte in the content
+     * @param src the chunk's data
+     * @return the {@link net.objecthunter.larch.model.UploadSession} including the received chunk
+     * @throws IOException
+     */
+    UploadSession writeChunk(String id, long offset, InputStream src) throws IOException;
+
+    /**
+     * Add the completely received content as a {@link net.objecthunter.larch.model.Binary} to the
+     * {@link net.objecthunter.larch.model.Entity} and close the session
+     * 
+     * @param id the id of the session
+     * @return the committed {@link net.objecthunter.larch.model.UploadSession}
+     * @throws IOException
+     */
+    UploadSession commit(String id) throws IOException;
+
+    /**
+     * Close an upload session and discard the content received so far
+     * 
+     * @param id the id of the session
+     * @throws IOException
+     */
+    void abort(String id) throws IOException;
+}
@@ -45,4 +45,12 @@ public interface BackendAuditService {
      * @throws IOException
      */
     String create(AuditRecord rec) throws IOException;
+
+    /**
+     * Store a batch of {@link net.objecthunter.larch.model.AuditRecord}s in the repository using a single request
+     * 
+     * @param recs The AuditRecords to store
+     * @throws IOException
+     */
+    void create(List<AuditRecord> recs) throws IOException;
 }
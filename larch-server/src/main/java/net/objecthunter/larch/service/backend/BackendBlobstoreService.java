@@ -18,10 +18,15 @@ package net.objecthunter.larch.service.backend;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
 
+import net.objecthunter.larch.helpers.ChecksumCalculator;
 import net.objecthunter.larch.model.Entity;
 import net.objecthunter.larch.model.state.BlobstoreState;
 
+import com.fasterxml.jackson.databind.JsonNode;
+
 /**
  * Service definition for CRUD operations on Blobs
  */
@@ -45,6 +50,27 @@ public interface BackendBlobstoreService {
      */
     InputStream retrieve(String path) throws IOException;
 
+    /**
+     * Retrieve a part of a blob as an {@link java.io.InputStream} form the blob store
+     * 
+     * @param path The path to the requested blob
+     * @param offset the position of the first byte to read
+     * @param length the number of bytes to read
+     * @return An {@link java.io.InputStream} of the requested part of the blob's content
+     * @throws IOException
+     */
+    InputStream retrieve(String path, long offset, long length) throws IOException;
+
+    /**
+     * Get the local file holding the content of a blob, so that it can be sent to a client without being copied
+     * through the heap
+     * 
+     * @param path The path to the requested blob
+     * @return the file of the blob or null if the blob store does not keep its blobs in local files
+     * @throws IOException
+     */
+    Path retrieveFile(String path) throws IOException;
+
     /**
      * Delete a blob in the blob store
      * 
@@ -62,6 +88,57 @@ public interface BackendBlobstoreService {
      */
     void update(String path, InputStream src) throws IOException;
 
+    /**
+     * Create the staging area of a blob which is uploaded in chunks
+     * 
+     * @param size the size of the complete blob in bytes
+     * @return the path of the upload
+     * @throws IOException
+     */
+    String createUpload(long size) throws IOException;
+
+    /**
+     * Write a chunk of an upload at the given position. Chunks of the same upload may be written concurrently and in
+     * any order
+     * 
+     * @param path the path of the upload
+     * @param offset the position of the chunk's first byte in the blob
+     * @param src the {@link java.io.InputStream} containing the chunk
+     * @return the number of bytes written
+     * @throws IOException
+     */
+    long writeUpload(String path, long offset, InputStream src) throws IOException;
+
+    /**
+     * Turn a completely uploaded blob into a regular blob of the blob store. The upload itself is kept until it is
+     * discarded using {@link #deleteUpload(String)}, so that the commit can be repeated if attaching the blob fails.
+     * The blob may share its content with the upload, which therefore must not be written to after the commit
+     * 
+     * @param path the path of the upload
+     * @param checksums a {@link net.objecthunter.larch.helpers.ChecksumCalculator} which is fed with the blob's
+     *        content
+     * @return the path to the stored data
+     * @throws IOException
+     */
+    String commitUpload(String path, ChecksumCalculator checksums) throws IOException;
+
+    /**
+     * Discard an upload
+     * 
+     * @param path the path of the upload
+     * @throws IOException
+     */
+    void deleteUpload(String path) throws IOException;
+
+    /**
+     * List the uploads which have not been written to since the given time
+     * 
+     * @param modifiedBefore the time in milliseconds since the epoch
+     * @return the paths of the uploads
+     * @throws IOException
+     */
+    List<String> listUploads(long modifiedBefore) throws IOException;
+
     /**
      * Retrieve a {@link net.objecthunter.larch.model.state.BlobstoreState} containing information about the current
      * state of the blob store
@@ -81,6 +158,16 @@ public interface BackendBlobstoreService {
      */
     String createOldVersionBlob(Entity oldVersion) throws IOException;
 
+    /**
+     * Create a new blob for an old version of an {@link net.objecthunter.larch.model.Entity} which is stored as the
+     * JSON patch transforming the preceding old version into this version
+     * 
+     * @param patch the JSON patch to store
+     * @return the path to the old version blob
+     * @throws IOException
+     */
+    String createOldVersionDelta(JsonNode patch) throws IOException;
+
     /**
      * Retrieve an old version of an {@link net.objecthunter.larch.model.Entity} stored as a blob in the store
      * 
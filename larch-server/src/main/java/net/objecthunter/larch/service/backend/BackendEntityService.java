@@ -17,11 +17,17 @@
 package net.objecthunter.larch.service.backend;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
+import net.objecthunter.larch.model.BulkItemResult;
 import net.objecthunter.larch.model.Entity;
+import net.objecthunter.larch.model.EntityChildren;
 import net.objecthunter.larch.model.SearchResult;
 import net.objecthunter.larch.model.state.IndexState;
+import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchEntityService.EntitiesAggregation;
 import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchEntityService.EntitiesSearchField;
 
 /**
@@ -31,10 +37,112 @@ public interface BackendEntityService {
 
     String create(Entity e) throws IOException;
 
+    /**
+     * Create a batch of {@link net.objecthunter.larch.model.Entity}s using a single request to the index. Entities
+     * which already exist are not overwritten but reported as failed items.
+     * 
+     * @param entities the Entities to create, each one with a non empty id
+     * @return a list of {@link net.objecthunter.larch.model.BulkItemResult}s in the same order as the given Entities
+     * @throws IOException
+     */
+    List<BulkItemResult> create(List<Entity> entities) throws IOException;
+
     void update(Entity e) throws IOException;
 
+    /**
+     * Update only some top level fields of an {@link net.objecthunter.larch.model.Entity} in the index. The given
+     * values are merged into the stored document, so that the unchanged metadata and binaries do not have to be sent
+     * to the index again. Maps are merged recursively, all other values including lists get replaced
+     * 
+     * @param id the id of the Entity
+     * @param documentVersion the version of the index document the changes are based on, the update is rejected
+     *        with a {@link net.objecthunter.larch.exceptions.ConflictException} if the document has been changed
+     *        since. 0 updates the document regardless of its version
+     * @param fields the names and new values of the fields to update
+     * @throws IOException
+     */
+    void updateFields(String id, long documentVersion, Map<String, Object> fields) throws IOException;
+
+    /**
+     * Retrieve an {@link net.objecthunter.larch.model.Entity} from the index. The children of the Entity are not
+     * loaded, use {@link #countChildren(String)} and {@link #fetchChildren(String, String, int)} instead
+     * 
+     * @param id the id of the Entity
+     * @return the Entity without its children
+     * @throws IOException
+     */
     Entity retrieve(String id) throws IOException;
 
+    /**
+     * Retrieve an {@link net.objecthunter.larch.model.Entity} from the index without blocking the calling thread
+     * 
+     * @param id the id of the Entity
+     * @return a future completed with the Entity without its children
+     */
+    CompletableFuture<Entity> retrieveAsync(String id);
+
+    /**
+     * Count the child entities of an {@link net.objecthunter.larch.model.Entity}
+     * 
+     * @param id the id of the parent Entity
+     * @return the number of children
+     * @throws IOException
+     */
+    long countChildren(String id) throws IOException;
+
+    /**
+     * Count the child entities of an {@link net.objecthunter.larch.model.Entity} without blocking the calling thread
+     * 
+     * @param id the id of the parent Entity
+     * @return a future completed with the number of children
+     */
+    CompletableFuture<Long> countChildrenAsync(String id);
+
+    /**
+     * Fetch a page of the ids of the child entities of an {@link net.objecthunter.larch.model.Entity}. The pages
+     * following the first one are fetched with the parent and the page size contained in the cursor
+     * 
+     * @param id the id of the parent Entity, ignored if a cursor is given
+     * @param cursor the cursor returned with the previous page or null to fetch the first page
+     * @param numRecords the maximum number of children in the first page, ignored if a cursor is given
+     * @return a page of children containing the cursor for the next page
+     * @throws IOException
+     */
+    EntityChildren fetchChildren(String id, String cursor, int numRecords) throws IOException;
+
+    /**
+     * Fetch a page of the ids of the child entities of an {@link net.objecthunter.larch.model.Entity} without
+     * blocking the calling thread
+     * 
+     * @param id the id of the parent Entity, ignored if a cursor is given
+     * @param cursor the cursor returned with the previous page or null to fetch the first page
+     * @param numRecords the maximum number of children in the first page, ignored if a cursor is given
+     * @return a future completed with a page of children containing the cursor for the next page
+     */
+    CompletableFuture<EntityChildren> fetchChildrenAsync(String id, String cursor, int numRecords);
+
+    /**
+     * Fetch the first ids of the child entities of an {@link net.objecthunter.larch.model.Entity} without keeping a
+     * cursor open for the following pages
+     * 
+     * @param id the id of the parent Entity
+     * @param numRecords the maximum number of children
+     * @return the first children without a cursor
+     * @throws IOException
+     */
+    EntityChildren fetchFirstChildren(String id, int numRecords) throws IOException;
+
+    /**
+     * Pass all the {@link net.objecthunter.larch.model.Entity}s in the index one by one to a handler. The Entities
+     * are read in batches, so that the memory used does not depend on the size of the index
+     * 
+     * @param modifiedSince an ISO 8601 timestamp restricting the Entities to those modified at or after it, or null
+     *        for all Entities
+     * @param handler the handler called for each Entity
+     * @throws IOException
+     */
+    void scanEntities(String modifiedSince, EntityHandler handler) throws IOException;
+
     void delete(String id) throws IOException;
 
     IndexState status() throws IOException;
@@ -52,6 +160,25 @@ public interface BackendEntityService {
      */
     SearchResult scanIndex(int offset, int numRecords) throws IOException;
 
+    /**
+     * Retrieve a page of a {@link net.objecthunter.larch.model.SearchResult} containing all
+     * {@link net.objecthunter.larch.model.Entity}s from the index sorted by their last modification, most recent
+     * first. In contrast to an offset the cursor keeps the cost of a page constant no matter how deep it is
+     * 
+     * @param cursor the cursor contained in the previous page or null for the first page
+     * @param numRecords the number of {@link net.objecthunter.larch.model.Entity}s to return
+     * @return a SearchResult containing the cursor for the next page
+     */
+    SearchResult browse(String cursor, int numRecords) throws IOException;
+
+    /**
+     * Get the write generation of the index, which is increased by every write on this node. Results read from the
+     * index with an older generation may be outdated
+     * 
+     * @return the write generation
+     */
+    long getWriteGeneration();
+
     /**
      * Search {@link net.objecthunter.larch.model.Entity}s in the repository.
      * 
@@ -60,6 +187,31 @@ public interface BackendEntityService {
      */
     SearchResult searchEntities(Map<EntitiesSearchField, String[]> searchFields) throws IOException;
 
+    /**
+     * Search {@link net.objecthunter.larch.model.Entity}s in the repository and count all hits by the values of the
+     * given fields in the same request.
+     * 
+     * @param searchFields Map with key: EntitiesSearchField and value searchStrings as array.
+     * @param aggregations the aggregations to compute over all hits
+     * @param interval the interval of date histograms, one of day, week, month, quarter or year. May be null for
+     *        month
+     * @return A {@link net.objecthunter.larch.model.SearchResult} containig the search hits and the aggregations
+     */
+    SearchResult searchEntities(Map<EntitiesSearchField, String[]> searchFields,
+            Set<EntitiesAggregation> aggregations, String interval) throws IOException;
+
+    /**
+     * Search {@link net.objecthunter.larch.model.Entity}s in the repository without blocking the calling thread
+     * 
+     * @param searchFields Map with key: EntitiesSearchField and value searchStrings as array.
+     * @param aggregations the aggregations to compute over all hits
+     * @param interval the interval of date histograms, one of day, week, month, quarter or year. May be null for
+     *        month
+     * @return a future completed with the {@link net.objecthunter.larch.model.SearchResult}
+     */
+    CompletableFuture<SearchResult> searchEntitiesAsync(Map<EntitiesSearchField, String[]> searchFields,
+            Set<EntitiesAggregation> aggregations, String interval);
+
     /**
      * Retrieve a {@link net.objecthunter.larch.model.SearchResult} containing all
      * {@link net.objecthunter.larch.model .Entity}s from the index from a given offset with the default number of
@@ -70,4 +222,13 @@ public interface BackendEntityService {
      */
     SearchResult scanIndex(int offset) throws IOException;
 
+    /**
+     * A callback processing the {@link net.objecthunter.larch.model.Entity}s passed by
+     * {@link BackendEntityService#scanEntities(String, EntityHandler)}
+     */
+    interface EntityHandler {
+
+        void handle(Entity e) throws IOException;
+    }
+
 }
@@ -5,6 +5,7 @@ import java.io.IOException;
 
 import net.objecthunter.larch.model.Entities;
 import net.objecthunter.larch.model.Entity;
+import net.objecthunter.larch.model.Versions;
 
 /**
  * Service definition for entity version storage
@@ -36,4 +37,25 @@ public interface BackendVersionService {
      */
     Entities getOldVersions(String id) throws IOException;
 
+    /**
+     * Retrieve a page of the old versions of an entity from the version storage, ordered from the newest to the
+     * oldest version. The stored versions are fetched concurrently
+     * 
+     * @param id the id of the entity to retrieve
+     * @param offset the number of old versions to skip
+     * @param numRecords the maximum number of old versions to return
+     * @return the requested old versions of the entity as Entities-Object
+     */
+    Entities getOldVersions(String id, int offset, int numRecords) throws IOException;
+
+    /**
+     * Retrieve a page of the summaries of the old versions of an entity without loading the stored versions
+     * 
+     * @param id the id of the entity
+     * @param offset the number of old versions to skip
+     * @param numRecords the maximum number of summaries to return
+     * @return a {@link net.objecthunter.larch.model.Versions} object containing the summaries
+     */
+    Versions getVersions(String id, int offset, int numRecords) throws IOException;
+
 }
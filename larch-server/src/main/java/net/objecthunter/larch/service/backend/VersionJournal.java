@@ -0,0 +1,278 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package net.objecthunter.larch.service.backend;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A local append-only journal of records which still have to be processed by a background worker. Every record is
+ * written as a single line and the offset up to which the records have been processed is kept in a separate
+ * checkpoint file, so that records which have not been processed before a shutdown or a crash can be replayed. The
+ * journal is truncated once all of its records have been processed and it has grown beyond a given size. Records
+ * which can not be processed at all are moved to a dead letter file next to the journal.
+ */
+public class VersionJournal implements Closeable {
+
+    private static final String JOURNAL_FILE = "versions.journal";
+
+    private static final String CHECKPOINT_FILE = "versions.checkpoint";
+
+    private static final String DEAD_LETTER_FILE = "versions.dead";
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final FileChannel journal;
+
+    private final FileChannel checkpoint;
+
+    private final Path deadLetter;
+
+    private final boolean sync;
+
+    private final long maxSize;
+
+    private long end;
+
+    /**
+     * Open the journal in a given directory, creating the directory and the journal files if necessary. A partially
+     * written record at the end of the journal is removed
+     * 
+     * @param directory the directory containing the journal files
+     * @param sync whether every appended record and every checkpoint should be forced to the storage device before
+     *        {@link #append(byte[])} or {@link #checkpoint(long)} returns
+     * @param maxSize the size in bytes above which a fully processed journal is truncated
+     * @throws IOException
+     */
+    public VersionJournal(Path directory, boolean sync, long maxSize) throws IOException {
+        Files.createDirectories(directory);
+        this.journal = FileChannel.open(directory.resolve(JOURNAL_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.checkpoint = FileChannel.open(directory.resolve(CHECKPOINT_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.deadLetter = directory.resolve(DEAD_LETTER_FILE);
+        this.sync = sync;
+        this.maxSize = maxSize;
+        this.end = this.journal.size();
+        this.truncateTornRecord();
+    }
+
+    /**
+     * Append a record to the journal. The record must not contain a line feed
+     * 
+     * @param record the record to append
+     * @return the offset directly behind the appended record which has to be passed to {@link #checkpoint(long)}
+     *         once the record has been processed
+     * @throws IOException
+     */
+    public synchronized long append(byte[] record) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(record.length + 1);
+        buf.put(record).put((byte) '\n').flip();
+        long pos = end;
+        while (buf.hasRemaining()) {
+            pos += journal.write(buf, pos);
+        }
+        if (sync) {
+            journal.force(false);
+        }
+        end = pos;
+        this.notifyAll();
+        return end;
+    }
+
+    /**
+     * Read the record starting at a given offset, waiting at most the given time for a record to be appended if there
+     * is none yet
+     * 
+     * @param offset the offset of the record, either the last checkpoint or the offset behind a previous record
+     * @param timeout the maximum time in milliseconds to wait for a record to be appended
+     * @return the record or null if no record has been appended within the given time
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public Record read(long offset, long timeout) throws IOException, InterruptedException {
+        final long limit;
+        synchronized (this) {
+            if (offset >= end && timeout > 0) {
+                this.wait(timeout);
+            }
+            if (offset >= end) {
+                return null;
+            }
+            limit = end;
+        }
+        // appended records are never modified, so the record can be read without holding the lock
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        final ByteBuffer buf = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        long pos = offset;
+        while (pos < limit) {
+            buf.clear();
+            if (limit - pos < buf.capacity()) {
+                buf.limit((int) (limit - pos));
+            }
+            final int read = journal.read(buf, pos);
+            if (read < 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buf.get(i) == '\n') {
+                    sink.write(buf.array(), 0, i);
+                    return new Record(sink.toByteArray(), pos + i + 1);
+                }
+            }
+            sink.write(buf.array(), 0, read);
+            pos += read;
+        }
+        throw new IOException("Unterminated record at offset " + offset + " in version journal");
+    }
+
+    /**
+     * Retrieve the offset up to which the records have been processed
+     * 
+     * @return the offset of the first record which has not been processed yet
+     * @throws IOException
+     */
+    public synchronized long getCheckpoint() throws IOException {
+        if (checkpoint.size() < 8) {
+            return 0;
+        }
+        final ByteBuffer buf = ByteBuffer.allocate(8);
+        while (buf.hasRemaining()) {
+            if (checkpoint.read(buf, buf.position()) < 0) {
+                throw new IOException("Unable to read the version journal checkpoint");
+            }
+        }
+        buf.flip();
+        return Math.min(buf.getLong(), end);
+    }
+
+    /**
+     * Mark all the records up to a given offset as processed. If no unprocessed records are left and the journal
+     * has grown beyond its maximum size, the journal is truncated and the offset at which the reading has to be
+     * continued changes
+     * 
+     * @param offset the offset behind the last processed record
+     * @return the offset of the next record to read
+     * @throws IOException
+     */
+    public synchronized long checkpoint(long offset) throws IOException {
+        final boolean truncate = offset == end && end > maxSize;
+        if (truncate) {
+            journal.truncate(0);
+            // the new size has to be stored before the checkpoint points into the empty journal
+            journal.force(true);
+            end = 0;
+            offset = 0;
+        }
+        final ByteBuffer buf = ByteBuffer.allocate(8);
+        buf.putLong(offset).flip();
+        while (buf.hasRemaining()) {
+            checkpoint.write(buf, buf.position());
+        }
+        if (truncate || sync) {
+            // a lost checkpoint of a truncated journal would skip the records appended afterwards on a replay
+            checkpoint.force(false);
+        }
+        return offset;
+    }
+
+    /**
+     * Append a record which can not be processed to the dead letter file, from where it can be inspected and replayed
+     * manually. The record still has to be passed to {@link #checkpoint(long)} afterwards
+     * 
+     * @param record the record to give up on
+     * @throws IOException
+     */
+    public synchronized void deadLetter(byte[] record) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(record.length + 1);
+        buf.put(record).put((byte) '\n').flip();
+        try (final FileChannel dead = FileChannel.open(deadLetter, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (buf.hasRemaining()) {
+                dead.write(buf);
+            }
+            dead.force(false);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            journal.close();
+        } finally {
+            checkpoint.close();
+        }
+    }
+
+    private void truncateTornRecord() throws IOException {
+        if (end == 0) {
+            return;
+        }
+        final ByteBuffer buf = ByteBuffer.allocate(1);
+        long pos = end;
+        while (pos > 0) {
+            buf.clear();
+            journal.read(buf, pos - 1);
+            if (buf.get(0) == '\n') {
+                break;
+            }
+            pos--;
+        }
+        if (pos < end) {
+            journal.truncate(pos);
+            end = pos;
+        }
+    }
+
+    /**
+     * A single record read from the journal
+     */
+    public static class Record {
+
+        private final byte[] data;
+
+        private final long next;
+
+        Record(byte[] data, long next) {
+            this.data = data;
+            this.next = next;
+        }
+
+        /**
+         * Get the data of the record
+         * 
+         * @return the data without the terminating line feed
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * Get the offset directly behind this record
+         * 
+         * @return the offset of the next record
+         */
+        public long getNext() {
+            return next;
+        }
+    }
+}
@@ -3,15 +3,43 @@ package net.objecthunter.larch.service.backend.elasticsearch;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.objecthunter.larch.exceptions.InvalidParameterException;
+import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchEntityService.EntitiesSearchField;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.admin.indices.alias.Alias;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
 import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsRequest;
 import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.delete.DeleteRequestBuilder;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.update.UpdateRequestBuilder;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.FilterBuilder;
+import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.MatchQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.indices.IndexAlreadyExistsException;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortOrder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.env.Environment;
 
@@ -31,6 +59,23 @@ public class AbstractElasticSearchService {
     @Autowired
     protected ObjectMapper mapper;
 
+    /* the number of hits per shard returned by each request of a scan */
+    protected static final int SCAN_BATCH_SIZE = 100;
+
+    protected static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
+    /* the maximum length of the prefixes indexed in the prefix sub fields, see [index]_settings.json */
+    private static final int MAX_PREFIX_LENGTH = 20;
+
+    private static final int MAX_PREFIX_EXPANSIONS = 50;
+
+    /* the field browse results are sorted by, the most recently modified documents come first */
+    private static final String FIELD_BROWSE_SORT = "utcLastModified";
+
+    private final Map<String, RefreshPolicy> refreshPolicies = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, AtomicLong> writeGenerations = new ConcurrentHashMap<>();
+
     protected void refreshIndex(String... indices) throws IOException {
         try {
             client.admin().indices().refresh(new RefreshRequest(indices)).actionGet();
@@ -39,26 +84,257 @@ public class AbstractElasticSearchService {
         }
     }
 
+    /**
+     * Make a write visible to searches according to the {@link RefreshPolicy} configured for the given index. This
+     * has to be called after each write request, and only forces a refresh of the whole index when the policy is
+     * {@link RefreshPolicy#IMMEDIATE}. The write generation of the index is increased afterwards
+     * 
+     * @param indexName the name of the index written to
+     * @throws IOException
+     */
+    protected void refreshAfterWrite(String indexName) throws IOException {
+        try {
+            if (getRefreshPolicy(indexName) == RefreshPolicy.IMMEDIATE) {
+                refreshIndex(indexName);
+            }
+        } finally {
+            // increased only after the refresh, so that a result read in between is not taken for an up to date one
+            writeGeneration(indexName).incrementAndGet();
+        }
+    }
+
+    /**
+     * Get the number of writes to an index made by this node, which can be used to tell whether results read from the
+     * index are outdated
+     * 
+     * @param indexName the name of the index
+     * @return the write generation of the index
+     */
+    protected long getWriteGeneration(String indexName) {
+        return writeGeneration(indexName).get();
+    }
+
+    private AtomicLong writeGeneration(String indexName) {
+        AtomicLong generation = writeGenerations.get(indexName);
+        if (generation == null) {
+            final AtomicLong created = new AtomicLong();
+            generation = writeGenerations.putIfAbsent(indexName, created);
+            if (generation == null) {
+                generation = created;
+            }
+        }
+        return generation;
+    }
+
+    /**
+     * Let an index request refresh the shard it is written to if the index uses {@link RefreshPolicy#REQUEST}
+     * 
+     * @param indexName the name of the index written to
+     * @param request the request to prepare
+     * @return the request
+     */
+    protected IndexRequestBuilder applyRefreshPolicy(String indexName, IndexRequestBuilder request) {
+        if (getRefreshPolicy(indexName) == RefreshPolicy.REQUEST) {
+            request.setRefresh(true);
+        }
+        return request;
+    }
+
+    /**
+     * Let a delete request refresh the shard it is executed on if the index uses {@link RefreshPolicy#REQUEST}
+     * 
+     * @param indexName the name of the index written to
+     * @param request the request to prepare
+     * @return the request
+     */
+    protected DeleteRequestBuilder applyRefreshPolicy(String indexName, DeleteRequestBuilder request) {
+        if (getRefreshPolicy(indexName) == RefreshPolicy.REQUEST) {
+            request.setRefresh(true);
+        }
+        return request;
+    }
+
+    protected BulkRequestBuilder applyRefreshPolicy(String indexName, BulkRequestBuilder request) {
+        if (getRefreshPolicy(indexName) == RefreshPolicy.REQUEST) {
+            request.setRefresh(true);
+        }
+        return request;
+    }
+
+    protected UpdateRequestBuilder applyRefreshPolicy(String indexName, UpdateRequestBuilder request) {
+        if (getRefreshPolicy(indexName) == RefreshPolicy.REQUEST) {
+            request.setRefresh(true);
+        }
+        return request;
+    }
+
+    /**
+     * Prepare a search returning a page of all the documents in an index sorted by their last modification and a
+     * unique tie breaker field in descending order. Instead of skipping the documents of the previous pages, which gets
+     * more expensive the deeper the page is, the search only matches documents sorted after the last document of the
+     * previous page, whose position is encoded in the cursor created by {@link #createCursor(SearchHit, String)}
+     * 
+     * @param indexName the name of the index to browse
+     * @param tieBreakField a not analyzed field which is unique for every document
+     * @param cursor the cursor of the previous page or null for the first page
+     * @param numRecords the number of documents in the page
+     * @return the search request
+     * @throws IOException if the cursor is invalid
+     */
+    protected SearchRequestBuilder prepareBrowse(String indexName, String tieBreakField, String cursor,
+            int numRecords) throws IOException {
+        FilterBuilder filter = FilterBuilders.matchAllFilter();
+        if (cursor != null && !cursor.isEmpty()) {
+            final long lastModified;
+            final String tieBreaker;
+            try {
+                final String position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                final int sep = position.indexOf(':');
+                lastModified = Long.parseLong(position.substring(0, sep));
+                tieBreaker = position.substring(sep + 1);
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                throw new InvalidParameterException("The cursor " + cursor + " is invalid");
+            }
+            filter =
+                    FilterBuilders.orFilter(FilterBuilders.rangeFilter(FIELD_BROWSE_SORT).lt(lastModified),
+                            FilterBuilders.andFilter(FilterBuilders.termFilter(FIELD_BROWSE_SORT, lastModified),
+                                    FilterBuilders.rangeFilter(tieBreakField).lt(tieBreaker)));
+        }
+        return client.prepareSearch(indexName).setQuery(QueryBuilders.constantScoreQuery(filter))
+                .addSort(FIELD_BROWSE_SORT, SortOrder.DESC).addSort(tieBreakField, SortOrder.DESC)
+                .setSize(numRecords);
+    }
+
+    /**
+     * Create an opaque cursor pointing after a hit of a search prepared by
+     * {@link #prepareBrowse(String, String, String, int)}
+     * 
+     * @param hit the last hit of a page
+     * @param tieBreaker the value of the hit's tie breaker field
+     * @return the cursor for fetching the next page
+     */
+    protected String createCursor(SearchHit hit, String tieBreaker) {
+        final long lastModified = ((Number) hit.getSortValues()[0]).longValue();
+        return Base64.getUrlEncoder().encodeToString(
+                (lastModified + ":" + tieBreaker).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Get the {@link RefreshPolicy} used for an index. Indices which have not been configured using
+     * {@link #configureRefreshPolicy(String)} get refreshed immediately after each write
+     * 
+     * @param indexName the name of the index
+     * @return the refresh policy of the index
+     */
+    protected RefreshPolicy getRefreshPolicy(String indexName) {
+        final RefreshPolicy policy = refreshPolicies.get(indexName);
+        return policy == null ? RefreshPolicy.IMMEDIATE : policy;
+    }
+
+    /**
+     * Read the {@link RefreshPolicy} of an index from the properties
+     * <code>elasticsearch.index.[indexName].refresh.policy</code> falling back to
+     * <code>elasticsearch.index.refresh.policy</code>. If the property
+     * <code>elasticsearch.index.[indexName].refresh.interval</code> is set, the refresh interval of the index gets
+     * updated as well
+     * 
+     * @param indexName the name of the index
+     * @throws IOException
+     */
+    protected void configureRefreshPolicy(String indexName) throws IOException {
+        final String prefix = "elasticsearch.index." + indexName + ".refresh.";
+        final RefreshPolicy policy =
+                RefreshPolicy.fromString(env.getProperty(prefix + "policy", env.getProperty(
+                        "elasticsearch.index.refresh.policy", RefreshPolicy.IMMEDIATE.name())));
+        refreshPolicies.put(indexName, policy);
+        final String interval = env.getProperty(prefix + "interval");
+        if (interval != null && !interval.isEmpty()) {
+            try {
+                client.admin().indices().prepareUpdateSettings(indexName)
+                        .setSettings(ImmutableSettings.settingsBuilder().put("index.refresh_interval", interval))
+                        .execute().actionGet();
+            } catch (ElasticsearchException ex) {
+                throw new IOException(ex.getMostSpecificCause().getMessage());
+            }
+        }
+    }
+
+    /**
+     * Create an index using the settings and mappings from the config path if it does not exist yet. The number of
+     * shards and replicas of a new index are read from the properties
+     * <code>elasticsearch.index.[indexName].number_of_shards</code> and
+     * <code>elasticsearch.index.[indexName].number_of_replicas</code> falling back to
+     * <code>elasticsearch.index.number_of_shards</code> and <code>elasticsearch.index.number_of_replicas</code>. The
+     * number of shards of an existing index can not be changed, the number of replicas gets updated if configured
+     * 
+     * @param indexName the name of the index
+     * @throws IOException
+     */
     protected void checkAndOrCreateIndex(String indexName) throws IOException {
+        this.checkAndOrCreateIndex(indexName, indexName, null);
+    }
+
+    /**
+     * Create an index using the settings, mappings and properties configured for another index name if it does not
+     * exist yet. This is used for indices partitioned by time, which share the configuration of their base index. An
+     * index created concurrently by another thread or larch node is not treated as an error
+     * 
+     * @param indexName the name of the index
+     * @param configName the name used for looking up the settings, mappings and properties of the index
+     * @param alias an alias to add to a newly created index or null
+     * @throws IOException
+     */
+    protected void checkAndOrCreateIndex(String indexName, String configName, String alias) throws IOException {
+        final String shards = getIndexProperty(configName, "number_of_shards");
+        final String replicas = getIndexProperty(configName, "number_of_replicas");
         try {
             if (!indexExists(indexName)) {
-                Map mappings = getMappings(indexName);
+                Map mappings = getMappings(configName);
+                CreateIndexRequestBuilder requestBuilder = client.admin().indices().prepareCreate(indexName);
+                final String settings = getIndexConfig(configName, "_settings.json");
+                final ImmutableSettings.Builder settingsBuilder = ImmutableSettings.settingsBuilder();
+                if (settings != null) {
+                    settingsBuilder.loadFromSource(settings);
+                }
+                if (shards != null) {
+                    settingsBuilder.put("index.number_of_shards", Integer.parseInt(shards));
+                }
+                if (replicas != null) {
+                    settingsBuilder.put("index.number_of_replicas", Integer.parseInt(replicas));
+                }
+                if (!settingsBuilder.internalMap().isEmpty()) {
+                    requestBuilder.setSettings(settingsBuilder);
+                }
                 if (mappings != null && !mappings.isEmpty()) {
-                    CreateIndexRequestBuilder requestBuilder = client.admin().indices().prepareCreate(indexName);
                     for (String key : ((Set<String>) mappings.keySet())) {
                         requestBuilder.addMapping(key, mapper.writeValueAsString(mappings.get(key)));
                     }
-                    requestBuilder.execute().actionGet();
                 }
-                else {
-                    client.admin().indices().prepareCreate(indexName).execute().actionGet();
+                if (alias != null) {
+                    requestBuilder.addAlias(new Alias(alias));
                 }
+                requestBuilder.execute().actionGet();
+            } else if (replicas != null) {
+                client.admin().indices().prepareUpdateSettings(indexName)
+                        .setSettings(ImmutableSettings.settingsBuilder().put("index.number_of_replicas",
+                                Integer.parseInt(replicas))).execute().actionGet();
             }
+        } catch (NumberFormatException ex) {
+            throw new IOException("Invalid number of shards or replicas configured for index " + indexName);
         } catch (ElasticsearchException ex) {
-            throw new IOException(ex.getMostSpecificCause().getMessage());
+            if (!(ex.unwrapCause() instanceof IndexAlreadyExistsException)) {
+                throw new IOException(ex.getMostSpecificCause().getMessage());
+            }
         }
     }
 
+    private String getIndexProperty(String indexName, String key) {
+        final String value =
+                env.getProperty("elasticsearch.index." + indexName + "." + key, env.getProperty(
+                        "elasticsearch.index." + key));
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
     protected boolean indexExists(String indexName) throws IOException {
         try {
             return client.admin().indices().exists(new IndicesExistsRequest(indexName)).actionGet().isExists();
@@ -76,13 +352,139 @@ public class AbstractElasticSearchService {
     }
 
     private Map getMappings(String indexName) throws IOException {
-        InputStream in =
-                this.getClass().getResourceAsStream(
-                        env.getProperty("elasticsearch.config.path") + indexName + "_mappings.json");
-        if (in != null) {
-            String mappings = IOUtils.toString(in);
+        final String mappings = getIndexConfig(indexName, "_mappings.json");
+        if (mappings != null) {
             return mapper.readValue(mappings, Map.class);
         }
         return null;
     }
+
+    private String getIndexConfig(String indexName, String suffix) throws IOException {
+        try (InputStream in =
+                this.getClass().getResourceAsStream(env.getProperty("elasticsearch.config.path") + indexName + suffix)) {
+            return in == null ? null : IOUtils.toString(in);
+        }
+    }
+
+    /**
+     * Check whether the text fields of an index have the sub fields for prefix searches. Indices created by older
+     * releases lack these fields and have to be searched using wildcard queries until they are rebuilt
+     * 
+     * @param indexName the name of the index
+     * @param type the document type to check
+     * @return true if the label field has a prefix sub field
+     * @throws IOException
+     */
+    protected boolean hasPrefixFields(String indexName, String type) throws IOException {
+        final MappingMetaData mapping;
+        try {
+            final ImmutableOpenMap<String, MappingMetaData> mappings =
+                    client.admin().indices().prepareGetMappings(indexName).setTypes(type).execute().actionGet()
+                            .getMappings().get(indexName);
+            mapping = mappings == null ? null : mappings.get(type);
+        } catch (ElasticsearchException ex) {
+            throw new IOException(ex.getMostSpecificCause().getMessage());
+        }
+        if (mapping == null) {
+            return false;
+        }
+        // the mapping is untyped JSON, so every level is checked before descending into it
+        final Object properties = mapping.sourceAsMap().get("properties");
+        final Object label = properties instanceof Map ? ((Map<?, ?>) properties).get("label") : null;
+        final Object fields = label instanceof Map ? ((Map<?, ?>) label).get("fields") : null;
+        return fields instanceof Map && ((Map<?, ?>) fields).containsKey("prefix");
+    }
+
+    /**
+     * Build the query for a search in the given fields. Every field has to match at least one of its terms. A term
+     * may start or end with the wildcard <code>*</code>, which searches for tokens starting with the rest of the
+     * term. Prefixes of text fields are looked up in their edge n-gram sub field, so that no terms have to be
+     * enumerated. Terms containing other wildcards and the fields of indices without prefix sub fields are searched
+     * using wildcard queries
+     * 
+     * @param searchFields the terms to search for keyed by the field
+     * @param prefixFields whether the index has the prefix sub fields
+     * @return the query
+     */
+    protected QueryBuilder buildSearchQuery(Map<EntitiesSearchField, String[]> searchFields, boolean prefixFields) {
+        final BoolQueryBuilder queryBuilder = QueryBuilders.boolQuery();
+        for (Map.Entry<EntitiesSearchField, String[]> searchField : searchFields.entrySet()) {
+            if (searchField.getValue() != null && searchField.getValue().length > 0) {
+                final BoolQueryBuilder childQueryBuilder = QueryBuilders.boolQuery();
+                for (final String term : searchField.getValue()) {
+                    if (StringUtils.isNotBlank(term)) {
+                        childQueryBuilder.should(buildFieldQuery(searchField.getKey(), term, prefixFields));
+                    }
+                }
+                queryBuilder.must(childQueryBuilder);
+            }
+        }
+        return queryBuilder;
+    }
+
+    private QueryBuilder buildFieldQuery(EntitiesSearchField field, String term, boolean prefixFields) {
+        final String name = field.getFieldName();
+        final String stripped = StringUtils.strip(term, "*");
+        final boolean prefix = !stripped.equals(term);
+        if (stripped.isEmpty()) {
+            return QueryBuilders.matchAllQuery();
+        }
+        if (!prefixFields || stripped.indexOf('*') >= 0 || stripped.indexOf('?') >= 0) {
+            return QueryBuilders.wildcardQuery(name, field.getKind() == EntitiesSearchField.Kind.KEYWORD ? term : term
+                    .toLowerCase());
+        }
+        switch (field.getKind()) {
+        case KEYWORD:
+            if (!prefix) {
+                return QueryBuilders.termQuery(name, stripped);
+            }
+            return term.startsWith("*") ? QueryBuilders.wildcardQuery(name, term) : QueryBuilders.prefixQuery(name,
+                    stripped);
+        case TEXT:
+            if (!prefix) {
+                return QueryBuilders.matchQuery(name, stripped).operator(MatchQueryBuilder.Operator.AND);
+            }
+            if (stripped.length() > MAX_PREFIX_LENGTH) {
+                // longer prefixes are not indexed as n-grams
+                return QueryBuilders.wildcardQuery(name, stripped.toLowerCase() + "*");
+            }
+            return QueryBuilders.matchQuery(name + ".prefix", stripped).operator(MatchQueryBuilder.Operator.AND);
+        case NUMBER:
+            return QueryBuilders.matchQuery(name, stripped).setLenient(true);
+        default:
+            if (!prefix) {
+                return QueryBuilders.matchQuery(name, stripped).operator(MatchQueryBuilder.Operator.AND);
+            }
+            // the _all field has no n-gram sub field, so only a bounded number of terms gets expanded
+            return QueryBuilders.matchPhrasePrefixQuery(name, stripped).maxExpansions(MAX_PREFIX_EXPANSIONS);
+        }
+    }
+
+    /**
+     * The strategies available for making written documents visible to searches. Retrieval of single documents is
+     * not affected by the policy, since GET requests are realtime in ElasticSearch
+     */
+    public static enum RefreshPolicy {
+        /**
+         * Refresh the whole index synchronously after each write
+         */
+        IMMEDIATE,
+        /**
+         * Refresh only the shards affected by a write request as part of the request
+         */
+        REQUEST,
+        /**
+         * Do not refresh on write and rely on the index' periodic refresh interval
+         */
+        INTERVAL;
+
+        public static RefreshPolicy fromString(String value) {
+            for (final RefreshPolicy policy : values()) {
+                if (policy.name().equalsIgnoreCase(value.trim())) {
+                    return policy;
+                }
+            }
+            throw new IllegalArgumentException("Unknown refresh policy " + value);
+        }
+    }
 }
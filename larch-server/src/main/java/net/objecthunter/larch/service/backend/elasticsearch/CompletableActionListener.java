@@ -0,0 +1,97 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+
+package net.objecthunter.larch.service.backend.elasticsearch;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+
+/**
+ * An ElasticSearch {@link org.elasticsearch.action.ActionListener} completing a
+ * {@link java.util.concurrent.CompletableFuture} with the converted response, so that no thread has to wait for the
+ * cluster. Failures of the request are translated like in the blocking calls, an
+ * {@link org.elasticsearch.ElasticsearchException} completes the future with an {@link java.io.IOException}.
+ * 
+ * @param <R> the type of the ElasticSearch response
+ * @param <T> the type of the converted result
+ */
+public abstract class CompletableActionListener<R, T> implements ActionListener<R> {
+
+    private final CompletableFuture<T> future = new CompletableFuture<>();
+
+    /**
+     * Get the future completed by this listener
+     * 
+     * @return the future
+     */
+    public CompletableFuture<T> getFuture() {
+        return future;
+    }
+
+    /**
+     * Convert the response of ElasticSearch into the result of the future. This is called on the thread that
+     * received the response, so it must not block
+     * 
+     * @param response the response
+     * @return the result
+     * @throws IOException if the response can not be converted
+     */
+    protected abstract T convert(R response) throws IOException;
+
+    /**
+     * Translate a failed request into the exception the future is completed with. Subclasses can override this
+     * method in order to map specific failures like version conflicts
+     * 
+     * @param e the cause of the failure
+     * @return the exception
+     */
+    protected Throwable translate(Throwable e) {
+        if (e instanceof ElasticsearchException) {
+            return new IOException(((ElasticsearchException) e).getMostSpecificCause().getMessage());
+        }
+        return e;
+    }
+
+    /**
+     * Create a future which has already failed, used for requests which can not be sent at all
+     * 
+     * @param e the cause of the failure
+     * @return the failed future
+     */
+    public static <T> CompletableFuture<T> failedFuture(Throwable e) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    @Override
+    public void onResponse(R response) {
+        try {
+            future.complete(convert(response));
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public void onFailure(Throwable e) {
+        future.completeExceptionally(translate(e));
+    }
+}
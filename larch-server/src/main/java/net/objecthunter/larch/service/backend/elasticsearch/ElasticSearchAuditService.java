@@ -17,22 +17,44 @@
 package net.objecthunter.larch.service.backend.elasticsearch;
 
 import java.io.IOException;
+import java.time.YearMonth;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import net.objecthunter.larch.model.AuditRecord;
 import net.objecthunter.larch.service.backend.BackendAuditService;
 
-import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.log4j.Logger;
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.cluster.metadata.MetaData;
 import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.sort.SortOrder;
@@ -42,39 +64,183 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * Implementation of an {@link net.objecthunter.larch.service.backend.BackendAuditService} built on top of
- * ElasticSearch
+ * ElasticSearch. {@link net.objecthunter.larch.model.AuditRecord}s are not written to the index by the calling
+ * thread but put in a bounded queue which is drained by a background writer using bulk requests. When the queue is
+ * full or the writer is not running the records are written synchronously, so that no record gets lost. A batch the
+ * writer fails to store is retried with an increasing delay until the index accepts it, while the filling queue makes
+ * the callers write their records themselves.
+ * <p>
+ * The records are partitioned by the month of their timestamp into the indices <code>audit-yyyy.MM</code>, which
+ * are all reachable via the alias <code>audit</code>. Retrieving the records of an entity only searches the
+ * partitions holding the requested page, and a retention policy drops whole partitions once they are older than
+ * <code>larch.audit.retention.months</code>. A single <code>audit</code> index written by older releases gets moved to
+ * the partitions on startup.
  */
 public class ElasticSearchAuditService extends AbstractElasticSearchService implements BackendAuditService {
 
     public static final String INDEX_AUDIT = "audit";
 
+    private static final DateTimeFormatter PARTITION_FORMAT = DateTimeFormatter.ofPattern("yyyy.MM");
+
+    private static final Pattern PARTITION_PATTERN = Pattern.compile(INDEX_AUDIT + "-\\d{4}\\.\\d{2}");
+
     private static final Logger log = Logger.getLogger(ElasticSearchAuditService.class);
 
+    private static final long MAX_RETRY_INTERVAL = 60000;
+
     private int maxRecords = 50;
 
+    private int queueSize = 10000;
+
+    private int flushSize = 500;
+
+    private long flushInterval = 1000;
+
+    private BlockingQueue<AuditRecord> queue;
+
+    private ExecutorService writer;
+
+    private volatile boolean running;
+
+    /* the records the writer has not been able to store before it was stopped, guarded by its monitor */
+    private final List<AuditRecord> pending = new ArrayList<>();
+
+    /* the number of months before the current one for which the partitions are kept, 0 keeps all partitions */
+    private int retentionMonths = 0;
+
+    /* the partitions known to exist, so that the index does not have to be asked before each write */
+    private final Set<String> partitions = ConcurrentHashMap.newKeySet();
+
+    /* the month of the oldest partition, searches do not have to look any further back */
+    private volatile YearMonth oldestPartition;
+
+    private ScheduledExecutorService retention;
+
     @Autowired
     private ObjectMapper mapper;
 
     @PostConstruct
     public void init() throws IOException {
         log.debug("initialising ElasticSearchAuditService");
-        this.checkAndOrCreateIndex(INDEX_AUDIT);
-        this.waitForIndex(INDEX_AUDIT);
+        this.migrateLegacyIndex();
+        final String current = getPartition(YearMonth.now(ZoneOffset.UTC));
+        this.checkAndOrCreateIndex(current, INDEX_AUDIT, INDEX_AUDIT);
+        this.partitions.add(current);
+        this.waitForIndex(current);
+        for (final String partition : this.listPartitions()) {
+            final YearMonth month = getMonth(partition);
+            if (oldestPartition == null || month.isBefore(oldestPartition)) {
+                oldestPartition = month;
+            }
+        }
+        queueSize = Integer.parseInt(env.getProperty("larch.audit.queue.size", String.valueOf(queueSize)));
+        flushSize = Integer.parseInt(env.getProperty("larch.audit.flush.size", String.valueOf(flushSize)));
+        flushInterval =
+                Long.parseLong(env.getProperty("larch.audit.flush.interval", String.valueOf(flushInterval)));
+        retentionMonths =
+                Integer.parseInt(env.getProperty("larch.audit.retention.months", String.valueOf(retentionMonths)));
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.running = true;
+        this.writer = Executors.newSingleThreadExecutor();
+        this.writer.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                writeBehind();
+            }
+        });
+        if (retentionMonths > 0) {
+            this.retention = Executors.newSingleThreadScheduledExecutor();
+            this.retention.scheduleWithFixedDelay(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        applyRetention();
+                    } catch (IOException | RuntimeException e) {
+                        log.error("unable to drop expired audit partitions", e);
+                    }
+                }
+            }, 0, 1, TimeUnit.DAYS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        log.debug("shutting down audit writer");
+        this.running = false;
+        if (this.retention != null) {
+            this.retention.shutdownNow();
+        }
+        if (this.writer != null) {
+            this.writer.shutdown();
+            try {
+                if (!this.writer.awaitTermination(flushInterval * 2, TimeUnit.MILLISECONDS)) {
+                    // the writer is still retrying a batch, which it hands back to be written below
+                    this.writer.shutdownNow();
+                    this.writer.awaitTermination(flushInterval, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            this.flush();
+        } catch (IOException e) {
+            synchronized (pending) {
+                queue.drainTo(pending);
+                logLost(pending, e);
+            }
+            throw e;
+        }
     }
 
     @Override
     public List<AuditRecord> retrieve(String entityId, int offset, int numRecords) throws IOException {
         numRecords = numRecords > maxRecords ? maxRecords : numRecords;
+        final QueryBuilder query = QueryBuilders.constantScoreQuery(FilterBuilders.termFilter("entityId", entityId));
+        final List<String> months = this.getSearchedPartitions();
+
+        /* count the entity's records in each partition to find the partitions holding the requested page */
+        final MultiSearchResponse counts;
+        try {
+            final MultiSearchRequestBuilder countRequest = this.client.prepareMultiSearch();
+            for (final String partition : months) {
+                countRequest.add(this.client.prepareSearch(partition).setSearchType(SearchType.COUNT)
+                        .setQuery(query).setIndicesOptions(IndicesOptions.lenientExpandOpen()));
+            }
+            counts = countRequest.execute().actionGet();
+        } catch (ElasticsearchException ex) {
+            throw new IOException(ex.getMostSpecificCause().getMessage());
+        }
+        final List<String> searched = new ArrayList<>();
+        long skipped = 0;
+        long total = 0;
+        for (int i = 0; i < months.size(); i++) {
+            final MultiSearchResponse.Item item = counts.getResponses()[i];
+            if (item.isFailure()) {
+                throw new IOException(item.getFailureMessage());
+            }
+            final long hits = item.getResponse().getHits().getTotalHits();
+            if (hits > 0 && total + hits > offset && total < offset + numRecords) {
+                if (searched.isEmpty()) {
+                    skipped = total;
+                }
+                searched.add(months.get(i));
+            }
+            total += hits;
+        }
+        if (searched.isEmpty()) {
+            return new ArrayList<>();
+        }
+
         final SearchResponse resp;
         try {
             resp =
                     this.client
-                            .prepareSearch(INDEX_AUDIT)
-                            .setQuery(
-                                    QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(),
-                                            FilterBuilders
-                                                    .termFilter("entityId", entityId)))
-                            .setSearchType(SearchType.DFS_QUERY_THEN_FETCH).setFrom(offset).setSize(numRecords)
+                            .prepareSearch(searched.toArray(new String[searched.size()]))
+                            .setQuery(query).setIndicesOptions(IndicesOptions.lenientExpandOpen())
+                            .setFrom((int) (offset - skipped)).setSize(numRecords)
                             .addSort("timestamp", SortOrder.ASC).execute().actionGet();
         } catch (ElasticsearchException ex) {
             throw new IOException(ex.getMostSpecificCause().getMessage());
@@ -90,27 +256,288 @@ public class ElasticSearchAuditService extends AbstractElasticSearchService impl
 
     @Override
     public String create(AuditRecord rec) throws IOException {
-        String id;
-        do {
-            id = RandomStringUtils.randomAlphabetic(16);
-        } while (this.exists(id));
-        rec.setId(id);
-        rec.setTimestamp(ZonedDateTime.now(ZoneOffset.UTC).toString());
+        this.stamp(rec);
+        if (!running || !queue.offer(rec)) {
+            // the writer is not running or can not keep up, so the caller has to wait for the record to be written
+            this.index(Collections.singletonList(rec));
+        }
+        return rec.getId();
+    }
+
+    @Override
+    public void create(List<AuditRecord> recs) throws IOException {
+        final List<AuditRecord> rejected = new ArrayList<>();
+        for (final AuditRecord rec : recs) {
+            this.stamp(rec);
+            if (!running || !queue.offer(rec)) {
+                rejected.add(rec);
+            }
+        }
+        this.index(rejected);
+    }
+
+    /**
+     * Write all the {@link net.objecthunter.larch.model.AuditRecord}s currently waiting in the queue to the index
+     * 
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        if (queue == null) {
+            return;
+        }
+        synchronized (pending) {
+            // the records handed back by the writer are older than the queued ones; they are kept if writing fails
+            this.index(pending);
+            pending.clear();
+            while (queue.drainTo(pending, flushSize) > 0) {
+                this.index(pending);
+                pending.clear();
+            }
+        }
+    }
+
+    /**
+     * Drop the partitions of the months which are more than <code>larch.audit.retention.months</code> months before
+     * the current month
+     * 
+     * @throws IOException
+     */
+    public void applyRetention() throws IOException {
+        if (retentionMonths < 1) {
+            return;
+        }
+        final YearMonth cutoff = YearMonth.now(ZoneOffset.UTC).minusMonths(retentionMonths);
+        final List<String> expired = new ArrayList<>();
+        for (final String partition : this.listPartitions()) {
+            if (getMonth(partition).isBefore(cutoff)) {
+                expired.add(partition);
+            }
+        }
+        if (oldestPartition == null || oldestPartition.isBefore(cutoff)) {
+            oldestPartition = cutoff;
+        }
+        if (expired.isEmpty()) {
+            return;
+        }
+        log.info("dropping the expired audit partitions " + expired);
         try {
-            this.client
-                    .prepareIndex(INDEX_AUDIT, "audit", id).setSource(mapper.writeValueAsBytes(rec)).execute()
+            this.client.admin().indices().prepareDelete(expired.toArray(new String[expired.size()])).execute()
                     .actionGet();
         } catch (ElasticsearchException ex) {
             throw new IOException(ex.getMostSpecificCause().getMessage());
         }
-        return id;
+        this.partitions.removeAll(expired);
+    }
+
+    /**
+     * Get the name of the partition holding the audit records of a month
+     * 
+     * @param month the month
+     * @return the name of the partition index
+     */
+    public static String getPartition(YearMonth month) {
+        return INDEX_AUDIT + "-" + PARTITION_FORMAT.format(month);
+    }
+
+    private static String getPartition(AuditRecord rec) {
+        try {
+            return getPartition(YearMonth.from(ZonedDateTime.parse(rec.getTimestamp()).withZoneSameInstant(
+                    ZoneOffset.UTC)));
+        } catch (DateTimeParseException | NullPointerException e) {
+            return getPartition(YearMonth.now(ZoneOffset.UTC));
+        }
+    }
+
+    private static YearMonth getMonth(String partition) {
+        return YearMonth.parse(partition.substring(INDEX_AUDIT.length() + 1), PARTITION_FORMAT);
+    }
+
+    /* the partitions from the oldest one up to the current month in chronological order */
+    private List<String> getSearchedPartitions() {
+        final YearMonth current = YearMonth.now(ZoneOffset.UTC);
+        final List<String> names = new ArrayList<>();
+        for (YearMonth month = oldestPartition == null ? current : oldestPartition; !month.isAfter(current); month =
+                month.plusMonths(1)) {
+            names.add(getPartition(month));
+        }
+        return names;
+    }
+
+    private List<String> listPartitions() throws IOException {
+        final String[] indices;
+        try {
+            indices =
+                    this.getMetaData().concreteIndices(IndicesOptions.lenientExpandOpen(), INDEX_AUDIT + "-*");
+        } catch (ElasticsearchException ex) {
+            throw new IOException(ex.getMostSpecificCause().getMessage());
+        }
+        final List<String> names = new ArrayList<>();
+        for (final String index : indices) {
+            if (PARTITION_PATTERN.matcher(index).matches()) {
+                names.add(index);
+            }
+        }
+        return names;
+    }
+
+    private MetaData getMetaData() {
+        return this.client.admin().cluster().prepareState().execute().actionGet().getState().getMetaData();
     }
 
-    private boolean exists(String id) throws IOException {
+    /**
+     * Move the records of the single audit index written by older releases to the monthly partitions, since the
+     * alias of the partitions can not be created as long as an index of the same name exists
+     * 
+     * @throws IOException
+     */
+    private void migrateLegacyIndex() throws IOException {
         try {
-            return this.client.prepareGet(INDEX_AUDIT, null, id).execute().actionGet().isExists();
+            if (!this.getMetaData().hasConcreteIndex(INDEX_AUDIT)) {
+                return;
+            }
         } catch (ElasticsearchException ex) {
             throw new IOException(ex.getMostSpecificCause().getMessage());
         }
+        log.info("moving the records of the audit index to monthly partitions");
+        final Set<String> migrated = new HashSet<>();
+        long count = 0;
+        SearchResponse resp;
+        try {
+            resp =
+                    client.prepareSearch(INDEX_AUDIT).setSearchType(SearchType.SCAN)
+                            .setQuery(QueryBuilders.matchAllQuery()).setScroll(SCROLL_KEEP_ALIVE)
+                            .setSize(SCAN_BATCH_SIZE).execute().actionGet();
+        } catch (ElasticsearchException ex) {
+            throw new IOException(ex.getMostSpecificCause().getMessage());
+        }
+        try {
+            while (true) {
+                resp = client.prepareSearchScroll(resp.getScrollId()).setScroll(SCROLL_KEEP_ALIVE).execute()
+                        .actionGet();
+                if (resp.getHits().getHits().length == 0) {
+                    break;
+                }
+                final BulkRequestBuilder bulk = this.client.prepareBulk();
+                for (final SearchHit hit : resp.getHits().getHits()) {
+                    final String partition =
+                            getPartition(mapper.readValue(hit.getSourceAsString(), AuditRecord.class));
+                    if (migrated.add(partition)) {
+                        // the alias is added once the old index is gone
+                        this.checkAndOrCreateIndex(partition, INDEX_AUDIT, null);
+                    }
+                    bulk.add(this.client.prepareIndex(partition, "audit", hit.getId()).setSource(hit.source()));
+                }
+                final BulkResponse bulkResp = bulk.execute().actionGet();
+                if (bulkResp.hasFailures()) {
+                    throw new IOException("Unable to move audit records: " + bulkResp.buildFailureMessage());
+                }
+                count += resp.getHits().getHits().length;
+            }
+            this.client.admin().indices().prepareDelete(INDEX_AUDIT).execute().actionGet();
+            if (!migrated.isEmpty()) {
+                this.client.admin().indices().prepareAliases()
+                        .addAlias(migrated.toArray(new String[migrated.size()]), INDEX_AUDIT).execute().actionGet();
+            }
+        } catch (ElasticsearchException ex) {
+            throw new IOException(ex.getMostSpecificCause().getMessage());
+        } finally {
+            client.prepareClearScroll().addScrollId(resp.getScrollId()).execute();
+        }
+        this.partitions.addAll(migrated);
+        log.info("moved " + count + " audit records to the partitions " + migrated);
+    }
+
+    private void stamp(AuditRecord rec) {
+        // random UUIDs do not collide, so there is no need to check the index for an existing record
+        rec.setId(UUID.randomUUID().toString());
+        rec.setTimestamp(ZonedDateTime.now(ZoneOffset.UTC).toString());
+    }
+
+    private void writeBehind() {
+        final List<AuditRecord> batch = new ArrayList<>(flushSize);
+        long retryInterval = flushInterval;
+        while (running || !batch.isEmpty()) {
+            try {
+                if (batch.isEmpty()) {
+                    final AuditRecord first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    // give the batch at most one flush interval to fill up
+                    final long deadline = System.currentTimeMillis() + flushInterval;
+                    long remaining;
+                    while (batch.size() < flushSize && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                        final AuditRecord next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                        queue.drainTo(batch, flushSize - batch.size());
+                    }
+                }
+                this.index(batch);
+                batch.clear();
+                retryInterval = flushInterval;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.handBack(batch);
+                return;
+            } catch (IOException | RuntimeException e) {
+                // the batch is kept until it has been written, meanwhile the queue fills up and the callers have to
+                // write their records synchronously
+                log.warn("unable to write " + batch.size() + " audit records, retrying in " + retryInterval + " ms",
+                        e);
+                try {
+                    Thread.sleep(retryInterval);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    this.handBack(batch);
+                    return;
+                }
+                retryInterval = Math.min(retryInterval * 2, MAX_RETRY_INTERVAL);
+            }
+        }
+    }
+
+    private void handBack(List<AuditRecord> batch) {
+        synchronized (pending) {
+            pending.addAll(batch);
+        }
+        batch.clear();
+    }
+
+    private static void logLost(List<AuditRecord> recs, Exception cause) {
+        log.error("unable to write " + recs.size() + " audit records before shutting down", cause);
+        for (final AuditRecord rec : recs) {
+            log.error("lost audit record " + rec.getId() + ": " + rec.getAction() + " on entity " +
+                    rec.getEntityId() + " by " + rec.getAgentName() + " at " + rec.getTimestamp());
+        }
+    }
+
+    private void index(List<AuditRecord> recs) throws IOException {
+        if (recs.isEmpty()) {
+            return;
+        }
+        final BulkRequestBuilder bulk = this.client.prepareBulk();
+        for (final AuditRecord rec : recs) {
+            final String partition = getPartition(rec);
+            if (!partitions.contains(partition)) {
+                // the first record of a new month creates its partition
+                this.checkAndOrCreateIndex(partition, INDEX_AUDIT, INDEX_AUDIT);
+                partitions.add(partition);
+            }
+            bulk.add(this.client.prepareIndex(partition, "audit", rec.getId())
+                    .setSource(mapper.writeValueAsBytes(rec)));
+        }
+        final BulkResponse resp;
+        try {
+            resp = bulk.execute().actionGet();
+        } catch (ElasticsearchException ex) {
+            throw new IOException(ex.getMostSpecificCause().getMessage());
+        }
+        if (resp.hasFailures()) {
+            throw new IOException("Unable to store audit records: " + resp.buildFailureMessage());
+        }
     }
 }
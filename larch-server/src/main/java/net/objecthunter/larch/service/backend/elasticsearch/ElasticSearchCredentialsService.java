@@ -83,6 +83,9 @@ public class ElasticSearchCredentialsService extends AbstractElasticSearchServic
         this.checkAndOrCreateIndex(INDEX_USERS);
         this.checkAndOrCreateIndex(INDEX_GROUPS);
         this.checkAndOrCreateIndex(INDEX_USERS_REQUEST);
+        this.configureRefreshPolicy(INDEX_USERS);
+        this.configureRefreshPolicy(INDEX_GROUPS);
+        this.configureRefreshPolicy(INDEX_USERS_REQUEST);
         checkAndOrCreateDefaultGroups();
         checkAndOrCreateDefaultUsers();
     }
@@ -198,14 +201,14 @@ public class ElasticSearchCredentialsService extends AbstractElasticSearchServic
             if (get.isExists()) {
                 throw new AlreadyExistsException("The user " + u.getName() + " does already exist");
             }
-            this.client
+            applyRefreshPolicy(INDEX_USERS, this.client
                     .prepareIndex(INDEX_USERS, INDEX_USERS_TYPE, u.getName()).setSource(
-                            mapper.writeValueAsBytes(u))
+                            mapper.writeValueAsBytes(u)))
                     .execute().actionGet();
         } catch (ElasticsearchException ex) {
             throw new IOException(ex.getMostSpecificCause().getMessage());
         }
-        this.refreshIndex(INDEX_USERS);
+        this.refreshAfterWrite(INDEX_USERS);
         return u;
     }
 
@@ -231,14 +234,14 @@ public class ElasticSearchCredentialsService extends AbstractElasticSearchServic
             this.mailService.sendUserRequest(request);
         }
         try {
-            this.client
+            applyRefreshPolicy(INDEX_USERS_REQUEST, this.client
                     .prepareIndex(INDEX_USERS_REQUEST, INDEX_USERS_REQUEST_TYPE)
-                    .setSource(this.mapper.writeValueAsBytes(request)).setId(request.getToken()).execute()
+                    .setSource(this.mapper.writeValueAsBytes(request)).setId(request.getToken())).execute()
                     .actionGet();
         } catch (ElasticsearchException ex) {
             throw new IOException(ex.getMostSpecificCause().getMessage());
         }
-        this.refreshIndex(INDEX_USERS_REQUEST);
+        this.refreshAfterWrite(INDEX_USERS_REQUEST);
         return request;
     }
 
@@ -253,14 +256,14 @@ public class ElasticSearchCredentialsService extends AbstractElasticSearchServic
             if (get.isExists()) {
                 throw new AlreadyExistsException("The group " + g.getName() + " does already exist");
             }
-            this.client
+            applyRefreshPolicy(INDEX_GROUPS, this.client
                     .prepareIndex(INDEX_GROUPS, INDEX_GROUPS_TYPE, g.getName()).setSource(
-                            mapper.writeValueAsBytes(g))
+                            mapper.writeValueAsBytes(g)))
                     .execute().actionGet();
         } catch (ElasticsearchException ex) {
             throw new IOException(ex.getMostSpecificCause().getMessage());
         }
-        this.refreshIndex(INDEX_GROUPS);
+        this.refreshAfterWrite(INDEX_GROUPS);
     }
 
     @Override
@@ -277,14 +280,14 @@ public class ElasticSearchCredentialsService extends AbstractElasticSearchServic
             if (!get.isExists()) {
                 throw new NotFoundException("The user " + u.getName() + " does not exist");
             }
-            this.client
+            applyRefreshPolicy(INDEX_USERS, this.client
                     .prepareIndex(INDEX_USERS, INDEX_USERS_TYPE, u.getName()).setSource(
-                            mapper.writeValueAsBytes(u))
+                            mapper.writeValueAsBytes(u)))
                     .execute().actionGet();
         } catch (ElasticsearchException ex) {
             throw new IOException(ex.getMostSpecificCause().getMessage());
         }
-        this.refreshIndex(INDEX_USERS);
+        this.refreshAfterWrite(INDEX_USERS);
     }
 
     @Override
@@ -298,9 +301,9 @@ public class ElasticSearchCredentialsService extends AbstractElasticSearchServic
             if (!get.isExists()) {
                 throw new NotFoundException("The group " + g.getName() + " does not exist");
             }
-            this.client
+            applyRefreshPolicy(INDEX_GROUPS, this.client
                     .prepareIndex(INDEX_GROUPS, INDEX_GROUPS_TYPE, g.getName()).setSource(
-                            mapper.writeValueAsBytes(g))
+                            mapper.writeValueAsBytes(g)))
                     .execute().actionGet();
         } catch (ElasticsearchException ex) {
             throw new IOException(ex.getMostSpecificCause().getMessage());
@@ -336,11 +339,12 @@ public class ElasticSearchCredentialsService extends AbstractElasticSearchServic
             if (!get.isExists()) {
                 throw new NotFoundException("The user " + name + " does not exist");
             }
-            this.client.prepareDelete(INDEX_USERS, INDEX_USERS_TYPE, name).execute().actionGet();
+            applyRefreshPolicy(INDEX_USERS, this.client.prepareDelete(INDEX_USERS, INDEX_USERS_TYPE, name)).execute()
+                    .actionGet();
         } catch (ElasticsearchException ex) {
             throw new IOException(ex.getMostSpecificCause().getMessage());
         }
-        this.refreshIndex(INDEX_USERS);
+        this.refreshAfterWrite(INDEX_USERS);
     }
 
     @Override
@@ -354,11 +358,12 @@ public class ElasticSearchCredentialsService extends AbstractElasticSearchServic
             if (!get.isExists()) {
                 throw new NotFoundException("The group " + name + " does not exist");
             }
-            this.client.prepareDelete(INDEX_GROUPS, INDEX_GROUPS_TYPE, name).execute().actionGet();
+            applyRefreshPolicy(INDEX_GROUPS, this.client.prepareDelete(INDEX_GROUPS, INDEX_GROUPS_TYPE, name)).execute()
+                    .actionGet();
         } catch (ElasticsearchException ex) {
             throw new IOException(ex.getMostSpecificCause().getMessage());
         }
-        this.refreshIndex(INDEX_GROUPS);
+        this.refreshAfterWrite(INDEX_GROUPS);
     }
 
     @Override
@@ -492,11 +497,13 @@ public class ElasticSearchCredentialsService extends AbstractElasticSearchServic
     @Override
     public void deleteUserRequest(String token) throws IOException {
         try {
-            this.client.prepareDelete(INDEX_USERS_REQUEST, INDEX_USERS_REQUEST_TYPE, token).execute().actionGet();
+            applyRefreshPolicy(INDEX_USERS_REQUEST,
+                    this.client.prepareDelete(INDEX_USERS_REQUEST, INDEX_USERS_REQUEST_TYPE, token)).execute()
+                    .actionGet();
         } catch (ElasticsearchException ex) {
             throw new IOException(ex.getMostSpecificCause().getMessage());
         }
-        refreshIndex(INDEX_USERS_REQUEST);
+        refreshAfterWrite(INDEX_USERS_REQUEST);
     }
 
     @Override
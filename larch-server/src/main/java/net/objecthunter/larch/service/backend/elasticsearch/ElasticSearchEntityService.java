@@ -17,35 +17,56 @@
 package net.objecthunter.larch.service.backend.elasticsearch;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import javax.annotation.PostConstruct;
 
 import net.objecthunter.larch.exceptions.AlreadyExistsException;
+import net.objecthunter.larch.exceptions.ConflictException;
+import net.objecthunter.larch.exceptions.InvalidParameterException;
 import net.objecthunter.larch.exceptions.NotFoundException;
+import net.objecthunter.larch.model.BulkItemResult;
 import net.objecthunter.larch.model.Entity;
+import net.objecthunter.larch.model.EntityChildren;
 import net.objecthunter.larch.model.SearchResult;
 import net.objecthunter.larch.model.state.IndexState;
 import net.objecthunter.larch.service.backend.BackendEntityService;
 
-import org.apache.commons.lang3.StringUtils;
 import org.elasticsearch.ElasticsearchException;
-import org.elasticsearch.action.ActionFuture;
-import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
-import org.elasticsearch.action.admin.indices.refresh.RefreshResponse;
 import org.elasticsearch.action.admin.indices.status.IndexStatus;
 import org.elasticsearch.action.admin.indices.status.IndicesStatusRequest;
 import org.elasticsearch.action.admin.indices.status.IndicesStatusResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.count.CountResponse;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.update.UpdateRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
-import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.engine.DocumentAlreadyExistsException;
+import org.elasticsearch.index.engine.DocumentMissingException;
+import org.elasticsearch.index.engine.VersionConflictEngineException;
+import org.elasticsearch.index.query.FilterBuilder;
 import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.MultiBucketsAggregation;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogram;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -64,6 +85,11 @@ public class ElasticSearchEntityService extends AbstractElasticSearchService imp
 
     private int maxRecords = 50;
 
+    private int maxChildRecords = 1000;
+
+    /* whether the index has the edge n-gram sub fields used for prefix searches */
+    private boolean prefixFields = true;
+
     private static final Logger log = LoggerFactory.getLogger(ElasticSearchEntityService.class);
 
     @Autowired
@@ -74,44 +100,108 @@ public class ElasticSearchEntityService extends AbstractElasticSearchService imp
         log.debug("initialising ElasticSearchEntityService");
         this.checkAndOrCreateIndex(INDEX_ENTITIES);
         this.waitForIndex(INDEX_ENTITIES);
+        this.configureRefreshPolicy(INDEX_ENTITIES);
+        this.prefixFields = this.hasPrefixFields(INDEX_ENTITIES, INDEX_ENTITY_TYPE);
+        if (!prefixFields) {
+            log.warn("The index {} has no prefix fields, searches fall back to wildcard queries until it is rebuilt",
+                    INDEX_ENTITIES);
+        }
     }
 
     @Override
     public String create(Entity e) throws IOException {
         log.debug("creating new entity");
-        if (e.getId() != null) {
-            final GetResponse resp =
-                    client.prepareGet(INDEX_ENTITIES, INDEX_ENTITY_TYPE, e.getId()).execute().actionGet();
-            if (resp.isExists()) {
+        try {
+            // op_type create lets the index reject existing ids atomically
+            applyRefreshPolicy(INDEX_ENTITIES, client
+                    .prepareIndex(INDEX_ENTITIES, INDEX_ENTITY_TYPE, e.getId()).setCreate(true).setSource(
+                            mapper.writeValueAsBytes(e)))
+                    .execute().actionGet();
+        } catch (ElasticsearchException ex) {
+            if (ex.unwrapCause() instanceof DocumentAlreadyExistsException) {
                 throw new AlreadyExistsException("Entity with id " + e.getId() + " already exists");
             }
+            throw new IOException(ex.getMostSpecificCause().getMessage());
+        }
+        refreshAfterWrite(INDEX_ENTITIES);
+        return e.getId();
+    }
+
+    @Override
+    public List<BulkItemResult> create(List<Entity> entities) throws IOException {
+        log.debug("creating {} entities in bulk", entities.size());
+        final List<BulkItemResult> results = new ArrayList<>(entities.size());
+        if (entities.isEmpty()) {
+            return results;
         }
+        final BulkRequestBuilder bulk = client.prepareBulk();
+        for (final Entity e : entities) {
+            bulk.add(client.prepareIndex(INDEX_ENTITIES, INDEX_ENTITY_TYPE, e.getId())
+                    .setCreate(true)
+                    .setSource(mapper.writeValueAsBytes(e)));
+        }
+        final BulkResponse resp;
         try {
-            client
-                    .prepareIndex(INDEX_ENTITIES, INDEX_ENTITY_TYPE, e.getId()).setSource(
-                            mapper.writeValueAsBytes(e))
-                    .execute().actionGet();
+            resp = applyRefreshPolicy(INDEX_ENTITIES, bulk).execute().actionGet();
         } catch (ElasticsearchException ex) {
             throw new IOException(ex.getMostSpecificCause().getMessage());
         }
-        refreshIndex(INDEX_ENTITIES);
-        return e.getId();
+        for (final BulkItemResponse item : resp.getItems()) {
+            if (item.isFailed()) {
+                results.add(BulkItemResult.failure(item.getId(), item.getFailureMessage()));
+            } else {
+                results.add(BulkItemResult.success(item.getId()));
+            }
+        }
+        refreshAfterWrite(INDEX_ENTITIES);
+        return results;
     }
 
     @Override
     public void update(Entity e) throws IOException {
         log.debug("updating entity " + e.getId());
         /* and create the updated document */
+        final IndexRequestBuilder request =
+                client.prepareIndex(INDEX_ENTITIES, INDEX_ENTITY_TYPE, e.getId()).setSource(
+                        mapper.writeValueAsBytes(e));
+        if (e.getDocumentVersion() > 0) {
+            /* only overwrite the document if it has not been changed since it has been read */
+            request.setVersion(e.getDocumentVersion());
+        }
         try {
-            client
-                    .prepareIndex(INDEX_ENTITIES, INDEX_ENTITY_TYPE, e.getId()).setSource(
-                            mapper.writeValueAsBytes(e))
-                    .execute().actionGet();
+            applyRefreshPolicy(INDEX_ENTITIES, request).execute().actionGet();
+        } catch (ElasticsearchException ex) {
+            if (ex.unwrapCause() instanceof VersionConflictEngineException) {
+                throw new ConflictException("Entity with id " + e.getId()
+                        + " has been modified concurrently");
+            }
+            throw new IOException(ex.getMostSpecificCause().getMessage());
+        }
+        /* make the update visible to searches according to the refresh policy */
+        refreshAfterWrite(INDEX_ENTITIES);
+    }
+
+    @Override
+    public void updateFields(String id, long documentVersion, Map<String, Object> fields) throws IOException {
+        log.debug("updating the fields " + fields.keySet() + " of entity " + id);
+        /* the index merges the changed fields into the stored document, no script is needed for that */
+        final UpdateRequestBuilder request =
+                client.prepareUpdate(INDEX_ENTITIES, INDEX_ENTITY_TYPE, id).setDoc(mapper.writeValueAsBytes(fields));
+        if (documentVersion > 0) {
+            request.setVersion(documentVersion);
+        }
+        try {
+            applyRefreshPolicy(INDEX_ENTITIES, request).execute().actionGet();
         } catch (ElasticsearchException ex) {
+            if (ex.unwrapCause() instanceof VersionConflictEngineException) {
+                throw new ConflictException("Entity with id " + id + " has been modified concurrently");
+            }
+            if (ex.unwrapCause() instanceof DocumentMissingException) {
+                throw new NotFoundException("entity with id " + id + " not found");
+            }
             throw new IOException(ex.getMostSpecificCause().getMessage());
         }
-        /* refresh the index before returning */
-        refreshIndex(INDEX_ENTITIES);
+        refreshAfterWrite(INDEX_ENTITIES);
     }
 
     @Override
@@ -123,53 +213,245 @@ public class ElasticSearchEntityService extends AbstractElasticSearchService imp
         } catch (ElasticsearchException ex) {
             throw new IOException(ex.getMostSpecificCause().getMessage());
         }
+        return toEntity(id, resp);
+    }
+
+    @Override
+    public CompletableFuture<Entity> retrieveAsync(final String id) {
+        final CompletableActionListener<GetResponse, Entity> listener =
+                new CompletableActionListener<GetResponse, Entity>() {
+
+                    @Override
+                    protected Entity convert(GetResponse resp) throws IOException {
+                        return toEntity(id, resp);
+                    }
+                };
+        try {
+            client.prepareGet(INDEX_ENTITIES, INDEX_ENTITY_TYPE, id).execute(listener);
+        } catch (ElasticsearchException ex) {
+            listener.onFailure(ex);
+        }
+        return listener.getFuture();
+    }
+
+    private Entity toEntity(String id, GetResponse resp) throws IOException {
         if (resp.isSourceEmpty()) {
             throw new NotFoundException("entity with id " + id + " not found");
         }
         final Entity parent = mapper.readValue(resp.getSourceAsBytes(), Entity.class);
-        parent.setChildren(fetchChildren(id));
+        parent.setDocumentVersion(resp.getVersion());
+        /* children are fetched separately, since there may be a lot of them */
+        parent.setChildren(null);
+        parent.setChildCount(0);
         return parent;
     }
 
-    private List<String> fetchChildren(String id) throws IOException {
-        final List<String> children = new ArrayList<>();
-        SearchResponse search;
-        int offset = 0;
-        int max = 64;
+    @Override
+    public long countChildren(String id) throws IOException {
         try {
-            do {
-                search =
-                        client
-                                .prepareSearch(INDEX_ENTITIES)
-                                .setTypes(INDEX_ENTITY_TYPE)
-                                .setQuery(
-                                        QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(),
-                                                FilterBuilders
-                                                        .termFilter("parentId", id))).setFrom(offset).setSize(max)
-                                .execute()
-                                .actionGet();
-                if (search.getHits().getHits().length > 0) {
-                    for (SearchHit hit : search.getHits().getHits()) {
-                        children.add(hit.getId());
+            return client.prepareCount(INDEX_ENTITIES).setTypes(INDEX_ENTITY_TYPE).setQuery(childrenQuery(id))
+                    .execute().actionGet().getCount();
+        } catch (ElasticsearchException ex) {
+            throw new IOException(ex.getMostSpecificCause().getMessage());
+        }
+    }
+
+    @Override
+    public CompletableFuture<Long> countChildrenAsync(String id) {
+        final CompletableActionListener<CountResponse, Long> listener =
+                new CompletableActionListener<CountResponse, Long>() {
+
+                    @Override
+                    protected Long convert(CountResponse resp) {
+                        return resp.getCount();
                     }
+                };
+        try {
+            client.prepareCount(INDEX_ENTITIES).setTypes(INDEX_ENTITY_TYPE).setQuery(childrenQuery(id)).execute(
+                    listener);
+        } catch (ElasticsearchException ex) {
+            listener.onFailure(ex);
+        }
+        return listener.getFuture();
+    }
+
+    @Override
+    public EntityChildren fetchChildren(String id, String cursor, int numRecords) throws IOException {
+        numRecords = numRecords > maxChildRecords ? maxChildRecords : numRecords;
+        final SearchResponse resp;
+        if (cursor == null || cursor.isEmpty()) {
+            try {
+                resp = prepareChildrenSearch(id, numRecords).execute().actionGet();
+            } catch (ElasticsearchException ex) {
+                throw new IOException(ex.getMostSpecificCause().getMessage());
+            }
+            return toChildren(id, numRecords, resp);
+        }
+        final ChildrenCursor position = ChildrenCursor.decode(cursor);
+        try {
+            resp = client.prepareSearchScroll(position.scrollId).setScroll(SCROLL_KEEP_ALIVE).execute().actionGet();
+        } catch (ElasticsearchException ex) {
+            throw translateScrollFailure(ex);
+        }
+        return toChildren(position.id, position.numRecords, resp);
+    }
+
+    @Override
+    public CompletableFuture<EntityChildren> fetchChildrenAsync(String id, String cursor, int numRecords) {
+        if (cursor == null || cursor.isEmpty()) {
+            final String parentId = id;
+            final int size = numRecords > maxChildRecords ? maxChildRecords : numRecords;
+            final CompletableActionListener<SearchResponse, EntityChildren> listener =
+                    new CompletableActionListener<SearchResponse, EntityChildren>() {
+
+                        @Override
+                        protected EntityChildren convert(SearchResponse resp) {
+                            return toChildren(parentId, size, resp);
+                        }
+                    };
+            try {
+                prepareChildrenSearch(id, size).execute(listener);
+            } catch (ElasticsearchException ex) {
+                listener.onFailure(ex);
+            }
+            return listener.getFuture();
+        }
+        final ChildrenCursor position;
+        try {
+            position = ChildrenCursor.decode(cursor);
+        } catch (InvalidParameterException e) {
+            return CompletableActionListener.failedFuture(e);
+        }
+        final CompletableActionListener<SearchResponse, EntityChildren> listener =
+                new CompletableActionListener<SearchResponse, EntityChildren>() {
+
+                    @Override
+                    protected EntityChildren convert(SearchResponse resp) {
+                        return toChildren(position.id, position.numRecords, resp);
+                    }
+
+                    @Override
+                    protected Throwable translate(Throwable e) {
+                        if (e instanceof ElasticsearchException) {
+                            return translateScrollFailure((ElasticsearchException) e);
+                        }
+                        return super.translate(e);
+                    }
+                };
+        try {
+            client.prepareSearchScroll(position.scrollId).setScroll(SCROLL_KEEP_ALIVE).execute(listener);
+        } catch (ElasticsearchException ex) {
+            listener.onFailure(ex);
+        }
+        return listener.getFuture();
+    }
+
+    private SearchRequestBuilder prepareChildrenSearch(String id, int numRecords) {
+        /* only the ids of the children are needed, so the sources are not fetched */
+        return client.prepareSearch(INDEX_ENTITIES).setTypes(INDEX_ENTITY_TYPE).setQuery(childrenQuery(id))
+                .setScroll(SCROLL_KEEP_ALIVE).setSize(numRecords).setFetchSource(false);
+    }
+
+    private IOException translateScrollFailure(ElasticsearchException ex) {
+        if (ex.status() == RestStatus.NOT_FOUND || ex.status() == RestStatus.BAD_REQUEST) {
+            return new InvalidParameterException("The cursor is invalid or has expired");
+        }
+        return new IOException(ex.getMostSpecificCause().getMessage());
+    }
+
+    private EntityChildren toChildren(String id, int numRecords, SearchResponse resp) {
+        final SearchHit[] hits = resp.getHits().getHits();
+        final List<String> children = new ArrayList<>(hits.length);
+        for (final SearchHit hit : hits) {
+            children.add(hit.getId());
+        }
+        final EntityChildren result = new EntityChildren();
+        result.setEntityId(id);
+        result.setNumRecords(numRecords);
+        result.setTotalHits(resp.getHits().getTotalHits());
+        result.setChildren(children);
+        if (hits.length < numRecords || hits.length == 0) {
+            /* this is the last page, so the scroll context can be released right away instead of timing out */
+            client.prepareClearScroll().addScrollId(resp.getScrollId()).execute();
+        } else {
+            result.setCursor(new ChildrenCursor(numRecords, resp.getScrollId(), id).encode());
+        }
+        return result;
+    }
+
+    @Override
+    public EntityChildren fetchFirstChildren(String id, int numRecords) throws IOException {
+        numRecords = numRecords > maxChildRecords ? maxChildRecords : numRecords;
+        final SearchResponse resp;
+        try {
+            resp =
+                    client.prepareSearch(INDEX_ENTITIES).setTypes(INDEX_ENTITY_TYPE).setQuery(childrenQuery(id))
+                            .setSize(numRecords).setFetchSource(false).execute().actionGet();
+        } catch (ElasticsearchException ex) {
+            throw new IOException(ex.getMostSpecificCause().getMessage());
+        }
+        final SearchHit[] hits = resp.getHits().getHits();
+        final List<String> children = new ArrayList<>(hits.length);
+        for (final SearchHit hit : hits) {
+            children.add(hit.getId());
+        }
+        final EntityChildren result = new EntityChildren();
+        result.setEntityId(id);
+        result.setNumRecords(numRecords);
+        result.setTotalHits(resp.getHits().getTotalHits());
+        result.setChildren(children);
+        return result;
+    }
+
+    @Override
+    public void scanEntities(String modifiedSince, EntityHandler handler) throws IOException {
+        final FilterBuilder filter =
+                modifiedSince == null ? FilterBuilders.matchAllFilter() : FilterBuilders.rangeFilter(
+                        "utcLastModified").gte(modifiedSince);
+        SearchResponse resp;
+        try {
+            /* a scan does not sort the hits and returns the first batch with the first scroll request */
+            resp =
+                    client.prepareSearch(INDEX_ENTITIES).setTypes(INDEX_ENTITY_TYPE).setSearchType(SearchType.SCAN)
+                            .setQuery(QueryBuilders.constantScoreQuery(filter)).setScroll(SCROLL_KEEP_ALIVE)
+                            .setSize(SCAN_BATCH_SIZE).execute().actionGet();
+        } catch (ElasticsearchException ex) {
+            throw new IOException(ex.getMostSpecificCause().getMessage());
+        }
+        try {
+            while (true) {
+                resp = client.prepareSearchScroll(resp.getScrollId()).setScroll(SCROLL_KEEP_ALIVE).execute()
+                        .actionGet();
+                if (resp.getHits().getHits().length == 0) {
+                    break;
                 }
-                offset = offset + max;
-            } while (offset < search.getHits().getTotalHits());
+                for (final SearchHit hit : resp.getHits().getHits()) {
+                    final Entity e = mapper.readValue(hit.source(), Entity.class);
+                    e.setChildren(null);
+                    handler.handle(e);
+                }
+            }
         } catch (ElasticsearchException ex) {
             throw new IOException(ex.getMostSpecificCause().getMessage());
+        } finally {
+            client.prepareClearScroll().addScrollId(resp.getScrollId()).execute();
         }
-        return children;
+    }
+
+    private QueryBuilder childrenQuery(String id) {
+        return QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), FilterBuilders.termFilter("parentId", id));
     }
 
     @Override
     public void delete(String id) throws IOException {
         log.debug("deleting entity " + id);
         try {
-            client.prepareDelete(INDEX_ENTITIES, INDEX_ENTITY_TYPE, id).execute().actionGet();
-            this.client.admin().indices().refresh(new RefreshRequest(("groven"))).actionGet();
+            applyRefreshPolicy(INDEX_ENTITIES, client.prepareDelete(INDEX_ENTITIES, INDEX_ENTITY_TYPE, id)).execute()
+                    .actionGet();
         } catch (ElasticsearchException ex) {
             throw new IOException(ex.getMostSpecificCause().getMessage());
         }
+        refreshAfterWrite(INDEX_ENTITIES);
     }
 
     @Override
@@ -217,7 +499,7 @@ public class ElasticSearchEntityService extends AbstractElasticSearchService imp
                     this.client
                             .prepareSearch(ElasticSearchEntityService.INDEX_ENTITIES).setQuery(
                                     QueryBuilders.matchAllQuery())
-                            .setSearchType(SearchType.DFS_QUERY_THEN_FETCH).setFrom(offset).setSize(numRecords)
+                            .setFrom(offset).setSize(numRecords)
                             .addFields("id", "label", "type", "tags", "state").execute().actionGet();
         } catch (ElasticsearchException ex) {
             throw new IOException(ex.getMostSpecificCause().getMessage());
@@ -235,23 +517,7 @@ public class ElasticSearchEntityService extends AbstractElasticSearchService imp
 
         final List<Entity> entites = new ArrayList<>(numRecords);
         for (final SearchHit hit : resp.getHits()) {
-            // TODO: check if JSON docuemnt is prefetched or laziliy initialised
-            String label = hit.field("label") != null ? hit.field("label").getValue() : "";
-            String type = hit.field("type") != null ? hit.field("type").getValue() : "";
-            String state = hit.field("state") != null ? hit.field("state").getValue() : "";
-            final Entity e = new Entity();
-            e.setId(hit.field("id").getValue());
-            e.setLabel(label);
-            e.setType(type);
-            e.setState(state);
-            List<String> tags = new ArrayList<>();
-            if (hit.field("tags") != null) {
-                for (Object o : hit.field("tags").values()) {
-                    tags.add((String) o);
-                }
-            }
-            e.setTags(tags);
-            entites.add(e);
+            entites.add(toBrowseEntity(hit));
         }
 
         result.setData(entites);
@@ -260,39 +526,128 @@ public class ElasticSearchEntityService extends AbstractElasticSearchService imp
     }
 
     @Override
-    public SearchResult searchEntities(Map<EntitiesSearchField, String[]> searchFields) throws IOException {
-        BoolQueryBuilder queryBuilder = QueryBuilders.boolQuery();
-        for (Entry<EntitiesSearchField, String[]> searchField : searchFields.entrySet()) {
-            if (searchField.getValue() != null && searchField.getValue().length > 0) {
-                BoolQueryBuilder childQueryBuilder = QueryBuilders.boolQuery();
-                for (int i = 0; i < searchField.getValue().length; i++) {
-                    if (StringUtils.isNotBlank(searchField.getValue()[i])) {
-                        childQueryBuilder.should(QueryBuilders.wildcardQuery(searchField.getKey().getFieldName(),
-                                searchField.getValue()[i].toLowerCase()));
-                    }
-                }
-                queryBuilder.must(childQueryBuilder);
+    public SearchResult browse(String cursor, int numRecords) throws IOException {
+        if (numRecords < 1) {
+            throw new InvalidParameterException("The number of records has to be greater than zero");
+        }
+        final long time = System.currentTimeMillis();
+        numRecords = numRecords > maxRecords ? maxRecords : numRecords;
+        final SearchResponse resp;
+        try {
+            resp =
+                    prepareBrowse(INDEX_ENTITIES, "id", cursor, numRecords).addFields("id", "label", "type", "tags",
+                            "state").execute().actionGet();
+        } catch (ElasticsearchException ex) {
+            throw new IOException(ex.getMostSpecificCause().getMessage());
+        }
+
+        final SearchResult result = new SearchResult();
+        result.setNumRecords(numRecords);
+        result.setHits(resp.getHits().getHits().length);
+        result.setTotalHits(resp.getHits().getTotalHits());
+        result.setMaxRecords(maxRecords);
+
+        final List<Entity> entities = new ArrayList<>(numRecords);
+        for (final SearchHit hit : resp.getHits()) {
+            entities.add(toBrowseEntity(hit));
+        }
+        if (entities.size() == numRecords) {
+            final SearchHit last = resp.getHits().getAt(numRecords - 1);
+            result.setCursor(createCursor(last, entities.get(numRecords - 1).getId()));
+        }
+
+        result.setData(entities);
+        result.setDuration(System.currentTimeMillis() - time);
+        return result;
+    }
+
+    private Entity toBrowseEntity(SearchHit hit) {
+        String label = hit.field("label") != null ? hit.field("label").getValue() : "";
+        String type = hit.field("type") != null ? hit.field("type").getValue() : "";
+        String state = hit.field("state") != null ? hit.field("state").getValue() : "";
+        final Entity e = new Entity();
+        e.setId(hit.field("id").getValue());
+        e.setLabel(label);
+        e.setType(type);
+        e.setState(state);
+        List<String> tags = new ArrayList<>();
+        if (hit.field("tags") != null) {
+            for (Object o : hit.field("tags").values()) {
+                tags.add((String) o);
             }
         }
+        e.setTags(tags);
+        return e;
+    }
 
-        int numRecords = 20;
+    @Override
+    public long getWriteGeneration() {
+        return getWriteGeneration(INDEX_ENTITIES);
+    }
+
+    @Override
+    public SearchResult searchEntities(Map<EntitiesSearchField, String[]> searchFields) throws IOException {
+        return searchEntities(searchFields, EnumSet.noneOf(EntitiesAggregation.class), null);
+    }
+
+    @Override
+    public SearchResult searchEntities(Map<EntitiesSearchField, String[]> searchFields,
+            Set<EntitiesAggregation> aggregations, String interval) throws IOException {
+        final QueryBuilder queryBuilder = buildSearchQuery(searchFields, prefixFields);
         final long time = System.currentTimeMillis();
-        final ActionFuture<RefreshResponse> refresh =
-                this.client.admin().indices().refresh(new RefreshRequest(ElasticSearchEntityService.INDEX_ENTITIES));
         final SearchResponse resp;
         try {
-            refresh.actionGet();
-
-            resp =
-                    this.client
-                            .prepareSearch(ElasticSearchEntityService.INDEX_ENTITIES).addFields("id", "label",
-                                    "type",
-                                    "tags")
-                            .setQuery(queryBuilder).setSearchType(SearchType.DFS_QUERY_THEN_FETCH).execute()
-                            .actionGet();
+            resp = prepareSearchEntities(queryBuilder, aggregations, interval).execute().actionGet();
         } catch (ElasticsearchException ex) {
             throw new IOException(ex.getMostSpecificCause().getMessage());
         }
+        return toSearchResult(resp, queryBuilder, aggregations, time);
+    }
+
+    @Override
+    public CompletableFuture<SearchResult> searchEntitiesAsync(Map<EntitiesSearchField, String[]> searchFields,
+            final Set<EntitiesAggregation> aggregations, String interval) {
+        final QueryBuilder queryBuilder = buildSearchQuery(searchFields, prefixFields);
+        final long time = System.currentTimeMillis();
+        final CompletableActionListener<SearchResponse, SearchResult> listener =
+                new CompletableActionListener<SearchResponse, SearchResult>() {
+
+                    @Override
+                    protected SearchResult convert(SearchResponse resp) {
+                        return toSearchResult(resp, queryBuilder, aggregations, time);
+                    }
+                };
+        try {
+            prepareSearchEntities(queryBuilder, aggregations, interval).execute(listener);
+        } catch (IOException | ElasticsearchException ex) {
+            listener.onFailure(ex);
+        }
+        return listener.getFuture();
+    }
+
+    private SearchRequestBuilder prepareSearchEntities(QueryBuilder queryBuilder,
+            Set<EntitiesAggregation> aggregations, String interval) throws InvalidParameterException {
+        final DateHistogram.Interval dateInterval = EntitiesAggregation.getInterval(interval);
+        /*
+         * no refresh is forced here, searches see the writes made visible by the refresh policy. The default query
+         * then fetch search type suffices, since the prefix queries do not depend on the global term statistics
+         */
+        final SearchRequestBuilder request =
+                this.client
+                        .prepareSearch(ElasticSearchEntityService.INDEX_ENTITIES).addFields("id", "label",
+                                "type",
+                                "tags")
+                        .setQuery(queryBuilder);
+        /* the aggregations are computed over all hits in the same request */
+        for (final EntitiesAggregation aggregation : aggregations) {
+            request.addAggregation(aggregation.build(prefixFields, dateInterval));
+        }
+        return request;
+    }
+
+    private SearchResult toSearchResult(SearchResponse resp, QueryBuilder queryBuilder,
+            Set<EntitiesAggregation> aggregations, long time) {
+        int numRecords = 20;
         log.debug("ES returned {} results for '{}'", resp.getHits().getHits().length, new String(queryBuilder
                 .buildAsBytes().toBytes()));
         final SearchResult result = new SearchResult();
@@ -322,6 +677,9 @@ public class ElasticSearchEntityService extends AbstractElasticSearchService imp
         result.setNumRecords(numRecords);
         result.setOffset(0);
         result.setTerm(new String(queryBuilder.buildAsBytes().toBytes()));
+        if (!aggregations.isEmpty()) {
+            result.setAggregations(readAggregations(resp, aggregations));
+        }
         result.setPrevOffset(0);
         result.setNextOffset(0);
         result.setTotalHits(resp.getHits().getTotalHits());
@@ -329,11 +687,155 @@ public class ElasticSearchEntityService extends AbstractElasticSearchService imp
         return result;
     }
 
+    private Map<String, Map<String, Long>> readAggregations(SearchResponse resp,
+            Set<EntitiesAggregation> aggregations) {
+        final Map<String, Map<String, Long>> result = new LinkedHashMap<>();
+        for (final EntitiesAggregation aggregation : aggregations) {
+            final Map<String, Long> counts = new LinkedHashMap<>();
+            final MultiBucketsAggregation buckets =
+                    resp.getAggregations() == null ? null : (MultiBucketsAggregation) resp.getAggregations().get(
+                            aggregation.getRequestParameterName());
+            if (buckets != null) {
+                for (final MultiBucketsAggregation.Bucket bucket : buckets.getBuckets()) {
+                    counts.put(bucket.getKey(), bucket.getDocCount());
+                }
+            }
+            result.put(aggregation.getRequestParameterName(), counts);
+        }
+        return result;
+    }
+
     @Override
     public SearchResult scanIndex(int offset) throws IOException {
         return scanIndex(offset, maxRecords);
     }
 
+    /**
+     * The aggregations which can be computed over the hits of a search in the entities index, named by the value of
+     * the request parameter <code>facet</code>. Text fields are aggregated on their not analyzed sub field, so that
+     * multi word values are counted as a whole.
+     */
+    public static enum EntitiesAggregation {
+        TYPE("type", "type", true), STATE("state", "state", true), TAG("tag", "tags", true), PARENT("parent",
+                "parentId", false), CREATED("created", "utcCreated", false);
+
+        /* the maximum number of values returned by a terms aggregation */
+        private static final int MAX_TERMS = 100;
+
+        private final String requestParameterName;
+
+        private final String fieldName;
+
+        private final boolean analyzed;
+
+        EntitiesAggregation(final String requestParameterName, final String fieldName, final boolean analyzed) {
+            this.requestParameterName = requestParameterName;
+            this.fieldName = fieldName;
+            this.analyzed = analyzed;
+        }
+
+        public String getRequestParameterName() {
+            return requestParameterName;
+        }
+
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        /**
+         * Create the aggregation request
+         * 
+         * @param rawFields whether the index has the not analyzed sub fields of the text fields
+         * @param interval the interval used for date histograms
+         * @return the aggregation request
+         */
+        AbstractAggregationBuilder build(boolean rawFields, DateHistogram.Interval interval) {
+            if (this == CREATED) {
+                return AggregationBuilders.dateHistogram(requestParameterName).field(fieldName).interval(interval)
+                        .format("yyyy-MM-dd").minDocCount(1);
+            }
+            return AggregationBuilders.terms(requestParameterName).field(
+                    analyzed && rawFields ? fieldName + ".raw" : fieldName).size(MAX_TERMS);
+        }
+
+        /**
+         * EntitiesAggregation anhand requestParameterName ermitteln.
+         * 
+         * @param requestParameterName requestParameterName
+         * @return EntitiesAggregation oder null, falls nicht gefunden.
+         */
+        public static EntitiesAggregation getWithRequestParameter(String requestParameterName) {
+            for (EntitiesAggregation aggregation : EntitiesAggregation.values()) {
+                if (aggregation.getRequestParameterName().equals(requestParameterName)) {
+                    return aggregation;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Get the interval of a date histogram
+         * 
+         * @param interval one of day, week, month, quarter or year or null for month
+         * @return the interval
+         * @throws InvalidParameterException if the interval is not supported
+         */
+        public static DateHistogram.Interval getInterval(String interval) throws InvalidParameterException {
+            if (interval == null || interval.isEmpty() || interval.equals("month")) {
+                return DateHistogram.Interval.MONTH;
+            }
+            switch (interval) {
+            case "day":
+                return DateHistogram.Interval.DAY;
+            case "week":
+                return DateHistogram.Interval.WEEK;
+            case "quarter":
+                return DateHistogram.Interval.QUARTER;
+            case "year":
+                return DateHistogram.Interval.YEAR;
+            default:
+                throw new InvalidParameterException("Unsupported interval " + interval
+                        + ", use one of day, week, month, quarter or year");
+            }
+        }
+    }
+
+    /**
+     * The position in the children of an Entity handed out to the client, which keeps the page size and the parent
+     * of the first request together with the id of the scroll
+     */
+    private static class ChildrenCursor {
+
+        private final int numRecords;
+
+        private final String scrollId;
+
+        private final String id;
+
+        private ChildrenCursor(int numRecords, String scrollId, String id) {
+            this.numRecords = numRecords;
+            this.scrollId = scrollId;
+            this.id = id;
+        }
+
+        private static ChildrenCursor decode(String cursor) throws InvalidParameterException {
+            try {
+                final String position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                final int sizeEnd = position.indexOf(':');
+                final int scrollEnd = position.indexOf(':', sizeEnd + 1);
+                return new ChildrenCursor(Integer.parseInt(position.substring(0, sizeEnd)), position.substring(
+                        sizeEnd + 1, scrollEnd), position.substring(scrollEnd + 1));
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                throw new InvalidParameterException("The cursor is invalid or has expired");
+            }
+        }
+
+        private String encode() {
+            return Base64.getUrlEncoder().encodeToString(
+                    (numRecords + ":" + scrollId + ":" + id).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
     /**
      * Holds enabled search-fields in entities-index. Differentiate between name of GET/POST-Parameter and name of
      * Search-Field in index.
@@ -341,17 +843,38 @@ public class ElasticSearchEntityService extends AbstractElasticSearchService imp
      * @author mih
      */
     public static enum EntitiesSearchField {
-        ID("id", "id"), LABEL("label", "label"), TYPE("type", "type"), PARENT("parent", "parentId"), TAG("tag",
-                "tags"), STATE(
-                "state", "state"), VERSION("version", "version"), ALL("term", "_all");
+        ID("id", "id", Kind.KEYWORD), LABEL("label", "label", Kind.TEXT), TYPE("type", "type", Kind.TEXT), PARENT(
+                "parent", "parentId", Kind.KEYWORD), TAG("tag", "tags", Kind.TEXT), STATE("state", "state",
+                Kind.TEXT), VERSION("version", "version", Kind.NUMBER), ALL("term", "_all", Kind.ALL);
+
+        /**
+         * The way a search field is indexed, which determines the queries used to search it.
+         */
+        public static enum Kind {
+            /* not analyzed, matched exactly */
+            KEYWORD,
+            /* analyzed, with an edge n-gram sub field for prefix searches */
+            TEXT,
+            /* numeric */
+            NUMBER,
+            /* the analyzed catch-all field */
+            ALL
+        }
 
         private final String requestParameterName;
 
         private final String searchFieldName;
 
-        EntitiesSearchField(final String requestParameterName, final String searchFieldName) {
+        private final Kind kind;
+
+        EntitiesSearchField(final String requestParameterName, final String searchFieldName, final Kind kind) {
             this.requestParameterName = requestParameterName;
             this.searchFieldName = searchFieldName;
+            this.kind = kind;
+        }
+
+        public Kind getKind() {
+            return kind;
         }
 
         public String getRequestParameterName() {
@@ -16,28 +16,67 @@
 
 package net.objecthunter.larch.service.backend.elasticsearch;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
 import org.elasticsearch.client.Client;
+import org.elasticsearch.client.transport.TransportClient;
 import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.transport.InetSocketTransportAddress;
 import org.elasticsearch.node.Node;
 import org.elasticsearch.node.NodeBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.env.Environment;
 
 /**
- * A Spring bean for starting a ElasticSearch node as an internal process in the same JVM
+ * A Spring bean providing the ElasticSearch {@link org.elasticsearch.client.Client} of the repository. Depending on
+ * the property <code>elasticsearch.mode</code> the bean either starts an ElasticSearch node as an internal process
+ * in the same JVM (<code>embedded</code>) or connects to an external cluster via a
+ * {@link org.elasticsearch.client.transport.TransportClient} (<code>remote</code>)
  */
 public class ElasticSearchNode {
 
+    private static final Logger log = LoggerFactory.getLogger(ElasticSearchNode.class);
+
+    public static final int DEFAULT_TRANSPORT_PORT = 9300;
+
+    /**
+     * The ways larch can obtain its ElasticSearch client
+     */
+    public enum Mode {
+        EMBEDDED, REMOTE;
+
+        public static Mode fromString(String value) {
+            if (value == null || value.isEmpty()) {
+                return EMBEDDED;
+            }
+            try {
+                return Mode.valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown ElasticSearch mode " + value
+                        + ". Use one of 'embedded' or 'remote'");
+            }
+        }
+    }
+
     private Node node;
 
+    private TransportClient transportClient;
+
     @Autowired
     private Environment environment;
 
     @PostConstruct
     public void startNode() {
+        if (getMode() == Mode.REMOTE) {
+            connectTransportClient();
+            return;
+        }
         node =
                 NodeBuilder.nodeBuilder()
                         .clusterName(environment.getProperty("elasticsearch.cluster.name"))
@@ -70,18 +109,89 @@ public class ElasticSearchNode {
                         .node();
     }
 
+    private void connectTransportClient() {
+        final List<InetSocketTransportAddress> addresses =
+                parseTransportAddresses(environment.getProperty("elasticsearch.remote.hosts", "localhost"));
+        transportClient =
+                new TransportClient(ImmutableSettings.settingsBuilder()
+                        .put("cluster.name", environment.getProperty("elasticsearch.cluster.name"))
+                        .put("client.transport.sniff",
+                                environment.getProperty("elasticsearch.remote.sniff", Boolean.class, true))
+                        .put("client.transport.ping_timeout",
+                                environment.getProperty("elasticsearch.remote.ping_timeout", "5s")));
+        for (InetSocketTransportAddress address : addresses) {
+            transportClient.addTransportAddress(address);
+        }
+        if (transportClient.connectedNodes().isEmpty()) {
+            log.warn("None of the ElasticSearch nodes " + addresses + " of the cluster "
+                    + environment.getProperty("elasticsearch.cluster.name") + " is reachable");
+        } else {
+            log.info("Connected to the ElasticSearch nodes " + transportClient.connectedNodes());
+        }
+    }
+
+    /**
+     * Parse a comma separated list of <code>host[:port]</code> pairs into transport addresses. Hosts without a port
+     * use the default transport port 9300
+     * 
+     * @param hosts the list of hosts
+     * @return the transport addresses of the hosts
+     */
+    public static List<InetSocketTransportAddress> parseTransportAddresses(String hosts) {
+        final List<InetSocketTransportAddress> addresses = new ArrayList<>();
+        for (String host : hosts.split(",")) {
+            host = host.trim();
+            if (host.isEmpty()) {
+                continue;
+            }
+            final int sep = host.lastIndexOf(':');
+            if (sep < 0) {
+                addresses.add(new InetSocketTransportAddress(host, DEFAULT_TRANSPORT_PORT));
+            } else {
+                try {
+                    addresses.add(new InetSocketTransportAddress(host.substring(0, sep),
+                            Integer.parseInt(host.substring(sep + 1))));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid ElasticSearch host " + host);
+                }
+            }
+        }
+        if (addresses.isEmpty()) {
+            throw new IllegalArgumentException("No ElasticSearch hosts given in elasticsearch.remote.hosts");
+        }
+        return addresses;
+    }
+
     @PreDestroy
     public void stopNode() {
+        if (transportClient != null) {
+            transportClient.close();
+        }
         if (node != null) {
             node.stop();
         }
     }
 
     public Client getClient() {
+        if (transportClient != null) {
+            return transportClient;
+        }
         return node.client();
     }
 
+    /**
+     * Get the way larch obtains its ElasticSearch client
+     * 
+     * @return the mode configured in the property <code>elasticsearch.mode</code>
+     */
+    public Mode getMode() {
+        return Mode.fromString(environment.getProperty("elasticsearch.mode"));
+    }
+
     public boolean isAlive() {
+        if (transportClient != null) {
+            return !transportClient.connectedNodes().isEmpty();
+        }
         return node != null && !node.isClosed();
     }
 }
@@ -20,10 +20,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import javax.annotation.PostConstruct;
 
+import net.objecthunter.larch.exceptions.InvalidParameterException;
 import net.objecthunter.larch.exceptions.NotFoundException;
 import net.objecthunter.larch.model.Entities;
 import net.objecthunter.larch.model.Entity;
@@ -31,17 +31,12 @@ import net.objecthunter.larch.model.SearchResult;
 import net.objecthunter.larch.service.backend.BackendPublishService;
 import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchEntityService.EntitiesSearchField;
 
-import org.apache.commons.lang3.StringUtils;
 import org.elasticsearch.ElasticsearchException;
-import org.elasticsearch.action.ActionFuture;
-import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
-import org.elasticsearch.action.admin.indices.refresh.RefreshResponse;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.client.Client;
-import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.sort.SortOrder;
@@ -61,6 +56,9 @@ public class ElasticSearchPublishService extends AbstractElasticSearchService im
 
     private int maxRecords = 50;
 
+    /* whether the index has the edge n-gram sub fields used for prefix searches */
+    private boolean prefixFields = true;
+
     @Autowired
     private Client client;
 
@@ -70,6 +68,12 @@ public class ElasticSearchPublishService extends AbstractElasticSearchService im
     @PostConstruct
     public void init() throws IOException {
         this.checkAndOrCreateIndex(INDEX_PUBLISHED);
+        this.configureRefreshPolicy(INDEX_PUBLISHED);
+        this.prefixFields = this.hasPrefixFields(INDEX_PUBLISHED, TYPE_PUBLISHED);
+        if (!prefixFields) {
+            log.warn("The index {} has no prefix fields, searches fall back to wildcard queries until it is rebuilt",
+                    INDEX_PUBLISHED);
+        }
     }
 
     @Override
@@ -77,14 +81,14 @@ public class ElasticSearchPublishService extends AbstractElasticSearchService im
         String publishId = new StringBuilder(e.getId()).append(":").append(e.getVersion()).toString();
         e.setPublishId(publishId);
         try {
-            this.client
+            applyRefreshPolicy(INDEX_PUBLISHED, this.client
                     .prepareIndex(INDEX_PUBLISHED, TYPE_PUBLISHED, publishId).setSource(
-                            this.mapper.writeValueAsBytes(e))
+                            this.mapper.writeValueAsBytes(e)))
                     .execute().actionGet();
         } catch (ElasticsearchException ex) {
             throw new IOException(ex.getMostSpecificCause().getMessage());
         }
-        this.refreshIndex(INDEX_PUBLISHED);
+        this.refreshAfterWrite(INDEX_PUBLISHED);
         return publishId;
     }
 
@@ -141,7 +145,7 @@ public class ElasticSearchPublishService extends AbstractElasticSearchService im
             resp =
                     this.client
                             .prepareSearch(INDEX_PUBLISHED).setQuery(QueryBuilders.matchAllQuery())
-                            .setSearchType(SearchType.DFS_QUERY_THEN_FETCH).setFrom(offset).setSize(numRecords)
+                            .setFrom(offset).setSize(numRecords)
                             .addFields("id", "publishId", "version", "label", "type", "tags").execute().actionGet();
         } catch (ElasticsearchException ex) {
             throw new IOException(ex.getMostSpecificCause().getMessage());
@@ -159,24 +163,7 @@ public class ElasticSearchPublishService extends AbstractElasticSearchService im
 
         final List<Entity> entites = new ArrayList<>(numRecords);
         for (final SearchHit hit : resp.getHits()) {
-            // TODO: check if JSON docuemnt is prefetched or laziliy initialised
-            int version = hit.field("version") != null ? hit.field("version").getValue() : 0;
-            String label = hit.field("label") != null ? hit.field("label").getValue() : "";
-            String type = hit.field("type") != null ? hit.field("type").getValue() : "";
-            final Entity e = new Entity();
-            e.setId(hit.field("id").getValue());
-            e.setPublishId(hit.field("publishId").getValue());
-            e.setVersion(version);
-            e.setLabel(label);
-            e.setType(type);
-            List<String> tags = new ArrayList<>();
-            if (hit.field("tags") != null) {
-                for (Object o : hit.field("tags").values()) {
-                    tags.add((String) o);
-                }
-            }
-            e.setTags(tags);
-            entites.add(e);
+            entites.add(toBrowseEntity(hit));
         }
 
         result.setData(entites);
@@ -185,33 +172,76 @@ public class ElasticSearchPublishService extends AbstractElasticSearchService im
     }
 
     @Override
-    public SearchResult searchEntities(Map<EntitiesSearchField, String[]> searchFields) throws IOException {
-        BoolQueryBuilder queryBuilder = QueryBuilders.boolQuery();
-        for (Entry<EntitiesSearchField, String[]> searchField : searchFields.entrySet()) {
-            if (searchField.getValue() != null && searchField.getValue().length > 0) {
-                BoolQueryBuilder childQueryBuilder = QueryBuilders.boolQuery();
-                for (int i = 0; i < searchField.getValue().length; i++) {
-                    if (StringUtils.isNotBlank(searchField.getValue()[i])) {
-                        childQueryBuilder.should(QueryBuilders.wildcardQuery(searchField.getKey().getFieldName(),
-                                searchField.getValue()[i].toLowerCase()));
-                    }
-                }
-                queryBuilder.must(childQueryBuilder);
+    public SearchResult browse(String cursor, int numRecords) throws IOException {
+        if (numRecords < 1) {
+            throw new InvalidParameterException("The number of records has to be greater than zero");
+        }
+        final long time = System.currentTimeMillis();
+        numRecords = numRecords > maxRecords ? maxRecords : numRecords;
+        final SearchResponse resp;
+        try {
+            /* an entity can be published multiple times, so the publish id is the unique tie breaker */
+            resp =
+                    prepareBrowse(INDEX_PUBLISHED, "publishId", cursor, numRecords).addFields("id", "publishId",
+                            "version", "label", "type", "tags").execute().actionGet();
+        } catch (ElasticsearchException ex) {
+            throw new IOException(ex.getMostSpecificCause().getMessage());
+        }
+
+        final SearchResult result = new SearchResult();
+        result.setNumRecords(numRecords);
+        result.setHits(resp.getHits().getHits().length);
+        result.setTotalHits(resp.getHits().getTotalHits());
+        result.setMaxRecords(maxRecords);
+
+        final List<Entity> entities = new ArrayList<>(numRecords);
+        for (final SearchHit hit : resp.getHits()) {
+            entities.add(toBrowseEntity(hit));
+        }
+        if (entities.size() == numRecords) {
+            final SearchHit last = resp.getHits().getAt(numRecords - 1);
+            result.setCursor(createCursor(last, entities.get(numRecords - 1).getPublishId()));
+        }
+
+        result.setData(entities);
+        result.setDuration(System.currentTimeMillis() - time);
+        return result;
+    }
+
+    private Entity toBrowseEntity(SearchHit hit) {
+        int version = hit.field("version") != null ? hit.field("version").getValue() : 0;
+        String label = hit.field("label") != null ? hit.field("label").getValue() : "";
+        String type = hit.field("type") != null ? hit.field("type").getValue() : "";
+        final Entity e = new Entity();
+        e.setId(hit.field("id").getValue());
+        e.setPublishId(hit.field("publishId").getValue());
+        e.setVersion(version);
+        e.setLabel(label);
+        e.setType(type);
+        List<String> tags = new ArrayList<>();
+        if (hit.field("tags") != null) {
+            for (Object o : hit.field("tags").values()) {
+                tags.add((String) o);
             }
         }
+        e.setTags(tags);
+        return e;
+    }
+
+    @Override
+    public SearchResult searchEntities(Map<EntitiesSearchField, String[]> searchFields) throws IOException {
+        final QueryBuilder queryBuilder = buildSearchQuery(searchFields, prefixFields);
 
         int numRecords = 20;
         final long time = System.currentTimeMillis();
-        final ActionFuture<RefreshResponse> refresh =
-                this.client.admin().indices().refresh(new RefreshRequest(INDEX_PUBLISHED));
         final SearchResponse resp;
         try {
-            refresh.actionGet();
+            /* searches see the published entities made visible by the refresh policy, no refresh is forced */
             resp =
                     this.client
                             .prepareSearch(INDEX_PUBLISHED).addFields("id", "publishId", "version", "label", "type",
                                     "tags")
-                            .setQuery(queryBuilder).setSearchType(SearchType.DFS_QUERY_THEN_FETCH).execute()
+                            .setQuery(queryBuilder).execute()
                             .actionGet();
         } catch (ElasticsearchException ex) {
             throw new IOException(ex.getMostSpecificCause().getMessage());
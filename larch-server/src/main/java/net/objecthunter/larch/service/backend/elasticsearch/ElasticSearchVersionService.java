@@ -2,32 +2,67 @@
 package net.objecthunter.larch.service.backend.elasticsearch;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
+import net.objecthunter.larch.cache.LruCache;
 import net.objecthunter.larch.exceptions.NotFoundException;
+import net.objecthunter.larch.json.JsonPatch;
 import net.objecthunter.larch.model.Entities;
 import net.objecthunter.larch.model.Entity;
 import net.objecthunter.larch.model.Version;
+import net.objecthunter.larch.model.Versions;
 import net.objecthunter.larch.service.backend.BackendBlobstoreService;
 import net.objecthunter.larch.service.backend.BackendVersionService;
+import net.objecthunter.larch.service.backend.VersionJournal;
 
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.index.query.FilterBuilder;
 import org.elasticsearch.index.query.FilterBuilders;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
 import org.elasticsearch.search.sort.SortOrder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
- * Service implementation on top of ElasticSearch
+ * Service implementation on top of ElasticSearch. Old versions are appended to a local {@link VersionJournal} and
+ * archived to the blobstore and the versions index by a background worker, so that an update does not have to wait
+ * for the archiving. Reads of an entity's old versions wait until the versions of that entity still pending in the
+ * journal have been archived. Archiving is retried as long as the blobstore or the index are unavailable, while
+ * versions which keep failing for other reasons are moved to the journal's dead letter file.
+ * <p>
+ * Every larch.versions.snapshot.interval-th version is stored as a full snapshot, the versions in between are stored
+ * as JSON patches against their preceding version and are rebuilt by applying the patches to the closest preceding
+ * snapshot.
  */
 public class ElasticSearchVersionService extends AbstractElasticSearchService implements BackendVersionService {
 
@@ -37,6 +72,41 @@ public class ElasticSearchVersionService extends AbstractElasticSearchService im
 
     private static final Logger log = LoggerFactory.getLogger(ElasticSearchVersionService.class);
 
+    /* the type of the documents recording the migrations applied to the versions index */
+    private static final String TYPE_MIGRATIONS = "migration";
+
+    private static final String MIGRATION_VERSION_IDS = "version-ids";
+
+    private static final long RETRY_INTERVAL = 1000;
+
+    private static final long MAX_RETRY_INTERVAL = 60000;
+
+    /* the number of attempts to archive a version failing for other reasons than the blobstore or index being down */
+    private static final int MAX_ARCHIVE_ATTEMPTS = 3;
+
+    /* the maximum number of archived versions before the archiver makes them visible to searches */
+    private static final int MAX_UNREFRESHED = 100;
+
+    private long awaitTimeout = 10000;
+
+    private int snapshotInterval = 10;
+
+    private int maxRecords = 1000;
+
+    private ExecutorService blobFetcher;
+
+    /* the most recently archived versions, which are the base of the following version's delta */
+    private final LruCache<String, JsonNode> archivedVersions = new LruCache<>("archived-versions", 100, 0);
+
+    private VersionJournal journal;
+
+    private ExecutorService archiver;
+
+    private volatile boolean running;
+
+    /* the number of versions per entity id which have been journaled but not yet archived */
+    private final Map<String, Integer> pending = new HashMap<>();
+
     @Autowired
     private BackendBlobstoreService backendBlobstoreService;
 
@@ -48,76 +118,565 @@ public class ElasticSearchVersionService extends AbstractElasticSearchService im
         log.debug("initialising ElasticSearchVersionService");
         this.checkAndOrCreateIndex(INDEX_VERSIONS);
         this.waitForIndex(INDEX_VERSIONS);
+        this.configureRefreshPolicy(INDEX_VERSIONS);
+        if (Boolean.parseBoolean(env.getProperty("larch.versions.migrate", "true"))) {
+            this.migrateVersionIds();
+        }
+        snapshotInterval =
+                Integer.parseInt(env.getProperty("larch.versions.snapshot.interval", String.valueOf(snapshotInterval)));
+        final int fetchThreads = Integer.parseInt(env.getProperty("larch.versions.fetch.threads", "4"));
+        if (fetchThreads > 1) {
+            this.blobFetcher = Executors.newFixedThreadPool(fetchThreads);
+        }
+        final String journalPath = env.getProperty("larch.versions.journal.path");
+        if (journalPath == null || journalPath.isEmpty()) {
+            log.info("no version journal configured, old versions are archived synchronously");
+            return;
+        }
+        if (!Paths.get(journalPath).isAbsolute()) {
+            log.warn("the version journal path {} is relative and resolves to {}", journalPath, Paths.get(
+                    journalPath).toAbsolutePath());
+        }
+        awaitTimeout =
+                Long.parseLong(env.getProperty("larch.versions.journal.await.timeout", String.valueOf(awaitTimeout)));
+        this.startArchiver(new VersionJournal(Paths.get(journalPath),
+                Boolean.parseBoolean(env.getProperty("larch.versions.journal.sync", "true")),
+                Long.parseLong(env.getProperty("larch.versions.journal.size.max", "67108864"))));
+    }
+
+    /**
+     * Start archiving the old versions appended to a journal in the background. Versions left in the journal by a
+     * previous run are archived first
+     * 
+     * @param versionJournal the journal to read the old versions from
+     * @throws IOException
+     */
+    public void startArchiver(final VersionJournal versionJournal) throws IOException {
+        final long start = versionJournal.getCheckpoint();
+        long offset = start;
+        VersionJournal.Record rec;
+        try {
+            while ((rec = versionJournal.read(offset, 0)) != null) {
+                try {
+                    this.markPending(this.mapper.readValue(rec.getData(), Entity.class).getId());
+                } catch (IOException e) {
+                    // the archiver skips the record as well
+                    log.error("unreadable record at offset " + offset + " in the version journal", e);
+                }
+                offset = rec.getNext();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while replaying the version journal", e);
+        }
+        if (offset > start) {
+            log.info("replaying {} bytes of old versions from the version journal", offset - start);
+        }
+        this.journal = versionJournal;
+        this.running = true;
+        this.archiver = Executors.newSingleThreadExecutor();
+        this.archiver.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                archiveJournaled(start);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        log.debug("shutting down version archiver");
+        if (this.blobFetcher != null) {
+            this.blobFetcher.shutdownNow();
+        }
+        this.running = false;
+        if (this.archiver != null) {
+            this.archiver.shutdownNow();
+            try {
+                this.archiver.awaitTermination(RETRY_INTERVAL * 2, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (this.journal != null) {
+            // versions which have not been archived yet stay in the journal and are archived on the next start
+            this.journal.close();
+        }
     }
 
     @Override
     public void addOldVersion(Entity e) throws IOException {
-        final String path = this.backendBlobstoreService.createOldVersionBlob(e);
+        if (!running) {
+            this.archive(e);
+            this.refreshAfterWrite(INDEX_VERSIONS);
+            return;
+        }
+        this.markPending(e.getId());
+        try {
+            this.journal.append(this.mapper.writeValueAsBytes(e));
+        } catch (IOException | RuntimeException ex) {
+            this.unmarkPending(e.getId());
+            throw ex;
+        }
+    }
+
+    /**
+     * Wait until all the old versions of an entity which have been added before have been archived
+     * 
+     * @param id the id of the entity
+     * @throws IOException if the versions have not been archived in time
+     */
+    public void awaitArchived(String id) throws IOException {
+        final long deadline = System.currentTimeMillis() + awaitTimeout;
+        synchronized (pending) {
+            long remaining;
+            while (pending.containsKey(id)) {
+                if ((remaining = deadline - System.currentTimeMillis()) <= 0) {
+                    throw new IOException("Old versions of entity " + id + " have not been archived in time");
+                }
+                try {
+                    pending.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the old versions of entity " + id, e);
+                }
+            }
+        }
+    }
+
+    private void markPending(String id) {
+        synchronized (pending) {
+            final Integer count = pending.get(id);
+            pending.put(id, count == null ? 1 : count + 1);
+        }
+    }
+
+    private void unmarkPending(String id) {
+        synchronized (pending) {
+            final Integer count = pending.get(id);
+            if (count == null || count <= 1) {
+                pending.remove(id);
+                pending.notifyAll();
+            } else {
+                pending.put(id, count - 1);
+            }
+        }
+    }
+
+    private void archiveJournaled(long offset) {
+        // the ids of the archived versions which are not yet visible to searches
+        final List<String> unrefreshed = new ArrayList<>();
+        while (running) {
+            try {
+                final VersionJournal.Record rec = journal.read(offset, unrefreshed.isEmpty() ? RETRY_INTERVAL : 0);
+                if (rec == null) {
+                    // the archiver has caught up with the journal
+                    this.publishArchived(unrefreshed);
+                    continue;
+                }
+                final Entity e;
+                try {
+                    e = this.mapper.readValue(rec.getData(), Entity.class);
+                } catch (IOException ex) {
+                    log.error("moving unreadable record at offset " + offset + " of the version journal to the "
+                            + "dead letter file", ex);
+                    journal.deadLetter(rec.getData());
+                    offset = journal.checkpoint(rec.getNext());
+                    continue;
+                }
+                if (!this.archiveWithRetry(e)) {
+                    journal.deadLetter(rec.getData());
+                }
+                offset = journal.checkpoint(rec.getNext());
+                unrefreshed.add(e.getId());
+                if (unrefreshed.size() >= MAX_UNREFRESHED) {
+                    this.publishArchived(unrefreshed);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException | RuntimeException e) {
+                log.error("unable to archive the versions at offset " + offset + " of the version journal", e);
+                try {
+                    Thread.sleep(RETRY_INTERVAL);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Make the archived versions visible to searches and release the readers waiting for them
+     */
+    private void publishArchived(List<String> ids) throws IOException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        this.refreshAfterWrite(INDEX_VERSIONS);
+        for (final String id : ids) {
+            this.unmarkPending(id);
+        }
+        ids.clear();
+    }
+
+    /**
+     * Archive a version, waiting for the blobstore and the index to become available again
+     * 
+     * @param e the old version to archive
+     * @return false if archiving the version failed {@link #MAX_ARCHIVE_ATTEMPTS} times for other reasons
+     */
+    private boolean archiveWithRetry(Entity e) throws InterruptedException {
+        long retryInterval = RETRY_INTERVAL;
+        int attempts = 0;
+        while (true) {
+            try {
+                this.archive(e);
+                return true;
+            } catch (IOException ex) {
+                // the version stays in the journal until the blobstore or the index are back
+                log.warn("unable to archive entity " + e.getId() + " version " + e.getVersion() + ", retrying in "
+                        + retryInterval + " ms", ex);
+            } catch (RuntimeException ex) {
+                // the version itself is at fault, which retrying is unlikely to change
+                if (++attempts >= MAX_ARCHIVE_ATTEMPTS) {
+                    log.error("giving up on archiving entity " + e.getId() + " version " + e.getVersion()
+                            + " after " + attempts + " attempts", ex);
+                    return false;
+                }
+                log.warn("unable to archive entity " + e.getId() + " version " + e.getVersion() + ", retrying in "
+                        + retryInterval + " ms", ex);
+            }
+            Thread.sleep(retryInterval);
+            retryInterval = Math.min(retryInterval * 2, MAX_RETRY_INTERVAL);
+        }
+    }
+
+    private void archive(Entity e) throws IOException {
+        final JsonNode doc = this.mapper.valueToTree(e);
         final Version version = new Version();
         version.setEntityId(e.getId());
         version.setVersionNumber(e.getVersion());
-        version.setPath(path);
+        final JsonNode preceding =
+                this.isSnapshot(e.getVersion()) ? null : this.findPreceding(e.getId(), e.getVersion());
+        if (preceding == null) {
+            version.setPath(this.backendBlobstoreService.createOldVersionBlob(e));
+        } else {
+            version.setPath(this.backendBlobstoreService.createOldVersionDelta(JsonPatch.diff(preceding, doc)));
+            version.setDelta(true);
+        }
+        version.setUtcLastModified(e.getUtcLastModified());
+        version.setSize(this.mapper.writeValueAsBytes(doc).length);
         try {
-            this.client
-                    .prepareIndex(INDEX_VERSIONS, TYPE_VERSIONS)
-                    .setSource(this.mapper.writeValueAsBytes(version))
+            applyRefreshPolicy(INDEX_VERSIONS, this.client
+                    .prepareIndex(INDEX_VERSIONS, TYPE_VERSIONS, versionKey(e.getId(), e.getVersion()))
+                    .setSource(this.mapper.writeValueAsBytes(version)))
                     .execute().actionGet();
         } catch (ElasticsearchException ex) {
+            if (ex.status() == RestStatus.BAD_REQUEST) {
+                // the index rejects the version document, which does not change when retrying
+                throw ex;
+            }
             throw new IOException(ex.getMostSpecificCause().getMessage());
         }
-        this.refreshIndex(INDEX_VERSIONS);
+        this.archivedVersions.put(versionKey(e.getId(), e.getVersion()), doc, this.archivedVersions.getGeneration());
         log.info("added entity {} version {}", version.getEntityId(), version.getVersionNumber());
     }
 
-    @Override
-    public Entity getOldVersion(String id, int versionNumber) throws IOException {
-        final SearchResponse resp;
+    private boolean isSnapshot(int versionNumber) {
+        return snapshotInterval <= 1 || versionNumber <= 1 || (versionNumber - 1) % snapshotInterval == 0;
+    }
+
+    private JsonNode findPreceding(String id, int versionNumber) throws IOException {
+        final JsonNode cached = this.archivedVersions.get(versionKey(id, versionNumber - 1));
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            return this.rebuild(id, versionNumber - 1);
+        } catch (NotFoundException e) {
+            // without the preceding version a full snapshot has to be stored
+            return null;
+        }
+    }
+
+    /**
+     * Create the id of the document of an entity's version in the versions index
+     */
+    private static String versionKey(String id, int versionNumber) {
+        return id + ":" + versionNumber;
+    }
+
+    /**
+     * Rebuild a version by applying the deltas following the closest preceding snapshot
+     */
+    private JsonNode rebuild(String id, int versionNumber) throws IOException {
+        final List<Version> chain = this.findChain(id, versionNumber);
+        Collections.reverse(chain);
+        final List<JsonNode> docs = this.replay(chain);
+        return docs.get(docs.size() - 1);
+    }
+
+    /**
+     * Find the version documents from a given version back to the closest preceding snapshot. The documents are
+     * fetched by their ids using realtime gets, so that they do not have to be visible to searches yet
+     * 
+     * @return the version documents ordered from the given version to the snapshot
+     */
+    private List<Version> findChain(String id, int versionNumber) throws IOException {
+        final List<Version> chain = new ArrayList<>();
+        int next = versionNumber;
+        while (next >= 0) {
+            // fetch the versions back to the one which is expected to be the snapshot with a single request
+            final int snapshot = this.isSnapshot(next) ? next : next - (next - 1) % snapshotInterval;
+            final List<String> keys = new ArrayList<>(next - snapshot + 1);
+            for (int n = next; n >= snapshot; n--) {
+                keys.add(versionKey(id, n));
+            }
+            final MultiGetResponse resp;
+            try {
+                resp =
+                        client.prepareMultiGet().add(INDEX_VERSIONS, TYPE_VERSIONS, keys).setRealtime(true)
+                                .execute().actionGet();
+            } catch (ElasticsearchException ex) {
+                throw new IOException(ex.getMostSpecificCause().getMessage());
+            }
+            for (final MultiGetItemResponse item : resp) {
+                if (item.isFailed()) {
+                    throw new IOException(item.getFailure().getMessage());
+                }
+                if (!item.getResponse().isExists()) {
+                    if (chain.isEmpty()) {
+                        throw new NotFoundException("Entity " + id + " does not exists with version "
+                                + versionNumber);
+                    }
+                    throw new IOException("Version " + item.getId() + " of entity " + id + " is missing");
+                }
+                final Version v = this.mapper.readValue(item.getResponse().getSourceAsString(), Version.class);
+                chain.add(v);
+                if (!v.isDelta()) {
+                    return chain;
+                }
+            }
+            // the snapshot interval has been changed since the versions have been archived
+            next = snapshot - 1;
+        }
+        throw new IOException("No snapshot found for entity " + id + " version " + versionNumber);
+    }
+
+    /**
+     * Give the version documents created before the documents were indexed using the entity id and the version
+     * number as the document id their new ids. Duplicate documents of a version are merged
+     */
+    private void migrateVersionIds() throws IOException {
+        SearchResponse resp;
         try {
+            if (client.prepareGet(INDEX_VERSIONS, TYPE_MIGRATIONS, MIGRATION_VERSION_IDS).execute().actionGet()
+                    .isExists()) {
+                return;
+            }
+            log.info("migrating the versions index to version ids");
             resp =
-                    client
-                            .prepareSearch(INDEX_VERSIONS)
-                            .setQuery(
-                                    QueryBuilders
-                                            .boolQuery().must(QueryBuilders.matchQuery("entityId", id))
-                                            .must(QueryBuilders.matchQuery("versionNumber", versionNumber))).setFrom(
-                                    0)
-                            .setSize(1)
-                            .execute().actionGet();
+                    client.prepareSearch(INDEX_VERSIONS).setTypes(TYPE_VERSIONS).setSearchType(SearchType.SCAN)
+                            .setQuery(QueryBuilders.matchAllQuery()).setScroll(SCROLL_KEEP_ALIVE)
+                            .setSize(SCAN_BATCH_SIZE).execute().actionGet();
+        } catch (ElasticsearchException ex) {
+            throw new IOException(ex.getMostSpecificCause().getMessage());
+        }
+        long migrated = 0;
+        try {
+            while (true) {
+                resp = client.prepareSearchScroll(resp.getScrollId()).setScroll(SCROLL_KEEP_ALIVE).execute()
+                        .actionGet();
+                if (resp.getHits().getHits().length == 0) {
+                    break;
+                }
+                final BulkRequestBuilder bulk = client.prepareBulk();
+                for (final SearchHit hit : resp.getHits()) {
+                    final Version v = this.mapper.readValue(hit.getSourceAsString(), Version.class);
+                    final String key = versionKey(v.getEntityId(), v.getVersionNumber());
+                    if (!key.equals(hit.getId())) {
+                        bulk.add(client.prepareIndex(INDEX_VERSIONS, TYPE_VERSIONS, key).setSource(
+                                hit.getSourceAsString()));
+                        bulk.add(client.prepareDelete(INDEX_VERSIONS, TYPE_VERSIONS, hit.getId()));
+                        migrated++;
+                    }
+                }
+                if (bulk.numberOfActions() > 0) {
+                    final BulkResponse bulkResp = bulk.execute().actionGet();
+                    if (bulkResp.hasFailures()) {
+                        throw new IOException("Unable to migrate versions: " + bulkResp.buildFailureMessage());
+                    }
+                }
+            }
+            client.prepareIndex(INDEX_VERSIONS, TYPE_MIGRATIONS, MIGRATION_VERSION_IDS)
+                    .setSource("utcMigrated", ZonedDateTime.now(ZoneOffset.UTC).toString()).execute().actionGet();
         } catch (ElasticsearchException ex) {
             throw new IOException(ex.getMostSpecificCause().getMessage());
+        } finally {
+            client.prepareClearScroll().addScrollId(resp.getScrollId()).execute();
         }
-        if (resp.getHits().getTotalHits() == 0) {
-            throw new NotFoundException("Entity " + id + " does not exists with version " + versionNumber);
+        this.refreshIndex(INDEX_VERSIONS);
+        log.info("migrated {} version documents", migrated);
+    }
+
+    /**
+     * Rebuild a consecutive list of versions starting with a snapshot
+     * 
+     * @param versions the version documents ordered from the oldest to the newest version
+     * @return the rebuilt versions in the same order
+     */
+    private List<JsonNode> replay(List<Version> versions) throws IOException {
+        final List<JsonNode> blobs = this.fetchBlobs(versions);
+        final List<JsonNode> docs = new ArrayList<>(versions.size());
+        JsonNode doc = null;
+        for (int i = 0; i < versions.size(); i++) {
+            final Version v = versions.get(i);
+            if (!v.isDelta()) {
+                doc = blobs.get(i);
+            } else if (doc == null) {
+                throw new IOException("No snapshot found for entity " + v.getEntityId() + " version "
+                        + v.getVersionNumber());
+            } else {
+                doc = JsonPatch.apply(doc, blobs.get(i));
+            }
+            docs.add(doc);
         }
-        final Version v = this.mapper.readValue(resp.getHits().getAt(0).getSourceAsString(), Version.class);
-        return this.mapper.readValue(this.backendBlobstoreService.retrieveOldVersionBlob(v.getPath()), Entity.class);
+        return docs;
     }
 
-    @Override
-    public Entities getOldVersions(String id) throws IOException {
-        final SearchResponse resp;
+    /**
+     * Fetch the blobs of the given versions using at most larch.versions.fetch.threads concurrent requests to the
+     * blobstore
+     */
+    private List<JsonNode> fetchBlobs(List<Version> versions) throws IOException {
+        final List<JsonNode> blobs = new ArrayList<>(versions.size());
+        if (blobFetcher == null || versions.size() < 2) {
+            for (final Version v : versions) {
+                blobs.add(this.readOldVersionBlob(v));
+            }
+            return blobs;
+        }
+        final List<Future<JsonNode>> futures = new ArrayList<>(versions.size());
+        for (final Version v : versions) {
+            futures.add(blobFetcher.submit(new Callable<JsonNode>() {
+
+                @Override
+                public JsonNode call() throws Exception {
+                    return readOldVersionBlob(v);
+                }
+            }));
+        }
         try {
-            resp =
-                    client
-                            .prepareSearch(INDEX_VERSIONS)
-                            .setQuery(
-                                    QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(),
-                                            FilterBuilders.termFilter("entityId", id))).setSize(1000)
-                            .addSort("versionNumber", SortOrder.DESC).execute().actionGet();
+            for (final Future<JsonNode> future : futures) {
+                blobs.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching old versions", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            for (final Future<JsonNode> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return blobs;
+    }
+
+    private JsonNode readOldVersionBlob(Version v) throws IOException {
+        try (final InputStream src = this.backendBlobstoreService.retrieveOldVersionBlob(v.getPath())) {
+            return this.mapper.readTree(src);
+        }
+    }
+
+    private SearchHits searchVersions(String id, int maxVersionNumber, int offset, int numRecords)
+            throws IOException {
+        FilterBuilder filter = FilterBuilders.termFilter("entityId", id);
+        if (maxVersionNumber < Integer.MAX_VALUE) {
+            filter = FilterBuilders.andFilter(filter,
+                    FilterBuilders.rangeFilter("versionNumber").lte(maxVersionNumber));
+        }
+        try {
+            return client
+                    .prepareSearch(INDEX_VERSIONS)
+                    .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), filter))
+                    .setFrom(offset)
+                    .setSize(numRecords)
+                    .addSort("versionNumber", SortOrder.DESC).execute().actionGet().getHits();
         } catch (ElasticsearchException ex) {
             throw new IOException(ex.getMostSpecificCause().getMessage());
         }
-        final List<Entity> entities = new ArrayList<Entity>();
-        for (final SearchHit hit : resp.getHits()) {
-            final Version v = this.mapper.readValue(hit.getSourceAsString(), Version.class);
-            final Entity e =
-                    this.mapper.readValue(this.backendBlobstoreService.retrieveOldVersionBlob(v.getPath()),
-                            Entity.class);
-            entities.add(e);
+    }
+
+    @Override
+    public Entity getOldVersion(String id, int versionNumber) throws IOException {
+        this.awaitArchived(id);
+        return this.mapper.treeToValue(this.rebuild(id, versionNumber), Entity.class);
+    }
+
+    @Override
+    public Entities getOldVersions(String id) throws IOException {
+        return this.getOldVersions(id, 0, maxRecords);
+    }
+
+    @Override
+    public Entities getOldVersions(String id, int offset, int numRecords) throws IOException {
+        this.awaitArchived(id);
+        numRecords = numRecords > maxRecords ? maxRecords : numRecords;
+        final SearchHit[] hits = this.searchVersions(id, Integer.MAX_VALUE, offset, numRecords).getHits();
+        // order the page from the oldest to the newest version, so that every delta follows its preceding version
+        final List<Version> page = new ArrayList<>(hits.length);
+        for (int i = hits.length - 1; i >= 0; i--) {
+            final Version v = this.mapper.readValue(hits[i].getSourceAsString(), Version.class);
+            if (page.isEmpty() || v.getVersionNumber() > page.get(page.size() - 1).getVersionNumber()) {
+                page.add(v);
+            }
+        }
+        final List<Version> chain = new ArrayList<>();
+        if (!page.isEmpty() && page.get(0).isDelta()) {
+            // the page starts in between two snapshots, so the versions back to the preceding snapshot are needed
+            try {
+                chain.addAll(this.findChain(id, page.get(0).getVersionNumber() - 1));
+            } catch (NotFoundException e) {
+                throw new IOException("No snapshot found for entity " + id + " version "
+                        + page.get(0).getVersionNumber());
+            }
+            Collections.reverse(chain);
+        }
+        final int start = chain.size();
+        chain.addAll(page);
+        final List<JsonNode> docs = this.replay(chain);
+        final List<Entity> entities = new ArrayList<>(page.size());
+        for (int i = docs.size() - 1; i >= start; i--) {
+            entities.add(this.mapper.treeToValue(docs.get(i), Entity.class));
         }
         Entities entit = new Entities();
         entit.setEntities(entities);
         return entit;
     }
 
+    @Override
+    public Versions getVersions(String id, int offset, int numRecords) throws IOException {
+        this.awaitArchived(id);
+        numRecords = numRecords > maxRecords ? maxRecords : numRecords;
+        final SearchHits hits = this.searchVersions(id, Integer.MAX_VALUE, offset, numRecords);
+        final List<Version> summaries = new ArrayList<>(hits.getHits().length);
+        for (final SearchHit hit : hits.getHits()) {
+            summaries.add(this.mapper.readValue(hit.getSourceAsString(), Version.class));
+        }
+        final Versions versions = new Versions();
+        versions.setEntityId(id);
+        versions.setTotalHits(hits.getTotalHits());
+        versions.setOffset(offset);
+        versions.setNumRecords(numRecords);
+        versions.setVersions(summaries);
+        return versions;
+    }
+
 }
@@ -17,6 +17,8 @@
 package net.objecthunter.larch.service.backend.fs;
 
 import static net.objecthunter.larch.util.FileSystemUtil.checkAndCreate;
+import static net.objecthunter.larch.util.FileSystemUtil.listFilesModifiedBefore;
+import static net.objecthunter.larch.util.FileSystemUtil.writeAt;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -24,31 +26,74 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.FileSystemException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
 
 import javax.annotation.PostConstruct;
 
 import net.objecthunter.larch.exceptions.NotFoundException;
+import net.objecthunter.larch.helpers.ChecksumCalculator;
+import net.objecthunter.larch.helpers.ChecksumInputStream;
 import net.objecthunter.larch.model.Entity;
 import net.objecthunter.larch.model.state.FilesystemBlobstoreState;
 import net.objecthunter.larch.service.backend.BackendBlobstoreService;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.env.Environment;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * Implementation of a {@link net.objecthunter.larch.service.backend.BackendBlobstoreService} on a Posix file system.
- * The service gets initialized using two user set directories for saving the content of the repository
+ * The service gets initialized using two user set directories for saving the content of the repository.
+ * <p>
+ * With <code>fs.content.addressed</code> enabled the blobs are stored under the SHA-256 digest of their content,
+ * which is computed while the upload is written to a temporary file. The file is then atomically renamed to its
+ * final path, or dropped if a blob with the same content exists already. Each blob keeps a count of the binaries
+ * referencing it and is only removed once the last of them gets deleted. Blobs created without content addressing
+ * keep their random paths and can still be read and deleted.
+ * <p>
+ * Blobs uploaded in chunks are assembled in a preallocated file below <code>.uploads</code>, which is read once for
+ * computing the digests and then hard linked to its final path, so that it remains available until the upload
+ * session is finished.
  */
 public class FilesystemBlobstoreService implements BackendBlobstoreService {
 
     private static final Logger log = LoggerFactory.getLogger(FilesystemBlobstoreService.class);
 
+    /* the paths of content addressed blobs start with the name of the digest algorithm */
+    private static final String CONTENT_PREFIX = "sha256/";
+
+    private static final String REFERENCES_SUFFIX = ".refs";
+
+    private static final int LOCK_STRIPES = 64;
+
+    /* guard the reference counts of the content addressed blobs, striped by digest */
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private boolean contentAddressed = false;
+
+    private Path tempDirectory;
+
+    private Path uploadDirectory;
+
     @Autowired
     private Environment env;
 
@@ -59,16 +104,41 @@ public class FilesystemBlobstoreService implements BackendBlobstoreService {
 
     private File oldVersionDirectory;
 
+    public FilesystemBlobstoreService() {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
     @PostConstruct
     public void init() throws IOException {
         this.directory = new File(env.getProperty("fs.path"));
         this.oldVersionDirectory = new File(env.getProperty("fs.oldversion.path"));
         checkAndCreate(this.directory);
         checkAndCreate(this.oldVersionDirectory);
+        this.contentAddressed = Boolean.parseBoolean(env.getProperty("fs.content.addressed", "false"));
+        /* the temporary files have to be on the same file system as the blobs to be renamed atomically */
+        this.tempDirectory = new File(this.directory, ".tmp").toPath();
+        if (contentAddressed) {
+            Files.createDirectories(this.tempDirectory);
+        }
+        this.uploadDirectory = new File(this.directory, ".uploads").toPath();
     }
 
     @Override
     public String create(InputStream src) throws IOException {
+        if (contentAddressed) {
+            return this.createContentAddressed(src);
+        }
+        final File data = this.newBlobFile();
+        log.debug("creating Blob at {}", data.getAbsolutePath());
+        try (final FileOutputStream sink = new FileOutputStream(data)) {
+            IOUtils.copy(src, sink);
+        }
+        return data.getParentFile().getName() + "/" + data.getName();
+    }
+
+    private File newBlobFile() throws IOException {
         final File folder = new File(this.directory, RandomStringUtils.randomAlphabetic(2));
         checkAndCreate(folder);
         File data;
@@ -76,10 +146,46 @@ public class FilesystemBlobstoreService implements BackendBlobstoreService {
             /* create a new random file name */
             data = new File(folder, RandomStringUtils.randomAlphabetic(16));
         } while (data.exists());
-        log.debug("creating Blob at {}", data.getAbsolutePath());
-        final FileOutputStream sink = new FileOutputStream(data);
-        IOUtils.copy(src, sink);
-        return folder.getName() + "/" + data.getName();
+        return data;
+    }
+
+    private String createContentAddressed(InputStream src) throws IOException {
+        final MessageDigest digest = createContentDigest();
+        final Path temp = Files.createTempFile(this.tempDirectory, "blob", ".tmp");
+        try {
+            try (final OutputStream sink = new DigestOutputStream(Files.newOutputStream(temp), digest)) {
+                IOUtils.copy(src, sink);
+            }
+            return this.storeContentAddressed(temp, digest);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static MessageDigest createContentDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /* move a file to the path derived from its digest or leave it in place if the same content exists already */
+    private String storeContentAddressed(Path temp, MessageDigest digest) throws IOException {
+        final String hex = String.format("%064x", new BigInteger(1, digest.digest()));
+        final String path = CONTENT_PREFIX + hex.substring(0, 2) + "/" + hex.substring(2, 4) + "/" + hex;
+        final Path data = this.directory.toPath().resolve(path);
+        synchronized (lock(path)) {
+            if (Files.exists(data)) {
+                log.debug("Blob {} exists already, adding a reference", path);
+            } else {
+                log.debug("creating Blob at {}", data);
+                Files.createDirectories(data.getParent());
+                Files.move(temp, data, StandardCopyOption.ATOMIC_MOVE);
+            }
+            writeReferences(data, readReferences(data) + 1);
+        }
+        return path;
     }
 
     @Override
@@ -87,9 +193,48 @@ public class FilesystemBlobstoreService implements BackendBlobstoreService {
         return new FileInputStream(new File(directory, path));
     }
 
+    @Override
+    public InputStream retrieve(String path, long offset, long length) throws IOException {
+        final FileInputStream src = new FileInputStream(new File(directory, path));
+        try {
+            src.getChannel().position(offset);
+        } catch (IOException e) {
+            src.close();
+            throw e;
+        }
+        return new BoundedInputStream(src, length);
+    }
+
+    @Override
+    public Path retrieveFile(String path) throws IOException {
+        final Path data = new File(directory, path).toPath();
+        if (!Files.isRegularFile(data)) {
+            throw new NotFoundException("The blob " + path + " does not exist");
+        }
+        return data;
+    }
+
     @Override
     public void delete(String path) throws IOException {
         final File f = new File(directory, path);
+        if (path.startsWith(CONTENT_PREFIX)) {
+            synchronized (lock(path)) {
+                final long references = readReferences(f.toPath());
+                if (references > 1) {
+                    // other binaries still point to the same content
+                    writeReferences(f.toPath(), references - 1);
+                    return;
+                }
+                Files.deleteIfExists(getReferencesPath(f.toPath()));
+                // unlinked under the lock, so that a concurrent store can not take a reference to the deleted file
+                deleteFile(f);
+                return;
+            }
+        }
+        deleteFile(f);
+    }
+
+    private void deleteFile(File f) throws IOException {
         if (!f.delete()) {
             throw new IOException("Unable to delete file " + f.getAbsolutePath());
         }
@@ -101,7 +246,108 @@ public class FilesystemBlobstoreService implements BackendBlobstoreService {
         if (!data.exists()) {
             throw new NotFoundException(data.getAbsolutePath() + " can not be updated sine it does not exist");
         }
-        IOUtils.copy(src, new FileOutputStream(data));
+        if (path.startsWith(CONTENT_PREFIX)) {
+            throw new IOException("The content addressed blob " + path
+                    + " can not be changed, a new blob has to be created instead");
+        }
+        try (final FileOutputStream sink = new FileOutputStream(data)) {
+            IOUtils.copy(src, sink);
+        }
+    }
+
+    private Object lock(String path) {
+        return locks[(path.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+    }
+
+    private static Path getReferencesPath(Path data) {
+        return data.resolveSibling(data.getFileName() + REFERENCES_SUFFIX);
+    }
+
+    /* a blob without a reference count has not been handed out yet, e.g. after a crash while it was created */
+    private static long readReferences(Path data) throws IOException {
+        final Path references = getReferencesPath(data);
+        if (!Files.exists(references)) {
+            return 0;
+        }
+        return Long.parseLong(new String(Files.readAllBytes(references), StandardCharsets.US_ASCII).trim());
+    }
+
+    private void writeReferences(Path data, long count) throws IOException {
+        final Path temp = Files.createTempFile(this.tempDirectory, "refs", ".tmp");
+        try {
+            Files.write(temp, String.valueOf(count).getBytes(StandardCharsets.US_ASCII));
+            Files.move(temp, getReferencesPath(data), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public String createUpload(long size) throws IOException {
+        Files.createDirectories(this.uploadDirectory);
+        final Path upload = Files.createTempFile(this.uploadDirectory, "upload", ".tmp");
+        try (final RandomAccessFile file = new RandomAccessFile(upload.toFile(), "rw")) {
+            // reserve the complete size up front, so that the chunks can be written at their positions
+            file.setLength(size);
+        }
+        return upload.getFileName().toString();
+    }
+
+    @Override
+    public long writeUpload(String path, long offset, InputStream src) throws IOException {
+        return writeAt(getUploadFile(path), offset, src);
+    }
+
+    @Override
+    public String commitUpload(String path, ChecksumCalculator checksums) throws IOException {
+        final Path upload = getUploadFile(path);
+        final MessageDigest contentDigest = contentAddressed ? createContentDigest() : null;
+        try (final InputStream src = new ChecksumInputStream(Files.newInputStream(upload), checksums)) {
+            IOUtils.copyLarge(contentAddressed ? new DigestInputStream(src, contentDigest) : src,
+                    NullOutputStream.NULL_OUTPUT_STREAM);
+        }
+        if (contentAddressed) {
+            final Path temp = this.tempDirectory.resolve("commit-" + path);
+            try {
+                Files.deleteIfExists(temp);
+                linkUpload(upload, temp);
+                return this.storeContentAddressed(temp, contentDigest);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        final File data = this.newBlobFile();
+        log.debug("creating Blob at {} from upload {}", data.getAbsolutePath(), path);
+        linkUpload(upload, data.toPath());
+        return data.getParentFile().getName() + "/" + data.getName();
+    }
+
+    /* the upload stays in place until the session is finished, the blob becomes a second link to its content */
+    private static void linkUpload(Path upload, Path target) throws IOException {
+        try {
+            Files.createLink(target, upload);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            log.debug("unable to link upload {}, copying it instead: {}", upload, e.getMessage());
+            Files.copy(upload, target);
+        }
+    }
+
+    @Override
+    public void deleteUpload(String path) throws IOException {
+        Files.deleteIfExists(this.uploadDirectory.resolve(path));
+    }
+
+    @Override
+    public List<String> listUploads(long modifiedBefore) throws IOException {
+        return listFilesModifiedBefore(this.uploadDirectory, modifiedBefore);
+    }
+
+    private Path getUploadFile(String path) throws IOException {
+        final Path upload = this.uploadDirectory.resolve(path);
+        if (!Files.isRegularFile(upload)) {
+            throw new NotFoundException("The upload " + path + " does not exist");
+        }
+        return upload;
     }
 
     @Override
@@ -116,6 +362,15 @@ public class FilesystemBlobstoreService implements BackendBlobstoreService {
 
     @Override
     public String createOldVersionBlob(Entity oldVersion) throws IOException {
+        return this.writeOldVersion(oldVersion);
+    }
+
+    @Override
+    public String createOldVersionDelta(JsonNode patch) throws IOException {
+        return this.writeOldVersion(patch);
+    }
+
+    private String writeOldVersion(Object oldVersion) throws IOException {
         final File folder = new File(this.oldVersionDirectory, RandomStringUtils.randomAlphabetic(2));
         checkAndCreate(folder);
         File data;
@@ -16,16 +16,28 @@
 
 package net.objecthunter.larch.service.backend.weedfs;
 
+import static net.objecthunter.larch.util.FileSystemUtil.listFilesModifiedBefore;
+import static net.objecthunter.larch.util.FileSystemUtil.writeAt;
+
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
 
 import javax.annotation.PostConstruct;
 
 import net.objecthunter.larch.exceptions.NotFoundException;
+import net.objecthunter.larch.helpers.ChecksumCalculator;
+import net.objecthunter.larch.helpers.ChecksumInputStream;
 import net.objecthunter.larch.model.Entity;
 import net.objecthunter.larch.model.state.WeedFsBlobstoreState;
 import net.objecthunter.larch.service.backend.BackendBlobstoreService;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.fluent.Request;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
@@ -54,10 +66,15 @@ public class WeedFSBlobstoreService implements BackendBlobstoreService {
 
     private String weedfsUrl;
 
+    private Path uploadDirectory;
+
     @PostConstruct
     public void init() {
         this.weedfsUrl =
                 "http://" + env.getProperty("weedfs.master.host") + ":" + env.getProperty("weedfs.master.port");
+        this.uploadDirectory =
+                Paths.get(env.getProperty("weedfs.upload.dir", System.getProperty("java.io.tmpdir")
+                        + "/larch-uploads"));
     }
 
     @Override
@@ -102,6 +119,32 @@ public class WeedFSBlobstoreService implements BackendBlobstoreService {
         return resp.getEntity().getContent();
     }
 
+    @Override
+    public InputStream retrieve(String fid, long offset, long length) throws IOException {
+        final HttpResponse resp =
+                Request.Get(lookupVolumeUrl(fid)).addHeader("Range",
+                        "bytes=" + offset + "-" + (offset + length - 1)).execute().returnResponse();
+        final int status = resp.getStatusLine().getStatusCode();
+        if (status == 404) {
+            throw new NotFoundException(fid + " could not be found in WeedFS");
+        }
+        if (status == 206) {
+            return new BoundedInputStream(resp.getEntity().getContent(), length);
+        }
+        if (status != 200) {
+            throw new IOException("WeedFS returned HTTP " + status + "\n" + EntityUtils.toString(resp.getEntity()));
+        }
+        // volume servers not supporting ranges send the complete blob, so the leading bytes have to be skipped
+        final InputStream src = resp.getEntity().getContent();
+        try {
+            IOUtils.skipFully(src, offset);
+        } catch (IOException e) {
+            src.close();
+            throw e;
+        }
+        return new BoundedInputStream(src, length);
+    }
+
     @Override
     public void delete(String fid) throws IOException {
         log.debug("deleting blob " + fid);
@@ -125,6 +168,48 @@ public class WeedFSBlobstoreService implements BackendBlobstoreService {
         log.debug("WeedFS updated {} bytes", mapper.readTree(resp.getEntity().getContent()).get("size").asInt());
     }
 
+    @Override
+    public String createUpload(long size) throws IOException {
+        // WeedFS stores whole files only, so the chunks are assembled in a local file
+        Files.createDirectories(this.uploadDirectory);
+        final Path upload = Files.createTempFile(this.uploadDirectory, "upload", ".tmp");
+        try (final RandomAccessFile file = new RandomAccessFile(upload.toFile(), "rw")) {
+            file.setLength(size);
+        }
+        return upload.getFileName().toString();
+    }
+
+    @Override
+    public long writeUpload(String path, long offset, InputStream src) throws IOException {
+        return writeAt(getUploadFile(path), offset, src);
+    }
+
+    @Override
+    public String commitUpload(String path, ChecksumCalculator checksums) throws IOException {
+        final Path upload = getUploadFile(path);
+        try (final InputStream src = new ChecksumInputStream(Files.newInputStream(upload), checksums)) {
+            return this.create(src);
+        }
+    }
+
+    @Override
+    public void deleteUpload(String path) throws IOException {
+        Files.deleteIfExists(this.uploadDirectory.resolve(path));
+    }
+
+    @Override
+    public List<String> listUploads(long modifiedBefore) throws IOException {
+        return listFilesModifiedBefore(this.uploadDirectory, modifiedBefore);
+    }
+
+    private Path getUploadFile(String path) throws IOException {
+        final Path upload = this.uploadDirectory.resolve(path);
+        if (!Files.isRegularFile(upload)) {
+            throw new NotFoundException("The upload " + path + " does not exist");
+        }
+        return upload;
+    }
+
     @Override
     public WeedFsBlobstoreState status() throws IOException {
         final HttpResponse resp = Request.Get(this.weedfsUrl + "/dir/status").execute().returnResponse();
@@ -143,6 +228,15 @@ public class WeedFSBlobstoreService implements BackendBlobstoreService {
 
     @Override
     public String createOldVersionBlob(Entity oldVersion) throws IOException {
+        return this.writeOldVersion(oldVersion);
+    }
+
+    @Override
+    public String createOldVersionDelta(JsonNode patch) throws IOException {
+        return this.writeOldVersion(patch);
+    }
+
+    private String writeOldVersion(Object oldVersion) throws IOException {
         final JsonNode json = retrieveFid();
         final String fid = json.get("fid").textValue();
         log.debug("WeedFS returned fid {} for file creation", fid);
@@ -165,6 +259,12 @@ public class WeedFSBlobstoreService implements BackendBlobstoreService {
         return fid;
     }
 
+    @Override
+    public Path retrieveFile(String fid) throws IOException {
+        // the blobs are kept by the WeedFS volume servers and can only be streamed
+        return null;
+    }
+
     @Override
     public InputStream retrieveOldVersionBlob(String fid) throws IOException {
         return this.retrieve(fid);
@@ -18,44 +18,66 @@ package net.objecthunter.larch.service.impl;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.math.BigInteger;
 import java.net.URI;
-import java.security.MessageDigest;
+import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
+import net.objecthunter.larch.cache.EntityCache;
+import net.objecthunter.larch.cache.SearchResultCache;
 import net.objecthunter.larch.exceptions.AlreadyExistsException;
+import net.objecthunter.larch.exceptions.ConflictException;
 import net.objecthunter.larch.exceptions.InvalidParameterException;
 import net.objecthunter.larch.exceptions.NotFoundException;
-import net.objecthunter.larch.helpers.SizeCalculatingDigestInputStream;
+import net.objecthunter.larch.helpers.ChecksumCalculator;
+import net.objecthunter.larch.helpers.ChecksumInputStream;
 import net.objecthunter.larch.model.AlternativeIdentifier;
 import net.objecthunter.larch.model.AuditRecord;
 import net.objecthunter.larch.model.Binary;
+import net.objecthunter.larch.model.BulkItemResult;
 import net.objecthunter.larch.model.Entities;
 import net.objecthunter.larch.model.Entity;
+import net.objecthunter.larch.model.EntityChildren;
 import net.objecthunter.larch.model.LarchConstants;
 import net.objecthunter.larch.model.Metadata;
 import net.objecthunter.larch.model.SearchResult;
+import net.objecthunter.larch.model.Versions;
 import net.objecthunter.larch.model.source.UrlSource;
 import net.objecthunter.larch.service.EntityService;
 import net.objecthunter.larch.service.ExportService;
+import net.objecthunter.larch.service.IdGenerator;
 import net.objecthunter.larch.service.backend.BackendAuditService;
 import net.objecthunter.larch.service.backend.BackendBlobstoreService;
 import net.objecthunter.larch.service.backend.BackendEntityService;
 import net.objecthunter.larch.service.backend.BackendPublishService;
 import net.objecthunter.larch.service.backend.BackendSchemaService;
 import net.objecthunter.larch.service.backend.BackendVersionService;
+import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchEntityService.EntitiesAggregation;
 import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchEntityService.EntitiesSearchField;
 
-import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -74,6 +96,14 @@ public class DefaultEntityService implements EntityService {
 
     private static final Logger log = LoggerFactory.getLogger(DefaultEntityService.class);
 
+    private static final int MAX_UPDATE_ATTEMPTS = 5;
+
+    /* the number of chunks of a binary waiting for the checksum calculation before the upload is throttled */
+    private static final int MAX_PENDING_CHECKSUM_CHUNKS = 16;
+
+    /* the number of child ids fetched per request when all children of an entity are requested */
+    private static final int CHILDREN_PAGE_SIZE = 1000;
+
     @Autowired
     private BackendAuditService backendAuditService;
 
@@ -101,26 +131,137 @@ public class DefaultEntityService implements EntityService {
     @Autowired
     private Environment env;
 
+    @Autowired
+    private IdGenerator idGenerator;
+
+    @Autowired
+    private EntityCache entityCache;
+
+    @Autowired
+    private SearchResultCache searchResultCache;
+
     private boolean autoExport;
 
+    private List<String> checksumAlgorithms = Collections.singletonList("MD5");
+
+    private ExecutorService checksumExecutor;
+
     @PostConstruct
     public void init() {
         final String val = env.getProperty("larch.export.auto");
         autoExport = val == null ? false : Boolean.valueOf(val);
+        final List<String> algorithms = new ArrayList<>();
+        for (final String algorithm : env.getProperty("larch.binary.checksums", "MD5").split(",")) {
+            if (!algorithm.trim().isEmpty()) {
+                algorithms.add(algorithm.trim().toUpperCase());
+            }
+        }
+        for (final String algorithm : algorithms) {
+            try {
+                ChecksumCalculator.createDigest(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException("The checksum algorithm " + algorithm + " is not supported", e);
+            }
+        }
+        if (!algorithms.isEmpty()) {
+            checksumAlgorithms = algorithms;
+        }
+        final int threads =
+                Integer.parseInt(env.getProperty("larch.binary.checksum.threads", String.valueOf(Runtime
+                        .getRuntime().availableProcessors())));
+        if (threads > 0) {
+            checksumExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "larch-checksum-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (checksumExecutor != null) {
+            checksumExecutor.shutdown();
+        }
     }
 
     @Override
     public String create(Entity e) throws IOException {
-        final String now = ZonedDateTime.now(ZoneOffset.UTC).toString();
         if (e.getId() == null || e.getId().isEmpty()) {
-            e.setId(generateId());
+            e.setId(idGenerator.generateId());
+        }
+        prepareForCreate(e);
+        final String id;
+        try {
+            // the backend refuses to overwrite an existing entity, so no existence check is necessary beforehand
+            id = this.backendEntityService.create(e);
+        } catch (AlreadyExistsException ex) {
+            deleteCreatedBinaries(e);
+            throw new AlreadyExistsException("Entity with id " + e.getId()
+                    + " could not be created because it already exists in the index");
+        }
+        // the parent's list of children has changed
+        this.entityCache.invalidate(e.getParentId());
+        log.debug("finished creating Entity {}", id);
+
+        // export the created entity
+        if (autoExport) {
+            exportService.export(e);
+            log.debug("exported entity {} ", id);
+        }
+
+        return id;
+    }
+
+    @Override
+    public List<BulkItemResult> create(List<Entity> entities) throws IOException {
+        final List<BulkItemResult> results = new ArrayList<>(entities.size());
+        final List<Entity> prepared = new ArrayList<>(entities.size());
+        for (final Entity e : entities) {
+            try {
+                if (e.getId() == null || e.getId().isEmpty()) {
+                    e.setId(idGenerator.generateId());
+                }
+                prepareForCreate(e);
+                prepared.add(e);
+                /* placeholder which gets replaced by the backend's result for this entity */
+                results.add(null);
+            } catch (IOException ex) {
+                log.warn("unable to prepare entity {} for bulk creation", e.getId(), ex);
+                results.add(BulkItemResult.failure(e.getId(), ex.getMessage()));
+            }
         }
-        else {
-            if (this.backendEntityService.exists(e.getId())) {
-                throw new AlreadyExistsException("Entity with id " + e.getId()
-                        + " could not be created because it already exists in the index");
+
+        // existence of the ids is not checked upfront, the backend reports already existing entities per item
+        final Iterator<BulkItemResult> created = this.backendEntityService.create(prepared).iterator();
+        final Iterator<Entity> entityIterator = prepared.iterator();
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i) == null) {
+                final BulkItemResult result = created.next();
+                final Entity e = entityIterator.next();
+                if (result.isFailed()) {
+                    deleteCreatedBinaries(e);
+                } else {
+                    this.entityCache.invalidate(e.getParentId());
+                    if (autoExport) {
+                        exportService.export(e);
+                    }
+                }
+                results.set(i, result);
             }
         }
+        log.debug("finished bulk creation of {} entities", prepared.size());
+        return results;
+    }
+
+    private void prepareForCreate(Entity e) throws IOException {
+        final String now = ZonedDateTime.now(ZoneOffset.UTC).toString();
         if (e.getMetadata() != null) {
             for (final Metadata md : e.getMetadata().values()) {
                 md.setUtcCreated(now);
@@ -139,16 +280,6 @@ public class DefaultEntityService implements EntityService {
         e.setVersion(1);
         e.setUtcCreated(now);
         e.setUtcLastModified(now);
-        final String id = this.backendEntityService.create(e);
-        log.debug("finished creating Entity {}", id);
-
-        // export the created entity
-        if (autoExport) {
-            exportService.export(e);
-            log.debug("exported entity {} ", id);
-        }
-
-        return id;
     }
 
     private void createAndMutateBinary(String entityId, Binary b) throws IOException {
@@ -156,20 +287,10 @@ public class DefaultEntityService implements EntityService {
             log.warn("No source is set for binary '{}' of entity '{}' nothing to ingest", b.getName(), entityId);
             return;
         }
-        final MessageDigest digest;
-        try {
-            digest = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            throw new IOException(e);
-        }
-        try (final SizeCalculatingDigestInputStream src =
-                new SizeCalculatingDigestInputStream(b.getSource().getInputStream(), digest)) {
-            final ZonedDateTime created = ZonedDateTime.now(ZoneOffset.UTC);
+        final ChecksumCalculator checksums = this.createChecksumCalculator();
+        try (final ChecksumInputStream src = new ChecksumInputStream(b.getSource().getInputStream(), checksums)) {
             final String path = this.backendBlobstoreService.create(src);
-            final String checksum = new BigInteger(1, digest.digest()).toString(16);
-            b.setChecksum(checksum);
-            b.setSize(src.getCalculatedSize());
-            b.setChecksumType(digest.getAlgorithm());
+            applyChecksums(b, checksums);
             b.setPath(path);
             b.setSource(new UrlSource(URI.create("http://localhost:8080/entity/" + entityId + "/binary/" +
                     b.getName()
@@ -186,18 +307,53 @@ public class DefaultEntityService implements EntityService {
         }
     }
 
-    private String generateId() throws IOException {
-        String generated;
-        do {
-            generated = RandomStringUtils.randomAlphabetic(16);
-        } while (backendEntityService.exists(generated));
-        return generated;
+    /**
+     * Execute an operation modifying an {@link net.objecthunter.larch.model.Entity} and execute it again on the latest
+     * state of the Entity if it has been modified concurrently. The operation has to read the Entity itself, so that
+     * each attempt works on a fresh copy.
+     */
+    private Entity retryOnConflict(String entityId, EntityOperation operation) throws IOException {
+        try {
+            for (int attempt = 1;; attempt++) {
+                try {
+                    return operation.execute();
+                } catch (ConflictException e) {
+                    if (attempt >= MAX_UPDATE_ATTEMPTS) {
+                        throw e;
+                    }
+                    log.debug("entity {} has been modified concurrently, retrying update (attempt {} of {})",
+                            entityId, attempt + 1, MAX_UPDATE_ATTEMPTS);
+                }
+            }
+        } finally {
+            this.entityCache.invalidate(entityId);
+        }
+    }
+
+    private void deleteCreatedBinaries(Entity e) {
+        if (e.getBinaries() == null) {
+            return;
+        }
+        for (final Binary b : e.getBinaries().values()) {
+            if (b.getPath() != null) {
+                try {
+                    this.backendBlobstoreService.delete(b.getPath());
+                } catch (IOException ex) {
+                    log.warn("unable to remove binary {} of entity {} which could not be created", b.getName(),
+                            e.getId());
+                }
+            }
+        }
     }
 
     @Override
     public void update(Entity e) throws IOException {
         final Entity oldVersion = this.backendEntityService.retrieve(e.getId());
-        this.backendVersionService.addOldVersion(oldVersion);
+        if (e.getDocumentVersion() > 0 && e.getDocumentVersion() != oldVersion.getDocumentVersion()) {
+            // the entity has been read before and has been changed by someone else in the meantime
+            throw new ConflictException("Entity with id " + e.getId() + " has been modified since version "
+                    + e.getDocumentVersion());
+        }
         final String now = ZonedDateTime.now(ZoneOffset.UTC).toString();
         e.setVersionAndResetState(oldVersion.getVersion() + 1);
         if (e.getMetadata() != null) {
@@ -213,22 +369,47 @@ public class DefaultEntityService implements EntityService {
         if (e.getLabel() == null || e.getLabel().isEmpty()) {
             e.setLabel("Unnamed entity");
         }
-        if (e.getBinaries() != null) {
-            for (final Binary b : e.getBinaries().values()) {
-                if (b.getSource() == null) {
-                    log.warn("No source on binary '{}' of entity '{}'", b.getName(), e.getId());
-                    continue;
-                }
-                if (b.getSource().isInternal()) {
-                    b.setUtcLastModified(oldVersion.getBinaries().get(b.getName()).getUtcLastModified());
-                    b.setUtcCreated(oldVersion.getBinaries().get(b.getName()).getUtcCreated());
+        // the blobs created for new binaries are removed again if the update fails
+        final List<String> createdPaths = new ArrayList<>();
+        try {
+            if (e.getBinaries() != null) {
+                for (final Binary b : e.getBinaries().values()) {
+                    if (b.getSource() == null) {
+                        log.warn("No source on binary '{}' of entity '{}'", b.getName(), e.getId());
+                        continue;
+                    }
+                    if (b.getSource().isInternal()) {
+                        b.setUtcLastModified(oldVersion.getBinaries().get(b.getName()).getUtcLastModified());
+                        b.setUtcCreated(oldVersion.getBinaries().get(b.getName()).getUtcCreated());
+                    }
+                    else {
+                        createAndMutateBinary(e.getId(), b);
+                        createdPaths.add(b.getPath());
+                    }
                 }
-                else {
-                    createAndMutateBinary(e.getId(), b);
+            }
+            // the index rejects the update if the entity has been changed after the old version has been read
+            e.setDocumentVersion(oldVersion.getDocumentVersion());
+            this.backendEntityService.update(e);
+        } catch (IOException | RuntimeException ex) {
+            for (final String path : createdPaths) {
+                try {
+                    backendBlobstoreService.delete(path);
+                } catch (IOException deleteEx) {
+                    log.warn("unable to delete blob {} of the failed update of entity {}", path, e.getId());
                 }
             }
+            throw ex;
+        } finally {
+            this.entityCache.invalidate(e.getId());
+        }
+        // archived only once the version check of the update has passed, so that retries do not add versions
+        this.backendVersionService.addOldVersion(oldVersion);
+        if (!StringUtils.equals(oldVersion.getParentId(), e.getParentId())) {
+            // the lists of children of both the old and the new parent have changed
+            this.entityCache.invalidate(oldVersion.getParentId());
+            this.entityCache.invalidate(e.getParentId());
         }
-        this.backendEntityService.update(e);
         if (autoExport) {
             exportService.export(e);
             log.debug("exported entity {} ", e.getId());
@@ -237,7 +418,114 @@ public class DefaultEntityService implements EntityService {
 
     @Override
     public Entity retrieve(String id) throws IOException {
-        return backendEntityService.retrieve(id);
+        final Entity cached = this.entityCache.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        // the generation has to be fetched before reading, so that a concurrent change is not overwritten in the
+        // cache by the stale Entity
+        final long generation = this.entityCache.getGeneration();
+        final Entity e = backendEntityService.retrieve(id);
+        e.setChildCount(backendEntityService.countChildren(id));
+        this.entityCache.put(e, generation);
+        return e;
+    }
+
+    @Override
+    public CompletableFuture<Entity> retrieveAsync(String id) {
+        final Entity cached;
+        try {
+            cached = this.entityCache.get(id);
+        } catch (IOException e) {
+            final CompletableFuture<Entity> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        final long generation = this.entityCache.getGeneration();
+        // the Entity and the number of its children are fetched concurrently
+        return backendEntityService.retrieveAsync(id).thenCombine(backendEntityService.countChildrenAsync(id),
+                new BiFunction<Entity, Long, Entity>() {
+
+                    @Override
+                    public Entity apply(Entity e, Long childCount) {
+                        e.setChildCount(childCount);
+                        try {
+                            entityCache.put(e, generation);
+                        } catch (IOException ex) {
+                            throw new CompletionException(ex);
+                        }
+                        return e;
+                    }
+                });
+    }
+
+    @Override
+    public CompletableFuture<Entity> retrieveWithChildrenAsync(String id) {
+        // the Entity and the first page of its children are fetched concurrently
+        return retrieveAsync(id).thenCombine(fetchAllChildrenAsync(id, null, new ArrayList<String>()),
+                new BiFunction<Entity, List<String>, Entity>() {
+
+                    @Override
+                    public Entity apply(Entity cached, List<String> children) {
+                        // the cached Entity is shared, so the children are only set on a copy
+                        final Entity e;
+                        try {
+                            e = copyEntity(cached);
+                        } catch (IOException ex) {
+                            throw new CompletionException(ex);
+                        }
+                        e.setChildren(children);
+                        e.setChildCount(children.size());
+                        return e;
+                    }
+                });
+    }
+
+    /**
+     * Page through the children of an Entity without blocking, each page is requested once the previous one has
+     * arrived
+     * 
+     * @param id the id of the parent Entity
+     * @param cursor the cursor of the next page or null for the first page
+     * @param children the ids of the children collected so far
+     * @return a future completed with the ids of all the children
+     */
+    private CompletableFuture<List<String>> fetchAllChildrenAsync(final String id, String cursor,
+            final List<String> children) {
+        return backendEntityService.fetchChildrenAsync(id, cursor, CHILDREN_PAGE_SIZE).thenCompose(
+                new Function<EntityChildren, CompletionStage<List<String>>>() {
+
+                    @Override
+                    public CompletionStage<List<String>> apply(EntityChildren page) {
+                        children.addAll(page.getChildren());
+                        if (page.getCursor() == null) {
+                            return CompletableFuture.completedFuture(children);
+                        }
+                        return fetchAllChildrenAsync(id, page.getCursor(), children);
+                    }
+                });
+    }
+
+    @Override
+    public EntityChildren retrieveChildren(String id, String cursor, int numRecords) throws IOException {
+        if (numRecords < 1) {
+            throw new InvalidParameterException("The number of children has to be greater than zero");
+        }
+        if ((cursor == null || cursor.isEmpty()) && !this.backendEntityService.exists(id)) {
+            throw new NotFoundException("entity with id " + id + " not found");
+        }
+        return this.backendEntityService.fetchChildren(id, cursor, numRecords);
+    }
+
+    @Override
+    public EntityChildren retrieveFirstChildren(String id, int numRecords) throws IOException {
+        if (numRecords < 1) {
+            throw new InvalidParameterException("The number of children has to be greater than zero");
+        }
+        return this.backendEntityService.fetchFirstChildren(id, numRecords);
     }
 
     @Override
@@ -248,59 +536,115 @@ public class DefaultEntityService implements EntityService {
                 backendBlobstoreService.delete(b.getPath());
             }
         }
-        this.backendEntityService.delete(id);
+        try {
+            this.backendEntityService.delete(id);
+        } finally {
+            this.entityCache.invalidate(id);
+        }
+        this.entityCache.invalidate(e.getParentId());
     }
 
     @Override
     public InputStream getContent(String id, String name) throws IOException {
-        final Entity e = backendEntityService.retrieve(id);
+        final Entity e = retrieve(id);
         final Binary b = e.getBinaries().get(name);
         return backendBlobstoreService.retrieve(b.getPath());
     }
 
     @Override
     public Entity retrieve(String id, int i) throws IOException {
-        final Entity e = this.backendEntityService.retrieve(id);
+        final Entity cached = this.entityCache.get(id, i);
+        if (cached != null) {
+            return cached;
+        }
+        final Entity e = retrieve(id);
         if (i == e.getVersion()) {
             return e; // the current version
         }
-        return this.backendVersionService.getOldVersion(id, i);
+        final Entity old = this.backendVersionService.getOldVersion(id, i);
+        this.entityCache.putVersion(old);
+        return old;
     }
 
     @Override
-    public void createBinary(String entityId, String name, String contentType, InputStream inputStream)
+    public void createBinary(final String entityId, final String name, String contentType, InputStream inputStream)
             throws IOException {
-        final Entity e = backendEntityService.retrieve(entityId);
-        this.backendVersionService.addOldVersion(e);
-        final MessageDigest digest;
+        final ChecksumCalculator checksums = this.createChecksumCalculator();
+        final Binary b = new Binary();
+        try (final ChecksumInputStream src = new ChecksumInputStream(inputStream, checksums)) {
+            final String path = backendBlobstoreService.create(src);
+            initBinary(b, entityId, name, contentType, path, checksums);
+        }
+        this.addBinary(entityId, b);
+    }
+
+    @Override
+    public void createBinaryFromUpload(final String entityId, final String name, final String contentType,
+            final String uploadPath, final long size) throws IOException {
+        final ChecksumCalculator checksums = this.createChecksumCalculator();
+        final String path = backendBlobstoreService.commitUpload(uploadPath, checksums);
+        final Binary b = new Binary();
+        initBinary(b, entityId, name, contentType, path, checksums);
+        if (b.getSize() != size) {
+            log.warn("upload {} of binary {} holds {} bytes instead of {}", uploadPath, name, b.getSize(), size);
+        }
+        this.addBinary(entityId, b);
+    }
+
+    private ChecksumCalculator createChecksumCalculator() throws IOException {
         try {
-            digest = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e1) {
-            throw new IOException(e1);
+            return new ChecksumCalculator(checksumAlgorithms, checksumExecutor, MAX_PENDING_CHECKSUM_CHUNKS);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
         }
-        try (final SizeCalculatingDigestInputStream src = new SizeCalculatingDigestInputStream(inputStream, digest)) {
-            final String path = backendBlobstoreService.create(src);
-            final Binary b = new Binary();
-            final String now = ZonedDateTime.now(ZoneOffset.UTC).toString();
-            b.setUtcCreated(now);
-            b.setUtcLastModified(now);
-            b.setName(name);
-            b.setMimetype(contentType);
-            b.setChecksum(new BigInteger(1, digest.digest()).toString(16));
-            b.setChecksumType("MD5");
-            b.setSize(src.getCalculatedSize());
-            b.setSource(new UrlSource(URI.create("http://localhost:8080/entity/" + entityId + "/binary/" + name
-                    + "/content"), true));
-            b.setPath(path);
-            b.setUtcCreated(now);
-            b.setUtcLastModified(now);
-            if (e.getBinaries() == null) {
-                e.setBinaries(new HashMap<>(1));
-            }
-            e.getBinaries().put(name, b);
-            e.setVersionAndResetState(e.getVersion() + 1);
-            e.setUtcLastModified(now);
-            this.backendEntityService.update(e);
+    }
+
+    /* the first configured algorithm is the Binary's primary checksum */
+    private static void applyChecksums(Binary b, ChecksumCalculator checksums) throws IOException {
+        final String primary = checksums.getAlgorithms().get(0);
+        b.setChecksums(checksums.getChecksums());
+        b.setChecksum(checksums.getChecksums().get(primary));
+        b.setChecksumType(primary);
+        b.setSize(checksums.getSize());
+    }
+
+    private static void initBinary(Binary b, String entityId, String name, String contentType, String path,
+            ChecksumCalculator checksums) throws IOException {
+        final String now = ZonedDateTime.now(ZoneOffset.UTC).toString();
+        b.setUtcCreated(now);
+        b.setUtcLastModified(now);
+        b.setName(name);
+        b.setMimetype(contentType);
+        applyChecksums(b, checksums);
+        b.setSource(new UrlSource(URI.create("http://localhost:8080/entity/" + entityId + "/binary/" + name
+                + "/content"), true));
+        b.setPath(path);
+    }
+
+    /* add a stored Binary to an Entity and remove the blob again if the Entity can not be updated */
+    private void addBinary(final String entityId, final Binary b) throws IOException {
+        final Entity e;
+        try {
+            e = retryOnConflict(entityId, new EntityOperation() {
+
+                @Override
+                public Entity execute() throws IOException {
+                    final Entity e = backendEntityService.retrieve(entityId);
+                    final Entity oldVersion = copyEntity(e);
+                    if (e.getBinaries() == null) {
+                        e.setBinaries(new HashMap<>(1));
+                    }
+                    e.getBinaries().put(b.getName(), b);
+                    e.setVersionAndResetState(e.getVersion() + 1);
+                    e.setUtcLastModified(ZonedDateTime.now(ZoneOffset.UTC).toString());
+                    backendEntityService.update(e);
+                    backendVersionService.addOldVersion(oldVersion);
+                    return e;
+                }
+            });
+        } catch (IOException ex) {
+            backendBlobstoreService.delete(b.getPath());
+            throw ex;
         }
         if (autoExport) {
             exportService.export(e);
@@ -310,7 +654,39 @@ public class DefaultEntityService implements EntityService {
 
     @Override
     public void patch(final String id, final JsonNode node) throws IOException {
-        final Entity e = this.backendEntityService.retrieve(id);
+        validatePatch(id, node);
+        retryOnConflict(id, new EntityOperation() {
+
+            @Override
+            public Entity execute() throws IOException {
+                final Entity e = backendEntityService.retrieve(id);
+                final String oldParentId = e.getParentId();
+                final Entity oldVersion = copyEntity(e);
+                mapper.readerForUpdating(e).readValue(node);
+                if (e.getLabel() == null || e.getLabel().isEmpty()) {
+                    e.setLabel("Unnamed Entity");
+                }
+                final Map<String, Object> fields = new HashMap<>();
+                fields.put("label", e.getLabel());
+                fields.put("type", e.getType());
+                fields.put("parentId", e.getParentId());
+                updateFields(e, fields);
+                backendVersionService.addOldVersion(oldVersion);
+                if (!StringUtils.equals(oldParentId, e.getParentId())) {
+                    // the lists of children of both the old and the new parent have changed
+                    entityCache.invalidate(oldParentId);
+                    entityCache.invalidate(e.getParentId());
+                }
+                if (autoExport) {
+                    exportService.export(e);
+                    log.debug("exported entity {} ", e.getId());
+                }
+                return e;
+            }
+        });
+    }
+
+    private void validatePatch(final String id, final JsonNode node) throws IOException {
         final Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
         while (fields.hasNext()) {
             final Map.Entry<String, JsonNode> field = fields.next();
@@ -319,34 +695,56 @@ public class DefaultEntityService implements EntityService {
             }
             switch (field.getKey()) {
             case "label":
-                e.setLabel(field.getValue().asText());
-                break;
             case "type":
-                e.setType(field.getValue().asText());
                 break;
+            case "state":
+                // every new version is reset to the ingested state, so a patched state would be dropped
+                throw new InvalidParameterException("The state of an entity can not be patched");
             case "parentId":
-                final String parentId = field.getValue().asText();
-                if (parentId.equals(id)) {
+                if (field.getValue().asText().equals(id)) {
                     throw new IOException("Can not add a parent relation to itself");
                 }
-                e.setParentId(parentId);
-                break;
-            case "state":
-                final String state = field.getValue().asText();
-                e.setState(state);
                 break;
             default:
                 throw new IOException("Unable to update field " + field.getKey());
             }
         }
-        if (e.getLabel() == null || e.getLabel().isEmpty()) {
-            e.setLabel("Unnamed Entity");
-        }
-        update(e);
+    }
+
+    /**
+     * Store a new version of an Entity read from the index by sending only the changed fields to the index. The
+     * version number, state and modification date of the Entity are updated as well
+     * 
+     * @param newVersion the changed Entity holding the document version it has been read with
+     * @param fields the changed fields and their new values
+     * @throws IOException
+     */
+    private void updateFields(Entity newVersion, Map<String, Object> fields) throws IOException {
+        newVersion.setUtcLastModified(ZonedDateTime.now(ZoneOffset.UTC).toString());
+        newVersion.setVersionAndResetState(newVersion.getVersion() + 1);
+        fields.put("version", newVersion.getVersion());
+        fields.put("state", newVersion.getState());
+        fields.put("utcLastModified", newVersion.getUtcLastModified());
+        backendEntityService.updateFields(newVersion.getId(), newVersion.getDocumentVersion(), fields);
+    }
+
+    /**
+     * Copy an Entity, e.g. before it gets changed by an update. The copy of the old state is archived only after the
+     * update has been accepted by the index, so that an update retried on a conflict or failing altogether does not
+     * add versions to the history
+     * 
+     * @param e the Entity to copy
+     * @return a copy of the Entity
+     * @throws IOException
+     */
+    private Entity copyEntity(Entity e) throws IOException {
+        final Entity copy = mapper.readValue(mapper.writeValueAsBytes(e), Entity.class);
+        copy.setDocumentVersion(e.getDocumentVersion());
+        return copy;
     }
 
     @Override
-    public void createRelation(String id, String predicate, String object) throws IOException {
+    public void createRelation(final String id, final String predicate, final String object) throws IOException {
         if (object.startsWith("<" + LarchConstants.NAMESPACE_LARCH)) {
             // the object is an internal entity
             final String objId = object.substring(1 + LarchConstants.NAMESPACE_LARCH.length(), object.length() - 1);
@@ -355,30 +753,44 @@ public class DefaultEntityService implements EntityService {
                         + " referenced in the object of the relation does not exist in the repository");
             }
         }
-        final Entity oldVersion = this.backendEntityService.retrieve(id);
-        this.backendVersionService.addOldVersion(oldVersion);
-        final String now = ZonedDateTime.now(ZoneOffset.UTC).toString();
-        final Entity newVersion = oldVersion;
-        newVersion.setUtcLastModified(now);
-        newVersion.setVersionAndResetState(oldVersion.getVersion() + 1);
-        if (newVersion.getRelations() == null) {
-            newVersion.setRelations(new HashMap<>());
-        }
-        if (newVersion.getRelations().get(predicate) == null) {
-            newVersion.getRelations().put(predicate, new ArrayList<>(1));
-        }
-        newVersion.getRelations().get(predicate).add(object);
-        this.backendEntityService.update(newVersion);
+        retryOnConflict(id, new EntityOperation() {
+
+            @Override
+            public Entity execute() throws IOException {
+                final Entity newVersion = backendEntityService.retrieve(id);
+                final Entity oldVersion = copyEntity(newVersion);
+                if (newVersion.getRelations() == null) {
+                    newVersion.setRelations(new HashMap<>());
+                }
+                if (newVersion.getRelations().get(predicate) == null) {
+                    newVersion.getRelations().put(predicate, new ArrayList<>(1));
+                }
+                newVersion.getRelations().get(predicate).add(object);
+                // the index merges the objects of this predicate into the stored relations
+                final Map<String, Object> fields = new HashMap<>();
+                fields.put("relations", Collections.singletonMap(predicate, newVersion.getRelations().get(predicate)));
+                updateFields(newVersion, fields);
+                backendVersionService.addOldVersion(oldVersion);
+                return newVersion;
+            }
+        });
     }
 
     @Override
-    public void deleteBinary(String entityId, String name) throws IOException {
-        final Entity e = this.backendEntityService.retrieve(entityId);
-        if (e.getBinaries().get(name) == null) {
-            throw new NotFoundException("Binary " + name + " does not exist on entity " + entityId);
-        }
-        e.getBinaries().remove(name);
-        this.update(e);
+    public void deleteBinary(final String entityId, final String name) throws IOException {
+        retryOnConflict(entityId, new EntityOperation() {
+
+            @Override
+            public Entity execute() throws IOException {
+                final Entity e = backendEntityService.retrieve(entityId);
+                if (e.getBinaries().get(name) == null) {
+                    throw new NotFoundException("Binary " + name + " does not exist on entity " + entityId);
+                }
+                e.getBinaries().remove(name);
+                update(e);
+                return e;
+            }
+        });
     }
 
     @Override
@@ -387,32 +799,59 @@ public class DefaultEntityService implements EntityService {
     }
 
     @Override
-    public void deleteMetadata(String entityId, String mdName) throws IOException {
-        final Entity e = this.backendEntityService.retrieve(entityId);
-        if (e.getMetadata().get(mdName) == null) {
-            throw new NotFoundException("Meta data " + mdName + " does not exist on entity " + entityId);
-        }
-        e.getMetadata().remove(mdName);
-        this.update(e);
+    public InputStream retrieveBinary(String path, long offset, long length) throws IOException {
+        return backendBlobstoreService.retrieve(path, offset, length);
     }
 
     @Override
-    public void deleteBinaryMetadata(String entityId, String binaryName, String mdName) throws IOException {
-        final Entity e = this.backendEntityService.retrieve(entityId);
-        if (e.getBinaries() == null || !e.getBinaries().containsKey(binaryName)) {
-            throw new NotFoundException("The binary " + binaryName + " does not exist in the entity " + entityId);
-        }
-        final Binary bin = e.getBinaries().get(binaryName);
-        if (bin.getMetadata() == null || !bin.getMetadata().containsKey(mdName)) {
-            throw new NotFoundException("Meta data " + mdName + " does not exist on binary " + binaryName
-                    + " of entity " + entityId);
-        }
-        bin.getMetadata().remove(mdName);
-        this.update(e);
+    public Path retrieveBinaryFile(String path) throws IOException {
+        return backendBlobstoreService.retrieveFile(path);
     }
 
     @Override
-    public void createIdentifier(String entityId, String type, String value) throws IOException {
+    public void deleteMetadata(final String entityId, final String mdName) throws IOException {
+        retryOnConflict(entityId, new EntityOperation() {
+
+            @Override
+            public Entity execute() throws IOException {
+                final Entity e = backendEntityService.retrieve(entityId);
+                if (e.getMetadata().get(mdName) == null) {
+                    throw new NotFoundException("Meta data " + mdName + " does not exist on entity " + entityId);
+                }
+                e.getMetadata().remove(mdName);
+                update(e);
+                return e;
+            }
+        });
+    }
+
+    @Override
+    public void deleteBinaryMetadata(final String entityId, final String binaryName, final String mdName)
+            throws IOException {
+        retryOnConflict(entityId, new EntityOperation() {
+
+            @Override
+            public Entity execute() throws IOException {
+                final Entity e = backendEntityService.retrieve(entityId);
+                if (e.getBinaries() == null || !e.getBinaries().containsKey(binaryName)) {
+                    throw new NotFoundException("The binary " + binaryName + " does not exist in the entity "
+                            + entityId);
+                }
+                final Binary bin = e.getBinaries().get(binaryName);
+                if (bin.getMetadata() == null || !bin.getMetadata().containsKey(mdName)) {
+                    throw new NotFoundException("Meta data " + mdName + " does not exist on binary " + binaryName
+                            + " of entity " + entityId);
+                }
+                bin.getMetadata().remove(mdName);
+                update(e);
+                return e;
+            }
+        });
+    }
+
+    @Override
+    public void createIdentifier(final String entityId, final String type, final String value)
+            throws IOException {
         if (!this.backendEntityService.exists(entityId)) {
             throw new NotFoundException("The entity-id " + entityId + " does not exist in the repository");
         }
@@ -424,19 +863,25 @@ public class DefaultEntityService implements EntityService {
         } catch (IllegalArgumentException e) {
             throw new InvalidParameterException("wrong type given");
         }
-        final Entity oldVersion = this.backendEntityService.retrieve(entityId);
-        this.backendVersionService.addOldVersion(oldVersion);
-        final String now = ZonedDateTime.now(ZoneOffset.UTC).toString();
-        final Entity newVersion = oldVersion;
-        newVersion.setUtcLastModified(now);
-        newVersion.setVersionAndResetState(oldVersion.getVersion() + 1);
-        newVersion.getAlternativeIdentifiers().add(new AlternativeIdentifier(type, value));
+        retryOnConflict(entityId, new EntityOperation() {
 
-        this.backendEntityService.update(newVersion);
+            @Override
+            public Entity execute() throws IOException {
+                final Entity newVersion = backendEntityService.retrieve(entityId);
+                final Entity oldVersion = copyEntity(newVersion);
+                newVersion.getAlternativeIdentifiers().add(new AlternativeIdentifier(type, value));
+                final Map<String, Object> fields = new HashMap<>();
+                fields.put("alternativeIdentifiers", newVersion.getAlternativeIdentifiers());
+                updateFields(newVersion, fields);
+                backendVersionService.addOldVersion(oldVersion);
+                return newVersion;
+            }
+        });
     }
 
     @Override
-    public void deleteIdentifier(String entityId, String type, String value) throws IOException {
+    public void deleteIdentifier(final String entityId, final String type, final String value)
+            throws IOException {
         if (!this.backendEntityService.exists(entityId)) {
             throw new NotFoundException("The entity-id " + entityId + " does not exist in the repository");
         }
@@ -448,35 +893,56 @@ public class DefaultEntityService implements EntityService {
         } catch (IllegalArgumentException e) {
             throw new InvalidParameterException("wrong type given");
         }
-        final Entity oldVersion = this.backendEntityService.retrieve(entityId);
-        this.backendVersionService.addOldVersion(oldVersion);
-        final String now = ZonedDateTime.now(ZoneOffset.UTC).toString();
-        final Entity newVersion = oldVersion;
-        newVersion.setUtcLastModified(now);
-        newVersion.setVersionAndResetState(oldVersion.getVersion() + 1);
-        boolean found = false;
-        for (AlternativeIdentifier alternativeIdentifier : newVersion.getAlternativeIdentifiers()) {
-            if (alternativeIdentifier.getType().equals(type) && alternativeIdentifier.getValue().equals(value)) {
-                found = true;
-                newVersion.getAlternativeIdentifiers().remove(alternativeIdentifier);
-                break;
-            }
-        }
-        if (!found) {
-            throw new NotFoundException("Identifier of type " + type + " with value " + value + " not found");
-        }
+        retryOnConflict(entityId, new EntityOperation() {
 
-        this.backendEntityService.update(newVersion);
+            @Override
+            public Entity execute() throws IOException {
+                final Entity oldVersion = backendEntityService.retrieve(entityId);
+                boolean found = false;
+                for (AlternativeIdentifier alternativeIdentifier : oldVersion.getAlternativeIdentifiers()) {
+                    if (alternativeIdentifier.getType().equals(type)
+                            && alternativeIdentifier.getValue().equals(value)) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    throw new NotFoundException("Identifier of type " + type + " with value " + value
+                            + " not found");
+                }
+                final Entity newVersion = copyEntity(oldVersion);
+                for (AlternativeIdentifier alternativeIdentifier : newVersion.getAlternativeIdentifiers()) {
+                    if (alternativeIdentifier.getType().equals(type)
+                            && alternativeIdentifier.getValue().equals(value)) {
+                        newVersion.getAlternativeIdentifiers().remove(alternativeIdentifier);
+                        break;
+                    }
+                }
+                final Map<String, Object> fields = new HashMap<>();
+                fields.put("alternativeIdentifiers", newVersion.getAlternativeIdentifiers());
+                updateFields(newVersion, fields);
+                backendVersionService.addOldVersion(oldVersion);
+                return newVersion;
+            }
+        });
     }
 
     @Override
-    public String publish(String id) throws IOException {
-        final Entity e = this.backendEntityService.retrieve(id);
-        // if (e.getState().equals(Entity.STATE_PUBLISHED)) {
-        // throw new IOException("The entity with the id " + id + " is already published");
-        // }
-        e.setState(Entity.STATE_PUBLISHED);
-        this.backendEntityService.update(e);
+    public String publish(final String id) throws IOException {
+        final Entity e = retryOnConflict(id, new EntityOperation() {
+
+            @Override
+            public Entity execute() throws IOException {
+                final Entity e = backendEntityService.retrieve(id);
+                // if (e.getState().equals(Entity.STATE_PUBLISHED)) {
+                // throw new IOException("The entity with the id " + id + " is already published");
+                // }
+                e.setState(Entity.STATE_PUBLISHED);
+                backendEntityService.updateFields(id, e.getDocumentVersion(),
+                        Collections.<String, Object> singletonMap("state", e.getState()));
+                return e;
+            }
+        });
         return this.backendPublishService.publish(e);
     }
 
@@ -490,23 +956,179 @@ public class DefaultEntityService implements EntityService {
         backendAuditService.create(auditRecord);
     }
 
+    @Override
+    public void createAuditRecords(List<AuditRecord> auditRecords) throws IOException {
+        backendAuditService.create(auditRecords);
+    }
+
     @Override
     public SearchResult scanIndex(int offset) throws IOException {
-        return backendEntityService.scanIndex(offset);
+        if (!searchResultCache.isEnabled()) {
+            return backendEntityService.scanIndex(offset);
+        }
+        final String key = SearchResultCache.scanKey(backendEntityService.getWriteGeneration(), offset, -1);
+        SearchResult result = searchResultCache.get(key);
+        if (result == null) {
+            final long generation = searchResultCache.getGeneration();
+            result = backendEntityService.scanIndex(offset);
+            searchResultCache.put(key, result, generation);
+        }
+        return result;
     }
 
     @Override
     public SearchResult scanIndex(int offset, int numRecords) throws IOException {
-        return backendEntityService.scanIndex(offset, numRecords);
+        if (!searchResultCache.isEnabled()) {
+            return backendEntityService.scanIndex(offset, numRecords);
+        }
+        final String key =
+                SearchResultCache.scanKey(backendEntityService.getWriteGeneration(), offset, numRecords);
+        SearchResult result = searchResultCache.get(key);
+        if (result == null) {
+            final long generation = searchResultCache.getGeneration();
+            result = backendEntityService.scanIndex(offset, numRecords);
+            searchResultCache.put(key, result, generation);
+        }
+        return result;
+    }
+
+    @Override
+    public SearchResult browse(String cursor, int numRecords) throws IOException {
+        if (!searchResultCache.isEnabled()) {
+            return backendEntityService.browse(cursor, numRecords);
+        }
+        final String key =
+                SearchResultCache.browseKey(backendEntityService.getWriteGeneration(), cursor, numRecords);
+        SearchResult result = searchResultCache.get(key);
+        if (result == null) {
+            final long generation = searchResultCache.getGeneration();
+            result = backendEntityService.browse(cursor, numRecords);
+            searchResultCache.put(key, result, generation);
+        }
+        return result;
     }
 
     @Override
     public SearchResult searchEntities(Map<EntitiesSearchField, String[]> searchFields) throws IOException {
-        return backendEntityService.searchEntities(searchFields);
+        return this.searchEntities(searchFields, EnumSet.noneOf(EntitiesAggregation.class), null);
+    }
+
+    @Override
+    public SearchResult searchEntities(Map<EntitiesSearchField, String[]> searchFields,
+            Set<EntitiesAggregation> aggregations, String interval) throws IOException {
+        final Map<EntitiesSearchField, String[]> normalized = normalizeSearchFields(searchFields);
+        if (!searchResultCache.isEnabled()) {
+            return backendEntityService.searchEntities(normalized, aggregations, interval);
+        }
+        /* the write generation has to be read before searching, so that later writes do not hit this entry */
+        final String key =
+                SearchResultCache.searchKey(backendEntityService.getWriteGeneration(), normalized, aggregations,
+                        interval);
+        SearchResult result = searchResultCache.get(key);
+        if (result == null) {
+            final long generation = searchResultCache.getGeneration();
+            result = backendEntityService.searchEntities(normalized, aggregations, interval);
+            searchResultCache.put(key, result, generation);
+        }
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<SearchResult> searchEntitiesAsync(Map<EntitiesSearchField, String[]> searchFields,
+            Set<EntitiesAggregation> aggregations, String interval) {
+        final Map<EntitiesSearchField, String[]> normalized = normalizeSearchFields(searchFields);
+        if (!searchResultCache.isEnabled()) {
+            return backendEntityService.searchEntitiesAsync(normalized, aggregations, interval);
+        }
+        final String key =
+                SearchResultCache.searchKey(backendEntityService.getWriteGeneration(), normalized, aggregations,
+                        interval);
+        final SearchResult cached = searchResultCache.get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        final long generation = searchResultCache.getGeneration();
+        return backendEntityService.searchEntitiesAsync(normalized, aggregations, interval).thenApply(
+                new Function<SearchResult, SearchResult>() {
+
+                    @Override
+                    public SearchResult apply(SearchResult result) {
+                        searchResultCache.put(key, result, generation);
+                        return result;
+                    }
+                });
+    }
+
+    /**
+     * Trim the terms of a search and drop blank and duplicate ones, so that the cache key and the query sent to the
+     * backend are created from the same terms
+     * 
+     * @param searchFields the terms to search for keyed by the field
+     * @return the normalized terms, containing only fields with at least one term
+     */
+    private static Map<EntitiesSearchField, String[]> normalizeSearchFields(
+            Map<EntitiesSearchField, String[]> searchFields) {
+        final Map<EntitiesSearchField, String[]> normalized = new EnumMap<>(EntitiesSearchField.class);
+        for (final Map.Entry<EntitiesSearchField, String[]> field : searchFields.entrySet()) {
+            if (field.getValue() == null) {
+                continue;
+            }
+            final Set<String> terms = new LinkedHashSet<>();
+            for (final String value : field.getValue()) {
+                if (StringUtils.isNotBlank(value)) {
+                    terms.add(value.trim());
+                }
+            }
+            if (!terms.isEmpty()) {
+                normalized.put(field.getKey(), terms.toArray(new String[terms.size()]));
+            }
+        }
+        return normalized;
     }
 
     @Override
     public Entities getOldVersions(String id) throws IOException {
         return backendVersionService.getOldVersions(id);
     }
+
+    @Override
+    public Entities retrieveVersions(String id, int offset, int numRecords) throws IOException {
+        this.checkPage(offset, numRecords);
+        if (offset > 0) {
+            // the current version takes the first position of the first page
+            return backendVersionService.getOldVersions(id, offset - 1, numRecords);
+        }
+        final Entity current = this.retrieve(id);
+        final Entities entities =
+                numRecords > 1 ? backendVersionService.getOldVersions(id, 0, numRecords - 1) : new Entities();
+        entities.getEntities().add(0, current);
+        return entities;
+    }
+
+    @Override
+    public Versions retrieveVersionSummaries(String id, int offset, int numRecords) throws IOException {
+        this.checkPage(offset, numRecords);
+        if (!this.backendEntityService.exists(id)) {
+            throw new NotFoundException("entity with id " + id + " not found");
+        }
+        return backendVersionService.getVersions(id, offset, numRecords);
+    }
+
+    private void checkPage(int offset, int numRecords) throws InvalidParameterException {
+        if (offset < 0) {
+            throw new InvalidParameterException("The offset must not be negative");
+        }
+        if (numRecords < 1) {
+            throw new InvalidParameterException("The number of versions has to be greater than zero");
+        }
+    }
+
+    /**
+     * An operation reading, modifying and writing an {@link net.objecthunter.larch.model.Entity} which can safely be
+     * repeated on a newer state of the Entity
+     */
+    private interface EntityOperation {
+
+        Entity execute() throws IOException;
+    }
 }
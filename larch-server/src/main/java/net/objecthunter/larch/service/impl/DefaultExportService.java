@@ -22,25 +22,44 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.List;
 
 import javax.annotation.PostConstruct;
 
+import net.objecthunter.larch.model.AuditRecord;
 import net.objecthunter.larch.model.Entity;
 import net.objecthunter.larch.service.ExportService;
+import net.objecthunter.larch.service.backend.BackendAuditService;
+import net.objecthunter.larch.service.backend.BackendEntityService;
+import net.objecthunter.larch.service.backend.BackendEntityService.EntityHandler;
+import net.objecthunter.larch.service.backend.BackendVersionService;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.env.Environment;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * Default implementation of a {@link net.objecthunter.larch.service.ExportService} which is able to export JSON data
- * to the File system
+ * to the File system and to stream the whole repository
  */
 public class DefaultExportService implements ExportService {
 
+    /* the number of audit records fetched per request, which must not exceed the audit service's maximum */
+    private static final int AUDIT_PAGE_SIZE = 50;
+
     private File directory;
 
+    @Autowired
+    private BackendEntityService backendEntityService;
+
+    @Autowired
+    private BackendVersionService backendVersionService;
+
+    @Autowired
+    private BackendAuditService backendAuditService;
+
     @Autowired
     private ObjectMapper mapper;
 
@@ -60,4 +79,40 @@ public class DefaultExportService implements ExportService {
             mapper.writeValue(sink, e);
         }
     }
+
+    @Override
+    public void exportEntities(final OutputStream sink, final String modifiedSince, final boolean withVersions,
+            final boolean withAuditRecords) throws IOException {
+        final JsonGenerator generator = mapper.getFactory().createGenerator(sink);
+        /* the lines are separated explicitly instead of separating the root values by a space */
+        generator.setRootValueSeparator(null);
+        this.backendEntityService.scanEntities(modifiedSince, new EntityHandler() {
+
+            @Override
+            public void handle(Entity e) throws IOException {
+                generator.writeStartObject();
+                generator.writeObjectField("entity", e);
+                if (withVersions) {
+                    generator.writeObjectField("versions", backendVersionService.getOldVersions(e.getId())
+                            .getEntities());
+                }
+                if (withAuditRecords) {
+                    generator.writeArrayFieldStart("auditRecords");
+                    int offset = 0;
+                    List<AuditRecord> page;
+                    do {
+                        page = backendAuditService.retrieve(e.getId(), offset, AUDIT_PAGE_SIZE);
+                        for (final AuditRecord rec : page) {
+                            generator.writeObject(rec);
+                        }
+                        offset += page.size();
+                    } while (page.size() == AUDIT_PAGE_SIZE);
+                    generator.writeEndArray();
+                }
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+            }
+        });
+        generator.flush();
+    }
 }
@@ -16,9 +16,12 @@
 
 package net.objecthunter.larch.service.impl;
 
+import java.util.List;
+
 import javax.annotation.PostConstruct;
 import javax.jms.JMSException;
 import javax.jms.Message;
+import javax.jms.MessageProducer;
 import javax.jms.Session;
 
 import net.objecthunter.larch.service.MessagingService;
@@ -29,6 +32,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.env.Environment;
 import org.springframework.jms.core.JmsTemplate;
 import org.springframework.jms.core.MessageCreator;
+import org.springframework.jms.core.ProducerCallback;
 
 public class DefaultMessagingService implements MessagingService {
 
@@ -69,6 +73,24 @@ public class DefaultMessagingService implements MessagingService {
         this.publish("Created entity " + entityId);
     }
 
+    @Override
+    public void publishCreateEntities(final List<String> entityIds) {
+        if (!enabled || entityIds.isEmpty()) {
+            return;
+        }
+        // send all the messages using a single session and producer instead of one per message
+        this.template.execute(new ProducerCallback<Void>() {
+
+            @Override
+            public Void doInJms(Session session, MessageProducer producer) throws JMSException {
+                for (final String entityId : entityIds) {
+                    producer.send(session.createTextMessage("Created entity " + entityId));
+                }
+                return null;
+            }
+        });
+    }
+
     @Override
     public void publishUpdateEntity(String entityId) {
         this.publish("Update entity " + entityId);
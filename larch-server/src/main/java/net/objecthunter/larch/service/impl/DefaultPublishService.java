@@ -75,6 +75,11 @@ public class DefaultPublishService implements PublishService {
         return backendPublishService.scanIndex(offset, numRecords);
     }
 
+    @Override
+    public SearchResult browse(String cursor, int numRecords) throws IOException {
+        return backendPublishService.browse(cursor, numRecords);
+    }
+
     @Override
     public SearchResult searchEntities(Map<EntitiesSearchField, String[]> searchFields) throws IOException {
         return backendPublishService.searchEntities(searchFields);
@@ -18,6 +18,8 @@ package net.objecthunter.larch.service.impl;
 
 import java.io.IOException;
 
+import net.objecthunter.larch.cache.EntityCache;
+import net.objecthunter.larch.cache.SearchResultCache;
 import net.objecthunter.larch.model.Describe;
 import net.objecthunter.larch.model.state.LarchState;
 import net.objecthunter.larch.service.RepositoryService;
@@ -48,6 +50,12 @@ public class DefaultRepositoryService implements RepositoryService {
     @Autowired
     private Environment env;
 
+    @Autowired
+    private EntityCache entityCache;
+
+    @Autowired
+    private SearchResultCache searchResultCache;
+
     @Autowired
     private Client client;
 
@@ -57,6 +65,8 @@ public class DefaultRepositoryService implements RepositoryService {
         final LarchState state = new LarchState();
         state.setBlobstoreState(backendBlobstoreService.status());
         state.setIndexState(backendEntityService.status());
+        state.getCacheStates().add(entityCache.getState());
+        state.getCacheStates().add(searchResultCache.getState());
         return state;
     }
 
@@ -0,0 +1,361 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+
+package net.objecthunter.larch.service.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import net.objecthunter.larch.exceptions.ConflictException;
+import net.objecthunter.larch.exceptions.InvalidParameterException;
+import net.objecthunter.larch.exceptions.NotFoundException;
+import net.objecthunter.larch.model.UploadSession;
+import net.objecthunter.larch.service.EntityService;
+import net.objecthunter.larch.service.UploadService;
+import net.objecthunter.larch.service.backend.BackendBlobstoreService;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+
+/**
+ * Default implementation of a {@link net.objecthunter.larch.service.UploadService}. The chunks are written directly
+ * into the upload staging area of the {@link net.objecthunter.larch.service.backend.BackendBlobstoreService}, while
+ * the sessions and their received ranges are kept in memory. Sessions which have not been written to for
+ * <code>larch.upload.expiry.hours</code> are discarded together with their content. Since the sessions do not
+ * survive a restart, the uploads left in the staging area are discarded on startup, and uploads not belonging to any
+ * session are swept together with the expired sessions.
+ */
+public class DefaultUploadService implements UploadService {
+
+    private static final Logger log = LoggerFactory.getLogger(DefaultUploadService.class);
+
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+
+    private long expiryHours = 24;
+
+    private ScheduledExecutorService expiry;
+
+    @Autowired
+    private BackendBlobstoreService backendBlobstoreService;
+
+    @Autowired
+    private EntityService entityService;
+
+    @Autowired
+    private Environment env;
+
+    @PostConstruct
+    public void init() {
+        expiryHours = Long.parseLong(env.getProperty("larch.upload.expiry.hours", String.valueOf(expiryHours)));
+        // no session refers to the uploads of a previous run
+        discardOrphanedUploads(System.currentTimeMillis());
+        if (expiryHours > 0) {
+            this.expiry = Executors.newSingleThreadScheduledExecutor();
+            this.expiry.scheduleWithFixedDelay(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        expireSessions();
+                    } catch (RuntimeException e) {
+                        log.error("unable to discard expired upload sessions", e);
+                    }
+                }
+            }, 1, 1, TimeUnit.HOURS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (this.expiry != null) {
+            this.expiry.shutdownNow();
+        }
+    }
+
+    @Override
+    public UploadSession createSession(String entityId, String name, String mimetype, long size)
+            throws IOException {
+        if (StringUtils.isBlank(name)) {
+            throw new InvalidParameterException("The name of the binary is missing");
+        }
+        if (size < 0) {
+            throw new InvalidParameterException("The size of the binary must not be negative");
+        }
+        // fail early if the entity does not exist
+        entityService.retrieve(entityId);
+        final String now = ZonedDateTime.now(ZoneOffset.UTC).toString();
+        final UploadSession session = new UploadSession();
+        session.setId(UUID.randomUUID().toString());
+        session.setEntityId(entityId);
+        session.setName(name);
+        session.setMimetype(mimetype);
+        session.setSize(size);
+        session.setUtcCreated(now);
+        session.setUtcLastModified(now);
+        final Upload upload = new Upload(session, backendBlobstoreService.createUpload(size));
+        this.uploads.put(session.getId(), upload);
+        log.debug("created upload session {} for binary {} of entity {}", session.getId(), name, entityId);
+        synchronized (upload) {
+            return upload.toSession();
+        }
+    }
+
+    @Override
+    public UploadSession retrieveSession(String id) throws IOException {
+        final Upload upload = getUpload(id);
+        synchronized (upload) {
+            return upload.toSession();
+        }
+    }
+
+    @Override
+    public UploadSession writeChunk(String id, long offset, InputStream src) throws IOException {
+        final Upload upload = getUpload(id);
+        final long size = upload.session.getSize();
+        if (offset < 0 || offset > size) {
+            throw new InvalidParameterException("The offset " + offset + " lies outside of the binary's size "
+                    + size);
+        }
+        synchronized (upload) {
+            if (upload.closed) {
+                throw new ConflictException("The upload session " + id + " has been closed");
+            }
+            if (upload.committed) {
+                throw new ConflictException("The upload session " + id
+                        + " has already been committed, only the commit can be repeated");
+            }
+            upload.writers++;
+        }
+        try {
+            final long written =
+                    backendBlobstoreService.writeUpload(upload.path, offset, new BoundedInputStream(src, size
+                            - offset));
+            if (src.read() != -1) {
+                throw new InvalidParameterException("The chunk at offset " + offset
+                        + " exceeds the binary's size of " + size + " bytes");
+            }
+            synchronized (upload) {
+                upload.addRange(offset, offset + written);
+                return upload.toSession();
+            }
+        } finally {
+            synchronized (upload) {
+                upload.writers--;
+            }
+        }
+    }
+
+    @Override
+    public UploadSession commit(String id) throws IOException {
+        final Upload upload = getUpload(id);
+        final UploadSession session;
+        synchronized (upload) {
+            if (upload.closed) {
+                throw new ConflictException("The upload session " + id + " has been closed");
+            }
+            if (upload.writers > 0) {
+                throw new ConflictException("Chunks of the upload session " + id + " are still being written");
+            }
+            if (!upload.isComplete()) {
+                throw new ConflictException("The upload session " + id + " is missing parts of the binary");
+            }
+            upload.closed = true;
+            // the blob store may share the upload's content with the new blob, so it must not change anymore
+            upload.committed = true;
+            session = upload.toSession();
+        }
+        try {
+            entityService.createBinaryFromUpload(session.getEntityId(), session.getName(), session.getMimetype(),
+                    upload.path, session.getSize());
+        } catch (IOException | RuntimeException e) {
+            // the upload is kept by the blob store, so the session can be committed again, but not written to
+            synchronized (upload) {
+                upload.closed = false;
+            }
+            throw e;
+        }
+        this.uploads.remove(id);
+        try {
+            backendBlobstoreService.deleteUpload(upload.path);
+        } catch (IOException e) {
+            log.warn("unable to delete the content of the committed upload session {}", id);
+        }
+        log.debug("committed upload session {} as binary {} of entity {}", id, session.getName(), session
+                .getEntityId());
+        return session;
+    }
+
+    @Override
+    public void abort(String id) throws IOException {
+        final Upload upload = getUpload(id);
+        synchronized (upload) {
+            if (upload.closed) {
+                throw new ConflictException("The upload session " + id + " has been closed");
+            }
+            upload.closed = true;
+        }
+        this.uploads.remove(id);
+        backendBlobstoreService.deleteUpload(upload.path);
+    }
+
+    /**
+     * Discard the sessions which have not been written to for <code>larch.upload.expiry.hours</code>
+     */
+    public void expireSessions() {
+        final long cutoff = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(expiryHours);
+        final Iterator<Upload> it = this.uploads.values().iterator();
+        while (it.hasNext()) {
+            final Upload upload = it.next();
+            synchronized (upload) {
+                if (upload.closed || upload.writers > 0 || upload.lastModified > cutoff) {
+                    continue;
+                }
+                upload.closed = true;
+            }
+            it.remove();
+            log.info("discarding expired upload session {}", upload.session.getId());
+            try {
+                backendBlobstoreService.deleteUpload(upload.path);
+            } catch (IOException e) {
+                log.warn("unable to delete the content of the expired upload session {}", upload.session.getId());
+            }
+        }
+        discardOrphanedUploads(cutoff);
+    }
+
+    /* delete the uploads which have not been written to since the given time and do not belong to a session */
+    private void discardOrphanedUploads(long modifiedBefore) {
+        final List<String> orphaned;
+        try {
+            orphaned = backendBlobstoreService.listUploads(modifiedBefore);
+        } catch (IOException e) {
+            log.warn("unable to list the uploads in the staging area", e);
+            return;
+        }
+        for (final Upload upload : this.uploads.values()) {
+            orphaned.remove(upload.path);
+        }
+        for (final String path : orphaned) {
+            log.info("discarding orphaned upload {}", path);
+            try {
+                backendBlobstoreService.deleteUpload(path);
+            } catch (IOException e) {
+                log.warn("unable to delete the orphaned upload {}", path);
+            }
+        }
+    }
+
+    private Upload getUpload(String id) throws NotFoundException {
+        final Upload upload = this.uploads.get(id);
+        if (upload == null) {
+            throw new NotFoundException("The upload session " + id + " does not exist");
+        }
+        return upload;
+    }
+
+    /* the state of a session, guarded by the instance's monitor */
+    private static class Upload {
+
+        private final UploadSession session;
+
+        private final String path;
+
+        /* the received ranges mapping their first position to the position after their last byte */
+        private final TreeMap<Long, Long> ranges = new TreeMap<>();
+
+        private long lastModified = System.currentTimeMillis();
+
+        private int writers;
+
+        private boolean closed;
+
+        /* set on the first commit attempt, after which no more chunks are accepted */
+        private boolean committed;
+
+        private Upload(UploadSession session, String path) {
+            this.session = session;
+            this.path = path;
+        }
+
+        private void addRange(long start, long end) {
+            lastModified = System.currentTimeMillis();
+            session.setUtcLastModified(ZonedDateTime.now(ZoneOffset.UTC).toString());
+            if (start == end) {
+                return;
+            }
+            // merge the new range with the adjacent and overlapping ranges
+            final Map.Entry<Long, Long> previous = ranges.floorEntry(start);
+            if (previous != null && previous.getValue() >= start) {
+                start = previous.getKey();
+                end = Math.max(end, previous.getValue());
+            }
+            Map.Entry<Long, Long> next;
+            while ((next = ranges.ceilingEntry(start)) != null && next.getKey() <= end) {
+                end = Math.max(end, next.getValue());
+                ranges.remove(next.getKey());
+            }
+            ranges.put(start, end);
+        }
+
+        private boolean isComplete() {
+            if (session.getSize() == 0) {
+                return true;
+            }
+            return ranges.size() == 1 && ranges.firstKey() == 0 && ranges.firstEntry().getValue() == session
+                    .getSize();
+        }
+
+        private UploadSession toSession() {
+            final UploadSession copy = new UploadSession();
+            copy.setId(session.getId());
+            copy.setEntityId(session.getEntityId());
+            copy.setName(session.getName());
+            copy.setMimetype(session.getMimetype());
+            copy.setSize(session.getSize());
+            copy.setUtcCreated(session.getUtcCreated());
+            copy.setUtcLastModified(session.getUtcLastModified());
+            final List<String> received = new ArrayList<>(ranges.size());
+            long receivedSize = 0;
+            for (final Map.Entry<Long, Long> range : ranges.entrySet()) {
+                received.add(range.getKey() + "-" + (range.getValue() - 1));
+                receivedSize += range.getValue() - range.getKey();
+            }
+            copy.setReceivedRanges(received);
+            copy.setReceivedSize(receivedSize);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package net.objecthunter.larch.service.impl;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import javax.annotation.PostConstruct;
+
+import net.objecthunter.larch.service.IdGenerator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+
+/**
+ * An {@link net.objecthunter.larch.service.IdGenerator} implementation creating k-sorted ids. Each id consists of a
+ * 41 bit timestamp in milliseconds, a 10 bit node id and a 12 bit sequence number and is encoded as a 16 character
+ * hex string, so that the lexical order of the ids matches the order of their creation. The node id is read from
+ * the property <code>larch.id.node</code> and has to be distinct for every larch instance sharing an index.
+ */
+public class TimeBasedIdGenerator implements IdGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(TimeBasedIdGenerator.class);
+
+    /* 2014-01-01T00:00:00Z, allows for ids until the year 2083 */
+    private static final long EPOCH = 1388534400000L;
+
+    private static final int NODE_BITS = 10;
+
+    private static final int SEQUENCE_BITS = 12;
+
+    private static final long MAX_NODE = (1L << NODE_BITS) - 1;
+
+    private static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+
+    @Autowired
+    private Environment env;
+
+    private long node;
+
+    private long lastTimestamp = -1;
+
+    private long sequence;
+
+    @PostConstruct
+    public void init() {
+        final String val = env.getProperty("larch.id.node");
+        if (val == null || val.isEmpty()) {
+            node = defaultNode();
+            log.warn("No node id set in larch.id.node, using {} derived from the host name", node);
+        } else {
+            node = Long.parseLong(val);
+        }
+        if (node < 0 || node > MAX_NODE) {
+            throw new IllegalArgumentException("The node id in larch.id.node has to be between 0 and " + MAX_NODE);
+        }
+    }
+
+    @Override
+    public synchronized String generateId() {
+        long timestamp = Math.max(System.currentTimeMillis() - EPOCH, lastTimestamp);
+        if (timestamp == lastTimestamp) {
+            sequence = (sequence + 1) & MAX_SEQUENCE;
+            if (sequence == 0) {
+                // the sequence for this millisecond is exhausted, so borrow the next one
+                timestamp++;
+            }
+        } else {
+            sequence = 0;
+        }
+        lastTimestamp = timestamp;
+        final long id = (timestamp << (NODE_BITS + SEQUENCE_BITS)) | (node << SEQUENCE_BITS) | sequence;
+        return String.format("%016x", id);
+    }
+
+    private static long defaultNode() {
+        try {
+            return InetAddress.getLocalHost().getHostName().hashCode() & MAX_NODE;
+        } catch (UnknownHostException e) {
+            return 0;
+        }
+    }
+}
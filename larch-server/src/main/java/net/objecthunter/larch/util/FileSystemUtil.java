@@ -18,6 +18,15 @@ package net.objecthunter.larch.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,6 +38,8 @@ public abstract class FileSystemUtil {
 
     private static final Logger log = LoggerFactory.getLogger(FileSystemUtil.class);
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     /**
      * Check if a directory on the file system exists and create it if it does not
      * 
@@ -47,4 +58,52 @@ public abstract class FileSystemUtil {
         }
     }
 
+    /**
+     * Write the contents of an {@link java.io.InputStream} into an existing file starting at the given position.
+     * Several streams can be written into distinct regions of the same file concurrently
+     * 
+     * @param file the file to write to
+     * @param offset the position in the file at which the first byte is written
+     * @param src the data to write
+     * @return the number of bytes written
+     * @throws IOException
+     */
+    public static long writeAt(Path file, long offset, InputStream src) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = offset;
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            int read;
+            while ((read = src.read(buffer.array())) != -1) {
+                buffer.limit(read);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                buffer.clear();
+            }
+        }
+        return position - offset;
+    }
+
+    /**
+     * List the names of the files in a directory which have not been modified since the given time
+     * 
+     * @param dir the directory to list, which may not exist yet
+     * @param modifiedBefore the time in milliseconds since the epoch
+     * @return the names of the files
+     * @throws IOException
+     */
+    public static List<String> listFilesModifiedBefore(Path dir, long modifiedBefore) throws IOException {
+        final List<String> names = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return names;
+        }
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (final Path file : files) {
+                if (Files.isRegularFile(file) && Files.getLastModifiedTime(file).toMillis() < modifiedBefore) {
+                    names.add(file.getFileName().toString());
+                }
+            }
+        }
+        return names;
+    }
 }
@@ -22,8 +22,10 @@ import java.util.Date;
 import javax.servlet.http.HttpServletRequest;
 
 import net.objecthunter.larch.exceptions.AlreadyExistsException;
+import net.objecthunter.larch.exceptions.ConflictException;
 import net.objecthunter.larch.exceptions.InvalidParameterException;
 import net.objecthunter.larch.exceptions.NotFoundException;
+import net.objecthunter.larch.exceptions.PreconditionFailedException;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -74,13 +76,21 @@ public class LarchExceptionHandler {
     }
 
     @ResponseStatus(value = HttpStatus.CONFLICT)
-    @ExceptionHandler({ AlreadyExistsException.class })
+    @ExceptionHandler({ AlreadyExistsException.class, ConflictException.class })
     @ResponseBody
     public Object alreadyExistsRequestExceptionHandler(HttpServletRequest req, Exception e)
             throws Exception {
         return handleException(req, e, HttpStatus.CONFLICT);
     }
 
+    @ResponseStatus(value = HttpStatus.PRECONDITION_FAILED)
+    @ExceptionHandler({ PreconditionFailedException.class })
+    @ResponseBody
+    public Object preconditionFailedRequestExceptionHandler(HttpServletRequest req, Exception e)
+            throws Exception {
+        return handleException(req, e, HttpStatus.PRECONDITION_FAILED);
+    }
+
     /**
      * Convert Exception either to a JSON-String or to a ModelAndView, depending on Accept-Header of request.
      * 
@@ -0,0 +1,141 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package net.objecthunter.larch.bench;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import net.objecthunter.larch.model.Entity;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.index.query.MatchQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.NodeBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares the latency of the leading wildcard queries formerly used for searches with the queries on the edge
+ * n-gram sub fields of the entities index. A local node is started in a temporary directory and filled with
+ * entities having random labels and tags, then the same prefixes are searched using both query types. Run with
+ * <code>java -cp ... net.objecthunter.larch.bench.SearchQueryBenchmark [entities]</code>
+ */
+public class SearchQueryBenchmark {
+
+    private static final String INDEX = "entities";
+
+    private static final String TYPE = "entity";
+
+    private static final int ROUNDS = 200;
+
+    private static final List<String> WORDS = Arrays.asList("archive", "biology", "chemistry", "dataset",
+            "experiment", "fieldwork", "genome", "histology", "imaging", "journal", "kinetics", "laboratory",
+            "microscopy", "neuron", "observation", "protein", "quantum", "research", "sample", "thesis");
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Random random = new Random(42);
+
+    public static void main(String[] args) throws Exception {
+        final int numEntities = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        new SearchQueryBenchmark().run(numEntities);
+    }
+
+    private void run(int numEntities) throws Exception {
+        final File dir = Files.createTempDirectory("larch-search-bench").toFile();
+        final Node node =
+                NodeBuilder.nodeBuilder().local(true).clusterName("larch-search-bench").settings(
+                        ImmutableSettings.settingsBuilder().put("path.data", dir.getAbsolutePath()).put(
+                                "http.enabled", false)).node();
+        try {
+            final Client client = node.client();
+            client.admin().indices().prepareCreate(INDEX).setSettings(resource("entities_settings.json"))
+                    .addMapping(TYPE, resource("entities_mappings.json")).execute().actionGet();
+            client.admin().cluster().prepareHealth(INDEX).setWaitForYellowStatus().execute().actionGet();
+            this.index(client, numEntities);
+            System.out.println(String.format("%d entities, %d rounds per query", numEntities, ROUNDS));
+            System.out.println(String.format("%-10s %-22s %10s %10s", "prefix", "query", "hits", "avg ms"));
+            for (final String prefix : new String[] { "a", "mic", "laborat", "neuron" }) {
+                measure(client, prefix, "wildcard *prefix*", QueryBuilders.wildcardQuery("label", "*" + prefix
+                        + "*"));
+                measure(client, prefix, "wildcard prefix*", QueryBuilders.wildcardQuery("label", prefix + "*"));
+                measure(client, prefix, "edge n-gram", QueryBuilders.matchQuery("label.prefix", prefix).operator(
+                        MatchQueryBuilder.Operator.AND));
+            }
+        } finally {
+            node.close();
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    private void index(Client client, int numEntities) throws Exception {
+        BulkRequestBuilder bulk = client.prepareBulk();
+        for (int i = 0; i < numEntities; i++) {
+            final Entity e = new Entity();
+            e.setId("entity-" + i);
+            e.setLabel(word() + " " + word() + " " + word() + " " + i);
+            e.setType(word());
+            e.setState("ingested");
+            e.setTags(Arrays.asList(word(), word()));
+            bulk.add(client.prepareIndex(INDEX, TYPE, e.getId()).setSource(mapper.writeValueAsBytes(e)));
+            if (bulk.numberOfActions() == 1000) {
+                bulk.execute().actionGet();
+                bulk = client.prepareBulk();
+            }
+        }
+        if (bulk.numberOfActions() > 0) {
+            bulk.execute().actionGet();
+        }
+        client.admin().indices().prepareRefresh(INDEX).execute().actionGet();
+        client.admin().indices().prepareOptimize(INDEX).setMaxNumSegments(1).execute().actionGet();
+    }
+
+    private void measure(Client client, String prefix, String name, QueryBuilder query) {
+        long hits = 0;
+        /* warm up the caches before measuring */
+        for (int i = 0; i < ROUNDS / 10; i++) {
+            client.prepareSearch(INDEX).setQuery(query).setSize(20).execute().actionGet();
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            hits = client.prepareSearch(INDEX).setQuery(query).setSize(20).execute().actionGet().getHits()
+                    .getTotalHits();
+        }
+        final double avg = (System.nanoTime() - start) / 1000000d / ROUNDS;
+        System.out.println(String.format("%-10s %-22s %10d %10.3f", prefix, name, hits, avg));
+    }
+
+    private String word() {
+        return WORDS.get(random.nextInt(WORDS.size()));
+    }
+
+    private String resource(String name) throws Exception {
+        try (InputStream in = SearchQueryBenchmark.class.getResourceAsStream("/elasticsearch/" + name)) {
+            return IOUtils.toString(in);
+        }
+    }
+}
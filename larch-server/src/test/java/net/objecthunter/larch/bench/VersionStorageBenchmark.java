@@ -0,0 +1,137 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package net.objecthunter.larch.bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.objecthunter.larch.json.JsonPatch;
+import net.objecthunter.larch.model.Entity;
+import net.objecthunter.larch.model.Metadata;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares the storage size and the rebuild latency of old versions stored as snapshots and JSON patch deltas for
+ * different snapshot intervals. The entity carries several large inline XML metadata records, every version changes
+ * the modification timestamp and every fifth version rewrites one of the metadata records. Run with
+ * <code>java -cp ... net.objecthunter.larch.bench.VersionStorageBenchmark [versions] [metadata size]</code>
+ */
+public class VersionStorageBenchmark {
+
+    private static final int[] SNAPSHOT_INTERVALS = { 1, 5, 10, 25, 50 };
+
+    private static final int ROUNDS = 5;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Random random = new Random(42);
+
+    public static void main(String[] args) throws Exception {
+        final int numVersions = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        final int metadataSize = args.length > 1 ? Integer.parseInt(args[1]) : 32 * 1024;
+        new VersionStorageBenchmark().run(numVersions, metadataSize);
+    }
+
+    private void run(int numVersions, int metadataSize) throws Exception {
+        final List<JsonNode> versions = this.createVersions(numVersions, metadataSize);
+        System.out.println(String.format("%d versions, 4 metadata records of %d bytes each", numVersions,
+                metadataSize));
+        System.out.println(String.format("%-10s %14s %10s %16s %16s", "interval", "stored bytes", "ratio",
+                "avg rebuild ms", "max rebuild ms"));
+        long full = 0;
+        for (final int interval : SNAPSHOT_INTERVALS) {
+            final List<byte[]> blobs = new ArrayList<>(numVersions);
+            long stored = 0;
+            for (int i = 0; i < numVersions; i++) {
+                final byte[] blob;
+                if (interval <= 1 || i % interval == 0) {
+                    blob = mapper.writeValueAsBytes(versions.get(i));
+                } else {
+                    blob = mapper.writeValueAsBytes(JsonPatch.diff(versions.get(i - 1), versions.get(i)));
+                }
+                blobs.add(blob);
+                stored += blob.length;
+            }
+            if (interval == 1) {
+                full = stored;
+            }
+            long total = 0;
+            long max = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                for (int i = 0; i < numVersions; i++) {
+                    final long start = System.nanoTime();
+                    final int snapshot = interval <= 1 ? i : i - i % interval;
+                    JsonNode doc = mapper.readTree(blobs.get(snapshot));
+                    for (int j = snapshot + 1; j <= i; j++) {
+                        doc = JsonPatch.apply(doc, mapper.readTree(blobs.get(j)));
+                    }
+                    mapper.treeToValue(doc, Entity.class);
+                    final long time = System.nanoTime() - start;
+                    // the first round warms up the JIT
+                    if (round > 0) {
+                        total += time;
+                        max = Math.max(max, time);
+                    }
+                }
+            }
+            System.out.println(String.format("%-10d %14d %10.3f %16.3f %16.3f", interval, stored,
+                    (double) stored / full, total / 1e6 / (numVersions * (ROUNDS - 1)), max / 1e6));
+        }
+    }
+
+    private List<JsonNode> createVersions(int numVersions, int metadataSize) {
+        final Entity e = new Entity();
+        e.setId("benchmark");
+        e.setLabel("Benchmark entity");
+        e.setType("Book");
+        final Map<String, Metadata> metadata = new HashMap<>();
+        for (final String name : new String[] { "DC", "MODS", "PREMIS", "METS" }) {
+            final Metadata md = new Metadata();
+            md.setName(name);
+            md.setType(name);
+            md.setMimetype("text/xml");
+            md.setData(this.createXml(metadataSize));
+            metadata.put(name, md);
+        }
+        e.setMetadata(metadata);
+        final List<JsonNode> versions = new ArrayList<>(numVersions);
+        for (int i = 1; i <= numVersions; i++) {
+            e.setVersion(i);
+            e.setUtcLastModified("2014-07-01T00:00:00." + String.format("%03d", i % 1000) + "Z");
+            if (i % 5 == 0) {
+                final Metadata md = metadata.get(i % 10 == 0 ? "MODS" : "DC");
+                md.setData(this.createXml(metadataSize));
+            }
+            versions.add(mapper.valueToTree(e));
+        }
+        return versions;
+    }
+
+    private String createXml(int size) {
+        final StringBuilder xml = new StringBuilder(size + 64).append("<record>");
+        while (xml.length() < size) {
+            xml.append("<field name=\"f").append(xml.length()).append("\">").append(random.nextLong())
+                    .append("</field>");
+        }
+        return xml.append("</record>").toString();
+    }
+}
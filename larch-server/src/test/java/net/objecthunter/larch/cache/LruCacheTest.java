@@ -0,0 +1,110 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package net.objecthunter.larch.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import net.objecthunter.larch.model.state.CacheState;
+
+import org.junit.Test;
+
+public class LruCacheTest {
+
+    @Test
+    public void testGetAndPut() throws Exception {
+        final LruCache<String, String> cache = new LruCache<>("test", 10, 0);
+        assertNull(cache.get("foo"));
+        cache.put("foo", "bar", cache.getGeneration());
+        assertEquals("bar", cache.get("foo"));
+        final CacheState state = cache.getState();
+        assertEquals("test", state.getName());
+        assertEquals(1, state.getSize());
+        assertEquals(1, state.getHits());
+        assertEquals(1, state.getMisses());
+        assertEquals(0.5d, state.getHitRatio(), 0.001d);
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        final LruCache<String, String> cache = new LruCache<>("test", 2, 0);
+        cache.put("one", "1", cache.getGeneration());
+        cache.put("two", "2", cache.getGeneration());
+        cache.get("one");
+        cache.put("three", "3", cache.getGeneration());
+        assertEquals("1", cache.get("one"));
+        assertNull(cache.get("two"));
+        assertEquals("3", cache.get("three"));
+        assertEquals(1, cache.getState().getEvictions());
+    }
+
+    @Test
+    public void testEvictByWeight() throws Exception {
+        final LruCache<String, String> cache = new LruCache<>("test", 10, 0, new LruCache.Weigher<String>() {
+
+            @Override
+            public long weigh(String value) {
+                return value.length();
+            }
+        });
+        cache.put("one", "12345", cache.getGeneration());
+        cache.put("two", "123456", cache.getGeneration());
+        assertNull(cache.get("one"));
+        assertEquals("123456", cache.get("two"));
+        cache.put("three", "12345678901", cache.getGeneration());
+        assertNull(cache.get("three"));
+        assertEquals(6, cache.getState().getSize());
+    }
+
+    @Test
+    public void testExpire() throws Exception {
+        final LruCache<String, String> cache = new LruCache<>("test", 10, 1);
+        cache.put("foo", "bar", cache.getGeneration());
+        Thread.sleep(10);
+        assertNull(cache.get("foo"));
+        assertEquals(0, cache.getState().getSize());
+    }
+
+    @Test
+    public void testRejectStalePut() throws Exception {
+        final LruCache<String, String> cache = new LruCache<>("test", 10, 0);
+        final long generation = cache.getGeneration();
+        cache.invalidate("foo");
+        cache.put("foo", "stale", generation);
+        assertNull(cache.get("foo"));
+        cache.put("bar", "bar", generation);
+        assertEquals("bar", cache.get("bar"));
+        cache.put("foo", "fresh", cache.getGeneration());
+        assertEquals("fresh", cache.get("foo"));
+    }
+
+    @Test
+    public void testRejectStalePutAfterInvalidateAll() throws Exception {
+        final LruCache<String, String> cache = new LruCache<>("test", 10, 0);
+        final long generation = cache.getGeneration();
+        cache.invalidateAll();
+        cache.put("foo", "stale", generation);
+        assertNull(cache.get("foo"));
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        final LruCache<String, String> cache = new LruCache<>("test", 0, 0);
+        cache.put("foo", "bar", cache.getGeneration());
+        assertNull(cache.get("foo"));
+    }
+}
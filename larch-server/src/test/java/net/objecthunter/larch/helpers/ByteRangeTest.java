@@ -0,0 +1,57 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+
+package net.objecthunter.larch.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class ByteRangeTest {
+
+    @Test
+    public void testParse() throws Exception {
+        final List<ByteRange> ranges = ByteRange.parse("bytes=0-9, 90-, -5,95-200", 100);
+        assertEquals(4, ranges.size());
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(10, ranges.get(0).getLength());
+        assertEquals(90, ranges.get(1).getStart());
+        assertEquals(99, ranges.get(1).getEnd());
+        assertEquals(95, ranges.get(2).getStart());
+        assertEquals(99, ranges.get(2).getEnd());
+        assertEquals(99, ranges.get(3).getEnd());
+        assertEquals("bytes 0-9/100", ranges.get(0).toContentRange(100));
+    }
+
+    @Test
+    public void testParseUnsatisfiable() throws Exception {
+        assertTrue(ByteRange.parse("bytes=100-", 100).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-0", 100).isEmpty());
+    }
+
+    @Test
+    public void testParseInvalid() throws Exception {
+        assertNull(ByteRange.parse("items=0-9", 100));
+        assertNull(ByteRange.parse("bytes=9-0", 100));
+        assertNull(ByteRange.parse("bytes=a-", 100));
+        assertNull(ByteRange.parse("bytes=5", 100));
+    }
+}
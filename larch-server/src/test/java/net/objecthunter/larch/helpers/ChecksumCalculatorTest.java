@@ -0,0 +1,97 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package net.objecthunter.larch.helpers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.Test;
+
+public class ChecksumCalculatorTest {
+
+    @Test
+    public void testCrc32c() throws Exception {
+        MessageDigest digest = new Crc32cDigest();
+        digest.update("123456789".getBytes(StandardCharsets.US_ASCII));
+        assertEquals("e3069283", String.format("%08x", new BigInteger(1, digest.digest())));
+
+        // the sliced calculation matches the byte wise one
+        byte[] data = new byte[1027];
+        new Random(42).nextBytes(data);
+        digest.update(data);
+        byte[] sliced = digest.digest();
+        for (byte b : data) {
+            digest.update(b);
+        }
+        assertEquals(Arrays.toString(sliced), Arrays.toString(digest.digest()));
+    }
+
+    @Test
+    public void testParallelChecksums() throws Exception {
+        byte[] data = new byte[3 * ChecksumCalculator.CHUNK_SIZE + 17];
+        new Random(42).nextBytes(data);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            ChecksumCalculator parallel =
+                    new ChecksumCalculator(Arrays.asList("MD5", "SHA-256", "CRC32C"), executor, 2);
+            try (ChecksumInputStream src = new ChecksumInputStream(new ByteArrayInputStream(data), parallel)) {
+                IOUtils.copy(src, NullOutputStream.NULL_OUTPUT_STREAM);
+            }
+            ChecksumCalculator sequential =
+                    new ChecksumCalculator(Arrays.asList("MD5", "SHA-256", "CRC32C"), null, 1);
+            sequential.update(data, 0, data.length);
+            Map<String, String> checksums = parallel.getChecksums();
+            assertEquals(Arrays.asList("MD5", "SHA-256", "CRC32C"), Arrays.asList(checksums.keySet().toArray()));
+            assertEquals(sequential.getChecksums(), checksums);
+            assertEquals(data.length, parallel.getSize());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testZeroBytesAreCounted() throws Exception {
+        byte[] data = "foo\0bar".getBytes(StandardCharsets.US_ASCII);
+        ChecksumCalculator checksums = new ChecksumCalculator(Arrays.asList("MD5"), null, 1);
+        try (ChecksumInputStream src = new ChecksumInputStream(new ByteArrayInputStream(data), checksums)) {
+            while (src.read() != -1) {
+            }
+        }
+        assertEquals(7, checksums.getSize());
+        assertEquals("f6f5f8cd0cb63668898ba29025ae824e", checksums.getChecksums().get("MD5"));
+
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        try (SizeCalculatingDigestInputStream src =
+                new SizeCalculatingDigestInputStream(new ByteArrayInputStream(data), digest)) {
+            while (src.read() != -1) {
+            }
+            assertEquals(7, src.getCalculatedSize());
+        }
+        assertEquals("f6f5f8cd0cb63668898ba29025ae824e", String.format("%032x", new BigInteger(1, digest.digest())));
+    }
+}
@@ -0,0 +1,72 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package net.objecthunter.larch.json;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class JsonPatchTest {
+
+    private ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testDiffEqual() throws Exception {
+        JsonNode doc = mapper.readTree("{\"foo\":[1,2,{\"bar\":\"baz\"}]}");
+        assertEquals(0, JsonPatch.diff(doc, doc.deepCopy()).size());
+    }
+
+    @Test
+    public void testDiffAndApplyObjects() throws Exception {
+        JsonNode source = mapper.readTree("{\"label\":\"foo\",\"state\":\"PENDING\",\"a/b~c\":1,"
+                + "\"metadata\":{\"dc\":{\"data\":\"<xml/>\"}}}");
+        JsonNode target = mapper.readTree("{\"label\":\"bar\",\"a/b~c\":2,"
+                + "\"metadata\":{\"dc\":{\"data\":\"<xml/>\"},\"mods\":{\"data\":\"<mods/>\"}}}");
+        JsonNode patch = JsonPatch.diff(source, target);
+        assertEquals(4, patch.size());
+        assertEquals("/a~1b~0c", patch.get(2).get("path").asText());
+        assertEquals(target, JsonPatch.apply(source, patch));
+        assertEquals(mapper.readTree("{\"label\":\"foo\",\"state\":\"PENDING\",\"a/b~c\":1,"
+                + "\"metadata\":{\"dc\":{\"data\":\"<xml/>\"}}}"), source);
+    }
+
+    @Test
+    public void testDiffAndApplyArrays() throws Exception {
+        JsonNode source = mapper.readTree("{\"tags\":[\"a\",\"b\",\"c\"],\"relations\":[1]}");
+        JsonNode target = mapper.readTree("{\"tags\":[\"a\",\"x\"],\"relations\":[1,2,3]}");
+        assertEquals(target, JsonPatch.apply(source, JsonPatch.diff(source, target)));
+        assertEquals(source, JsonPatch.apply(target, JsonPatch.diff(target, source)));
+    }
+
+    @Test
+    public void testDiffAndApplyRoot() throws Exception {
+        JsonNode source = mapper.readTree("{\"foo\":1}");
+        JsonNode target = mapper.readTree("[1]");
+        assertEquals(target, JsonPatch.apply(source, JsonPatch.diff(source, target)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testApplyInvalidPath() throws Exception {
+        JsonPatch.apply(mapper.readTree("{\"foo\":1}"),
+                mapper.readTree("[{\"op\":\"remove\",\"path\":\"/bar/baz\"}]"));
+    }
+}
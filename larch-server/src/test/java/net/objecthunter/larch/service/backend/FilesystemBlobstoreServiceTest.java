@@ -0,0 +1,118 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+
+package net.objecthunter.larch.service.backend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import net.objecthunter.larch.helpers.ChecksumCalculator;
+import net.objecthunter.larch.service.backend.fs.FilesystemBlobstoreService;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class FilesystemBlobstoreServiceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FilesystemBlobstoreService blobstoreService;
+
+    @Before
+    public void setup() throws Exception {
+        blobstoreService = new FilesystemBlobstoreService();
+        MockEnvironment env = new MockEnvironment();
+        env.setProperty("fs.path", folder.getRoot().getAbsolutePath());
+        env.setProperty("fs.oldversion.path", folder.newFolder("versions").getAbsolutePath());
+        env.setProperty("fs.content.addressed", "true");
+        ReflectionTestUtils.setField(blobstoreService, "env", env);
+        blobstoreService.init();
+    }
+
+    @Test
+    public void testCreateDeduplicates() throws Exception {
+        String path = blobstoreService.create(new ByteArrayInputStream("foo".getBytes()));
+        assertEquals("sha256/2c/26/2c26b46b68ffc68ff99b453c1d30413413422d706483bfa0f98a5e886266e7ae", path);
+        assertEquals(path, blobstoreService.create(new ByteArrayInputStream("foo".getBytes())));
+        assertNotEquals(path, blobstoreService.create(new ByteArrayInputStream("bar".getBytes())));
+        try (InputStream in = blobstoreService.retrieve(path)) {
+            assertEquals("foo", IOUtils.toString(in));
+        }
+        // no temporary files are left behind
+        assertEquals(0, new File(folder.getRoot(), ".tmp").list().length);
+    }
+
+    @Test
+    public void testDeleteLastReference() throws Exception {
+        String path = blobstoreService.create(new ByteArrayInputStream("foo".getBytes()));
+        blobstoreService.create(new ByteArrayInputStream("foo".getBytes()));
+        File data = new File(folder.getRoot(), path);
+        blobstoreService.delete(path);
+        assertTrue(data.exists());
+        blobstoreService.delete(path);
+        assertFalse(data.exists());
+        assertFalse(new File(data.getAbsolutePath() + ".refs").exists());
+    }
+
+    @Test
+    public void testRandomPathsStillWork() throws Exception {
+        ReflectionTestUtils.setField(blobstoreService, "contentAddressed", false);
+        String path = blobstoreService.create(new ByteArrayInputStream("foo".getBytes()));
+        ReflectionTestUtils.setField(blobstoreService, "contentAddressed", true);
+        assertFalse(path.startsWith("sha256/"));
+        blobstoreService.update(path, new ByteArrayInputStream("bar".getBytes()));
+        try (InputStream in = blobstoreService.retrieve(path)) {
+            assertEquals("bar", IOUtils.toString(in));
+        }
+        blobstoreService.delete(path);
+        assertFalse(new File(folder.getRoot(), path).exists());
+    }
+
+    @Test
+    public void testCommitUpload() throws Exception {
+        String upload = blobstoreService.createUpload(6);
+        assertEquals(3, blobstoreService.writeUpload(upload, 3, new ByteArrayInputStream("bar".getBytes())));
+        assertEquals(3, blobstoreService.writeUpload(upload, 0, new ByteArrayInputStream("foo".getBytes())));
+        ChecksumCalculator checksums = new ChecksumCalculator(Arrays.asList("MD5"), null, 1);
+        String path = blobstoreService.commitUpload(upload, checksums);
+        assertEquals("3858f62230ac3c915f300c664312c63f", checksums.getChecksums().get("MD5"));
+        assertEquals(path, blobstoreService.create(new ByteArrayInputStream("foobar".getBytes())));
+        try (InputStream in = blobstoreService.retrieve(path)) {
+            assertEquals("foobar", IOUtils.toString(in));
+        }
+        // the upload is kept until the session is finished
+        assertEquals(1, new File(folder.getRoot(), ".uploads").list().length);
+        blobstoreService.deleteUpload(upload);
+        assertEquals(0, new File(folder.getRoot(), ".uploads").list().length);
+        try (InputStream in = blobstoreService.retrieve(path)) {
+            assertEquals("foobar", IOUtils.toString(in));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package net.objecthunter.larch.service.backend;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VersionJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAppendAndRead() throws Exception {
+        try (VersionJournal journal = new VersionJournal(folder.getRoot().toPath(), false, 1024)) {
+            final long first = journal.append("foo".getBytes());
+            final long second = journal.append("bar".getBytes());
+            VersionJournal.Record rec = journal.read(0, 0);
+            assertArrayEquals("foo".getBytes(), rec.getData());
+            assertEquals(first, rec.getNext());
+            rec = journal.read(rec.getNext(), 0);
+            assertArrayEquals("bar".getBytes(), rec.getData());
+            assertEquals(second, rec.getNext());
+            assertNull(journal.read(second, 0));
+        }
+    }
+
+    @Test
+    public void testDeadLetter() throws Exception {
+        final Path dir = folder.getRoot().toPath();
+        try (VersionJournal journal = new VersionJournal(dir, false, 1024)) {
+            journal.append("foo".getBytes());
+            final VersionJournal.Record rec = journal.read(0, 0);
+            journal.deadLetter(rec.getData());
+            journal.checkpoint(rec.getNext());
+            journal.deadLetter("bar".getBytes());
+        }
+        assertEquals(Arrays.asList("foo", "bar"), Files.readAllLines(dir.resolve("versions.dead")));
+    }
+
+    @Test
+    public void testReplayFromCheckpoint() throws Exception {
+        final Path dir = folder.getRoot().toPath();
+        try (VersionJournal journal = new VersionJournal(dir, true, 1024)) {
+            journal.checkpoint(journal.append("foo".getBytes()));
+            journal.append("bar".getBytes());
+        }
+        try (VersionJournal journal = new VersionJournal(dir, true, 1024)) {
+            final VersionJournal.Record rec = journal.read(journal.getCheckpoint(), 0);
+            assertArrayEquals("bar".getBytes(), rec.getData());
+            assertNull(journal.read(rec.getNext(), 0));
+        }
+    }
+
+    @Test
+    public void testTornRecordIsRemoved() throws Exception {
+        final Path dir = folder.getRoot().toPath();
+        final long end;
+        try (VersionJournal journal = new VersionJournal(dir, true, 1024)) {
+            end = journal.append("foo".getBytes());
+        }
+        Files.write(dir.resolve("versions.journal"), "ba".getBytes(), StandardOpenOption.APPEND);
+        try (VersionJournal journal = new VersionJournal(dir, true, 1024)) {
+            assertArrayEquals("foo".getBytes(), journal.read(0, 0).getData());
+            assertNull(journal.read(end, 0));
+            assertEquals(end + 4, journal.append("bar".getBytes()));
+        }
+    }
+
+    @Test
+    public void testTruncateProcessedJournal() throws Exception {
+        try (VersionJournal journal = new VersionJournal(folder.getRoot().toPath(), false, 4)) {
+            final long end = journal.append("foobar".getBytes());
+            assertEquals(0, journal.checkpoint(end));
+            assertEquals(0, journal.getCheckpoint());
+            journal.append("baz".getBytes());
+            assertArrayEquals("baz".getBytes(), journal.read(0, 0).getData());
+        }
+    }
+}
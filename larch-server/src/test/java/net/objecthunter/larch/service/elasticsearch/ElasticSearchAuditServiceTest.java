@@ -21,30 +21,36 @@ import static org.easymock.EasyMock.anyString;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
-import static org.easymock.EasyMock.isNull;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 
+import java.time.YearMonth;
+import java.time.ZoneOffset;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 
 import net.objecthunter.larch.helpers.AuditRecords;
 import net.objecthunter.larch.model.AuditRecord;
 import net.objecthunter.larch.model.security.User;
 import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchAuditService;
 
-import org.easymock.EasyMock;
 import org.elasticsearch.action.ListenableActionFuture;
-import org.elasticsearch.action.get.GetRequestBuilder;
-import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.action.support.IndicesOptions;
 import org.elasticsearch.client.Client;
-import org.elasticsearch.index.query.MatchQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
 import org.elasticsearch.search.sort.SortOrder;
@@ -63,12 +69,18 @@ public class ElasticSearchAuditServiceTest {
 
     private Client mockClient;
 
+    private String partition;
+
+    @SuppressWarnings("unchecked")
     @Before
     public void setup() {
         auditService = new ElasticSearchAuditService();
         mockClient = createMock(Client.class);
         ReflectionTestUtils.setField(auditService, "client", mockClient);
         ReflectionTestUtils.setField(auditService, "mapper", new ObjectMapper());
+        partition = ElasticSearchAuditService.getPartition(YearMonth.now(ZoneOffset.UTC));
+        /* the partition of the current month exists */
+        ((Set<String>) ReflectionTestUtils.getField(auditService, "partitions")).add(partition);
         User u = new User();
         u.setName("test");
         u.setPwhash("test");
@@ -80,21 +92,60 @@ public class ElasticSearchAuditServiceTest {
     @SuppressWarnings("unchecked")
     @Test
     public void testRetrieve() throws Exception {
+        YearMonth current = YearMonth.now(ZoneOffset.UTC);
+        String previous = ElasticSearchAuditService.getPartition(current.minusMonths(1));
+        String older = ElasticSearchAuditService.getPartition(current.minusMonths(2));
+        ReflectionTestUtils.setField(auditService, "oldestPartition", current.minusMonths(2));
+        MultiSearchRequestBuilder mockMultiSearchRequestBuilder = createMock(MultiSearchRequestBuilder.class);
+        MultiSearchResponse mockMultiSearchResponse = createMock(MultiSearchResponse.class);
+        SearchRequestBuilder mockCountRequestBuilder = createMock(SearchRequestBuilder.class);
         SearchRequestBuilder mockSearchRequestBuilder = createMock(SearchRequestBuilder.class);
         ListenableActionFuture mockFuture = createMock(ListenableActionFuture.class);
+        ListenableActionFuture mockCountFuture = createMock(ListenableActionFuture.class);
         SearchResponse mockResponse = createMock(SearchResponse.class);
+        SearchResponse mockOlderCount = createMock(SearchResponse.class);
+        SearchResponse mockPreviousCount = createMock(SearchResponse.class);
+        SearchResponse mockCurrentCount = createMock(SearchResponse.class);
+        SearchHits mockOlderHits = createMock(SearchHits.class);
+        SearchHits mockPreviousHits = createMock(SearchHits.class);
+        SearchHits mockCurrentHits = createMock(SearchHits.class);
         SearchHit[] hitArray = new SearchHit[1];
         SearchHit hitMock = createMock(SearchHit.class);
         hitArray[0] = hitMock;
         SearchHits mockHits = createMock(SearchHits.class);
 
-        expect(mockClient.prepareSearch(ElasticSearchAuditService.INDEX_AUDIT)).andReturn(mockSearchRequestBuilder);
-        expect(mockSearchRequestBuilder.setQuery((MatchQueryBuilder) EasyMock.anyObject())).andReturn(
-                mockSearchRequestBuilder);
-        expect(mockSearchRequestBuilder.setSearchType(SearchType.DFS_QUERY_THEN_FETCH)).andReturn(
+        /* the entity's records are counted in each partition since the oldest one */
+        expect(mockClient.prepareMultiSearch()).andReturn(mockMultiSearchRequestBuilder);
+        for (String p : Arrays.asList(older, previous, partition)) {
+            expect(mockClient.prepareSearch(p)).andReturn(mockCountRequestBuilder);
+        }
+        expect(mockCountRequestBuilder.setSearchType(SearchType.COUNT)).andReturn(mockCountRequestBuilder).times(3);
+        expect(mockCountRequestBuilder.setQuery((QueryBuilder) anyObject())).andReturn(mockCountRequestBuilder)
+                .times(3);
+        expect(mockCountRequestBuilder.setIndicesOptions((IndicesOptions) anyObject())).andReturn(
+                mockCountRequestBuilder).times(3);
+        expect(mockMultiSearchRequestBuilder.add(mockCountRequestBuilder)).andReturn(mockMultiSearchRequestBuilder)
+                .times(3);
+        expect(mockMultiSearchRequestBuilder.execute()).andReturn(mockCountFuture);
+        expect(mockCountFuture.actionGet()).andReturn(mockMultiSearchResponse);
+        expect(mockMultiSearchResponse.getResponses()).andReturn(new MultiSearchResponse.Item[] {
+            new MultiSearchResponse.Item(mockOlderCount, null),
+            new MultiSearchResponse.Item(mockPreviousCount, null),
+            new MultiSearchResponse.Item(mockCurrentCount, null) }).anyTimes();
+        expect(mockOlderCount.getHits()).andReturn(mockOlderHits);
+        expect(mockOlderHits.getTotalHits()).andReturn(3l);
+        expect(mockPreviousCount.getHits()).andReturn(mockPreviousHits);
+        expect(mockPreviousHits.getTotalHits()).andReturn(0l);
+        expect(mockCurrentCount.getHits()).andReturn(mockCurrentHits);
+        expect(mockCurrentHits.getTotalHits()).andReturn(5l);
+
+        /* records 3 to 7 are all in the current partition */
+        expect(mockClient.prepareSearch(partition)).andReturn(mockSearchRequestBuilder);
+        expect(mockSearchRequestBuilder.setQuery((QueryBuilder) anyObject())).andReturn(mockSearchRequestBuilder);
+        expect(mockSearchRequestBuilder.setIndicesOptions((IndicesOptions) anyObject())).andReturn(
                 mockSearchRequestBuilder);
         expect(mockSearchRequestBuilder.setFrom(0)).andReturn(mockSearchRequestBuilder);
-        expect(mockSearchRequestBuilder.setSize(0)).andReturn(mockSearchRequestBuilder);
+        expect(mockSearchRequestBuilder.setSize(5)).andReturn(mockSearchRequestBuilder);
         expect(mockSearchRequestBuilder.addSort("timestamp", SortOrder.ASC)).andReturn(mockSearchRequestBuilder);
         expect(mockSearchRequestBuilder.execute()).andReturn(mockFuture);
         expect(mockFuture.actionGet()).andReturn(mockResponse);
@@ -103,9 +154,14 @@ public class ElasticSearchAuditServiceTest {
         String json = new ObjectMapper().writeValueAsString(AuditRecords.createEntityRecord("id"));
         expect(hitMock.getSourceAsString()).andReturn(json);
 
-        replay(mockClient, mockSearchRequestBuilder, mockFuture, mockHits, mockResponse, hitMock);
-        List<AuditRecord> records = this.auditService.retrieve("id", 0, 0);
-        verify(mockClient, mockSearchRequestBuilder, mockFuture, mockHits, mockResponse, hitMock);
+        Object[] mocks =
+                new Object[] { mockClient, mockMultiSearchRequestBuilder, mockMultiSearchResponse,
+                    mockCountRequestBuilder, mockSearchRequestBuilder, mockFuture, mockCountFuture, mockResponse,
+                    mockOlderCount, mockPreviousCount, mockCurrentCount, mockOlderHits, mockPreviousHits,
+                    mockCurrentHits, mockHits, hitMock };
+        replay(mocks);
+        List<AuditRecord> records = this.auditService.retrieve("id", 3, 5);
+        verify(mocks);
 
         assertEquals(1, records.size());
         assertEquals("id", records.get(0).getEntityId());
@@ -117,26 +173,52 @@ public class ElasticSearchAuditServiceTest {
     @SuppressWarnings("unchecked")
     @Test
     public void testCreate() throws Exception {
-        GetRequestBuilder mockGetRequestBuilder = createMock(GetRequestBuilder.class);
         ListenableActionFuture mockFuture = createMock(ListenableActionFuture.class);
-        GetResponse mockResponse = createMock(GetResponse.class);
+        BulkRequestBuilder mockBulkRequestBuilder = createMock(BulkRequestBuilder.class);
+        BulkResponse mockResponse = createMock(BulkResponse.class);
         IndexRequestBuilder mockIndexRequestBuilder = createMock(IndexRequestBuilder.class);
 
-        expect(mockClient.prepareGet(eq(ElasticSearchAuditService.INDEX_AUDIT), isNull(), anyString())).andReturn(
-                mockGetRequestBuilder);
-        expect(mockGetRequestBuilder.execute()).andReturn(mockFuture);
+        /* without a running writer the record is written synchronously and no existence check is done */
+        expect(mockClient.prepareBulk()).andReturn(mockBulkRequestBuilder);
+        expect(mockClient.prepareIndex(eq(partition), eq("audit"), anyString()))
+                .andReturn(mockIndexRequestBuilder);
+        expect(mockIndexRequestBuilder.setSource((byte[]) anyObject())).andReturn(mockIndexRequestBuilder);
+        expect(mockBulkRequestBuilder.add(mockIndexRequestBuilder)).andReturn(mockBulkRequestBuilder);
+        expect(mockBulkRequestBuilder.execute()).andReturn(mockFuture);
         expect(mockFuture.actionGet()).andReturn(mockResponse);
-        expect(mockResponse.isExists()).andReturn(false);
+        expect(mockResponse.hasFailures()).andReturn(false);
 
-        expect(mockClient.prepareIndex(eq(ElasticSearchAuditService.INDEX_AUDIT), eq("audit"), anyString()))
-                .andReturn(
-                    mockIndexRequestBuilder);
-        expect(mockIndexRequestBuilder.setSource((byte[]) anyObject())).andReturn(mockIndexRequestBuilder);
-        expect(mockIndexRequestBuilder.execute()).andReturn(mockFuture);
-        expect(mockFuture.actionGet()).andReturn(null);
+        replay(mockClient, mockBulkRequestBuilder, mockFuture, mockResponse, mockIndexRequestBuilder);
+        String id = auditService.create(AuditRecords.createEntityRecord("id"));
+        verify(mockClient, mockBulkRequestBuilder, mockFuture, mockResponse, mockIndexRequestBuilder);
+        assertNotNull(id);
+    }
 
-        replay(mockClient, mockGetRequestBuilder, mockFuture, mockResponse, mockIndexRequestBuilder);
-        auditService.create(AuditRecords.createEntityRecord("id"));
-        verify(mockClient, mockGetRequestBuilder, mockFuture, mockResponse, mockIndexRequestBuilder);
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testCreateWriteBehind() throws Exception {
+        ListenableActionFuture mockFuture = createMock(ListenableActionFuture.class);
+        BulkRequestBuilder mockBulkRequestBuilder = createMock(BulkRequestBuilder.class);
+        BulkResponse mockResponse = createMock(BulkResponse.class);
+        IndexRequestBuilder mockIndexRequestBuilder = createMock(IndexRequestBuilder.class);
+        ReflectionTestUtils.setField(auditService, "queue", new ArrayBlockingQueue<AuditRecord>(10));
+        ReflectionTestUtils.setField(auditService, "running", true);
+
+        /* both records are queued and written by a single bulk request */
+        expect(mockClient.prepareBulk()).andReturn(mockBulkRequestBuilder);
+        expect(mockClient.prepareIndex(eq(partition), eq("audit"), anyString()))
+                .andReturn(mockIndexRequestBuilder).times(2);
+        expect(mockIndexRequestBuilder.setSource((byte[]) anyObject())).andReturn(mockIndexRequestBuilder).times(2);
+        expect(mockBulkRequestBuilder.add(mockIndexRequestBuilder)).andReturn(mockBulkRequestBuilder).times(2);
+        expect(mockBulkRequestBuilder.execute()).andReturn(mockFuture);
+        expect(mockFuture.actionGet()).andReturn(mockResponse);
+        expect(mockResponse.hasFailures()).andReturn(false);
+
+        replay(mockClient, mockBulkRequestBuilder, mockFuture, mockResponse, mockIndexRequestBuilder);
+        String id1 = auditService.create(AuditRecords.createEntityRecord("id"));
+        String id2 = auditService.create(AuditRecords.updateEntityRecord("id"));
+        auditService.flush();
+        verify(mockClient, mockBulkRequestBuilder, mockFuture, mockResponse, mockIndexRequestBuilder);
+        assertNotEquals(id1, id2);
     }
 }
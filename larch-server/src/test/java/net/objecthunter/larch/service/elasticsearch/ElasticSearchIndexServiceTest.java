@@ -16,22 +16,40 @@
 
 package net.objecthunter.larch.service.elasticsearch;
 
-import static org.easymock.EasyMock.anyInt;
 import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import net.objecthunter.larch.exceptions.ConflictException;
+import net.objecthunter.larch.exceptions.NotFoundException;
+import net.objecthunter.larch.model.BulkItemResult;
 
 import net.objecthunter.larch.model.Entity;
+import net.objecthunter.larch.model.EntityChildren;
 import net.objecthunter.larch.model.state.IndexState;
+import net.objecthunter.larch.service.backend.elasticsearch.AbstractElasticSearchService.RefreshPolicy;
 import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchEntityService;
 import net.objecthunter.larch.test.util.Fixtures;
 
+import org.easymock.Capture;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.ListenableActionFuture;
 import org.elasticsearch.action.admin.indices.stats.IndicesStatsResponse;
 import org.elasticsearch.action.admin.indices.status.DocsStatus;
@@ -39,6 +57,9 @@ import org.elasticsearch.action.admin.indices.status.IndexShardStatus;
 import org.elasticsearch.action.admin.indices.status.IndexStatus;
 import org.elasticsearch.action.admin.indices.status.IndicesStatusRequest;
 import org.elasticsearch.action.admin.indices.status.IndicesStatusResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequestBuilder;
 import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.get.GetRequestBuilder;
@@ -46,14 +67,18 @@ import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequestBuilder;
 import org.elasticsearch.client.AdminClient;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.IndicesAdminClient;
 import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.engine.VersionConflictEngineException;
 import org.elasticsearch.index.flush.FlushStats;
 import org.elasticsearch.index.merge.MergeStats;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.refresh.RefreshStats;
+import org.elasticsearch.index.shard.ShardId;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
 import org.junit.Before;
@@ -88,22 +113,14 @@ public class ElasticSearchIndexServiceTest {
     @Test
     public void testCreate() throws Exception {
         Entity e = Fixtures.createEntity();
-        GetResponse mockGetResponse = createMock(GetResponse.class);
-        GetRequestBuilder mockGetRequestBuilder = createMock(GetRequestBuilder.class);
         ListenableActionFuture mockFuture = createMock(ListenableActionFuture.class);
         IndexRequestBuilder mockIndexRequestBuilder = createMock(IndexRequestBuilder.class);
 
-        /* existence check */
-        expect(mockClient.prepareGet(ElasticSearchEntityService.INDEX_ENTITIES,
-                ElasticSearchEntityService.INDEX_ENTITY_TYPE, e.getId())).andReturn(mockGetRequestBuilder);
-        expect(mockGetRequestBuilder.execute()).andReturn(mockFuture);
-        expect(mockFuture.actionGet()).andReturn(mockGetResponse);
-        expect(mockGetResponse.isExists()).andReturn(false);
-
-        /* user indexing */
+        /* user indexing without an existence check */
         expect(mockClient.prepareIndex(ElasticSearchEntityService.INDEX_ENTITIES,
                 ElasticSearchEntityService.INDEX_ENTITY_TYPE,
                 e.getId())).andReturn(mockIndexRequestBuilder);
+        expect(mockIndexRequestBuilder.setCreate(true)).andReturn(mockIndexRequestBuilder);
         expect(mockIndexRequestBuilder.setSource((byte[]) anyObject())).andReturn(mockIndexRequestBuilder);
         expect(mockIndexRequestBuilder.execute()).andReturn(mockFuture);
         expect(mockFuture.actionGet()).andReturn(null);
@@ -114,16 +131,60 @@ public class ElasticSearchIndexServiceTest {
         expect(mockIndicesAdminClient.refresh(anyObject())).andReturn(mockFuture);
         expect(mockFuture.actionGet()).andReturn(null);
 
-        replay(mockIndicesAdminClient, mockAdminClient, mockClient, mockGetRequestBuilder, mockFuture,
-                mockGetResponse,
-                mockIndexRequestBuilder);
+        replay(mockIndicesAdminClient, mockAdminClient, mockClient, mockFuture, mockIndexRequestBuilder);
         this.indexService.create(e);
-        verify(mockIndicesAdminClient, mockAdminClient, mockClient, mockGetRequestBuilder, mockFuture,
-                mockGetResponse,
-                mockIndexRequestBuilder);
+        verify(mockIndicesAdminClient, mockAdminClient, mockClient, mockFuture, mockIndexRequestBuilder);
     }
 
     @SuppressWarnings("unchecked")
+    @Test
+    public void testCreateBulk() throws Exception {
+        Entity e1 = Fixtures.createEntity();
+        Entity e2 = Fixtures.createEntity();
+        e2.setId("id-2");
+        ListenableActionFuture mockFuture = createMock(ListenableActionFuture.class);
+        IndexRequestBuilder mockIndexRequestBuilder = createMock(IndexRequestBuilder.class);
+        BulkRequestBuilder mockBulkRequestBuilder = createMock(BulkRequestBuilder.class);
+        BulkResponse mockBulkResponse = createMock(BulkResponse.class);
+        BulkItemResponse mockItem1 = createMock(BulkItemResponse.class);
+        BulkItemResponse mockItem2 = createMock(BulkItemResponse.class);
+
+        /* a single bulk request using op_type create and no existence checks */
+        expect(mockClient.prepareBulk()).andReturn(mockBulkRequestBuilder);
+        expect(mockClient.prepareIndex(ElasticSearchEntityService.INDEX_ENTITIES,
+                ElasticSearchEntityService.INDEX_ENTITY_TYPE, e1.getId())).andReturn(mockIndexRequestBuilder);
+        expect(mockClient.prepareIndex(ElasticSearchEntityService.INDEX_ENTITIES,
+                ElasticSearchEntityService.INDEX_ENTITY_TYPE, e2.getId())).andReturn(mockIndexRequestBuilder);
+        expect(mockIndexRequestBuilder.setCreate(true)).andReturn(mockIndexRequestBuilder).times(2);
+        expect(mockIndexRequestBuilder.setSource((byte[]) anyObject())).andReturn(mockIndexRequestBuilder).times(2);
+        expect(mockBulkRequestBuilder.add(mockIndexRequestBuilder)).andReturn(mockBulkRequestBuilder).times(2);
+        expect(mockBulkRequestBuilder.execute()).andReturn(mockFuture);
+        expect(mockFuture.actionGet()).andReturn(mockBulkResponse);
+        expect(mockBulkResponse.getItems()).andReturn(new BulkItemResponse[] { mockItem1, mockItem2 });
+        expect(mockItem1.isFailed()).andReturn(false);
+        expect(mockItem1.getId()).andReturn(e1.getId());
+        expect(mockItem2.isFailed()).andReturn(true);
+        expect(mockItem2.getId()).andReturn(e2.getId());
+        expect(mockItem2.getFailureMessage()).andReturn("DocumentAlreadyExistsException");
+
+        /* a single index refresh for the whole batch */
+        expect(mockClient.admin()).andReturn(mockAdminClient);
+        expect(mockAdminClient.indices()).andReturn(mockIndicesAdminClient);
+        expect(mockIndicesAdminClient.refresh(anyObject())).andReturn(mockFuture);
+        expect(mockFuture.actionGet()).andReturn(null);
+
+        replay(mockIndicesAdminClient, mockAdminClient, mockClient, mockFuture, mockIndexRequestBuilder,
+                mockBulkRequestBuilder, mockBulkResponse, mockItem1, mockItem2);
+        List<BulkItemResult> results = this.indexService.create(Arrays.asList(e1, e2));
+        verify(mockIndicesAdminClient, mockAdminClient, mockClient, mockFuture, mockIndexRequestBuilder,
+                mockBulkRequestBuilder, mockBulkResponse, mockItem1, mockItem2);
+
+        assertEquals(2, results.size());
+        assertFalse(results.get(0).isFailed());
+        assertTrue(results.get(1).isFailed());
+        assertEquals("id-2", results.get(1).getId());
+    }
+
     @Test
     public void testUpdate() throws Exception {
         Entity e = Fixtures.createEntity();
@@ -156,6 +217,72 @@ public class ElasticSearchIndexServiceTest {
 
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testUpdateWithRequestRefreshPolicy() throws Exception {
+        Entity e = Fixtures.createEntity();
+        ListenableActionFuture mockFuture = createMock(ListenableActionFuture.class);
+        IndexRequestBuilder mockIndexRequestBuilder = createMock(IndexRequestBuilder.class);
+        setRefreshPolicy(RefreshPolicy.REQUEST);
+
+        /* indexing with a shard refresh and without a refresh of the whole index */
+        expect(mockClient.prepareIndex(ElasticSearchEntityService.INDEX_ENTITIES,
+                ElasticSearchEntityService.INDEX_ENTITY_TYPE,
+                e.getId())).andReturn(mockIndexRequestBuilder);
+        expect(mockIndexRequestBuilder.setSource((byte[]) anyObject())).andReturn(mockIndexRequestBuilder);
+        expect(mockIndexRequestBuilder.setRefresh(true)).andReturn(mockIndexRequestBuilder);
+        expect(mockIndexRequestBuilder.execute()).andReturn(mockFuture);
+        expect(mockFuture.actionGet()).andReturn(null);
+
+        replay(mockIndicesAdminClient, mockAdminClient, mockClient, mockFuture, mockIndexRequestBuilder);
+        this.indexService.update(e);
+        verify(mockIndicesAdminClient, mockAdminClient, mockClient, mockFuture, mockIndexRequestBuilder);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testUpdateWithIntervalRefreshPolicy() throws Exception {
+        Entity e = Fixtures.createEntity();
+        ListenableActionFuture mockFuture = createMock(ListenableActionFuture.class);
+        IndexRequestBuilder mockIndexRequestBuilder = createMock(IndexRequestBuilder.class);
+        setRefreshPolicy(RefreshPolicy.INTERVAL);
+
+        /* indexing without any refresh */
+        expect(mockClient.prepareIndex(ElasticSearchEntityService.INDEX_ENTITIES,
+                ElasticSearchEntityService.INDEX_ENTITY_TYPE,
+                e.getId())).andReturn(mockIndexRequestBuilder);
+        expect(mockIndexRequestBuilder.setSource((byte[]) anyObject())).andReturn(mockIndexRequestBuilder);
+        expect(mockIndexRequestBuilder.execute()).andReturn(mockFuture);
+        expect(mockFuture.actionGet()).andReturn(null);
+
+        replay(mockIndicesAdminClient, mockAdminClient, mockClient, mockFuture, mockIndexRequestBuilder);
+        this.indexService.update(e);
+        verify(mockIndicesAdminClient, mockAdminClient, mockClient, mockFuture, mockIndexRequestBuilder);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test(expected = ConflictException.class)
+    public void testUpdateConflict() throws Exception {
+        Entity e = Fixtures.createEntity();
+        e.setDocumentVersion(2);
+        ListenableActionFuture mockFuture = createMock(ListenableActionFuture.class);
+        IndexRequestBuilder mockIndexRequestBuilder = createMock(IndexRequestBuilder.class);
+
+        /* the document version read before is passed to the index */
+        expect(mockClient.prepareIndex(ElasticSearchEntityService.INDEX_ENTITIES,
+                ElasticSearchEntityService.INDEX_ENTITY_TYPE,
+                e.getId())).andReturn(mockIndexRequestBuilder);
+        expect(mockIndexRequestBuilder.setSource((byte[]) anyObject())).andReturn(mockIndexRequestBuilder);
+        expect(mockIndexRequestBuilder.setVersion(2)).andReturn(mockIndexRequestBuilder);
+        expect(mockIndexRequestBuilder.execute()).andReturn(mockFuture);
+        expect(mockFuture.actionGet()).andThrow(
+                new VersionConflictEngineException(new ShardId(ElasticSearchEntityService.INDEX_ENTITIES, 0),
+                        ElasticSearchEntityService.INDEX_ENTITY_TYPE, e.getId(), 3, 2));
+
+        replay(mockClient, mockFuture, mockIndexRequestBuilder);
+        this.indexService.update(e);
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void testRetrieve() throws Exception {
@@ -175,27 +302,139 @@ public class ElasticSearchIndexServiceTest {
         expect(mockFuture.actionGet()).andReturn(mockGetResponse);
         expect(mockGetResponse.isSourceEmpty()).andReturn(false);
         expect(mockGetResponse.getSourceAsBytes()).andReturn(mapper.writeValueAsBytes(e));
+        expect(mockGetResponse.getVersion()).andReturn(3L);
+
+        replay(mockClient, mockGetResponse, mockGetRequestBuilder, mockFuture);
+        Entity fetched = this.indexService.retrieve(e.getId());
+        verify(mockClient, mockGetRequestBuilder, mockGetResponse, mockFuture);
+        assertEquals(3L, fetched.getDocumentVersion());
+        assertNull(fetched.getChildren());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testRetrieveAsyncNotFound() throws Exception {
+        GetResponse mockGetResponse = createMock(GetResponse.class);
+        GetRequestBuilder mockGetRequestBuilder = createMock(GetRequestBuilder.class);
+        Capture<ActionListener<GetResponse>> listener = new Capture<>();
+
+        expect(mockClient.prepareGet(ElasticSearchEntityService.INDEX_ENTITIES,
+                ElasticSearchEntityService.INDEX_ENTITY_TYPE, "missing")).andReturn(mockGetRequestBuilder);
+        mockGetRequestBuilder.execute(capture(listener));
+        expect(mockGetResponse.isSourceEmpty()).andReturn(true);
+
+        replay(mockClient, mockGetResponse, mockGetRequestBuilder);
+        CompletableFuture<Entity> future = this.indexService.retrieveAsync("missing");
+        assertFalse(future.isDone());
+        listener.getValue().onResponse(mockGetResponse);
+        verify(mockClient, mockGetRequestBuilder, mockGetResponse);
+        assertTrue(future.isCompletedExceptionally());
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof NotFoundException);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testFetchChildren() throws Exception {
+        ListenableActionFuture mockFuture = createMock(ListenableActionFuture.class);
+        SearchResponse mockSearchResponse = createMock(SearchResponse.class);
+        SearchRequestBuilder mockSearchRequestBuilder = createMock(SearchRequestBuilder.class);
+        SearchHit mockHit = createMock(SearchHit.class);
+        SearchHits mockHits = createMock(SearchHits.class);
 
-        /* retrieve children */
         expect(mockClient.prepareSearch(ElasticSearchEntityService.INDEX_ENTITIES)).andReturn(
                 mockSearchRequestBuilder);
         expect(mockSearchRequestBuilder.setTypes(ElasticSearchEntityService.INDEX_ENTITY_TYPE)).andReturn(
                 mockSearchRequestBuilder);
         expect(mockSearchRequestBuilder.setQuery(anyObject(QueryBuilder.class))).andReturn(mockSearchRequestBuilder);
-        expect(mockSearchRequestBuilder.setFrom(0)).andReturn(mockSearchRequestBuilder);
-        expect(mockSearchRequestBuilder.setSize(anyInt())).andReturn(mockSearchRequestBuilder);
+        expect(mockSearchRequestBuilder.setScroll(anyObject(TimeValue.class))).andReturn(mockSearchRequestBuilder);
+        expect(mockSearchRequestBuilder.setSize(1)).andReturn(mockSearchRequestBuilder);
+        expect(mockSearchRequestBuilder.setFetchSource(false)).andReturn(mockSearchRequestBuilder);
         expect(mockSearchRequestBuilder.execute()).andReturn(mockFuture);
         expect(mockFuture.actionGet()).andReturn(mockSearchResponse);
-        expect(mockSearchResponse.getHits()).andReturn(mockHits);
-        expect(mockHits.getHits()).andReturn(hitArray);
-        expect(mockSearchResponse.getHits()).andReturn(mockHits);
-        expect(mockHits.getTotalHits()).andReturn(0l);
-
-        replay(mockClient, mockHits, mockSearchRequestBuilder, mockSearchResponse, mockGetResponse,
-                mockGetRequestBuilder, mockFuture);
-        this.indexService.retrieve(e.getId());
-        verify(mockClient, mockHits, mockSearchRequestBuilder, mockSearchResponse, mockGetRequestBuilder,
-                mockGetResponse, mockFuture);
+        expect(mockSearchResponse.getHits()).andReturn(mockHits).times(2);
+        expect(mockHits.getHits()).andReturn(new SearchHit[] { mockHit });
+        expect(mockHits.getTotalHits()).andReturn(2l);
+        expect(mockHit.getId()).andReturn("child-1");
+        expect(mockSearchResponse.getScrollId()).andReturn("scroll-1");
+
+        replay(mockClient, mockHits, mockHit, mockSearchRequestBuilder, mockSearchResponse, mockFuture);
+        EntityChildren children = this.indexService.fetchChildren("parent", null, 1);
+        verify(mockClient, mockHits, mockHit, mockSearchRequestBuilder, mockSearchResponse, mockFuture);
+        assertEquals(2l, children.getTotalHits());
+        assertEquals(1, children.getChildren().size());
+        assertEquals("child-1", children.getChildren().get(0));
+        assertNotNull(children.getCursor());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testFetchChildrenWithDifferentCount() throws Exception {
+        ListenableActionFuture mockFuture = createMock(ListenableActionFuture.class);
+        SearchResponse mockSearchResponse = createMock(SearchResponse.class);
+        SearchScrollRequestBuilder mockScrollRequestBuilder = createMock(SearchScrollRequestBuilder.class);
+        SearchHit mockHit = createMock(SearchHit.class);
+        SearchHits mockHits = createMock(SearchHits.class);
+        String cursor = Base64.getUrlEncoder().encodeToString("1:scroll-1:parent".getBytes(StandardCharsets.UTF_8));
+
+        /* the scroll delivers pages of the size of the first request */
+        expect(mockClient.prepareSearchScroll("scroll-1")).andReturn(mockScrollRequestBuilder);
+        expect(mockScrollRequestBuilder.setScroll(anyObject(TimeValue.class))).andReturn(mockScrollRequestBuilder);
+        expect(mockScrollRequestBuilder.execute()).andReturn(mockFuture);
+        expect(mockFuture.actionGet()).andReturn(mockSearchResponse);
+        expect(mockSearchResponse.getHits()).andReturn(mockHits).times(2);
+        expect(mockHits.getHits()).andReturn(new SearchHit[] { mockHit });
+        expect(mockHits.getTotalHits()).andReturn(3l);
+        expect(mockHit.getId()).andReturn("child-2");
+        expect(mockSearchResponse.getScrollId()).andReturn("scroll-2");
+
+        replay(mockClient, mockHits, mockHit, mockScrollRequestBuilder, mockSearchResponse, mockFuture);
+        EntityChildren children = this.indexService.fetchChildren("other", cursor, 10);
+        verify(mockClient, mockHits, mockHit, mockScrollRequestBuilder, mockSearchResponse, mockFuture);
+        // a full page of the scroll is not mistaken for the last page
+        assertEquals(Arrays.asList("child-2"), children.getChildren());
+        assertEquals("parent", children.getEntityId());
+        assertEquals(1, children.getNumRecords());
+        assertEquals("1:scroll-2:parent", new String(Base64.getUrlDecoder().decode(children.getCursor()),
+                StandardCharsets.UTF_8));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testFetchChildrenAsync() throws Exception {
+        SearchResponse mockSearchResponse = createMock(SearchResponse.class);
+        SearchRequestBuilder mockSearchRequestBuilder = createMock(SearchRequestBuilder.class);
+        SearchHit mockHit = createMock(SearchHit.class);
+        SearchHits mockHits = createMock(SearchHits.class);
+        Capture<ActionListener<SearchResponse>> listener = new Capture<>();
+
+        expect(mockClient.prepareSearch(ElasticSearchEntityService.INDEX_ENTITIES)).andReturn(
+                mockSearchRequestBuilder);
+        expect(mockSearchRequestBuilder.setTypes(ElasticSearchEntityService.INDEX_ENTITY_TYPE)).andReturn(
+                mockSearchRequestBuilder);
+        expect(mockSearchRequestBuilder.setQuery(anyObject(QueryBuilder.class))).andReturn(mockSearchRequestBuilder);
+        expect(mockSearchRequestBuilder.setScroll(anyObject(TimeValue.class))).andReturn(mockSearchRequestBuilder);
+        expect(mockSearchRequestBuilder.setSize(1)).andReturn(mockSearchRequestBuilder);
+        expect(mockSearchRequestBuilder.setFetchSource(false)).andReturn(mockSearchRequestBuilder);
+        mockSearchRequestBuilder.execute(capture(listener));
+        expect(mockSearchResponse.getHits()).andReturn(mockHits).times(2);
+        expect(mockHits.getHits()).andReturn(new SearchHit[] { mockHit });
+        expect(mockHits.getTotalHits()).andReturn(2l);
+        expect(mockHit.getId()).andReturn("child-1");
+        expect(mockSearchResponse.getScrollId()).andReturn("scroll-1");
+
+        replay(mockClient, mockHits, mockHit, mockSearchRequestBuilder, mockSearchResponse);
+        CompletableFuture<EntityChildren> future = this.indexService.fetchChildrenAsync("parent", null, 1);
+        assertFalse(future.isDone());
+        listener.getValue().onResponse(mockSearchResponse);
+        verify(mockClient, mockHits, mockHit, mockSearchRequestBuilder, mockSearchResponse);
+        EntityChildren children = future.get();
+        assertEquals(Arrays.asList("child-1"), children.getChildren());
+        assertEquals("1:scroll-1:parent", new String(Base64.getUrlDecoder().decode(children.getCursor()),
+                StandardCharsets.UTF_8));
     }
 
     @SuppressWarnings("unchecked")
@@ -287,4 +526,10 @@ public class ElasticSearchIndexServiceTest {
         assertTrue(this.indexService.exists(e.getId()));
         verify(mockClient, mockGetResponse, mockGetRequestBuilder, mockFuture);
     }
+
+    @SuppressWarnings("unchecked")
+    private void setRefreshPolicy(RefreshPolicy policy) {
+        ((Map<String, RefreshPolicy>) ReflectionTestUtils.getField(indexService, "refreshPolicies")).put(
+                ElasticSearchEntityService.INDEX_ENTITIES, policy);
+    }
 }
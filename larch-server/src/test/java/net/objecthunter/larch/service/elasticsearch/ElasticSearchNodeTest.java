@@ -0,0 +1,56 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+
+package net.objecthunter.larch.service.elasticsearch;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchNode;
+import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchNode.Mode;
+
+import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.junit.Test;
+
+public class ElasticSearchNodeTest {
+
+    @Test
+    public void testParseTransportAddresses() throws Exception {
+        List<InetSocketTransportAddress> addresses =
+                ElasticSearchNode.parseTransportAddresses("127.0.0.1:9301, localhost,");
+        assertEquals(2, addresses.size());
+        assertEquals(9301, addresses.get(0).address().getPort());
+        assertEquals(ElasticSearchNode.DEFAULT_TRANSPORT_PORT, addresses.get(1).address().getPort());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseTransportAddressesInvalidPort() throws Exception {
+        ElasticSearchNode.parseTransportAddresses("localhost:port");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseTransportAddressesEmpty() throws Exception {
+        ElasticSearchNode.parseTransportAddresses(" , ");
+    }
+
+    @Test
+    public void testModeFromString() throws Exception {
+        assertEquals(Mode.EMBEDDED, Mode.fromString(null));
+        assertEquals(Mode.REMOTE, Mode.fromString(" Remote"));
+    }
+}
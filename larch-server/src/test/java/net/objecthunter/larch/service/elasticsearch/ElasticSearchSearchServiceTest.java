@@ -17,23 +17,29 @@
 package net.objecthunter.larch.service.elasticsearch;
 
 import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+import net.objecthunter.larch.exceptions.InvalidParameterException;
 import net.objecthunter.larch.model.SearchResult;
 import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchEntityService;
 import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchEntityService.EntitiesSearchField;
 
+import org.easymock.Capture;
 import org.elasticsearch.action.ListenableActionFuture;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.client.AdminClient;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.IndicesAdminClient;
@@ -41,6 +47,7 @@ import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHitField;
 import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.sort.SortOrder;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.test.util.ReflectionTestUtils;
@@ -79,8 +86,6 @@ public class ElasticSearchSearchServiceTest {
         expect(mockClient.prepareSearch(ElasticSearchEntityService.INDEX_ENTITIES)).andReturn(
                 mockSearchRequestBuilder);
         expect(mockSearchRequestBuilder.setQuery(anyObject(QueryBuilder.class))).andReturn(mockSearchRequestBuilder);
-        expect(mockSearchRequestBuilder.setSearchType(SearchType.DFS_QUERY_THEN_FETCH)).andReturn(
-                mockSearchRequestBuilder);
         expect(mockSearchRequestBuilder.setFrom(0)).andReturn(mockSearchRequestBuilder);
         expect(mockSearchRequestBuilder.setSize(10)).andReturn(mockSearchRequestBuilder);
         expect(mockSearchRequestBuilder.addFields("id", "label", "type", "tags", "state")).andReturn(
@@ -120,17 +125,10 @@ public class ElasticSearchSearchServiceTest {
         SearchHitField mockField = createMock(SearchHitField.class);
         SearchHits mockHits = createMock(SearchHits.class);
 
-        /* index refresh */
-        expect(mockClient.admin()).andReturn(mockAdminClient);
-        expect(mockAdminClient.indices()).andReturn(mockIndicesAdminClient);
-        expect(mockIndicesAdminClient.refresh(anyObject())).andReturn(mockFuture);
-        expect(mockFuture.actionGet()).andReturn(null);
-
+        Capture<QueryBuilder> query = new Capture<>();
         expect(mockClient.prepareSearch(ElasticSearchEntityService.INDEX_ENTITIES)).andReturn(
                 mockSearchRequestBuilder);
-        expect(mockSearchRequestBuilder.setQuery(anyObject(QueryBuilder.class))).andReturn(mockSearchRequestBuilder);
-        expect(mockSearchRequestBuilder.setSearchType(SearchType.DFS_QUERY_THEN_FETCH)).andReturn(
-                mockSearchRequestBuilder);
+        expect(mockSearchRequestBuilder.setQuery(capture(query))).andReturn(mockSearchRequestBuilder);
         expect(mockSearchRequestBuilder.addFields("id", "label", "type", "tags")).andReturn(mockSearchRequestBuilder);
         expect(mockSearchRequestBuilder.execute()).andReturn(mockFuture);
         expect(mockFuture.actionGet()).andReturn(mockSearchResponse);
@@ -151,9 +149,17 @@ public class ElasticSearchSearchServiceTest {
                 mockSearchResponse, mockHits, mockHit, mockField);
         Map<EntitiesSearchField, String[]> searchFields = new HashMap<EntitiesSearchField, String[]>();
         searchFields.put(EntitiesSearchField.ALL, new String[] { "*" });
+        searchFields.put(EntitiesSearchField.LABEL, new String[] { "*Tes*" });
+        searchFields.put(EntitiesSearchField.ID, new String[] { "test-id*" });
         SearchResult result = entityService.searchEntities(searchFields);
         verify(mockClient, mockAdminClient, mockIndicesAdminClient, mockSearchRequestBuilder, mockFuture,
                 mockSearchResponse, mockHits, mockHit, mockField);
+        /* prefixes are searched in the n-gram sub fields instead of expanding wildcards */
+        String json = new String(query.getValue().buildAsBytes().toBytes());
+        assertTrue(json.contains("match_all"));
+        assertTrue(json.contains("label.prefix"));
+        assertTrue(json.contains("\"prefix\""));
+        assertFalse(json.contains("wildcard"));
     }
 
     @SuppressWarnings("unchecked")
@@ -171,8 +177,6 @@ public class ElasticSearchSearchServiceTest {
         expect(mockClient.prepareSearch(ElasticSearchEntityService.INDEX_ENTITIES)).andReturn(
                 mockSearchRequestBuilder);
         expect(mockSearchRequestBuilder.setQuery(anyObject(QueryBuilder.class))).andReturn(mockSearchRequestBuilder);
-        expect(mockSearchRequestBuilder.setSearchType(SearchType.DFS_QUERY_THEN_FETCH)).andReturn(
-                mockSearchRequestBuilder);
         expect(mockSearchRequestBuilder.setFrom(0)).andReturn(mockSearchRequestBuilder);
         expect(mockSearchRequestBuilder.setSize(50)).andReturn(mockSearchRequestBuilder);
         expect(mockSearchRequestBuilder.addFields("id", "label", "type", "tags", "state")).andReturn(
@@ -198,4 +202,61 @@ public class ElasticSearchSearchServiceTest {
         SearchResult result = entityService.scanIndex(0);
         verify(mockClient, mockSearchRequestBuilder, mockFuture, mockSearchResponse, mockHits, mockHit, mockField);
     }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testBrowse() throws Exception {
+        SearchResponse mockSearchResponse = createMock(SearchResponse.class);
+        SearchRequestBuilder mockSearchRequestBuilder = createMock(SearchRequestBuilder.class);
+        ListenableActionFuture mockFuture = createMock(ListenableActionFuture.class);
+        SearchHit[] hitArray = new SearchHit[1];
+        SearchHit mockHit = createMock(SearchHit.class);
+        hitArray[0] = mockHit;
+        SearchHitField mockField = createMock(SearchHitField.class);
+        SearchHits mockHits = createMock(SearchHits.class);
+
+        expect(mockClient.prepareSearch(ElasticSearchEntityService.INDEX_ENTITIES)).andReturn(
+                mockSearchRequestBuilder);
+        expect(mockSearchRequestBuilder.setQuery(anyObject(QueryBuilder.class))).andReturn(mockSearchRequestBuilder);
+        expect(mockSearchRequestBuilder.addSort("utcLastModified", SortOrder.DESC)).andReturn(
+                mockSearchRequestBuilder);
+        expect(mockSearchRequestBuilder.addSort("id", SortOrder.DESC)).andReturn(mockSearchRequestBuilder);
+        expect(mockSearchRequestBuilder.setSize(1)).andReturn(mockSearchRequestBuilder);
+        expect(mockSearchRequestBuilder.addFields("id", "label", "type", "tags", "state")).andReturn(
+                mockSearchRequestBuilder);
+        expect(mockSearchRequestBuilder.execute()).andReturn(mockFuture);
+        expect(mockFuture.actionGet()).andReturn(mockSearchResponse);
+        expect(mockSearchResponse.getHits()).andReturn(mockHits).times(4);
+        expect(mockHits.getHits()).andReturn(hitArray);
+        expect(mockHits.getTotalHits()).andReturn(10l);
+        expect(mockHits.iterator()).andReturn(Arrays.asList(hitArray).iterator());
+        expect(mockHits.getAt(0)).andReturn(mockHit);
+        expect(mockHit.field("label")).andReturn(mockField).times(2);
+        expect(mockField.getValue()).andReturn("test label");
+        expect(mockHit.field("type")).andReturn(mockField).times(2);
+        expect(mockField.getValue()).andReturn("test type");
+        expect(mockHit.field("id")).andReturn(mockField);
+        expect(mockField.getValue()).andReturn("testid");
+        expect(mockHit.field("state")).andReturn(mockField).times(2);
+        expect(mockField.getValue()).andReturn("ingested");
+        expect(mockHit.field("tags")).andReturn(mockField).times(2);
+        expect(mockField.values()).andReturn(Arrays.asList("testtag1", "testtag2"));
+        expect(mockHit.getSortValues()).andReturn(new Object[] { 1404216000000l, "testid" });
+
+        replay(mockClient, mockSearchRequestBuilder, mockFuture, mockSearchResponse, mockHits, mockHit, mockField);
+        SearchResult result = entityService.browse(null, 1);
+        verify(mockClient, mockSearchRequestBuilder, mockFuture, mockSearchResponse, mockHits, mockHit, mockField);
+        assertEquals(1, result.getData().size());
+        assertNotNull(result.getCursor());
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testBrowseInvalidCursor() throws Exception {
+        entityService.browse("not a cursor", 10);
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testBrowseNoRecords() throws Exception {
+        entityService.browse(null, 0);
+    }
 }
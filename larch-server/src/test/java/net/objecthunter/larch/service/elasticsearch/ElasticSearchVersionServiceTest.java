@@ -6,16 +6,28 @@ import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
 
 import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 
+import net.objecthunter.larch.json.JsonPatch;
+import net.objecthunter.larch.model.Entities;
 import net.objecthunter.larch.model.Entity;
 import net.objecthunter.larch.model.Version;
+import net.objecthunter.larch.model.Versions;
 import net.objecthunter.larch.service.backend.BackendBlobstoreService;
+import net.objecthunter.larch.service.backend.VersionJournal;
 import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchVersionService;
 import net.objecthunter.larch.test.util.Fixtures;
 
 import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
+import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
@@ -25,14 +37,20 @@ import org.elasticsearch.client.IndicesAdminClient;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.sort.SortOrder;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class ElasticSearchVersionServiceTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private Client mockClient = createMock(Client.class);
 
     private AdminClient mockAdminClient = createMock(AdminClient.class);
@@ -64,7 +82,7 @@ public class ElasticSearchVersionServiceTest {
         /* index */
         expect(
                 mockClient.prepareIndex(ElasticSearchVersionService.INDEX_VERSIONS,
-                        ElasticSearchVersionService.TYPE_VERSIONS)).andReturn(mockIndexRequestBuilder);
+                        ElasticSearchVersionService.TYPE_VERSIONS, "testid:0")).andReturn(mockIndexRequestBuilder);
         expect(mockIndexRequestBuilder.setSource((byte[]) anyObject())).andReturn(mockIndexRequestBuilder);
         expect(mockIndexRequestBuilder.execute()).andReturn(mockFuture);
         expect(mockFuture.actionGet()).andReturn(null);
@@ -82,37 +100,254 @@ public class ElasticSearchVersionServiceTest {
                 mockFuture);
     }
 
-    @SuppressWarnings("unchecked")
+    @Test
+    public void testAddOldVersionJournaled() throws Exception {
+        IndexRequestBuilder mockIndexRequestBuilder = createMock(IndexRequestBuilder.class);
+
+        /* blob creation */
+        expect(mockBlobstoreService.createOldVersionBlob(anyObject(Entity.class))).andReturn("bar");
+
+        /* index */
+        expect(
+                mockClient.prepareIndex(ElasticSearchVersionService.INDEX_VERSIONS,
+                        ElasticSearchVersionService.TYPE_VERSIONS, "testid:0")).andReturn(mockIndexRequestBuilder);
+        expect(mockIndexRequestBuilder.setSource((byte[]) anyObject())).andReturn(mockIndexRequestBuilder);
+        expect(mockIndexRequestBuilder.execute()).andReturn(mockFuture);
+        expect(mockFuture.actionGet()).andReturn(null);
+
+        /* index refresh */
+        expect(mockClient.admin()).andReturn(mockAdminClient);
+        expect(mockAdminClient.indices()).andReturn(mockIndicesAdminClient);
+        expect(mockIndicesAdminClient.refresh(anyObject())).andReturn(mockFuture);
+        expect(mockFuture.actionGet()).andReturn(null);
+
+        replay(mockIndexRequestBuilder, mockClient, mockAdminClient, mockIndicesAdminClient, mockBlobstoreService,
+                mockFuture);
+        this.versionService.startArchiver(new VersionJournal(folder.getRoot().toPath(), false, 1024));
+        try {
+            Entity e = Fixtures.createEntity();
+            this.versionService.addOldVersion(e);
+            this.versionService.awaitArchived(e.getId());
+        } finally {
+            this.versionService.shutdown();
+        }
+        verify(mockIndexRequestBuilder, mockClient, mockAdminClient, mockIndicesAdminClient, mockBlobstoreService,
+                mockFuture);
+    }
+
+    @Test
+    public void testAddOldVersionJournaledDeadLetter() throws Exception {
+        /* the version keeps failing for another reason than the blobstore being unavailable */
+        expect(mockBlobstoreService.createOldVersionBlob(anyObject(Entity.class))).andThrow(
+                new IllegalStateException("invalid version")).times(3);
+
+        /* index refresh */
+        expect(mockClient.admin()).andReturn(mockAdminClient);
+        expect(mockAdminClient.indices()).andReturn(mockIndicesAdminClient);
+        expect(mockIndicesAdminClient.refresh(anyObject())).andReturn(mockFuture);
+        expect(mockFuture.actionGet()).andReturn(null);
+
+        replay(mockClient, mockAdminClient, mockIndicesAdminClient, mockBlobstoreService, mockFuture);
+        this.versionService.startArchiver(new VersionJournal(folder.getRoot().toPath(), false, 1024));
+        Entity e = Fixtures.createEntity();
+        try {
+            this.versionService.addOldVersion(e);
+            this.versionService.awaitArchived(e.getId());
+        } finally {
+            this.versionService.shutdown();
+        }
+        verify(mockClient, mockAdminClient, mockIndicesAdminClient, mockBlobstoreService, mockFuture);
+        List<String> dead = Files.readAllLines(folder.getRoot().toPath().resolve("versions.dead"));
+        assertEquals(1, dead.size());
+        assertEquals(e.getId(), mapper.readValue(dead.get(0), Entity.class).getId());
+    }
+
+    @Test
+    public void testAddOldVersionDelta() throws Exception {
+        IndexRequestBuilder mockIndexRequestBuilder = createMock(IndexRequestBuilder.class);
+        Entity first = Fixtures.createEntity();
+        first.setVersion(1);
+        Entity second = Fixtures.createEntity();
+        second.setVersion(2);
+        second.setLabel("changed label");
+
+        /* the first version is a snapshot and the second one a delta against the first one */
+        expect(mockBlobstoreService.createOldVersionBlob(first)).andReturn("bar");
+        expect(mockBlobstoreService.createOldVersionDelta(JsonPatch.diff(mapper.valueToTree(first),
+                mapper.valueToTree(second)))).andReturn("baz");
+
+        /* index */
+        expect(
+                mockClient.prepareIndex(ElasticSearchVersionService.INDEX_VERSIONS,
+                        ElasticSearchVersionService.TYPE_VERSIONS, "testid:1")).andReturn(mockIndexRequestBuilder);
+        expect(
+                mockClient.prepareIndex(ElasticSearchVersionService.INDEX_VERSIONS,
+                        ElasticSearchVersionService.TYPE_VERSIONS, "testid:2")).andReturn(mockIndexRequestBuilder);
+        expect(mockIndexRequestBuilder.setSource((byte[]) anyObject())).andReturn(mockIndexRequestBuilder)
+                .times(2);
+        expect(mockIndexRequestBuilder.execute()).andReturn(mockFuture).times(2);
+
+        /* index refresh */
+        expect(mockClient.admin()).andReturn(mockAdminClient).times(2);
+        expect(mockAdminClient.indices()).andReturn(mockIndicesAdminClient).times(2);
+        expect(mockIndicesAdminClient.refresh(anyObject())).andReturn(mockFuture).times(2);
+        expect(mockFuture.actionGet()).andReturn(null).times(4);
+
+        replay(mockIndexRequestBuilder, mockClient, mockAdminClient, mockIndicesAdminClient, mockBlobstoreService,
+                mockFuture);
+        this.versionService.addOldVersion(first);
+        this.versionService.addOldVersion(second);
+        verify(mockIndexRequestBuilder, mockClient, mockAdminClient, mockIndicesAdminClient, mockBlobstoreService,
+                mockFuture);
+    }
+
     @Test
     public void testGetOldVersion() throws Exception {
-        SearchRequestBuilder mockSearchRequestBuilder = createMock(SearchRequestBuilder.class);
-        SearchResponse mockSearchResponse = createMock(SearchResponse.class);
-        SearchHits mockSearchHits = createMock(SearchHits.class);
-        SearchHit mockHit = createMock(SearchHit.class);
-        SearchHit[] hitArray = new SearchHit[1];
         Version v = new Version();
         v.setEntityId("foo");
         v.setVersionNumber(1);
         v.setPath("bar");
 
+        MultiGetRequestBuilder mockMultiGetRequestBuilder = this.expectVersionGet(v);
+        expect(mockBlobstoreService.retrieveOldVersionBlob(v.getPath())).andReturn(
+                new ByteArrayInputStream("{}".getBytes()));
+
+        replay(mockClient, mockMultiGetRequestBuilder, mockBlobstoreService, mockFuture);
+        this.versionService.getOldVersion("foo", 1);
+        verify(mockClient, mockMultiGetRequestBuilder, mockBlobstoreService, mockFuture);
+    }
+
+    @Test
+    public void testGetOldVersionFromDelta() throws Exception {
+        Version snapshot = new Version();
+        snapshot.setEntityId("foo");
+        snapshot.setVersionNumber(1);
+        snapshot.setPath("bar");
+        Version delta = new Version();
+        delta.setEntityId("foo");
+        delta.setVersionNumber(2);
+        delta.setPath("baz");
+        delta.setDelta(true);
+        Entity first = Fixtures.createEntity();
+        first.setVersion(1);
+        Entity second = Fixtures.createEntity();
+        second.setVersion(2);
+        second.setLabel("changed label");
+
+        MultiGetRequestBuilder mockMultiGetRequestBuilder = this.expectVersionGet(delta, snapshot);
+        expect(mockBlobstoreService.retrieveOldVersionBlob(snapshot.getPath())).andReturn(
+                new ByteArrayInputStream(mapper.writeValueAsBytes(first)));
+        expect(mockBlobstoreService.retrieveOldVersionBlob(delta.getPath())).andReturn(
+                new ByteArrayInputStream(mapper.writeValueAsBytes(JsonPatch.diff(mapper.valueToTree(first),
+                        mapper.valueToTree(second)))));
+
+        replay(mockClient, mockMultiGetRequestBuilder, mockBlobstoreService, mockFuture);
+        Entity fetched = this.versionService.getOldVersion("foo", 2);
+        verify(mockClient, mockMultiGetRequestBuilder, mockBlobstoreService, mockFuture);
+        assertEquals(2, fetched.getVersion());
+        assertEquals("changed label", fetched.getLabel());
+        assertEquals(mapper.valueToTree(second), mapper.valueToTree(fetched));
+    }
+
+    @Test
+    public void testGetOldVersionsPageStartingWithDelta() throws Exception {
+        Entity[] entities = new Entity[3];
+        Version[] versions = new Version[3];
+        for (int i = 0; i < 3; i++) {
+            entities[i] = Fixtures.createEntity();
+            entities[i].setVersion(i + 1);
+            entities[i].setLabel("label " + (i + 1));
+            versions[i] = new Version();
+            versions[i].setEntityId("foo");
+            versions[i].setVersionNumber(i + 1);
+            versions[i].setPath("path" + (i + 1));
+            versions[i].setDelta(i > 0);
+            Object blob = i == 0 ? entities[0] : JsonPatch.diff(mapper.valueToTree(entities[i - 1]),
+                    mapper.valueToTree(entities[i]));
+            expect(mockBlobstoreService.retrieveOldVersionBlob(versions[i].getPath())).andReturn(
+                    new ByteArrayInputStream(mapper.writeValueAsBytes(blob)));
+        }
+
+        /* the requested page only contains version 3, versions 2 and 1 are needed to rebuild it */
+        SearchRequestBuilder mockPageRequestBuilder = this.expectVersionSearch(1, versions[2]);
+        MultiGetRequestBuilder mockChainRequestBuilder = this.expectVersionGet(versions[1], versions[0]);
+
+        replay(mockClient, mockPageRequestBuilder, mockChainRequestBuilder, mockBlobstoreService, mockFuture);
+        Entities fetched = this.versionService.getOldVersions("foo", 0, 1);
+        verify(mockClient, mockPageRequestBuilder, mockChainRequestBuilder, mockBlobstoreService, mockFuture);
+        assertEquals(1, fetched.getEntities().size());
+        assertEquals(3, fetched.getEntities().get(0).getVersion());
+        assertEquals("label 3", fetched.getEntities().get(0).getLabel());
+    }
+
+    @Test
+    public void testGetVersions() throws Exception {
+        Version v = new Version();
+        v.setEntityId("foo");
+        v.setVersionNumber(1);
+        v.setPath("bar");
+        v.setSize(123);
+        v.setUtcLastModified("2014-07-01T00:00:00Z");
+
+        SearchRequestBuilder mockSearchRequestBuilder = this.expectVersionSearch(10, v);
+
+        replay(mockClient, mockSearchRequestBuilder, mockBlobstoreService, mockFuture);
+        Versions versions = this.versionService.getVersions("foo", 0, 10);
+        verify(mockClient, mockSearchRequestBuilder, mockBlobstoreService, mockFuture);
+        assertEquals(1, versions.getTotalHits());
+        assertEquals(1, versions.getVersions().size());
+        assertEquals(123, versions.getVersions().get(0).getSize());
+        assertEquals("2014-07-01T00:00:00Z", versions.getVersions().get(0).getUtcLastModified());
+    }
+
+    @SuppressWarnings("unchecked")
+    private MultiGetRequestBuilder expectVersionGet(Version... versions) throws Exception {
+        MultiGetRequestBuilder mockMultiGetRequestBuilder = createMock(MultiGetRequestBuilder.class);
+        List<String> keys = new ArrayList<>();
+        MultiGetItemResponse[] items = new MultiGetItemResponse[versions.length];
+        for (int i = 0; i < versions.length; i++) {
+            keys.add(versions[i].getEntityId() + ":" + versions[i].getVersionNumber());
+            GetResponse mockGetResponse = createMock(GetResponse.class);
+            expect(mockGetResponse.isExists()).andReturn(true);
+            expect(mockGetResponse.getSourceAsString()).andReturn(mapper.writeValueAsString(versions[i]));
+            replay(mockGetResponse);
+            items[i] = new MultiGetItemResponse(mockGetResponse, null);
+        }
+
+        expect(mockClient.prepareMultiGet()).andReturn(mockMultiGetRequestBuilder);
+        expect(
+                mockMultiGetRequestBuilder.add(ElasticSearchVersionService.INDEX_VERSIONS,
+                        ElasticSearchVersionService.TYPE_VERSIONS, keys)).andReturn(mockMultiGetRequestBuilder);
+        expect(mockMultiGetRequestBuilder.setRealtime(true)).andReturn(mockMultiGetRequestBuilder);
+        expect(mockMultiGetRequestBuilder.execute()).andReturn(mockFuture);
+        expect(mockFuture.actionGet()).andReturn(new MultiGetResponse(items));
+        return mockMultiGetRequestBuilder;
+    }
+
+    @SuppressWarnings("unchecked")
+    private SearchRequestBuilder expectVersionSearch(int size, Version... versions) throws Exception {
+        SearchRequestBuilder mockSearchRequestBuilder = createMock(SearchRequestBuilder.class);
+        SearchResponse mockSearchResponse = createMock(SearchResponse.class);
+        SearchHits mockSearchHits = createMock(SearchHits.class);
+        SearchHit[] hits = new SearchHit[versions.length];
+        for (int i = 0; i < versions.length; i++) {
+            hits[i] = createMock(SearchHit.class);
+            expect(hits[i].getSourceAsString()).andReturn(mapper.writeValueAsString(versions[i]));
+            replay(hits[i]);
+        }
+
         expect(mockClient.prepareSearch(ElasticSearchVersionService.INDEX_VERSIONS))
                 .andReturn(mockSearchRequestBuilder);
         expect(mockSearchRequestBuilder.setQuery(anyObject(QueryBuilder.class))).andReturn(mockSearchRequestBuilder);
         expect(mockSearchRequestBuilder.setFrom(0)).andReturn(mockSearchRequestBuilder);
-        expect(mockSearchRequestBuilder.setSize(1)).andReturn(mockSearchRequestBuilder);
+        expect(mockSearchRequestBuilder.setSize(size)).andReturn(mockSearchRequestBuilder);
+        expect(mockSearchRequestBuilder.addSort("versionNumber", SortOrder.DESC)).andReturn(mockSearchRequestBuilder);
         expect(mockSearchRequestBuilder.execute()).andReturn(mockFuture);
         expect(mockFuture.actionGet()).andReturn(mockSearchResponse);
-        expect(mockSearchResponse.getHits()).andReturn(mockSearchHits).times(2);
-        expect(mockSearchHits.getTotalHits()).andReturn(1l);
-        expect(mockSearchHits.getAt(0)).andReturn(mockHit);
-        expect(mockHit.getSourceAsString()).andReturn(mapper.writeValueAsString(v));
-        expect(mockBlobstoreService.retrieveOldVersionBlob(v.getPath())).andReturn(
-                new ByteArrayInputStream("{}".getBytes()));
-
-        replay(mockClient, mockSearchHits, mockSearchRequestBuilder, mockSearchResponse, mockAdminClient,
-                mockIndicesAdminClient, mockBlobstoreService, mockHit, mockFuture);
-        this.versionService.getOldVersion("foo", 1);
-        verify(mockClient, mockSearchHits, mockSearchRequestBuilder, mockSearchResponse, mockAdminClient,
-                mockIndicesAdminClient, mockBlobstoreService, mockHit, mockFuture);
+        expect(mockSearchResponse.getHits()).andReturn(mockSearchHits);
+        expect(mockSearchHits.getHits()).andReturn(hits).anyTimes();
+        expect(mockSearchHits.getTotalHits()).andReturn((long) hits.length).anyTimes();
+        replay(mockSearchResponse, mockSearchHits);
+        return mockSearchRequestBuilder;
     }
 }
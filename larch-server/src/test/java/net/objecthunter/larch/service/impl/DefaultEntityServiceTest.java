@@ -17,31 +17,70 @@
 package net.objecthunter.larch.service.impl;
 
 import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
-
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import net.objecthunter.larch.cache.EntityCache;
+import net.objecthunter.larch.cache.LruCache;
+import net.objecthunter.larch.cache.SearchResultCache;
+import net.objecthunter.larch.exceptions.AlreadyExistsException;
+import net.objecthunter.larch.exceptions.ConflictException;
+import net.objecthunter.larch.exceptions.InvalidParameterException;
 import net.objecthunter.larch.model.Binary;
+import net.objecthunter.larch.model.BulkItemResult;
+import net.objecthunter.larch.model.Entities;
 import net.objecthunter.larch.model.Entity;
+import net.objecthunter.larch.model.EntityChildren;
+import net.objecthunter.larch.model.SearchResult;
+import net.objecthunter.larch.model.source.UrlSource;
 import net.objecthunter.larch.service.ExportService;
 import net.objecthunter.larch.service.backend.BackendBlobstoreService;
 import net.objecthunter.larch.service.backend.BackendEntityService;
 import net.objecthunter.larch.service.backend.BackendVersionService;
+import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchEntityService.EntitiesAggregation;
+import net.objecthunter.larch.service.backend.elasticsearch.ElasticSearchEntityService.EntitiesSearchField;
 import net.objecthunter.larch.test.util.Fixtures;
 
+import org.easymock.Capture;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class DefaultEntityServiceTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private DefaultEntityService entityService;
 
     private BackendEntityService mockEntitiesService;
@@ -52,6 +91,10 @@ public class DefaultEntityServiceTest {
 
     private BackendVersionService mockVersionService;
 
+    private EntityCache entityCache;
+
+    private SearchResultCache searchResultCache;
+
     @Before
     public void setup() {
         entityService = new DefaultEntityService();
@@ -64,13 +107,18 @@ public class DefaultEntityServiceTest {
         ReflectionTestUtils.setField(entityService, "exportService", mockExportService);
         ReflectionTestUtils.setField(entityService, "backendBlobstoreService", mockBlobstoreService);
         ReflectionTestUtils.setField(entityService, "backendVersionService", mockVersionService);
+        ReflectionTestUtils.setField(entityService, "idGenerator", new TimeBasedIdGenerator());
+        entityCache = new EntityCache();
+        ReflectionTestUtils.setField(entityCache, "mapper", new ObjectMapper());
+        ReflectionTestUtils.setField(entityService, "entityCache", entityCache);
+        searchResultCache = new SearchResultCache();
+        ReflectionTestUtils.setField(entityService, "searchResultCache", searchResultCache);
     }
 
     @Test
     public void testCreate() throws Exception {
         Entity e = Fixtures.createEntity();
 
-        expect(mockEntitiesService.exists(e.getId())).andReturn(false);
         expect(mockEntitiesService.create(e)).andReturn(e.getId());
 
         replay(mockEntitiesService, mockExportService, mockBlobstoreService);
@@ -78,6 +126,39 @@ public class DefaultEntityServiceTest {
         verify(mockEntitiesService, mockExportService, mockBlobstoreService);
     }
 
+    @Test(expected = AlreadyExistsException.class)
+    public void testCreateExisting() throws Exception {
+        Entity e = Fixtures.createEntity();
+        e.setBinaries(null);
+
+        expect(mockEntitiesService.create(e)).andThrow(new AlreadyExistsException("exists"));
+
+        replay(mockEntitiesService, mockExportService, mockBlobstoreService);
+        this.entityService.create(e);
+    }
+
+    @Test
+    public void testCreateBulk() throws Exception {
+        Entity e1 = Fixtures.createEntity();
+        e1.setBinaries(null);
+        Entity e2 = Fixtures.createEntity();
+        e2.setId(null);
+        e2.setBinaries(null);
+
+        expect(mockEntitiesService.create(anyObject(List.class))).andReturn(
+                Arrays.asList(BulkItemResult.failure(e1.getId(), "already exists"), BulkItemResult.success("id-2")));
+
+        replay(mockEntitiesService, mockExportService, mockBlobstoreService);
+        List<BulkItemResult> results = this.entityService.create(Arrays.asList(e1, e2));
+        verify(mockEntitiesService, mockExportService, mockBlobstoreService);
+
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).isFailed());
+        assertFalse(results.get(1).isFailed());
+        assertNotNull(e2.getId());
+        assertEquals(Entity.STATE_INGESTED, e2.getState());
+    }
+
     @Test
     public void testUpdate() throws Exception {
         Entity e = Fixtures.createEntity();
@@ -91,17 +172,219 @@ public class DefaultEntityServiceTest {
         verify(mockEntitiesService, mockExportService, mockBlobstoreService);
     }
 
+    @Test
+    public void testUpdateConflictDeletesNewBlobs() throws Exception {
+        Entity e = Fixtures.createEntity();
+        Binary b = Fixtures.createBinary();
+        File content = folder.newFile();
+        Files.write(content.toPath(), "foo".getBytes());
+        b.setSource(new UrlSource(content.toURI()));
+        e.getBinaries().clear();
+        e.getBinaries().put(b.getName(), b);
+        Entity current = Fixtures.createEntity();
+
+        expect(mockEntitiesService.retrieve(e.getId())).andReturn(current);
+        expect(mockBlobstoreService.create(anyObject(InputStream.class))).andReturn("new/blob");
+        mockEntitiesService.update(e);
+        expectLastCall().andThrow(new ConflictException("modified concurrently"));
+        // the blob of the rejected update is not referenced by any entity
+        mockBlobstoreService.delete("new/blob");
+        expectLastCall();
+
+        replay(mockEntitiesService, mockExportService, mockBlobstoreService, mockVersionService);
+        try {
+            this.entityService.update(e);
+            throw new AssertionError("the conflicting update succeeded");
+        } catch (ConflictException ex) {
+            assertEquals("modified concurrently", ex.getMessage());
+        }
+        verify(mockEntitiesService, mockExportService, mockBlobstoreService, mockVersionService);
+    }
+
+    @Test(expected = ConflictException.class)
+    public void testUpdateWithOutdatedVersion() throws Exception {
+        Entity e = Fixtures.createEntity();
+        e.setDocumentVersion(1);
+        Entity current = Fixtures.createEntity();
+        current.setDocumentVersion(2);
+
+        expect(mockEntitiesService.retrieve(e.getId())).andReturn(current);
+
+        replay(mockEntitiesService, mockExportService, mockBlobstoreService);
+        this.entityService.update(e);
+    }
+
     @Test
     public void testRetrieve() throws Exception {
         Entity e = Fixtures.createEntity();
 
         expect(mockEntitiesService.retrieve(e.getId())).andReturn(e);
+        expect(mockEntitiesService.countChildren(e.getId())).andReturn(2l);
 
         replay(mockEntitiesService, mockExportService, mockBlobstoreService);
+        Entity fetched = this.entityService.retrieve(e.getId());
+        verify(mockEntitiesService, mockExportService, mockBlobstoreService);
+        assertEquals(2l, fetched.getChildCount());
+    }
+
+    @Test
+    public void testRetrieveAsync() throws Exception {
+        Entity e = Fixtures.createEntity();
+
+        expect(mockEntitiesService.retrieveAsync(e.getId())).andReturn(CompletableFuture.completedFuture(e));
+        expect(mockEntitiesService.countChildrenAsync(e.getId())).andReturn(CompletableFuture.completedFuture(2l));
+
+        replay(mockEntitiesService, mockExportService, mockBlobstoreService);
+        Entity fetched = this.entityService.retrieveAsync(e.getId()).get();
+        verify(mockEntitiesService, mockExportService, mockBlobstoreService);
+        assertEquals(2l, fetched.getChildCount());
+    }
+
+    @Test
+    public void testRetrieveWithChildren() throws Exception {
+        Entity e = Fixtures.createEntity();
+        EntityChildren first = new EntityChildren();
+        first.setChildren(Arrays.asList("child-1", "child-2"));
+        first.setCursor("cursor");
+        EntityChildren last = new EntityChildren();
+        last.setChildren(Arrays.asList("child-3"));
+
+        expect(mockEntitiesService.retrieveAsync(e.getId())).andReturn(CompletableFuture.completedFuture(e));
+        expect(mockEntitiesService.countChildrenAsync(e.getId())).andReturn(CompletableFuture.completedFuture(3l));
+        expect(mockEntitiesService.fetchChildrenAsync(e.getId(), null, 1000)).andReturn(
+                CompletableFuture.completedFuture(first));
+        expect(mockEntitiesService.fetchChildrenAsync(e.getId(), "cursor", 1000)).andReturn(
+                CompletableFuture.completedFuture(last));
+
+        replay(mockEntitiesService, mockExportService, mockBlobstoreService);
+        Entity fetched = this.entityService.retrieveWithChildrenAsync(e.getId()).get();
+        verify(mockEntitiesService, mockExportService, mockBlobstoreService);
+        assertEquals(Arrays.asList("child-1", "child-2", "child-3"), fetched.getChildren());
+        assertEquals(3l, fetched.getChildCount());
+        // the retrieved Entity is left without the children
+        assertNotSame(e, fetched);
+        assertNull(e.getChildren());
+    }
+
+    @Test
+    public void testRetrieveFirstChildren() throws Exception {
+        EntityChildren children = new EntityChildren();
+
+        expect(mockEntitiesService.fetchFirstChildren("parent", 100)).andReturn(children);
+
+        replay(mockEntitiesService, mockExportService, mockBlobstoreService);
+        assertSame(children, this.entityService.retrieveFirstChildren("parent", 100));
+        verify(mockEntitiesService, mockExportService, mockBlobstoreService);
+    }
+
+    @Test
+    public void testRetrieveChildren() throws Exception {
+        EntityChildren children = new EntityChildren();
+
+        expect(mockEntitiesService.exists("parent")).andReturn(true);
+        expect(mockEntitiesService.fetchChildren("parent", null, 10)).andReturn(children);
+
+        replay(mockEntitiesService, mockExportService, mockBlobstoreService);
+        this.entityService.retrieveChildren("parent", null, 10);
+        verify(mockEntitiesService, mockExportService, mockBlobstoreService);
+    }
+
+    @Test
+    public void testRetrieveVersions() throws Exception {
+        Entity e = Fixtures.createEntity();
+        e.setVersion(3);
+        Entity old = Fixtures.createEntity();
+        old.setVersion(2);
+        Entities oldVersions = new Entities();
+        oldVersions.getEntities().add(old);
+
+        expect(mockEntitiesService.retrieve(e.getId())).andReturn(e);
+        expect(mockEntitiesService.countChildren(e.getId())).andReturn(0l);
+        expect(mockVersionService.getOldVersions(e.getId(), 0, 1)).andReturn(oldVersions);
+
+        replay(mockEntitiesService, mockVersionService);
+        Entities fetched = this.entityService.retrieveVersions(e.getId(), 0, 2);
+        verify(mockEntitiesService, mockVersionService);
+        assertEquals(2, fetched.getEntities().size());
+        assertEquals(3, fetched.getEntities().get(0).getVersion());
+        assertEquals(2, fetched.getEntities().get(1).getVersion());
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testRetrieveVersionsInvalidOffset() throws Exception {
+        this.entityService.retrieveVersions("foo", -1, 10);
+    }
+
+    @Test
+    public void testRetrieveCached() throws Exception {
+        ReflectionTestUtils.setField(entityCache, "cache", new LruCache<String, Entity>("entities", 10, 0));
+        Entity e = Fixtures.createEntity();
+
+        expect(mockEntitiesService.retrieve(e.getId())).andReturn(e).times(3);
+        expect(mockEntitiesService.countChildren(e.getId())).andReturn(0l).times(2);
+        mockEntitiesService.updateFields(eq(e.getId()), eq(e.getDocumentVersion()), anyObject(Map.class));
+        expectLastCall();
+
+        replay(mockEntitiesService, mockExportService, mockBlobstoreService);
+        this.entityService.retrieve(e.getId());
+        Entity cached = this.entityService.retrieve(e.getId());
+        assertEquals(e.getLabel(), cached.getLabel());
+        // changing the entity has to invalidate the cached copy
+        this.entityService.createRelation(e.getId(), "http://example.com/predicate", "test");
         this.entityService.retrieve(e.getId());
         verify(mockEntitiesService, mockExportService, mockBlobstoreService);
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSearchCached() throws Exception {
+        ReflectionTestUtils.setField(searchResultCache, "cache", new LruCache<String, SearchResult>("search-results",
+                100, 0));
+        final SearchResult result = new SearchResult();
+        final Map<EntitiesSearchField, String[]> fields = new HashMap<>();
+        fields.put(EntitiesSearchField.LABEL, new String[] { "foo", "bar" });
+        final Map<EntitiesSearchField, String[]> reordered = new HashMap<>();
+        reordered.put(EntitiesSearchField.LABEL, new String[] { "bar", " foo ", "" });
+        final Capture<Map<EntitiesSearchField, String[]>> searched = new Capture<>();
+
+        expect(mockEntitiesService.getWriteGeneration()).andReturn(1l).times(2);
+        expect(mockEntitiesService.searchEntities(capture(searched), eq(EnumSet.noneOf(EntitiesAggregation.class)),
+                eq((String) null))).andReturn(result);
+        // a write to the index has to hide the cached result
+        expect(mockEntitiesService.getWriteGeneration()).andReturn(2l);
+        expect(mockEntitiesService.searchEntities(anyObject(Map.class), eq(EnumSet.noneOf(EntitiesAggregation.class)),
+                eq((String) null))).andReturn(new SearchResult());
+
+        replay(mockEntitiesService, mockExportService, mockBlobstoreService);
+        assertSame(result, this.entityService.searchEntities(fields));
+        assertSame(result, this.entityService.searchEntities(reordered));
+        assertNotSame(result, this.entityService.searchEntities(fields));
+        verify(mockEntitiesService, mockExportService, mockBlobstoreService);
+        assertEquals(1, searchResultCache.getState().getHits());
+        assertArrayEquals(new String[] { "foo", "bar" }, searched.getValue().get(EntitiesSearchField.LABEL));
+    }
+
+    @Test
+    public void testSearchTrimsTerms() throws Exception {
+        ReflectionTestUtils.setField(searchResultCache, "cache", new LruCache<String, SearchResult>("search-results",
+                100, 0));
+        final Map<EntitiesSearchField, String[]> fields = new HashMap<>();
+        fields.put(EntitiesSearchField.LABEL, new String[] { " foo", "foo ", " " });
+        fields.put(EntitiesSearchField.TYPE, new String[] { "" });
+        final Capture<Map<EntitiesSearchField, String[]>> searched = new Capture<>();
+
+        // the key of the cache and the query are created from the same terms
+        expect(mockEntitiesService.getWriteGeneration()).andReturn(1l);
+        expect(mockEntitiesService.searchEntities(capture(searched), eq(EnumSet.noneOf(EntitiesAggregation.class)),
+                eq((String) null))).andReturn(new SearchResult());
+
+        replay(mockEntitiesService, mockExportService, mockBlobstoreService);
+        this.entityService.searchEntities(fields);
+        verify(mockEntitiesService, mockExportService, mockBlobstoreService);
+        assertArrayEquals(new String[] { "foo" }, searched.getValue().get(EntitiesSearchField.LABEL));
+        assertFalse(searched.getValue().containsKey(EntitiesSearchField.TYPE));
+    }
+
     @Test
     public void testDelete() throws Exception {
         Entity e = Fixtures.createEntity();
@@ -123,6 +406,7 @@ public class DefaultEntityServiceTest {
         Binary b = Fixtures.createBinary();
 
         expect(mockEntitiesService.retrieve(e.getId())).andReturn(e);
+        expect(mockEntitiesService.countChildren(e.getId())).andReturn(0l);
         expect(mockBlobstoreService.retrieve(b.getPath())).andReturn(new ByteArrayInputStream(new byte[3]));
 
         replay(mockEntitiesService, mockExportService, mockBlobstoreService);
@@ -135,6 +419,7 @@ public class DefaultEntityServiceTest {
         Entity e = Fixtures.createEntity();
 
         expect(mockEntitiesService.retrieve(e.getId())).andReturn(e);
+        expect(mockEntitiesService.countChildren(e.getId())).andReturn(0l);
 
         replay(mockEntitiesService, mockExportService, mockBlobstoreService);
         this.entityService.retrieve(e.getId());
@@ -161,28 +446,81 @@ public class DefaultEntityServiceTest {
     @Test
     public void testPatch() throws Exception {
         Entity e = Fixtures.createEntity();
+        int version = e.getVersion();
+        Capture<Map<String, Object>> fields = new Capture<>();
 
-        expect(mockEntitiesService.retrieve(e.getId())).andReturn(e).times(2);
-        mockEntitiesService.update(e);
+        Capture<Entity> oldVersion = new Capture<>();
+        String label = e.getLabel();
+
+        expect(mockEntitiesService.retrieve(e.getId())).andReturn(e);
+        mockEntitiesService.updateFields(eq(e.getId()), eq(e.getDocumentVersion()), capture(fields));
+        expectLastCall();
+        mockVersionService.addOldVersion(capture(oldVersion));
         expectLastCall();
 
-        replay(mockEntitiesService, mockExportService, mockBlobstoreService);
+        replay(mockEntitiesService, mockExportService, mockBlobstoreService, mockVersionService);
         this.entityService.patch(e.getId(), new ObjectMapper().readTree("{\"label\": \"label update\"}"));
-        verify(mockEntitiesService, mockExportService, mockBlobstoreService);
+        verify(mockEntitiesService, mockExportService, mockBlobstoreService, mockVersionService);
+        // the archived version is the state before the patch
+        assertEquals(label, oldVersion.getValue().getLabel());
+        assertEquals(version, oldVersion.getValue().getVersion());
+        // only the changed fields are sent to the index, not the metadata and binaries
+        assertEquals("label update", fields.getValue().get("label"));
+        assertEquals(version + 1, fields.getValue().get("version"));
+        assertFalse(fields.getValue().containsKey("metadata"));
+        assertFalse(fields.getValue().containsKey("binaries"));
+    }
 
+    @Test(expected = IOException.class)
+    public void testPatchInvalidField() throws Exception {
+        replay(mockEntitiesService, mockExportService, mockBlobstoreService, mockVersionService);
+        this.entityService.patch("id", new ObjectMapper().readTree("{\"binaries\": \"none\"}"));
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testPatchState() throws Exception {
+        replay(mockEntitiesService, mockExportService, mockBlobstoreService, mockVersionService);
+        this.entityService.patch("id", new ObjectMapper().readTree("{\"state\": \"published\"}"));
     }
 
     @Test
     public void testCreateRelation() throws Exception {
         Entity e = Fixtures.createEntity();
 
+        Capture<Map<String, Object>> fields = new Capture<>();
+
         expect(mockEntitiesService.retrieve(e.getId())).andReturn(e);
-        mockEntitiesService.update(e);
+        mockEntitiesService.updateFields(eq(e.getId()), eq(e.getDocumentVersion()), capture(fields));
         expectLastCall();
 
         replay(mockEntitiesService, mockExportService, mockBlobstoreService);
         this.entityService.createRelation(e.getId(), "<http://example.com/hasType>", "test");
         verify(mockEntitiesService, mockExportService, mockBlobstoreService);
+        assertEquals(Collections.singletonMap("<http://example.com/hasType>", Arrays.asList("test")), fields
+                .getValue().get("relations"));
+    }
 
+    @Test
+    public void testCreateRelationRetriesOnConflict() throws Exception {
+        Entity first = Fixtures.createEntity();
+        Entity second = Fixtures.createEntity();
+        second.setId(first.getId());
+        Capture<Map<String, Object>> fields = new Capture<>();
+
+        expect(mockEntitiesService.retrieve(first.getId())).andReturn(first);
+        mockEntitiesService.updateFields(eq(first.getId()), eq(first.getDocumentVersion()), anyObject(Map.class));
+        expectLastCall().andThrow(new ConflictException("modified concurrently"));
+        expect(mockEntitiesService.retrieve(first.getId())).andReturn(second);
+        mockEntitiesService.updateFields(eq(first.getId()), eq(second.getDocumentVersion()), capture(fields));
+        expectLastCall();
+        // the conflicting attempt must not archive a version
+        mockVersionService.addOldVersion(anyObject(Entity.class));
+        expectLastCall().times(1);
+
+        replay(mockEntitiesService, mockExportService, mockBlobstoreService, mockVersionService);
+        this.entityService.createRelation(first.getId(), "<http://example.com/hasType>", "test");
+        verify(mockEntitiesService, mockExportService, mockBlobstoreService, mockVersionService);
+        assertEquals(Collections.singletonMap("<http://example.com/hasType>", Arrays.asList("test")), fields
+                .getValue().get("relations"));
     }
 }
@@ -16,16 +16,29 @@
 
 package net.objecthunter.larch.service.impl;
 
+import static org.easymock.EasyMock.anyObject;
 import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.util.Arrays;
 
+import net.objecthunter.larch.model.AuditRecord;
 import net.objecthunter.larch.model.Entity;
+import net.objecthunter.larch.service.backend.BackendAuditService;
 import net.objecthunter.larch.service.backend.BackendBlobstoreService;
+import net.objecthunter.larch.service.backend.BackendEntityService;
+import net.objecthunter.larch.service.backend.BackendEntityService.EntityHandler;
 import net.objecthunter.larch.test.util.Fixtures;
 
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.test.util.ReflectionTestUtils;
@@ -38,10 +51,18 @@ public class DefaultExportServiceTest {
 
     private BackendBlobstoreService mockBlobstoreService;
 
+    private BackendEntityService mockEntitiesService;
+
+    private BackendAuditService mockAuditService;
+
     @Before
     public void setup() {
         exportService = new DefaultExportService();
         mockBlobstoreService = createMock(BackendBlobstoreService.class);
+        mockEntitiesService = createMock(BackendEntityService.class);
+        mockAuditService = createMock(BackendAuditService.class);
+        ReflectionTestUtils.setField(exportService, "backendEntityService", mockEntitiesService);
+        ReflectionTestUtils.setField(exportService, "backendAuditService", mockAuditService);
         ReflectionTestUtils.setField(exportService, "mapper", new ObjectMapper());
         ReflectionTestUtils.setField(exportService, "directory", new File(System.getProperty("java.io.tmpdir")));
     }
@@ -55,4 +76,37 @@ public class DefaultExportServiceTest {
         verify(mockBlobstoreService);
 
     }
+
+    @Test
+    public void testExportEntities() throws Exception {
+        final Entity e1 = Fixtures.createEntity();
+        final Entity e2 = Fixtures.createEntity();
+        e2.setId("second");
+
+        mockEntitiesService.scanEntities(eq("2014-07-01T00:00Z"), anyObject(EntityHandler.class));
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+
+            @Override
+            public Object answer() throws Throwable {
+                final EntityHandler handler = (EntityHandler) EasyMock.getCurrentArguments()[1];
+                handler.handle(e1);
+                handler.handle(e2);
+                return null;
+            }
+        });
+        expect(mockAuditService.retrieve(e1.getId(), 0, 50)).andReturn(Arrays.asList(new AuditRecord()));
+        expect(mockAuditService.retrieve("second", 0, 50)).andReturn(Arrays.<AuditRecord> asList());
+
+        replay(mockEntitiesService, mockAuditService);
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        this.exportService.exportEntities(sink, "2014-07-01T00:00Z", false, true);
+        verify(mockEntitiesService, mockAuditService);
+
+        final String[] lines = sink.toString("UTF-8").split("\n");
+        final ObjectMapper mapper = new ObjectMapper();
+        assertEquals(2, lines.length);
+        assertEquals(e1.getId(), mapper.readTree(lines[0]).get("entity").get("id").asText());
+        assertEquals(1, mapper.readTree(lines[0]).get("auditRecords").size());
+        assertEquals("second", mapper.readTree(lines[1]).get("entity").get("id").asText());
+    }
 }
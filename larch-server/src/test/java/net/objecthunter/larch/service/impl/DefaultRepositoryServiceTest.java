@@ -21,6 +21,8 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 
+import net.objecthunter.larch.cache.EntityCache;
+import net.objecthunter.larch.cache.SearchResultCache;
 import net.objecthunter.larch.model.Describe;
 import net.objecthunter.larch.model.state.LarchState;
 import net.objecthunter.larch.service.backend.BackendBlobstoreService;
@@ -46,6 +48,8 @@ import org.junit.Test;
 import org.springframework.core.env.Environment;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 public class DefaultRepositoryServiceTest {
 
     private DefaultRepositoryService repositoryService;
@@ -75,6 +79,10 @@ public class DefaultRepositoryServiceTest {
         ReflectionTestUtils.setField(repositoryService, "backendBlobstoreService", mockBlobstoreService);
         ReflectionTestUtils.setField(repositoryService, "backendEntityService", mockEntitiesService);
         ReflectionTestUtils.setField(repositoryService, "env", mockEnv);
+        final EntityCache entityCache = new EntityCache();
+        ReflectionTestUtils.setField(entityCache, "mapper", new ObjectMapper());
+        ReflectionTestUtils.setField(repositoryService, "entityCache", entityCache);
+        ReflectionTestUtils.setField(repositoryService, "searchResultCache", new SearchResultCache());
     }
 
     @Test
@@ -0,0 +1,171 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package net.objecthunter.larch.service.impl;
+
+import static org.easymock.EasyMock.anyLong;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.reset;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import net.objecthunter.larch.exceptions.ConflictException;
+import net.objecthunter.larch.exceptions.InvalidParameterException;
+import net.objecthunter.larch.exceptions.NotFoundException;
+import net.objecthunter.larch.model.Entity;
+import net.objecthunter.larch.model.UploadSession;
+import net.objecthunter.larch.service.EntityService;
+import net.objecthunter.larch.service.backend.BackendBlobstoreService;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class DefaultUploadServiceTest {
+
+    private DefaultUploadService uploadService;
+
+    private BackendBlobstoreService mockBlobstoreService;
+
+    private EntityService mockEntityService;
+
+    @Before
+    public void setup() {
+        uploadService = new DefaultUploadService();
+        mockBlobstoreService = createMock(BackendBlobstoreService.class);
+        mockEntityService = createMock(EntityService.class);
+        ReflectionTestUtils.setField(uploadService, "backendBlobstoreService", mockBlobstoreService);
+        ReflectionTestUtils.setField(uploadService, "entityService", mockEntityService);
+    }
+
+    private UploadSession createSession(long size) throws Exception {
+        expect(mockEntityService.retrieve("foo")).andReturn(new Entity());
+        expect(mockBlobstoreService.createUpload(size)).andReturn("upload");
+        replay(mockEntityService, mockBlobstoreService);
+        UploadSession session = uploadService.createSession("foo", "bar", "text/plain", size);
+        verify(mockEntityService, mockBlobstoreService);
+        reset(mockEntityService, mockBlobstoreService);
+        return session;
+    }
+
+    @Test
+    public void testWriteChunksOutOfOrder() throws Exception {
+        String id = createSession(10).getId();
+        expect(mockBlobstoreService.writeUpload(eq("upload"), eq(6L), anyObject(InputStream.class))).andReturn(4L);
+        expect(mockBlobstoreService.writeUpload(eq("upload"), eq(0L), anyObject(InputStream.class))).andReturn(3L);
+        expect(mockBlobstoreService.writeUpload(eq("upload"), eq(3L), anyObject(InputStream.class))).andReturn(3L);
+        replay(mockEntityService, mockBlobstoreService);
+        uploadService.writeChunk(id, 6, new ByteArrayInputStream(new byte[0]));
+        UploadSession session = uploadService.writeChunk(id, 0, new ByteArrayInputStream(new byte[0]));
+        assertEquals(Arrays.asList("0-2", "6-9"), session.getReceivedRanges());
+        assertEquals(7, session.getReceivedSize());
+        session = uploadService.writeChunk(id, 3, new ByteArrayInputStream(new byte[0]));
+        assertEquals(Arrays.asList("0-9"), session.getReceivedRanges());
+        assertEquals(10, session.getReceivedSize());
+        verify(mockEntityService, mockBlobstoreService);
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testWriteChunkBeyondSize() throws Exception {
+        String id = createSession(10).getId();
+        replay(mockEntityService, mockBlobstoreService);
+        uploadService.writeChunk(id, 11, new ByteArrayInputStream(new byte[0]));
+    }
+
+    @Test
+    public void testCommit() throws Exception {
+        String id = createSession(3).getId();
+        expect(mockBlobstoreService.writeUpload(eq("upload"), eq(0L), anyObject(InputStream.class))).andReturn(3L);
+        mockEntityService.createBinaryFromUpload("foo", "bar", "text/plain", "upload", 3);
+        expectLastCall();
+        mockBlobstoreService.deleteUpload("upload");
+        expectLastCall();
+        replay(mockEntityService, mockBlobstoreService);
+        uploadService.writeChunk(id, 0, new ByteArrayInputStream(new byte[0]));
+        assertEquals("bar", uploadService.commit(id).getName());
+        verify(mockEntityService, mockBlobstoreService);
+        try {
+            uploadService.retrieveSession(id);
+        } catch (NotFoundException e) {
+            return;
+        }
+        throw new AssertionError("the committed session still exists");
+    }
+
+    @Test
+    public void testCommitRetryAfterFailure() throws Exception {
+        String id = createSession(3).getId();
+        expect(mockBlobstoreService.writeUpload(eq("upload"), eq(0L), anyObject(InputStream.class))).andReturn(3L);
+        mockEntityService.createBinaryFromUpload("foo", "bar", "text/plain", "upload", 3);
+        expectLastCall().andThrow(new IOException("index unavailable"));
+        mockEntityService.createBinaryFromUpload("foo", "bar", "text/plain", "upload", 3);
+        expectLastCall();
+        // the upload is only discarded once the binary has been attached
+        mockBlobstoreService.deleteUpload("upload");
+        expectLastCall().times(1);
+        replay(mockEntityService, mockBlobstoreService);
+        uploadService.writeChunk(id, 0, new ByteArrayInputStream(new byte[0]));
+        try {
+            uploadService.commit(id);
+            throw new AssertionError("the failing commit succeeded");
+        } catch (IOException e) {
+            assertEquals("index unavailable", e.getMessage());
+        }
+        assertEquals(3, uploadService.retrieveSession(id).getReceivedSize());
+        // the upload may already be linked to a blob, so it must not change anymore
+        try {
+            uploadService.writeChunk(id, 0, new ByteArrayInputStream(new byte[0]));
+            throw new AssertionError("a chunk has been written after a commit attempt");
+        } catch (ConflictException e) {
+            // expected
+        }
+        assertEquals("bar", uploadService.commit(id).getName());
+        verify(mockEntityService, mockBlobstoreService);
+    }
+
+    @Test
+    public void testExpireSessionsDiscardsOrphanedUploads() throws Exception {
+        createSession(10);
+        expect(mockBlobstoreService.listUploads(anyLong())).andReturn(
+                new ArrayList<>(Arrays.asList("upload", "orphan")));
+        // the upload of the active session is kept
+        mockBlobstoreService.deleteUpload("orphan");
+        expectLastCall();
+        replay(mockEntityService, mockBlobstoreService);
+        uploadService.expireSessions();
+        verify(mockEntityService, mockBlobstoreService);
+    }
+
+    @Test(expected = ConflictException.class)
+    public void testCommitIncomplete() throws Exception {
+        String id = createSession(10).getId();
+        expect(mockBlobstoreService.writeUpload(eq("upload"), eq(0L), anyObject(InputStream.class))).andReturn(9L);
+        replay(mockEntityService, mockBlobstoreService);
+        uploadService.writeChunk(id, 0, new ByteArrayInputStream(new byte[0]));
+        uploadService.commit(id);
+    }
+}
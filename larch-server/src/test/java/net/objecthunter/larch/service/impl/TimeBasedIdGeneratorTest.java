@@ -0,0 +1,57 @@
+/* 
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package net.objecthunter.larch.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class TimeBasedIdGeneratorTest {
+
+    private TimeBasedIdGenerator idGenerator;
+
+    @Before
+    public void setup() {
+        idGenerator = new TimeBasedIdGenerator();
+        ReflectionTestUtils.setField(idGenerator, "node", 42L);
+    }
+
+    @Test
+    public void testGenerateUniqueOrderedIds() throws Exception {
+        final Set<String> ids = new HashSet<>();
+        String last = "";
+        for (int i = 0; i < 100000; i++) {
+            final String id = idGenerator.generateId();
+            assertEquals(16, id.length());
+            assertTrue(id.compareTo(last) > 0);
+            assertTrue(ids.add(id));
+            last = id;
+        }
+    }
+
+    @Test
+    public void testNodeIdIsEncoded() throws Exception {
+        final long id = Long.parseUnsignedLong(idGenerator.generateId(), 16);
+        assertEquals(42L, (id >> 12) & 1023L);
+    }
+}